@@ -0,0 +1,45 @@
+package net.lkrnac.hlkit.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import net.lkrnac.hlkit.DirectoryComparator;
+import net.lkrnac.hlkit.DirectoryComparisonResult;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of {@link DirectoryComparator}.
+ *
+ * @author sitko
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class DirectoryComparatorBenchmark {
+	/**
+	 * Compares generated directories, each run lists and stat's them again.
+	 *
+	 * @param trees
+	 *            generated directories
+	 * @param counter
+	 *            counter of processed entries
+	 * @return comparison result
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Benchmark
+	public DirectoryComparisonResult compareDirectories(TreeState trees, EntryCounter counter)
+			throws IOException {
+		counter.entries += trees.entryCount;
+		return new DirectoryComparator().compareDirectories(trees.sourceDir, trees.targetDir);
+	}
+}
@@ -0,0 +1,29 @@
+package net.lkrnac.hlkit.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Counts directory entries processed by benchmark, so that throughput is
+ * reported per entry besides throughput per operation.
+ *
+ * @author sitko
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class EntryCounter {
+	/** Number of processed entries, reported by JMH. */
+	//SUPPRESS CHECKSTYLE VisibilityModifier 1 JMH reads public fields
+	public long entries;
+
+	/**
+	 * Resets counter before each iteration.
+	 */
+	@Setup(Level.Iteration)
+	public void reset() {
+		entries = 0;
+	}
+}
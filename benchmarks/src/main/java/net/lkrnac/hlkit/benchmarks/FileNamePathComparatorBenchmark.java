@@ -0,0 +1,80 @@
+package net.lkrnac.hlkit.benchmarks;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.lkrnac.hlkit.comparators.FileNamePathComparator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of sorting paths by {@link FileNamePathComparator}. Paths don't
+ * need to exist on disk.
+ *
+ * @author sitko
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+//SUPPRESS CHECKSTYLE VisibilityModifier 8 JMH injects public parameter fields
+public class FileNamePathComparatorBenchmark {
+	/** Number of sorted paths. */
+	@Param({ "1000", "100000" })
+	public int entryCount;
+
+	/** Flag if comparison is case sensitive. */
+	@Param({ "true", "false" })
+	public boolean caseSensitive;
+
+	private Path[] paths;
+	private FileNamePathComparator comparator;
+
+	/**
+	 * Generates shuffled paths.
+	 */
+	@Setup(Level.Trial)
+	public void createPaths() {
+		List<Path> pathList = Arrays.asList(new Path[entryCount]);
+		for (int i = 0; i < entryCount; i++) {
+			pathList.set(i, Paths.get("media", String.format("File-%08d.mp3", i))); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		//SUPPRESS CHECKSTYLE MagicNumber 1 Fixed seed for reproducible order
+		Collections.shuffle(pathList, new Random(42));
+		paths = pathList.toArray(new Path[entryCount]);
+		comparator = new FileNamePathComparator(caseSensitive);
+	}
+
+	/**
+	 * Sorts copy of shuffled paths.
+	 *
+	 * @param counter
+	 *            counter of processed entries
+	 * @return sorted paths
+	 */
+	@Benchmark
+	public Path[] sort(EntryCounter counter) {
+		counter.entries += entryCount;
+		Path[] sorted = paths.clone();
+		Arrays.sort(sorted, comparator);
+		return sorted;
+	}
+}
@@ -0,0 +1,86 @@
+package net.lkrnac.hlkit.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import net.lkrnac.hlkit.DirectoryComparator;
+import net.lkrnac.hlkit.HardLinksHandler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of {@link HardLinksHandler} verification and linking.
+ *
+ * @author sitko
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class HardLinksHandlerBenchmark {
+	/**
+	 * Verifies hard links of generated directories.
+	 *
+	 * @param trees
+	 *            generated directories
+	 * @param counter
+	 *            counter of processed entries
+	 * @return verification result
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Benchmark
+	public boolean verifyHardLinks(TreeState trees, EntryCounter counter) throws IOException {
+		counter.entries += trees.entryCount;
+		return new HardLinksHandler(trees.targetDir).verifyHardLinks(trees.sourceDir);
+	}
+
+	/**
+	 * Builds hard links in generated target directory. Target directory is
+	 * restored before each invocation.
+	 *
+	 * @param trees
+	 *            generated directories
+	 * @param counter
+	 *            counter of processed entries
+	 * @return if hard links were built
+	 */
+	@Benchmark
+	public boolean buildHardLinks(RestoredTreeState trees, EntryCounter counter) {
+		counter.entries += trees.entryCount;
+		return new HardLinksHandler(trees.targetDir).buildHardLinks(trees.sourceDir,
+				new DirectoryComparator());
+	}
+
+	/**
+	 * Generated directories with target directory restored before each
+	 * invocation. Linking takes milliseconds at least, so overhead of
+	 * invocation level setup is negligible.
+	 *
+	 * @author sitko
+	 */
+	@State(Scope.Benchmark)
+	public static class RestoredTreeState extends TreeState {
+		/**
+		 * Restores target directory before invocation.
+		 *
+		 * @throws IOException
+		 *             if I/O error occurs
+		 */
+		@Setup(Level.Invocation)
+		public void restoreTarget() throws IOException {
+			resetTarget();
+		}
+	}
+}
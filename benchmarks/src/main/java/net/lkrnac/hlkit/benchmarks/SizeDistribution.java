@@ -0,0 +1,47 @@
+package net.lkrnac.hlkit.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Distribution of sizes of generated files. Files are created sparse, so even
+ * big sizes don't consume space on tmpfs.
+ *
+ * @author sitko
+ */
+public enum SizeDistribution {
+	/** Small files up to 64 KiB, e.g. thumbnails and metadata. */
+	SMALL {
+		@Override
+		long nextSize(Random random) {
+			return 1 + random.nextInt(SMALL_MAX);
+		}
+	},
+	/** Media files between 1 MiB and 64 MiB. */
+	MEDIA {
+		@Override
+		long nextSize(Random random) {
+			return MEDIA_MIN + random.nextInt(MEDIA_MAX - MEDIA_MIN);
+		}
+	},
+	/** Nine small files to one media file. */
+	MIXED {
+		@Override
+		long nextSize(Random random) {
+			//SUPPRESS CHECKSTYLE MagicNumber 1 Every tenth file is media file
+			return random.nextInt(10) == 0 ? MEDIA.nextSize(random) : SMALL.nextSize(random);
+		}
+	};
+
+	private static final int SMALL_MAX = 64 * 1024;
+	private static final int MEDIA_MIN = 1024 * 1024;
+	private static final int MEDIA_MAX = 64 * 1024 * 1024;
+
+	/**
+	 * Generates size of next file.
+	 *
+	 * @param random
+	 *            source of randomness
+	 * @return file size in bytes
+	 */
+	abstract long nextSize(Random random);
+}
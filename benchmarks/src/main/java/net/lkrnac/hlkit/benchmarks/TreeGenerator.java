@@ -0,0 +1,141 @@
+package net.lkrnac.hlkit.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Generates synthetic source and target directories for benchmarks.
+ *
+ * @author sitko
+ */
+public final class TreeGenerator {
+	/** System property with directory where trees are generated. */
+	public static final String BASE_DIR_PROPERTY = "hlkit.benchmark.dir"; //$NON-NLS-1$
+
+	private static final String TMPFS_DIR = "/dev/shm"; //$NON-NLS-1$
+	private static final String SOURCE_NAME = "source-%08d.dat"; //$NON-NLS-1$
+	private static final long SEED = 42;
+
+	private TreeGenerator() {
+	}
+
+	/**
+	 * Creates temporary directory for generated trees. Directory is created in
+	 * directory given by {@link #BASE_DIR_PROPERTY}, on tmpfs if it is
+	 * available or in default temporary directory otherwise.
+	 *
+	 * @return new temporary directory
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	public static File createWorkDir() throws IOException {
+		String baseDir = System.getProperty(BASE_DIR_PROPERTY);
+		if (baseDir == null && new File(TMPFS_DIR).isDirectory()) {
+			baseDir = TMPFS_DIR;
+		}
+		String prefix = "hlkit-benchmark"; //$NON-NLS-1$
+		return baseDir == null ? Files.createTempDirectory(prefix).toFile() : Files
+				.createTempDirectory(new File(baseDir).toPath(), prefix).toFile();
+	}
+
+	/**
+	 * Generates source directory with given number of sparse files.
+	 *
+	 * @param sourceDir
+	 *            directory to fill
+	 * @param entryCount
+	 *            number of files
+	 * @param sizeDistribution
+	 *            distribution of file sizes
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	public static void createSource(File sourceDir, int entryCount,
+			SizeDistribution sizeDistribution) throws IOException {
+		Random random = new Random(SEED);
+		Files.createDirectories(sourceDir.toPath());
+		for (int i = 0; i < entryCount; i++) {
+			createSparseFile(new File(sourceDir, String.format(SOURCE_NAME, i)),
+					sizeDistribution.nextSize(random));
+		}
+	}
+
+	/**
+	 * Generates target directory for given source directory. Each source file
+	 * has counterpart with the same name and size in target directory, so
+	 * directories are always mirrors and linking proceeds. First
+	 * <code>matchRatio</code> part of counterparts has the same content as
+	 * source files, <code>linkedRatio</code> part of them is already hard
+	 * linked. Rest of counterparts differs from source files in content.
+	 *
+	 * @param sourceDir
+	 *            generated source directory
+	 * @param targetDir
+	 *            directory to fill, existing content is deleted
+	 * @param entryCount
+	 *            number of files in source directory
+	 * @param matchRatio
+	 *            part of source files with the same content in target
+	 *            directory
+	 * @param linkedRatio
+	 *            part of matched files which are already linked
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	public static void createTarget(File sourceDir, File targetDir, int entryCount,
+			double matchRatio, double linkedRatio) throws IOException {
+		FileUtils.deleteDirectory(targetDir);
+		Files.createDirectories(targetDir.toPath());
+		int matchCount = (int) (entryCount * matchRatio);
+		int linkedCount = (int) (matchCount * linkedRatio);
+		for (int i = 0; i < entryCount; i++) {
+			File sourceFile = new File(sourceDir, String.format(SOURCE_NAME, i));
+			if (i < linkedCount) {
+				Files.createLink(new File(targetDir, sourceFile.getName()).toPath(),
+						sourceFile.toPath());
+			} else {
+				File targetFile = new File(targetDir, sourceFile.getName());
+				createSparseFile(targetFile, sourceFile.length());
+				if (i >= matchCount) {
+					markContent(targetFile);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates sparse file of given size.
+	 *
+	 * @param file
+	 *            file to create
+	 * @param size
+	 *            file size in bytes
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private static void createSparseFile(File file, long size) throws IOException {
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) { //$NON-NLS-1$
+			randomAccessFile.setLength(size);
+		}
+	}
+
+	/**
+	 * Overwrites first byte of sparse file, so its content differs from
+	 * sparse file of the same size.
+	 *
+	 * @param file
+	 *            non-empty file to change
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private static void markContent(File file) throws IOException {
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) { //$NON-NLS-1$
+			randomAccessFile.write(1);
+		}
+	}
+}
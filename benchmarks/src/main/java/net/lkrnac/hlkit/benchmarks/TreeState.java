@@ -0,0 +1,81 @@
+package net.lkrnac.hlkit.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Generated source and target directories shared by benchmark threads.
+ *
+ * @author sitko
+ */
+@State(Scope.Benchmark)
+//SUPPRESS CHECKSTYLE VisibilityModifier 20 JMH injects public parameter fields
+public class TreeState {
+	/** Number of files in source directory. */
+	@Param({ "1000", "100000" })
+	public int entryCount;
+
+	/** Distribution of file sizes. */
+	@Param({ "MIXED" })
+	public SizeDistribution sizeDistribution;
+
+	/** Part of source files with the same content in target directory. */
+	@Param({ "1.0", "0.9" })
+	public double matchRatio;
+
+	/** Part of matched files already linked. */
+	@Param({ "0.0", "1.0" })
+	public double linkedRatio;
+
+	/** Generated source directory. */
+	public File sourceDir;
+
+	/** Generated target directory. */
+	public File targetDir;
+
+	private File workDir;
+
+	/**
+	 * Generates source and target directories.
+	 *
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Setup(Level.Trial)
+	public void createTrees() throws IOException {
+		workDir = TreeGenerator.createWorkDir();
+		sourceDir = new File(workDir, "source"); //$NON-NLS-1$
+		targetDir = new File(workDir, "target"); //$NON-NLS-1$
+		TreeGenerator.createSource(sourceDir, entryCount, sizeDistribution);
+		resetTarget();
+	}
+
+	/**
+	 * Regenerates target directory into its initial state.
+	 *
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	public void resetTarget() throws IOException {
+		TreeGenerator.createTarget(sourceDir, targetDir, entryCount, matchRatio, linkedRatio);
+	}
+
+	/**
+	 * Deletes generated directories.
+	 *
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@TearDown(Level.Trial)
+	public void deleteTrees() throws IOException {
+		FileUtils.deleteDirectory(workDir);
+	}
+}
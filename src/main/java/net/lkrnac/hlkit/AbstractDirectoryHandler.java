@@ -2,7 +2,7 @@ package net.lkrnac.hlkit;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.nio.file.DirectoryIteratorException;
 import java.util.Collection;
 
 /**
@@ -12,10 +12,226 @@ import java.util.Collection;
  * 
  */
 public abstract class AbstractDirectoryHandler {
+	private LinkRunListener runListener;
+	private ExternalMatching externalMatching;
+	private PipelinedMatching pipelinedMatching;
+	private IoRateLimiter rateLimiter;
+	private EntryFilter entryFilter;
+	private MatchKeyStrategy matchKeyStrategy = new StandardMatchKeyStrategy();
+
+	/**
+	 * Attaches listener of run instrumentation. Phases are measured only when
+	 * listener is attached.
+	 * 
+	 * @param runListener
+	 *            run listener, can be <code>null</code>
+	 */
+	public void setRunListener(LinkRunListener runListener) {
+		this.runListener = runListener;
+	}
+
+	/**
+	 * @return attached run listener or <code>null</code>
+	 */
+	public LinkRunListener getRunListener() {
+		return runListener;
+	}
+
+	/**
+	 * Attaches rate limiter of file system operations. Snapshots created by
+	 * handler throttle listings and stat calls, handler itself throttles link
+	 * operations and read bytes. Snapshot given to handler has to have its own
+	 * limiter attached.
+	 * 
+	 * @param rateLimiter
+	 *            rate limiter, can be <code>null</code>
+	 */
+	public void setRateLimiter(IoRateLimiter rateLimiter) {
+		this.rateLimiter = rateLimiter;
+	}
+
+	/**
+	 * @return attached rate limiter or <code>null</code>
+	 */
+	public IoRateLimiter getRateLimiter() {
+		return rateLimiter;
+	}
+
+	/**
+	 * Attaches filter of directory entries to snapshots created by handler.
+	 * Snapshot given to handler has to have its own filter attached.
+	 * 
+	 * @param entryFilter
+	 *            entry filter, can be <code>null</code>
+	 */
+	public void setEntryFilter(EntryFilter entryFilter) {
+		this.entryFilter = entryFilter;
+	}
+
+	/**
+	 * @return attached entry filter or <code>null</code>
+	 */
+	public EntryFilter getEntryFilter() {
+		return entryFilter;
+	}
+
+	/**
+	 * Switches matching of files into external-memory mode. Source and target
+	 * files are written into sorted runs on disk and merge-joined, so
+	 * directories bigger than heap can be handled. Should be combined with
+	 * bounded {@link AttributeSnapshot}.
+	 * 
+	 * @param externalMatching
+	 *            configuration of external matching, <code>null</code>
+	 *            switches back to in-memory matching
+	 */
+	public void setExternalMatching(ExternalMatching externalMatching) {
+		this.externalMatching = externalMatching;
+	}
+
+	/**
+	 * @return configuration of external matching or <code>null</code> if files
+	 *         are matched in memory
+	 */
+	public ExternalMatching getExternalMatching() {
+		return externalMatching;
+	}
+
+	/**
+	 * Switches matching of files into pipelined mode. Files are enumerated,
+	 * stat'ed, matched and handled by stages connected by bounded queues.
+	 * External matching takes precedence, if both are set.
+	 * 
+	 * @param pipelinedMatching
+	 *            configuration of pipelined matching, <code>null</code>
+	 *            switches back to sequential matching
+	 */
+	public void setPipelinedMatching(PipelinedMatching pipelinedMatching) {
+		this.pipelinedMatching = pipelinedMatching;
+	}
+
+	/**
+	 * @return configuration of pipelined matching or <code>null</code> if
+	 *         files are matched sequentially
+	 */
+	public PipelinedMatching getPipelinedMatching() {
+		return pipelinedMatching;
+	}
+
+	/**
+	 * Sets strategy computing keys by which source and target files are
+	 * matched. Key of each file is computed once, so case folding or Unicode
+	 * normalization of file names doesn't slow down matching itself. Default
+	 * strategy matches exact file names and sizes.
+	 * 
+	 * @param matchKeyStrategy
+	 *            match key strategy, <code>null</code> switches back to
+	 *            default strategy
+	 */
+	public void setMatchKeyStrategy(MatchKeyStrategy matchKeyStrategy) {
+		this.matchKeyStrategy = matchKeyStrategy == null ? new StandardMatchKeyStrategy()
+				: matchKeyStrategy;
+	}
+
+	/**
+	 * @return strategy computing match keys of files
+	 */
+	public MatchKeyStrategy getMatchKeyStrategy() {
+		return matchKeyStrategy;
+	}
+
+	/**
+	 * Creates attribute snapshot for run which wasn't given any. Snapshot
+	 * reports to attached run listener and uses attached rate limiter and
+	 * entry filter.
+	 * 
+	 * @return new attribute snapshot
+	 */
+	protected final AttributeSnapshot createSnapshot() {
+		AttributeSnapshot snapshot = new AttributeSnapshot();
+		snapshot.setRunListener(runListener);
+		snapshot.setRateLimiter(rateLimiter);
+		snapshot.setEntryFilter(entryFilter);
+		return snapshot;
+	}
+
+	/**
+	 * Starts measuring of run phase.
+	 * 
+	 * @return start time in nanoseconds, 0 if no listener is attached
+	 */
+	protected final long startPhase() {
+		return runListener == null ? 0 : System.nanoTime();
+	}
+
+	/**
+	 * Reports completed run phase to attached listener.
+	 * 
+	 * @param phase
+	 *            completed phase
+	 * @param startNanos
+	 *            start time returned by {@link #startPhase()}
+	 */
+	protected final void endPhase(RunPhase phase, long startNanos) {
+		if (runListener != null) {
+			runListener.phaseCompleted(phase, System.nanoTime() - startNanos);
+		}
+	}
+
+	/**
+	 * Reports increment of run counter to attached listener.
+	 * 
+	 * @param counter
+	 *            increased counter
+	 * @param amount
+	 *            increment
+	 */
+	protected final void count(RunCounter counter, long amount) {
+		if (runListener != null) {
+			runListener.counted(counter, amount);
+		}
+	}
+
+	/**
+	 * Waits until operation is allowed by attached rate limiter.
+	 * 
+	 * @param operation
+	 *            limited operation
+	 * @param file
+	 *            accessed file, its directory determines file store
+	 * @param permits
+	 *            number of operations or bytes
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	protected final void throttle(IoOperation operation, File file, long permits)
+			throws IOException {
+		if (rateLimiter != null) {
+			rateLimiter.acquire(operation, IoRateLimiter.directoryOf(file), permits);
+		}
+	}
+
+	/**
+	 * Reports I/O error to attached listener.
+	 * 
+	 * @param file
+	 *            file or directory which failed
+	 * @param exception
+	 *            I/O error
+	 */
+	protected final void reportError(File file, IOException exception) {
+		if (runListener != null) {
+			runListener.errorOccurred(file, exception);
+		}
+	}
 	/**
 	 * Factory method that runs through target directory. For each target item
 	 * finds belonging source mirror and performs action. This action is
 	 * implemented in child classes.
+	 * <p>
+	 * Source files are indexed by match keys first, target files are then
+	 * streamed through this index. So the whole pass scales linearly with
+	 * number of files and target files are never held in memory.
 	 * 
 	 * @param sourceFiles
 	 *            collection of files in source directory
@@ -26,21 +242,112 @@ public abstract class AbstractDirectoryHandler {
 	 */
 	protected final void fileFacingLoop(Collection<File> targetFiles, Collection<File> sourceFiles)
 			throws IOException {
-		Collection<File> missingFilesInSourceDir = new ArrayList<>(targetFiles);
+		fileFacingLoop(targetFiles, sourceFiles, null);
+	}
+
+	/**
+	 * Runs through target directory the same way as
+	 * {@link #fileFacingLoop(Collection, Collection)}, but file attributes are
+	 * read from given attribute snapshot. Files can be streamed by
+	 * {@link DirectoryEntries}, so matching runs while target directory is
+	 * still being read. When external matching is set, files are matched by
+	 * merge-join of sorted runs instead. When pipelined matching is set, files
+	 * are matched by {@link PipelinedMatching} stages.
+	 * 
+	 * @param sourceFiles
+	 *            files in source directory
+	 * @param targetFiles
+	 *            files in target directory
+	 * @param snapshot
+	 *            attribute snapshot of current run, if <code>null</code> file
+	 *            attributes are read directly from files
+	 * @throws IOException
+	 *             if some I/O error occurs
+	 */
+	protected final void fileFacingLoop(Iterable<File> targetFiles, Iterable<File> sourceFiles,
+			AttributeSnapshot snapshot) throws IOException {
+		try {
+			if (externalMatching != null) {
+				new SortedRunMatcher(externalMatching).match(targetFiles, sourceFiles, snapshot,
+						this);
+			} else if (pipelinedMatching != null) {
+				new StagedPipeline(pipelinedMatching).match(targetFiles, sourceFiles, snapshot,
+						this);
+			} else {
+				inMemoryFacingLoop(targetFiles, sourceFiles, snapshot);
+			}
+		} catch (DirectoryIteratorException exception) {
+			throw exception.getCause();
+		}
+	}
+
+	/**
+	 * Matches files via in-memory index of source files.
+	 * 
+	 * @param targetFiles
+	 *            files in target directory
+	 * @param sourceFiles
+	 *            files in source directory
+	 * @param snapshot
+	 *            attribute snapshot of current run or <code>null</code>
+	 * @throws IOException
+	 *             if some I/O error occurs
+	 */
+	private void inMemoryFacingLoop(Iterable<File> targetFiles, Iterable<File> sourceFiles,
+			AttributeSnapshot snapshot) throws IOException {
+		FileMatchIndex matchIndex = new FileMatchIndex(sourceFiles, snapshot, matchKeyStrategy);
 
 		// do the comparison
 		for (File targetFile : targetFiles) {
-			for (File sourceFile : sourceFiles) {
-				if (targetFile.getName().equals(sourceFile.getName())
-						&& targetFile.length() == sourceFile.length()) {
-					performActionFace(targetFile, sourceFile);
-					missingFilesInSourceDir.remove(targetFile);
-					break;
-				}
+			File sourceFile = matchIndex.match(targetFile);
+			if (sourceFile == null) {
+				performActionMissingInSource(targetFile);
+			} else {
+				performActionMatched(targetFile, sourceFile, snapshot);
 			}
 		}
-		for (File missingFileInSrouce : missingFilesInSourceDir) {
-			performActionMissingInSource(missingFileInSrouce);
+		for (File missingFileInTarget : matchIndex.getUnmatchedFiles()) {
+			performActionUnmatched(missingFileInTarget, snapshot);
+		}
+	}
+
+	/**
+	 * Performs action for matched files, unless source file is excluded by
+	 * file rules of entry filter attached to snapshot. Excluded source file is
+	 * ignored together with its target file, so the pair doesn't appear on
+	 * either side.
+	 * 
+	 * @param targetFile
+	 *            file in target directory
+	 * @param sourceFile
+	 *            file in source directory
+	 * @param snapshot
+	 *            attribute snapshot of current run or <code>null</code>
+	 * @throws IOException
+	 *             if some I/O error occurs
+	 */
+	final void performActionMatched(File targetFile, File sourceFile, AttributeSnapshot snapshot)
+			throws IOException {
+		if (snapshot == null || snapshot.acceptsSourceFile(sourceFile)) {
+			performActionFace(targetFile, sourceFile);
+		}
+	}
+
+	/**
+	 * Performs action for source file missing in target directory, unless it
+	 * is excluded by file rules of entry filter attached to snapshot.
+	 * 
+	 * @param sourceFile
+	 *            file in source directory
+	 * @param snapshot
+	 *            attribute snapshot of current run or <code>null</code>
+	 * @throws IOException
+	 *             if some I/O error occurs
+	 */
+	final void performActionUnmatched(File sourceFile, AttributeSnapshot snapshot)
+			throws IOException {
+		if (snapshot == null || snapshot.acceptsSourceFile(sourceFile)) {
+			performActionMissingInTarget(sourceFile);
 		}
 	}
 
@@ -61,7 +368,22 @@ public abstract class AbstractDirectoryHandler {
 	 * Performs action for file missing in source directory.
 	 * 
 	 * @param targetFile
+	 *            file in target directory
+	 * @throws IOException
+	 *             if some I/O error occurs
+	 */
+	protected abstract void performActionMissingInSource(File targetFile) throws IOException;
+
+	/**
+	 * Performs action for file missing in target directory. Does nothing by
+	 * default.
+	 * 
+	 * @param sourceFile
 	 *            file in source directory
+	 * @throws IOException
+	 *             if some I/O error occurs
 	 */
-	protected abstract void performActionMissingInSource(File targetFile);
+	protected void performActionMissingInTarget(File sourceFile) throws IOException {
+		// no action by default
+	}
 }
@@ -0,0 +1,471 @@
+package net.lkrnac.hlkit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-run snapshot of directory listings and file attributes. Each directory
+ * is listed once and each file is stat'ed once, all later reads within the
+ * same run are served from the snapshot. Instance is thread safe.
+ * <p>
+ * Snapshot created with attributes capacity is bounded for directories with
+ * millions of entries. Its listings aren't cached, files are streamed by
+ * {@link #openFiles(File)} while directory is being read, and cached attributes
+ * are dropped whenever their number reaches the capacity.
+ *
+ * @author sitko
+ */
+public class AttributeSnapshot {
+	private final int attributesCapacity;
+	private final ConcurrentMap<File, Listing> listings = new ConcurrentHashMap<>();
+	private final ConcurrentMap<File, FileAttributes> attributes = new ConcurrentHashMap<>();
+	private final AtomicLong statCount = new AtomicLong();
+	private final AtomicLong listingCount = new AtomicLong();
+	private volatile LinkRunListener runListener;
+	private volatile IoRateLimiter rateLimiter;
+	private volatile EntryFilter entryFilter;
+
+	/**
+	 * Creates unbounded snapshot caching all listings and attributes.
+	 */
+	public AttributeSnapshot() {
+		this(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Creates bounded snapshot, which doesn't cache directory listings and
+	 * caches at most given number of file attributes.
+	 *
+	 * @param attributesCapacity
+	 *            maximal number of cached file attributes
+	 */
+	public AttributeSnapshot(int attributesCapacity) {
+		this.attributesCapacity = attributesCapacity;
+	}
+
+	/**
+	 * Attaches listener, to which listings and stat calls are reported.
+	 *
+	 * @param runListener
+	 *            run listener, can be <code>null</code>
+	 */
+	public void setRunListener(LinkRunListener runListener) {
+		this.runListener = runListener;
+	}
+
+	/**
+	 * Attaches rate limiter, which throttles listings and stat calls. Can be
+	 * attached while snapshot is in use.
+	 *
+	 * @param rateLimiter
+	 *            rate limiter, can be <code>null</code>
+	 */
+	public void setRateLimiter(IoRateLimiter rateLimiter) {
+		this.rateLimiter = rateLimiter;
+	}
+
+	/**
+	 * Attaches filter of directory entries. Entries excluded by name are
+	 * skipped while directories are being listed, excluded sub-directories
+	 * are never listed. File rules are evaluated by handlers on source files
+	 * only. Should be attached before snapshot is used.
+	 *
+	 * @param entryFilter
+	 *            entry filter, can be <code>null</code>
+	 */
+	public void setEntryFilter(EntryFilter entryFilter) {
+		this.entryFilter = entryFilter;
+	}
+
+	/**
+	 * Opens single pass over files in given directory. Sub-directories are not
+	 * included. Unbounded snapshot serves files from cached listing, bounded
+	 * snapshot streams them while directory is being read. Returned entries
+	 * have to be closed.
+	 *
+	 * @param directory
+	 *            directory to list
+	 * @return files in directory
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	public DirectoryEntries openFiles(File directory) throws IOException {
+		DirectoryEntries entries;
+		if (isBounded()) {
+			throttle(IoOperation.LISTING, directory);
+			listingCount.incrementAndGet();
+			entries = new DirectoryEntries(openStream(directory), this);
+		} else {
+			entries = new DirectoryEntries(listFiles(directory));
+		}
+		return entries;
+	}
+
+	/**
+	 * Opens single pass over entries of given directory, which doesn't put
+	 * listing into snapshot. Listing already cached is served from snapshot.
+	 * Streamed entries have to be iterated by
+	 * {@link DirectoryEntries#unfilteredIterator()} and stat'ed by
+	 * {@link #readAttributes(File)}, so nothing is retained per entry.
+	 *
+	 * @param directory
+	 *            directory to list
+	 * @return entries of directory
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	DirectoryEntries streamFiles(File directory) throws IOException {
+		Listing listing = listings.get(directory);
+		DirectoryEntries entries;
+		if (listing == null) {
+			throttle(IoOperation.LISTING, directory);
+			listingCount.incrementAndGet();
+			entries = new DirectoryEntries(openStream(directory), this);
+		} else {
+			entries = new DirectoryEntries(listing.files);
+		}
+		return entries;
+	}
+
+	/**
+	 * Lists files in given directory. Sub-directories are not included.
+	 * Attributes of listed files are read together with listing.
+	 *
+	 * @param directory
+	 *            directory to list
+	 * @return unmodifiable list of files in directory
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	public List<File> listFiles(File directory) throws IOException {
+		return getListing(directory).files;
+	}
+
+	/**
+	 * Lists sub-directories of given directory. Shares single listing with
+	 * {@link #listFiles(File)}.
+	 *
+	 * @param directory
+	 *            directory to list
+	 * @return unmodifiable list of sub-directories
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	public List<File> listDirectories(File directory) throws IOException {
+		return getListing(directory).directories;
+	}
+
+	/**
+	 * Reads listing of given directory. Directory is listed only when its
+	 * listing isn't in snapshot yet. Bounded snapshot lists directory every
+	 * time.
+	 *
+	 * @param directory
+	 *            directory to list
+	 * @return directory listing
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private Listing getListing(File directory) throws IOException {
+		Listing listing = listings.get(directory);
+		if (listing == null) {
+			throttle(IoOperation.LISTING, directory);
+			LinkRunListener listener = runListener;
+			long startNanos = listener == null ? 0 : System.nanoTime();
+			List<File> files = new ArrayList<>();
+			List<File> directories = new ArrayList<>();
+			try (DirectoryStream<Path> stream = openStream(directory)) {
+				for (Path path : stream) {
+					File file = path.toFile();
+					FileAttributes fileAttributes = getAttributes(file);
+					if (fileAttributes.isDirectory()) {
+						directories.add(file);
+					} else {
+						files.add(file);
+					}
+				}
+			}
+			listingCount.incrementAndGet();
+			if (listener != null) {
+				listener.phaseCompleted(RunPhase.LISTING, System.nanoTime() - startNanos);
+				listener.counted(RunCounter.ENTRIES_SCANNED, files.size() + directories.size());
+			}
+			listing = new Listing(files, directories);
+			if (!isBounded()) {
+				Listing previous = listings.putIfAbsent(directory, listing);
+				if (previous != null) {
+					listing = previous;
+				}
+			}
+		}
+		return listing;
+	}
+
+	/**
+	 * Reads attributes of given file. File is stat'ed only when its attributes
+	 * aren't in snapshot yet.
+	 *
+	 * @param file
+	 *            file on disk
+	 * @return attributes of the file
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	public FileAttributes getAttributes(File file) throws IOException {
+		FileAttributes fileAttributes = attributes.get(file);
+		if (fileAttributes == null) {
+			fileAttributes = stat(file);
+			if (attributes.size() >= attributesCapacity) {
+				attributes.clear();
+			}
+			FileAttributes previous = attributes.putIfAbsent(file, fileAttributes);
+			if (previous != null) {
+				fileAttributes = previous;
+			}
+		}
+		return fileAttributes;
+	}
+
+	/**
+	 * Reads attributes of given file without putting them into snapshot.
+	 * Attributes already in snapshot are reused.
+	 *
+	 * @param file
+	 *            file on disk
+	 * @return attributes of the file
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	FileAttributes readAttributes(File file) throws IOException {
+		FileAttributes fileAttributes = attributes.get(file);
+		return fileAttributes == null ? stat(file) : fileAttributes;
+	}
+
+	/**
+	 * Reads attributes of given file from disk.
+	 *
+	 * @param file
+	 *            file on disk
+	 * @return attributes of the file
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private FileAttributes stat(File file) throws IOException {
+		throttle(IoOperation.STAT, IoRateLimiter.directoryOf(file));
+		LinkRunListener listener = runListener;
+		long startNanos = listener == null ? 0 : System.nanoTime();
+		FileAttributes fileAttributes = FileAttributes.read(file);
+		statCount.incrementAndGet();
+		if (listener != null) {
+			listener.phaseCompleted(RunPhase.STAT, System.nanoTime() - startNanos);
+		}
+		return fileAttributes;
+	}
+
+	/**
+	 * Removes attributes of given file from snapshot. Should be called when
+	 * file was changed during the run.
+	 *
+	 * @param file
+	 *            changed file
+	 */
+	public void invalidate(File file) {
+		attributes.remove(file);
+	}
+
+	/**
+	 * Drops listing of given directory and attributes of its entries from
+	 * snapshot, so that snapshot of tree run holds only directories being
+	 * processed.
+	 *
+	 * @param directory
+	 *            directory which won't be accessed by the run anymore
+	 */
+	void evictDirectory(File directory) {
+		Listing listing = listings.remove(directory);
+		if (listing != null) {
+			for (File file : listing.files) {
+				attributes.remove(file);
+			}
+			for (File subDirectory : listing.directories) {
+				attributes.remove(subDirectory);
+			}
+		}
+	}
+
+	/**
+	 * Imports listing of given directory and attributes of its entries from
+	 * other snapshot, so that one scan of directory can be shared by runs with
+	 * separate snapshots. Directory is listed via other snapshot if it isn't
+	 * there yet. Bounded snapshot imports only attributes up to its capacity.
+	 *
+	 * @param directory
+	 *            directory to import
+	 * @param other
+	 *            snapshot which already scanned the directory
+	 * @throws IOException
+	 *             if I/O error occurs during listing
+	 */
+	void importDirectory(File directory, AttributeSnapshot other) throws IOException {
+		Listing listing = other.getListing(directory);
+		List<File> entries = new ArrayList<>(listing.files);
+		entries.addAll(listing.directories);
+		for (File entry : entries) {
+			if (attributes.size() < attributesCapacity) {
+				attributes.put(entry, other.getAttributes(entry));
+			}
+		}
+		if (!isBounded()) {
+			listings.put(directory, listing);
+		}
+	}
+
+	/**
+	 * Opens stream of directory. Entries excluded by name are dropped by the
+	 * stream, before they are stat'ed. Temporary hard links left behind by
+	 * interrupted replacements are never listed.
+	 *
+	 * @param directory
+	 *            directory to list
+	 * @return open directory stream
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private DirectoryStream<Path> openStream(File directory) throws IOException {
+		final EntryFilter filter = entryFilter;
+		DirectoryStream.Filter<Path> nameFilter = new DirectoryStream.Filter<Path>() {
+			@Override
+			public boolean accept(Path entry) {
+				boolean accepted = !HardLinksHandler.isTempLink(entry);
+				if (accepted && filter != null && !filter.acceptsName(entry)) {
+					countFilteredEntry();
+					accepted = false;
+				}
+				return accepted;
+			}
+		};
+		return Files.newDirectoryStream(directory.toPath(), nameFilter);
+	}
+
+	/**
+	 * Evaluates file rules of attached filter on source file. Source file is
+	 * stat'ed only if there is filter.
+	 *
+	 * @param sourceFile
+	 *            file in source directory
+	 * @return <code>true</code> if file isn't excluded by filter
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	boolean acceptsSourceFile(File sourceFile) throws IOException {
+		return entryFilter == null || acceptsFile(getAttributes(sourceFile));
+	}
+
+	/**
+	 * Evaluates file rules of attached filter on stat'ed entry which isn't
+	 * directory.
+	 *
+	 * @param fileAttributes
+	 *            attributes of entry
+	 * @return <code>true</code> if entry isn't excluded by filter
+	 */
+	boolean acceptsFile(FileAttributes fileAttributes) {
+		EntryFilter filter = entryFilter;
+		boolean accepted = filter == null || filter.acceptsFile(fileAttributes);
+		if (!accepted) {
+			countFilteredEntry();
+		}
+		return accepted;
+	}
+
+	/**
+	 * Counts directory entry excluded by entry filter.
+	 */
+	private void countFilteredEntry() {
+		LinkRunListener listener = runListener;
+		if (listener != null) {
+			listener.counted(RunCounter.ENTRIES_FILTERED, 1);
+		}
+	}
+
+	/**
+	 * Waits until operation is allowed by attached rate limiter.
+	 *
+	 * @param operation
+	 *            limited operation
+	 * @param directory
+	 *            directory accessed by operation
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private void throttle(IoOperation operation, File directory) throws IOException {
+		IoRateLimiter limiter = rateLimiter;
+		if (limiter != null) {
+			limiter.acquire(operation, directory, 1);
+		}
+	}
+
+	/**
+	 * Counts directory entry streamed by {@link DirectoryEntries}.
+	 */
+	void countStreamedEntry() {
+		LinkRunListener listener = runListener;
+		if (listener != null) {
+			listener.counted(RunCounter.ENTRIES_SCANNED, 1);
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if snapshot doesn't cache listings and limits
+	 *         number of cached attributes
+	 */
+	private boolean isBounded() {
+		return attributesCapacity != Integer.MAX_VALUE;
+	}
+
+	/**
+	 * @return number of file system calls reading file attributes
+	 */
+	public long getStatCount() {
+		return statCount.get();
+	}
+
+	/**
+	 * @return number of directory listings
+	 */
+	public long getListingCount() {
+		return listingCount.get();
+	}
+
+	/**
+	 * Listing of one directory split into files and sub-directories.
+	 *
+	 * @author sitko
+	 */
+	private static final class Listing {
+		private final List<File> files;
+		private final List<File> directories;
+
+		/**
+		 * Creates directory listing.
+		 *
+		 * @param files
+		 *            files in directory
+		 * @param directories
+		 *            sub-directories of directory
+		 */
+		Listing(List<File> files, List<File> directories) {
+			this.files = Collections.unmodifiableList(files);
+			this.directories = Collections.unmodifiableList(directories);
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package net.lkrnac.hlkit;
+
+import java.io.IOException;
+
+/**
+ * Receives result of each directory pair linked by {@link BatchLinkScheduler}
+ * , so that results of huge batches don't have to be held in memory.
+ * Listener is called from worker threads concurrently.
+ *
+ * @author sitko
+ */
+public interface BatchLinkListener {
+	/**
+	 * Called when directory pair was compared and linked.
+	 *
+	 * @param pair
+	 *            completed directory pair
+	 * @param comparisonResult
+	 *            result of directories comparison, <code>null</code> if
+	 *            comparison failed
+	 * @param linked
+	 *            flag if hard links were built in target directory
+	 */
+	void pairCompleted(DirectoryPair pair, DirectoryComparisonResult comparisonResult,
+			boolean linked);
+
+	/**
+	 * Called when directory pair couldn't be linked, because file store of its
+	 * target directory couldn't be resolved or target directory couldn't be
+	 * created.
+	 *
+	 * @param pair
+	 *            failed directory pair
+	 * @param exception
+	 *            cause of failure
+	 */
+	void pairFailed(DirectoryPair pair, IOException exception);
+}
@@ -0,0 +1,377 @@
+package net.lkrnac.hlkit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Links batches of directory pairs on pool of worker threads. Pairs are read
+ * lazily from input, so batch can be produced while it is being linked.
+ * <p>
+ * Each file store of target directories has its own lane with limited number
+ * of concurrently linked pairs. Pairs exceeding the limit wait in their lane,
+ * so slow file store (e.g. NFS mount) occupies at most its limit of workers
+ * and other file stores are linked meanwhile. Number of pairs started ahead
+ * of workers is bounded. Pairs waiting in lane don't count against the bound,
+ * so long run of pairs on slow file store doesn't stop reading of pairs for
+ * other file stores; only pairs of saturated file stores are kept in memory.
+ * Result of each pair is passed to {@link BatchLinkListener} instead of being
+ * collected.
+ *
+ * @author sitko
+ */
+public class BatchLinkScheduler {
+	private static final int READ_AHEAD_FACTOR = 16;
+
+	private final int parallelism;
+	private final int fileStoreLimit;
+	private final boolean createMissingLinks;
+	private final Map<Object, Lane> lanes = new HashMap<>();
+	private LinkRunListener runListener;
+	private IoRateLimiter rateLimiter;
+	private EntryFilter entryFilter;
+	private ExternalMatching externalMatching;
+	private PipelinedMatching pipelinedMatching;
+	private MatchKeyStrategy matchKeyStrategy;
+	private volatile BatchProgress progress = new BatchProgress();
+
+	/**
+	 * Creates scheduler instance.
+	 *
+	 * @param parallelism
+	 *            number of worker threads
+	 * @param fileStoreLimit
+	 *            maximal number of pairs linked concurrently on one file store
+	 *            of target directories
+	 * @param createMissingLinks
+	 *            flag if source files missing in target directories should be
+	 *            hard linked into them
+	 */
+	public BatchLinkScheduler(int parallelism, int fileStoreLimit, boolean createMissingLinks) {
+		if (parallelism < 1 || fileStoreLimit < 1) {
+			throw new IllegalArgumentException("limits have to be positive"); //$NON-NLS-1$
+		}
+		this.parallelism = parallelism;
+		this.fileStoreLimit = fileStoreLimit;
+		this.createMissingLinks = createMissingLinks;
+	}
+
+	/**
+	 * Attaches listener of run instrumentation to all pairs linked by this
+	 * instance.
+	 *
+	 * @param runListener
+	 *            run listener, can be <code>null</code>
+	 */
+	public void setRunListener(LinkRunListener runListener) {
+		this.runListener = runListener;
+	}
+
+	/**
+	 * Attaches rate limiter of file system operations to all pairs linked
+	 * by this instance. Limits can be changed while batch is running.
+	 *
+	 * @param rateLimiter
+	 *            rate limiter, can be <code>null</code>
+	 */
+	public void setRateLimiter(IoRateLimiter rateLimiter) {
+		this.rateLimiter = rateLimiter;
+	}
+
+	/**
+	 * Attaches filter of directory entries to all pairs linked by this
+	 * instance. Excluded files are neither linked nor compared.
+	 *
+	 * @param entryFilter
+	 *            entry filter, can be <code>null</code>
+	 */
+	public void setEntryFilter(EntryFilter entryFilter) {
+		this.entryFilter = entryFilter;
+	}
+
+	/**
+	 * Switches matching of files in linked pairs into external-memory mode.
+	 *
+	 * @param externalMatching
+	 *            configuration of external matching, <code>null</code>
+	 *            switches back to in-memory matching
+	 * @see AbstractDirectoryHandler#setExternalMatching(ExternalMatching)
+	 */
+	public void setExternalMatching(ExternalMatching externalMatching) {
+		this.externalMatching = externalMatching;
+	}
+
+	/**
+	 * Switches matching of files in linked pairs into pipelined mode.
+	 *
+	 * @param pipelinedMatching
+	 *            configuration of pipelined matching, <code>null</code>
+	 *            switches back to sequential matching
+	 * @see AbstractDirectoryHandler#setPipelinedMatching(PipelinedMatching)
+	 */
+	public void setPipelinedMatching(PipelinedMatching pipelinedMatching) {
+		this.pipelinedMatching = pipelinedMatching;
+	}
+
+	/**
+	 * Sets strategy computing keys by which files in linked pairs are matched.
+	 *
+	 * @param matchKeyStrategy
+	 *            match key strategy, <code>null</code> switches back to
+	 *            default strategy
+	 * @see AbstractDirectoryHandler#setMatchKeyStrategy(MatchKeyStrategy)
+	 */
+	public void setMatchKeyStrategy(MatchKeyStrategy matchKeyStrategy) {
+		this.matchKeyStrategy = matchKeyStrategy;
+	}
+
+	/**
+	 * @return progress of current or last batch
+	 */
+	public BatchProgress getProgress() {
+		return progress;
+	}
+
+	/**
+	 * Links all directory pairs and waits until they are processed.
+	 *
+	 * @param pairs
+	 *            directory pairs to link, read lazily
+	 * @param listener
+	 *            listener receiving result of each pair
+	 * @return aggregate progress of the batch
+	 * @throws InterruptedException
+	 *             if calling thread is interrupted, pairs which weren't
+	 *             started yet are dropped
+	 */
+	public BatchProgress run(Iterable<DirectoryPair> pairs, BatchLinkListener listener)
+			throws InterruptedException {
+		BatchProgress batchProgress = new BatchProgress();
+		progress = batchProgress;
+		int readAhead = parallelism * READ_AHEAD_FACTOR;
+		Semaphore window = new Semaphore(readAhead);
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+		try {
+			for (DirectoryPair pair : pairs) {
+				batchProgress.addSubmitted();
+				try {
+					schedule(new PairTask(pair, listener, batchProgress, window,
+							getLane(getLaneKey(pair.getTargetDir())), executor));
+				} catch (IOException ioException) {
+					batchProgress.addFailed();
+					listener.pairFailed(pair, ioException);
+				}
+			}
+			window.acquire(readAhead);
+		} finally {
+			executor.shutdownNow();
+			synchronized (lanes) {
+				lanes.clear();
+			}
+		}
+		return batchProgress;
+	}
+
+	/**
+	 * Resolves key of lane of target directory, which is its file store.
+	 * Visible for testing, so that lanes of several file stores can be
+	 * simulated.
+	 *
+	 * @param targetDir
+	 *            target directory
+	 * @return key of lane
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	Object getLaneKey(File targetDir) throws IOException {
+		return getFileStore(targetDir);
+	}
+
+	/**
+	 * Resolves file store of target directory. File store of its nearest
+	 * existing parent is used for directory which doesn't exist yet.
+	 *
+	 * @param targetDir
+	 *            target directory
+	 * @return file store of target directory
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private static FileStore getFileStore(File targetDir) throws IOException {
+		Path path = targetDir.getAbsoluteFile().toPath();
+		while (path.getParent() != null && !Files.exists(path)) {
+			path = path.getParent();
+		}
+		return Files.getFileStore(path);
+	}
+
+	/**
+	 * @param laneKey
+	 *            key of lane, file store of target directories
+	 * @return lane of file store
+	 */
+	private Lane getLane(Object laneKey) {
+		synchronized (lanes) {
+			Lane lane = lanes.get(laneKey);
+			if (lane == null) {
+				lane = new Lane();
+				lanes.put(laneKey, lane);
+			}
+			return lane;
+		}
+	}
+
+	/**
+	 * Starts task if its lane is below limit, otherwise queues it in lane.
+	 * Started task takes slot of read ahead window, queued task doesn't.
+	 *
+	 * @param task
+	 *            task to schedule
+	 * @throws InterruptedException
+	 *             if calling thread is interrupted while waiting for slot
+	 */
+	private void schedule(PairTask task) throws InterruptedException {
+		boolean start = false;
+		synchronized (lanes) {
+			if (task.lane.running < fileStoreLimit) {
+				task.lane.running++;
+				start = true;
+			} else {
+				task.lane.waiting.add(task);
+			}
+		}
+		if (start) {
+			try {
+				task.window.acquire();
+			} catch (InterruptedException exception) {
+				synchronized (lanes) {
+					task.lane.running--;
+				}
+				throw exception;
+			}
+			task.executor.execute(task);
+		}
+	}
+
+	/**
+	 * Starts next waiting task of lane after one of its tasks completed. Slot
+	 * of read ahead window passes to the next task, it is released only when
+	 * lane has no waiting task.
+	 *
+	 * @param task
+	 *            completed task
+	 */
+	private void completed(PairTask task) {
+		PairTask next;
+		synchronized (lanes) {
+			next = task.lane.waiting.poll();
+			if (next == null) {
+				task.lane.running--;
+			}
+		}
+		if (next == null) {
+			task.window.release();
+		} else if (!task.executor.isShutdown()) {
+			task.executor.execute(next);
+		}
+	}
+
+	/**
+	 * Applies matching configuration of this instance to handler.
+	 *
+	 * @param handler
+	 *            directory handler to configure
+	 */
+	private void configureMatching(AbstractDirectoryHandler handler) {
+		handler.setExternalMatching(externalMatching);
+		handler.setPipelinedMatching(pipelinedMatching);
+		handler.setMatchKeyStrategy(matchKeyStrategy);
+	}
+
+	/**
+	 * Tasks of one file store.
+	 *
+	 * @author sitko
+	 */
+	private static final class Lane {
+		private final Queue<PairTask> waiting = new ArrayDeque<>();
+		private int running;
+	}
+
+	/**
+	 * Compares and links one directory pair.
+	 *
+	 * @author sitko
+	 */
+	private final class PairTask implements Runnable {
+		private final DirectoryPair pair;
+		private final BatchLinkListener listener;
+		private final BatchProgress batchProgress;
+		private final Semaphore window;
+		private final Lane lane;
+		private final ExecutorService executor;
+
+		/**
+		 * Creates task.
+		 *
+		 * @param pair
+		 *            directory pair to link
+		 * @param listener
+		 *            listener receiving result of pair
+		 * @param batchProgress
+		 *            progress of batch
+		 * @param window
+		 *            read ahead window whose slot task holds while running
+		 * @param lane
+		 *            lane of target directory's file store
+		 * @param executor
+		 *            executor of tasks
+		 */
+		PairTask(DirectoryPair pair, BatchLinkListener listener, BatchProgress batchProgress,
+				Semaphore window, Lane lane, ExecutorService executor) {
+			this.pair = pair;
+			this.listener = listener;
+			this.batchProgress = batchProgress;
+			this.window = window;
+			this.lane = lane;
+			this.executor = executor;
+		}
+
+		@Override
+		public void run() {
+			try {
+				if (createMissingLinks && !pair.getTargetDir().isDirectory()) {
+					Files.createDirectories(pair.getTargetDir().toPath());
+				}
+				HardLinksHandler hardLinksHandler = new HardLinksHandler(pair.getTargetDir());
+				hardLinksHandler.setCreateMissingLinks(createMissingLinks);
+				hardLinksHandler.setRunListener(runListener);
+				hardLinksHandler.setRateLimiter(rateLimiter);
+				hardLinksHandler.setEntryFilter(entryFilter);
+				DirectoryComparator dirComparator = new DirectoryComparator();
+				configureMatching(dirComparator);
+				configureMatching(hardLinksHandler);
+				boolean linked = hardLinksHandler.buildHardLinks(pair.getSourceDir(),
+						dirComparator, hardLinksHandler.createSnapshot());
+				DirectoryComparisonResult comparisonResult = hardLinksHandler
+						.getComparisonResult();
+				batchProgress.addCompleted(comparisonResult, linked);
+				listener.pairCompleted(pair, comparisonResult, linked);
+			} catch (IOException ioException) {
+				batchProgress.addFailed();
+				listener.pairFailed(pair, ioException);
+			} finally {
+				completed(this);
+			}
+		}
+	}
+}
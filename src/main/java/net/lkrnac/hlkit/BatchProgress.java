@@ -0,0 +1,85 @@
+package net.lkrnac.hlkit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Aggregate progress of {@link BatchLinkScheduler} run. Counters are updated
+ * while batch is running and can be read from any thread.
+ *
+ * @author sitko
+ */
+public class BatchProgress {
+	private final AtomicLong submittedCount = new AtomicLong();
+	private final AtomicLong completedCount = new AtomicLong();
+	private final AtomicLong linkedCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+
+	/**
+	 * Records pair read from input of batch.
+	 */
+	void addSubmitted() {
+		submittedCount.incrementAndGet();
+	}
+
+	/**
+	 * Records processed pair. Pair without comparison result is counted as
+	 * failed.
+	 *
+	 * @param comparisonResult
+	 *            result of directories comparison, can be <code>null</code>
+	 * @param linked
+	 *            flag if hard links were built in target directory
+	 */
+	void addCompleted(DirectoryComparisonResult comparisonResult, boolean linked) {
+		if (comparisonResult == null) {
+			failedCount.incrementAndGet();
+		}
+		if (linked) {
+			linkedCount.incrementAndGet();
+		}
+		completedCount.incrementAndGet();
+	}
+
+	/**
+	 * Records pair which failed.
+	 */
+	void addFailed() {
+		failedCount.incrementAndGet();
+		completedCount.incrementAndGet();
+	}
+
+	/**
+	 * @return number of pairs read from input of batch
+	 */
+	public long getSubmittedCount() {
+		return submittedCount.get();
+	}
+
+	/**
+	 * @return number of processed pairs, including failed ones
+	 */
+	public long getCompletedCount() {
+		return completedCount.get();
+	}
+
+	/**
+	 * @return number of pairs in which hard links were built
+	 */
+	public long getLinkedCount() {
+		return linkedCount.get();
+	}
+
+	/**
+	 * @return number of pairs which couldn't be linked or compared
+	 */
+	public long getFailedCount() {
+		return failedCount.get();
+	}
+
+	/**
+	 * @return number of submitted pairs which weren't processed yet
+	 */
+	public long getPendingCount() {
+		return submittedCount.get() - completedCount.get();
+	}
+}
@@ -0,0 +1,25 @@
+package net.lkrnac.hlkit;
+
+import java.io.File;
+
+/**
+ * Policy resolving files which differ between directories synchronized by
+ * {@link HardLinksHandler#syncHardLinks(File, AttributeSnapshot)}. File
+ * differs if it has the same name in both directories, but isn't the same
+ * hard link.
+ *
+ * @author sitko
+ */
+public enum ConflictPolicy {
+	/** Target file is replaced by hard link of source file. */
+	SOURCE_WINS,
+	/** Source file is replaced by hard link of target file. */
+	TARGET_WINS,
+	/**
+	 * File modified later wins, source file wins if both were modified at the
+	 * same time.
+	 */
+	NEWER_WINS,
+	/** Differing files are left untouched. */
+	SKIP
+}
@@ -0,0 +1,257 @@
+package net.lkrnac.hlkit;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Compares content of files before {@link HardLinksHandler} replaces target
+ * file by hard link. Files are split into chunks, which are memory-mapped and
+ * compared in parallel on fork/join pool. Comparison stops at first differing
+ * chunk, each chunk of both files is read at most once. Read bytes are charged
+ * to rate limiter chunk by chunk, so early stop also saves throttle budget.
+ *
+ * @author sitko
+ * @see HardLinksHandler#setContentVerifier(ContentVerifier)
+ */
+public class ContentVerifier implements Closeable {
+	private static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+
+	private final ForkJoinPool pool;
+	private final int chunkSize;
+
+	/**
+	 * Creates verifier with 4MB chunks.
+	 *
+	 * @param parallelism
+	 *            number of threads comparing chunks in parallel
+	 */
+	public ContentVerifier(int parallelism) {
+		this(parallelism, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Creates verifier.
+	 *
+	 * @param parallelism
+	 *            number of threads comparing chunks in parallel
+	 * @param chunkSize
+	 *            size of one memory-mapped chunk in bytes
+	 */
+	public ContentVerifier(int parallelism, int chunkSize) {
+		if (parallelism < 1 || chunkSize < 1) {
+			throw new IllegalArgumentException("limits have to be positive"); //$NON-NLS-1$
+		}
+		this.pool = new ForkJoinPool(parallelism);
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Compares content of two files.
+	 *
+	 * @param file1
+	 *            first file
+	 * @param file2
+	 *            second file
+	 * @return <code>true</code> if files have the same content
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	public boolean contentEquals(File file1, File file2) throws IOException {
+		return contentEquals(file1, file2, null);
+	}
+
+	/**
+	 * Compares content of two files. Each compared chunk of both files is
+	 * charged as read bytes to rate limiter before it is mapped.
+	 *
+	 * @param file1
+	 *            first file
+	 * @param file2
+	 *            second file
+	 * @param rateLimiter
+	 *            limiter of read bytes, can be <code>null</code>
+	 * @return <code>true</code> if files have the same content
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	public boolean contentEquals(File file1, File file2, IoRateLimiter rateLimiter)
+			throws IOException {
+		boolean equal;
+		try (FileChannel channel1 = FileChannel.open(file1.toPath(), StandardOpenOption.READ);
+				FileChannel channel2 = FileChannel.open(file2.toPath(), StandardOpenOption.READ)) {
+			long size = channel1.size();
+			if (size != channel2.size()) {
+				equal = false;
+			} else {
+				long chunkCount = (size + chunkSize - 1) / chunkSize;
+				ChunkTask task = new ChunkTask(new ChunkSource(channel1, file1, rateLimiter),
+						new ChunkSource(channel2, file2, rateLimiter), size, 0, chunkCount);
+				pool.invoke(task);
+				if (task.failure.get() != null) {
+					throw task.failure.get();
+				}
+				equal = !task.differs.get();
+			}
+		}
+		return equal;
+	}
+
+	/**
+	 * Stops threads of verifier.
+	 */
+	@Override
+	public void close() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Compares range of chunks. Range is split in halves until it contains
+	 * single chunk.
+	 *
+	 * @author sitko
+	 */
+	private final class ChunkTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final transient ChunkSource source1;
+		private final transient ChunkSource source2;
+		private final long size;
+		private final long firstChunk;
+		private final long endChunk;
+		private final AtomicBoolean differs;
+		private final AtomicReference<IOException> failure;
+
+		/**
+		 * Creates root task comparing all chunks.
+		 *
+		 * @param source1
+		 *            chunks of first file
+		 * @param source2
+		 *            chunks of second file
+		 * @param size
+		 *            size of files
+		 * @param firstChunk
+		 *            index of first chunk of range
+		 * @param endChunk
+		 *            index of chunk after range
+		 */
+		ChunkTask(ChunkSource source1, ChunkSource source2, long size, long firstChunk,
+				long endChunk) {
+			this(source1, source2, size, firstChunk, endChunk, new AtomicBoolean(),
+					new AtomicReference<IOException>());
+		}
+
+		/**
+		 * Creates task sharing result flags with its parent.
+		 *
+		 * @param source1
+		 *            chunks of first file
+		 * @param source2
+		 *            chunks of second file
+		 * @param size
+		 *            size of files
+		 * @param firstChunk
+		 *            index of first chunk of range
+		 * @param endChunk
+		 *            index of chunk after range
+		 * @param differs
+		 *            flag set when differing chunk is found
+		 * @param failure
+		 *            first I/O failure
+		 */
+		private ChunkTask(ChunkSource source1, ChunkSource source2, long size,
+				long firstChunk, long endChunk, AtomicBoolean differs,
+				AtomicReference<IOException> failure) {
+			this.source1 = source1;
+			this.source2 = source2;
+			this.size = size;
+			this.firstChunk = firstChunk;
+			this.endChunk = endChunk;
+			this.differs = differs;
+			this.failure = failure;
+		}
+
+		@Override
+		protected void compute() {
+			boolean decided = differs.get() || failure.get() != null;
+			if (!decided && endChunk - firstChunk > 1) {
+				long middleChunk = (firstChunk + endChunk) >>> 1;
+				invokeAll(new ChunkTask(source1, source2, size, firstChunk, middleChunk,
+						differs, failure), new ChunkTask(source1, source2, size, middleChunk,
+						endChunk, differs, failure));
+			} else if (!decided && endChunk > firstChunk) {
+				compareChunk();
+			}
+		}
+
+		/**
+		 * Maps and compares single chunk of both files.
+		 */
+		private void compareChunk() {
+			long position = firstChunk * chunkSize;
+			long length = Math.min(chunkSize, size - position);
+			try {
+				MappedByteBuffer chunk1 = source1.map(position, length);
+				MappedByteBuffer chunk2 = source2.map(position, length);
+				if (!chunk1.equals(chunk2)) {
+					differs.set(true);
+				}
+			} catch (IOException ioException) {
+				failure.compareAndSet(null, ioException);
+			}
+		}
+	}
+	/**
+	 * Channel of compared file, which charges mapped chunks to rate limiter.
+	 *
+	 * @author sitko
+	 */
+	private static final class ChunkSource {
+		private final FileChannel channel;
+		private final File directory;
+		private final IoRateLimiter rateLimiter;
+
+		/**
+		 * Creates source of chunks.
+		 *
+		 * @param channel
+		 *            channel of file
+		 * @param file
+		 *            compared file, its directory determines file store
+		 * @param rateLimiter
+		 *            limiter of read bytes, can be <code>null</code>
+		 */
+		ChunkSource(FileChannel channel, File file, IoRateLimiter rateLimiter) {
+			this.channel = channel;
+			this.directory = IoRateLimiter.directoryOf(file);
+			this.rateLimiter = rateLimiter;
+		}
+
+		/**
+		 * Waits for read bytes permits and maps chunk of file.
+		 *
+		 * @param position
+		 *            position of chunk
+		 * @param length
+		 *            length of chunk
+		 * @return mapped chunk
+		 * @throws IOException
+		 *             if I/O error occurs
+		 */
+		MappedByteBuffer map(long position, long length) throws IOException {
+			if (rateLimiter != null) {
+				rateLimiter.acquire(IoOperation.BYTES_READ, directory, length);
+			}
+			return channel.map(MapMode.READ_ONLY, position, length);
+		}
+	}
+}
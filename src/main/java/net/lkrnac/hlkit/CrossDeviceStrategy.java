@@ -0,0 +1,16 @@
+package net.lkrnac.hlkit;
+
+/**
+ * Strategy of {@link HardLinksHandler} for source and target directories on
+ * different file stores, where hard links can't be created.
+ *
+ * @author sitko
+ */
+public enum CrossDeviceStrategy {
+	/** Hard links are attempted anyway and whole directory fails. */
+	FAIL,
+	/** Entries which would be linked are skipped. */
+	SKIP,
+	/** Source files missing in target directory are copied into it. */
+	COPY
+}
@@ -0,0 +1,121 @@
+package net.lkrnac.hlkit;
+
+/**
+ * Statistics of one deduplication run.
+ *
+ * @author sitko
+ */
+public class DeduplicationResult {
+	private long scannedCount;
+	private long duplicateGroupCount;
+	private long linksCreated;
+	private long bytesDeduplicated;
+	private long bytesRead;
+	private long errorCount;
+	private long changedCount;
+
+	/**
+	 * Records scanned file.
+	 */
+	void addScanned() {
+		scannedCount++;
+	}
+
+	/**
+	 * Records group of files with identical content.
+	 */
+	void addDuplicateGroup() {
+		duplicateGroupCount++;
+	}
+
+	/**
+	 * Records file replaced by hard link.
+	 */
+	void addLink() {
+		linksCreated++;
+	}
+
+	/**
+	 * Records space freed by linking duplicate file.
+	 *
+	 * @param bytes
+	 *            size of duplicate file
+	 */
+	void addDeduplicated(long bytes) {
+		bytesDeduplicated += bytes;
+	}
+
+	/**
+	 * Records bytes read for content comparison.
+	 *
+	 * @param bytes
+	 *            number of read bytes
+	 */
+	void addRead(long bytes) {
+		bytesRead += bytes;
+	}
+
+	/**
+	 * Records file skipped because of I/O error.
+	 */
+	void addError() {
+		errorCount++;
+	}
+
+	/**
+	 * Records file skipped because it changed since it was hashed.
+	 */
+	void addChanged() {
+		changedCount++;
+	}
+
+	/**
+	 * @return number of scanned files
+	 */
+	public long getScannedCount() {
+		return scannedCount;
+	}
+
+	/**
+	 * @return number of groups of distinct files with identical content
+	 */
+	public long getDuplicateGroupCount() {
+		return duplicateGroupCount;
+	}
+
+	/**
+	 * @return number of files replaced by hard link
+	 */
+	public long getLinksCreated() {
+		return linksCreated;
+	}
+
+	/**
+	 * @return number of bytes freed by linking duplicates
+	 */
+	public long getBytesDeduplicated() {
+		return bytesDeduplicated;
+	}
+
+	/**
+	 * @return number of bytes read for content comparison
+	 */
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	/**
+	 * @return number of files skipped because of I/O error
+	 */
+	public long getErrorCount() {
+		return errorCount;
+	}
+
+	/**
+	 * @return number of files skipped because they changed since they were
+	 *         hashed
+	 */
+	public long getChangedCount() {
+		return changedCount;
+	}
+}
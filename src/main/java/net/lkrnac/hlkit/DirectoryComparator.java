@@ -2,11 +2,7 @@ package net.lkrnac.hlkit;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collection;
-
-import org.apache.commons.lang3.math.NumberUtils;
+import java.nio.file.DirectoryIteratorException;
 
 /**
  * Class for comparing directories.
@@ -14,8 +10,8 @@ import org.apache.commons.lang3.math.NumberUtils;
  * @author sitko
  */
 public class DirectoryComparator extends AbstractDirectoryHandler {
-	private Collection<File> missingFilesInTarget;
-	private Collection<File> missingFilesInSource;
+	private long missingInTargetCount;
+	private long missingInSourceCount;
 
 	/**
 	 * Compares directories based on file names and file sizes. If files from
@@ -33,18 +29,42 @@ public class DirectoryComparator extends AbstractDirectoryHandler {
 	 */
 	public DirectoryComparisonResult compareDirectories(File sourceDir, File targetDir)
 			throws IOException {
+		return compareDirectories(sourceDir, targetDir, createSnapshot());
+	}
+
+	/**
+	 * Compares directories based on file names and file sizes. Directory
+	 * listings and file attributes are read from given snapshot, so they can
+	 * be shared with other handlers within one run.
+	 * 
+	 * @param sourceDir
+	 *            directory in which are files matched
+	 * @param targetDir
+	 *            all files in this directory should match files from sourceDir
+	 * @param snapshot
+	 *            attribute snapshot of current run
+	 * @return comparison result
+	 * @throws IOException
+	 *             if some I/O error occurs
+	 */
+	public DirectoryComparisonResult compareDirectories(File sourceDir, File targetDir,
+			AttributeSnapshot snapshot) throws IOException {
 		DirectoryComparisonResult result = null;
 
+		long startNanos = startPhase();
 		if (sourceDir != null && targetDir != null) {
-			File[] sourceFiles = sourceDir.listFiles();
-			File[] targetFiles = targetDir.listFiles();
-			if (sourceFiles.length == NumberUtils.INTEGER_ZERO
-					|| targetFiles.length == NumberUtils.INTEGER_ZERO) {
-				result = DirectoryComparisonResult.DIFFERENT_FILES;
-			} else {
-				result = performComparison(sourceFiles, targetFiles);
+			try (DirectoryEntries sourceFiles = snapshot.openFiles(sourceDir);
+					DirectoryEntries targetFiles = snapshot.openFiles(targetDir)) {
+				if (sourceFiles.isEmpty() || targetFiles.isEmpty()) {
+					result = DirectoryComparisonResult.DIFFERENT_FILES;
+				} else {
+					result = performComparison(sourceFiles, targetFiles, snapshot);
+				}
+			} catch (DirectoryIteratorException exception) {
+				throw exception.getCause();
 			}
 		}
+		endPhase(RunPhase.COMPARISON, startNanos);
 		return result;
 	}
 
@@ -54,53 +74,67 @@ public class DirectoryComparator extends AbstractDirectoryHandler {
 	 * NOMPD: Can't think of better result matcher for now
 	 * 
 	 * @param sourceFiles
-	 *            array of file names belonging to source directory
+	 *            files belonging to source directory
 	 * @param targetFiles
-	 *            array of file names belonging to target directory
+	 *            files belonging to target directory
+	 * @param snapshot
+	 *            attribute snapshot of current run
 	 * @return comparison result
 	 * @throws IOException
 	 *             if I/O error occurs
 	 */
 	@SuppressWarnings("PMD.ConfusingTernary")
-	private DirectoryComparisonResult performComparison(File[] sourceFiles, File[] targetFiles)
-			throws IOException {
-		missingFilesInTarget = new ArrayList<>(Arrays.asList(sourceFiles));
-		missingFilesInSource = new ArrayList<>();
+	private DirectoryComparisonResult performComparison(Iterable<File> sourceFiles,
+			Iterable<File> targetFiles, AttributeSnapshot snapshot) throws IOException {
+		missingInTargetCount = 0;
+		missingInSourceCount = 0;
 		DirectoryComparisonResult result = null;
 
 		// do the comparison
-		super.fileFacingLoop(Arrays.asList(targetFiles), Arrays.asList(sourceFiles));
-		if (missingFilesInTarget.isEmpty() && missingFilesInSource.isEmpty()) {
+		super.fileFacingLoop(targetFiles, sourceFiles, snapshot);
+		if (missingInTargetCount == 0 && missingInSourceCount == 0) {
 			result = DirectoryComparisonResult.EQUAL;
-		} else if (!missingFilesInTarget.isEmpty() && !missingFilesInSource.isEmpty()) {
+		} else if (missingInTargetCount > 0 && missingInSourceCount > 0) {
 			result = DirectoryComparisonResult.DIFFERENT_FILES;
-		} else if (!missingFilesInTarget.isEmpty()) {
+		} else if (missingInTargetCount > 0) {
 			result = DirectoryComparisonResult.MISSING_MEDIA_FILES_IN_TARGET;
-		} else if (!missingFilesInSource.isEmpty()) {
+		} else if (missingInSourceCount > 0) {
 			result = DirectoryComparisonResult.MISSING_MEDIA_FILES_IN_SOURCE;
 		}
 		return result;
 	}
 
 	/**
-	 * Remove source file from unmatched list.
+	 * Matched files don't need any action.
 	 * <p>
 	 * <b> Javadoc from parent class:<br>
 	 * </b> {@inheritDoc}
 	 */
 	@Override
 	protected final void performActionFace(File targetFile, File sourceFile) throws IOException {
-		missingFilesInTarget.remove(sourceFile);
+		// matched files are not tracked
 	}
 
 	/**
-	 * Saves missing target file into private cache.
+	 * Counts target file missing in source directory. Only counts are kept,
+	 * so comparison of huge directories doesn't hold missing files in memory.
 	 * <p>
 	 * <b> Javadoc from parent class:<br>
 	 * </b> {@inheritDoc}
 	 */
 	@Override
 	protected void performActionMissingInSource(File targetFile) {
-		missingFilesInSource.add(targetFile);
+		missingInSourceCount++;
+	}
+
+	/**
+	 * Counts source file missing in target directory.
+	 * <p>
+	 * <b> Javadoc from parent class:<br>
+	 * </b> {@inheritDoc}
+	 */
+	@Override
+	protected void performActionMissingInTarget(File sourceFile) {
+		missingInTargetCount++;
 	}
 }
@@ -0,0 +1,186 @@
+package net.lkrnac.hlkit;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Single pass over files of one directory. Sub-directories and entries
+ * excluded by name by {@link EntryFilter} are skipped. Entries are either
+ * streamed from {@link DirectoryStream} while directory is being read, or
+ * served from listing already cached in {@link AttributeSnapshot}. Streamed
+ * directory is never materialized, so caller can process entries while
+ * enumeration is still in progress.
+ * <p>
+ * Like {@link DirectoryStream}, instance can be iterated only once and I/O
+ * errors during iteration are thrown as {@link DirectoryIteratorException}.
+ *
+ * @author sitko
+ */
+public final class DirectoryEntries implements Iterable<File>, Closeable {
+	private final DirectoryStream<Path> stream;
+	private final Iterator<File> iterator;
+
+	/**
+	 * Creates entries served from cached listing.
+	 *
+	 * @param files
+	 *            cached files of directory
+	 */
+	DirectoryEntries(Iterable<File> files) {
+		this.stream = null;
+		this.iterator = files.iterator();
+	}
+
+	/**
+	 * Creates entries streamed from directory stream.
+	 *
+	 * @param stream
+	 *            open stream of directory
+	 * @param snapshot
+	 *            attribute snapshot used to skip sub-directories
+	 */
+	DirectoryEntries(DirectoryStream<Path> stream, AttributeSnapshot snapshot) {
+		this.stream = stream;
+		this.iterator = new FileIterator(stream.iterator(), snapshot);
+	}
+
+	/**
+	 * Checks if directory contains any file. Only first entry is read ahead,
+	 * it is still returned by iteration.
+	 *
+	 * @return <code>true</code> if there isn't any file left to iterate
+	 */
+	public boolean isEmpty() {
+		return !iterator.hasNext();
+	}
+
+	/**
+	 * Returns the only iterator of this instance.
+	 * <p>
+	 * <b> Javadoc from parent class:<br>
+	 * </b> {@inheritDoc}
+	 */
+	@Override
+	public Iterator<File> iterator() {
+		return iterator;
+	}
+
+	/**
+	 * Returns the only iterator of this instance without skipping of
+	 * sub-directories. Streamed entries aren't stat'ed by returned iterator,
+	 * so caller has to skip sub-directories itself. Cached entries contain
+	 * only files. Can't be combined with {@link #iterator()}.
+	 *
+	 * @return iterator of all directory entries
+	 */
+	Iterator<File> unfilteredIterator() {
+		return iterator instanceof FileIterator ? ((FileIterator) iterator).unfiltered()
+				: iterator;
+	}
+
+	/**
+	 * Closes underlying directory stream, if there is any.
+	 * <p>
+	 * <b> Javadoc from parent class:<br>
+	 * </b> {@inheritDoc}
+	 */
+	@Override
+	public void close() throws IOException {
+		if (stream != null) {
+			stream.close();
+		}
+	}
+
+	/**
+	 * Iterator over directory stream skipping sub-directories. Reads one entry
+	 * ahead.
+	 *
+	 * @author sitko
+	 */
+	private static final class FileIterator implements Iterator<File> {
+		private final Iterator<Path> paths;
+		private final AttributeSnapshot snapshot;
+		private File nextFile;
+
+		/**
+		 * Creates iterator.
+		 *
+		 * @param paths
+		 *            iterator of directory stream
+		 * @param snapshot
+		 *            attribute snapshot used to skip sub-directories
+		 */
+		FileIterator(Iterator<Path> paths, AttributeSnapshot snapshot) {
+			this.paths = paths;
+			this.snapshot = snapshot;
+		}
+
+		/**
+		 * @return iterator over remaining entries of directory stream, which
+		 *         doesn't stat them; file read ahead is returned first
+		 */
+		Iterator<File> unfiltered() {
+			return new Iterator<File>() {
+				@Override
+				public boolean hasNext() {
+					return nextFile != null || paths.hasNext();
+				}
+
+				@Override
+				public File next() {
+					File file = nextFile;
+					if (file == null) {
+						file = paths.next().toFile();
+						snapshot.countStreamedEntry();
+					} else {
+						nextFile = null;
+					}
+					return file;
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (nextFile == null && paths.hasNext()) {
+				File file = paths.next().toFile();
+				snapshot.countStreamedEntry();
+				try {
+					FileAttributes attributes = snapshot.getAttributes(file);
+					if (!attributes.isDirectory()) {
+						nextFile = file;
+					}
+				} catch (IOException ioException) {
+					throw new DirectoryIteratorException(ioException);
+				}
+			}
+			return nextFile != null;
+		}
+
+		@Override
+		public File next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			File file = nextFile;
+			nextFile = null;
+			return file;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -13,6 +13,12 @@ public class DirectoryIoFacade {
 	private final File targetDir;
 	private DirectoryComparator directoryComparator;
 	private HardLinksHandler hardLinksHandler;
+	private LinkRunListener runListener;
+	private IoRateLimiter rateLimiter;
+	private EntryFilter entryFilter;
+	private ExternalMatching externalMatching;
+	private PipelinedMatching pipelinedMatching;
+	private MatchKeyStrategy matchKeyStrategy;
 
 	/**
 	 * Creates directory facade instance.
@@ -25,6 +31,109 @@ public class DirectoryIoFacade {
 		this.targetDir = targetDir;
 	}
 
+	/**
+	 * Attaches listener of run instrumentation to all handlers of this facade,
+	 * e.g. {@link LinkRunMetrics}. Phases are measured only when listener is
+	 * attached.
+	 * 
+	 * @param runListener
+	 *            run listener, can be <code>null</code>
+	 */
+	public void setRunListener(LinkRunListener runListener) {
+		this.runListener = runListener;
+		if (directoryComparator != null) {
+			directoryComparator.setRunListener(runListener);
+		}
+		if (hardLinksHandler != null) {
+			hardLinksHandler.setRunListener(runListener);
+		}
+	}
+
+	/**
+	 * Attaches rate limiter of file system operations to all handlers of
+	 * this facade. Limits can be changed while handlers are running.
+	 * 
+	 * @param rateLimiter
+	 *            rate limiter, can be <code>null</code>
+	 */
+	public void setRateLimiter(IoRateLimiter rateLimiter) {
+		this.rateLimiter = rateLimiter;
+		if (directoryComparator != null) {
+			directoryComparator.setRateLimiter(rateLimiter);
+		}
+		if (hardLinksHandler != null) {
+			hardLinksHandler.setRateLimiter(rateLimiter);
+		}
+	}
+
+	/**
+	 * Attaches filter of directory entries to all handlers of this facade.
+	 * 
+	 * @param entryFilter
+	 *            entry filter, can be <code>null</code>
+	 */
+	public void setEntryFilter(EntryFilter entryFilter) {
+		this.entryFilter = entryFilter;
+		if (directoryComparator != null) {
+			directoryComparator.setEntryFilter(entryFilter);
+		}
+		if (hardLinksHandler != null) {
+			hardLinksHandler.setEntryFilter(entryFilter);
+		}
+	}
+
+	/**
+	 * Switches handlers of this facade into external-memory matching.
+	 * 
+	 * @param externalMatching
+	 *            configuration of external matching, <code>null</code>
+	 *            switches back to in-memory matching
+	 */
+	public void setExternalMatching(ExternalMatching externalMatching) {
+		this.externalMatching = externalMatching;
+		if (directoryComparator != null) {
+			directoryComparator.setExternalMatching(externalMatching);
+		}
+		if (hardLinksHandler != null) {
+			hardLinksHandler.setExternalMatching(externalMatching);
+		}
+	}
+
+	/**
+	 * Switches handlers of this facade into pipelined matching.
+	 * 
+	 * @param pipelinedMatching
+	 *            configuration of pipelined matching, <code>null</code>
+	 *            switches back to sequential matching
+	 */
+	public void setPipelinedMatching(PipelinedMatching pipelinedMatching) {
+		this.pipelinedMatching = pipelinedMatching;
+		if (directoryComparator != null) {
+			directoryComparator.setPipelinedMatching(pipelinedMatching);
+		}
+		if (hardLinksHandler != null) {
+			hardLinksHandler.setPipelinedMatching(pipelinedMatching);
+		}
+	}
+
+	/**
+	 * Sets strategy computing keys by which handlers of this facade match
+	 * files, e.g. case insensitive {@link StandardMatchKeyStrategy}.
+	 * 
+	 * @param matchKeyStrategy
+	 *            match key strategy, <code>null</code> switches back to
+	 *            default strategy
+	 */
+	public void setMatchKeyStrategy(MatchKeyStrategy matchKeyStrategy) {
+		this.matchKeyStrategy = matchKeyStrategy;
+		if (directoryComparator != null) {
+			directoryComparator.setMatchKeyStrategy(matchKeyStrategy);
+		}
+		if (hardLinksHandler != null) {
+			hardLinksHandler.setMatchKeyStrategy(matchKeyStrategy);
+		}
+	}
+
 	/**
 	 * Compares directories based on file names and file sizes. If files from
 	 * target directory matches files in source directory, <code>true</code> is
@@ -44,6 +153,25 @@ public class DirectoryIoFacade {
 		return getDirectoryComparator().compareDirectories(sourceDir, targetDir);
 	}
 
+	/**
+	 * Compares directories based on file names and file sizes. Directory
+	 * listings and file attributes are read via given snapshot.
+	 * 
+	 * @param sourceDir
+	 *            directory in which are files matched
+	 * @param targetDir
+	 *            all files in this directory should match files from sourceDir
+	 * @param snapshot
+	 *            attribute snapshot of current run
+	 * @return comparison result
+	 * @throws IOException
+	 *             if some I/O error occurs
+	 */
+	public DirectoryComparisonResult compareDirectories(File sourceDir, File targetDir,
+			AttributeSnapshot snapshot) throws IOException {
+		return getDirectoryComparator().compareDirectories(sourceDir, targetDir, snapshot);
+	}
+
 	/**
 	 * Verify if all files in target directory are hard links of files in source
 	 * directory.
@@ -58,6 +186,40 @@ public class DirectoryIoFacade {
 		return getHardLinksHandler().verifyHardLinks(sourceDir);
 	}
 
+	/**
+	 * Verify if all files in target directory are hard links of files in source
+	 * directory. Directory listings and file attributes are read via given
+	 * snapshot.
+	 * 
+	 * @param sourceDir
+	 *            source media directory to compare
+	 * @param snapshot
+	 *            attribute snapshot of current run
+	 * @return true - if all source files are hard links
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	public boolean verifyHardLinks(File sourceDir, AttributeSnapshot snapshot) throws IOException {
+		return getHardLinksHandler().verifyHardLinks(sourceDir, snapshot);
+	}
+
+	/**
+	 * Verifies which files in target directory are hard links of files in
+	 * source directory.
+	 * 
+	 * @param sourceDir
+	 *            source media directory to compare
+	 * @param snapshot
+	 *            attribute snapshot of current run
+	 * @return detailed verification report with unlinked target files
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	public HardLinksReport verifyHardLinksReport(File sourceDir, AttributeSnapshot snapshot)
+			throws IOException {
+		return getHardLinksHandler().verifyHardLinksReport(sourceDir, snapshot);
+	}
+
 	/**
 	 * Builds hard links in {@link HardLinksHandler#getTargetDir()}. Original
 	 * files are read from given source directory
@@ -69,12 +231,121 @@ public class DirectoryIoFacade {
 		this.getHardLinksHandler().buildHardLinks(sourceDir, getDirectoryComparator());
 	}
 
+	/**
+	 * Builds hard links in {@link HardLinksHandler#getTargetDir()}. Directory
+	 * listings and file attributes are shared between comparison and linking
+	 * via given snapshot, which also exposes number of stat calls of the run.
+	 * 
+	 * @param sourceDir
+	 *            source directory from which to create hard links
+	 * @param snapshot
+	 *            attribute snapshot of current run
+	 * @return if hard link were created in target directory
+	 */
+	public boolean buildHardLinks(File sourceDir, AttributeSnapshot snapshot) {
+		return this.getHardLinksHandler().buildHardLinks(sourceDir, getDirectoryComparator(),
+				snapshot);
+	}
+
+	/**
+	 * Synchronizes target directory with source directory by hard links in
+	 * both directions, in single scan of both directories.
+	 * 
+	 * @param sourceDir
+	 *            source directory to synchronize with
+	 * @param conflictPolicy
+	 *            policy resolving files which differ
+	 * @return if directories were synchronized
+	 */
+	public boolean syncHardLinks(File sourceDir, ConflictPolicy conflictPolicy) {
+		HardLinksHandler handler = getHardLinksHandler();
+		handler.setConflictPolicy(conflictPolicy);
+		return handler.syncHardLinks(sourceDir);
+	}
+
+	/**
+	 * Mirrors whole source tree into target directory tree by hard links.
+	 * Missing target directories are created and source files missing in
+	 * target directories are hard linked into them. Directories are mirrored
+	 * in parallel.
+	 * 
+	 * @param sourceDir
+	 *            root of source tree
+	 * @param parallelism
+	 *            number of threads mirroring directories in parallel
+	 * @return aggregated result of all mirrored directories
+	 */
+	public TreeMirrorResult buildHardLinksRecursively(File sourceDir, int parallelism) {
+		TreeMirror treeMirror = new TreeMirror(parallelism, true);
+		treeMirror.setRunListener(runListener);
+		treeMirror.setRateLimiter(rateLimiter);
+		treeMirror.setEntryFilter(entryFilter);
+		treeMirror.setExternalMatching(externalMatching);
+		treeMirror.setPipelinedMatching(pipelinedMatching);
+		treeMirror.setMatchKeyStrategy(matchKeyStrategy);
+		return treeMirror.mirror(sourceDir, targetDir);
+	}
+
+	/**
+	 * Plans hard links of whole source tree without changing target tree.
+	 * Plan can be serialized and applied later by {@link LinkPlanExecutor}.
+	 * 
+	 * @param sourceDir
+	 *            root of source tree
+	 * @return plan of hard links
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	public LinkPlan planHardLinks(File sourceDir) throws IOException {
+		LinkPlanner planner = new LinkPlanner(true);
+		planner.setRunListener(runListener);
+		planner.setRateLimiter(rateLimiter);
+		planner.setEntryFilter(entryFilter);
+		planner.setExternalMatching(externalMatching);
+		planner.setPipelinedMatching(pipelinedMatching);
+		planner.setMatchKeyStrategy(matchKeyStrategy);
+		AttributeSnapshot snapshot = new AttributeSnapshot();
+		snapshot.setRunListener(runListener);
+		snapshot.setRateLimiter(rateLimiter);
+		snapshot.setEntryFilter(entryFilter);
+		planner.addTree(sourceDir, targetDir, snapshot);
+		return planner.getPlan();
+	}
+
+	/**
+	 * Creates watcher keeping target directory tree mirrored while source tree
+	 * changes. Watching starts when returned watcher is run. Watcher uses
+	 * entry filter, run listener, rate limiter and matching configuration of
+	 * this facade.
+	 *
+	 * @param sourceDir
+	 *            root of source tree
+	 * @return watcher of source tree
+	 * @throws IOException
+	 *             if I/O error occurs during registration of source tree
+	 */
+	public HardLinksWatcher watchHardLinks(File sourceDir) throws IOException {
+		HardLinksWatcher watcher = new HardLinksWatcher(sourceDir, targetDir, entryFilter);
+		watcher.setRunListener(runListener);
+		watcher.setRateLimiter(rateLimiter);
+		watcher.setExternalMatching(externalMatching);
+		watcher.setPipelinedMatching(pipelinedMatching);
+		watcher.setMatchKeyStrategy(matchKeyStrategy);
+		return watcher;
+	}
+
 	/**
 	 * @return directory comparator I/O handler
 	 */
 	private DirectoryComparator getDirectoryComparator() {
 		if (directoryComparator == null) {
 			directoryComparator = new DirectoryComparator();
+			directoryComparator.setRunListener(runListener);
+			directoryComparator.setRateLimiter(rateLimiter);
+			directoryComparator.setEntryFilter(entryFilter);
+			directoryComparator.setExternalMatching(externalMatching);
+			directoryComparator.setPipelinedMatching(pipelinedMatching);
+			directoryComparator.setMatchKeyStrategy(matchKeyStrategy);
 		}
 		return directoryComparator;
 	}
@@ -85,6 +356,12 @@ public class DirectoryIoFacade {
 	private HardLinksHandler getHardLinksHandler() {
 		if (hardLinksHandler == null) {
 			hardLinksHandler = new HardLinksHandler(targetDir);
+			hardLinksHandler.setRunListener(runListener);
+			hardLinksHandler.setRateLimiter(rateLimiter);
+			hardLinksHandler.setEntryFilter(entryFilter);
+			hardLinksHandler.setExternalMatching(externalMatching);
+			hardLinksHandler.setPipelinedMatching(pipelinedMatching);
+			hardLinksHandler.setMatchKeyStrategy(matchKeyStrategy);
 		}
 		return hardLinksHandler;
 	}
@@ -0,0 +1,65 @@
+package net.lkrnac.hlkit;
+
+import java.io.File;
+
+/**
+ * Pair of source directory and target directory into which source files
+ * should be hard linked.
+ *
+ * @author sitko
+ */
+public final class DirectoryPair {
+	private final File sourceDir;
+	private final File targetDir;
+
+	/**
+	 * Creates directory pair.
+	 *
+	 * @param sourceDir
+	 *            source directory
+	 * @param targetDir
+	 *            target directory
+	 */
+	public DirectoryPair(File sourceDir, File targetDir) {
+		if (sourceDir == null || targetDir == null) {
+			throw new IllegalArgumentException("directories can't be null"); //$NON-NLS-1$
+		}
+		this.sourceDir = sourceDir;
+		this.targetDir = targetDir;
+	}
+
+	/**
+	 * @return source directory
+	 */
+	public File getSourceDir() {
+		return sourceDir;
+	}
+
+	/**
+	 * @return target directory
+	 */
+	public File getTargetDir() {
+		return targetDir;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		boolean result = false;
+		if (obj instanceof DirectoryPair) {
+			DirectoryPair other = (DirectoryPair) obj;
+			result = sourceDir.equals(other.sourceDir) && targetDir.equals(other.targetDir);
+		}
+		return result;
+	}
+
+	@Override
+	public int hashCode() {
+		//SUPPRESS CHECKSTYLE MagicNumber 1 Hash multiplier
+		return sourceDir.hashCode() * 31 + targetDir.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return sourceDir + " -> " + targetDir; //$NON-NLS-1$
+	}
+}
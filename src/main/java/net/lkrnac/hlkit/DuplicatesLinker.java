@@ -0,0 +1,566 @@
+package net.lkrnac.hlkit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Finds files with identical content under set of root directories and
+ * replaces duplicates by hard links.
+ * <p>
+ * Files are processed in stages. First they are bucketed by device and size,
+ * so file with unique size is never read. Hard links of the same file are
+ * collapsed by file key. Remaining candidates are filtered by hash of head and
+ * tail block and confirmed by hash of whole content read via memory mapping.
+ * Confirmed duplicates are replaced by hard links of first file in group.
+ * File which can't be read is reported and left out, so is file whose size,
+ * modification time or file key changed since it was hashed. Content hashes
+ * can be kept in {@link FingerprintIndex} between runs.
+ *
+ * @author sitko
+ */
+public class DuplicatesLinker {
+	private static final int BLOCK_SIZE = 4096;
+	private static final long MAPPING_SIZE = 64L * 1024 * 1024;
+	private static final String DIGEST_ALGORITHM = "SHA-256"; //$NON-NLS-1$
+
+	private FingerprintIndex fingerprintIndex;
+	private LinkRunListener runListener;
+
+	/**
+	 * Sets persistent index of fingerprints. Content of files which didn't
+	 * change since they were hashed in previous run isn't read again.
+	 *
+	 * @param fingerprintIndex
+	 *            fingerprint index, can be <code>null</code>
+	 */
+	public void setFingerprintIndex(FingerprintIndex fingerprintIndex) {
+		this.fingerprintIndex = fingerprintIndex;
+	}
+
+	/**
+	 * Attaches listener of run instrumentation.
+	 *
+	 * @param runListener
+	 *            run listener, can be <code>null</code>
+	 */
+	public void setRunListener(LinkRunListener runListener) {
+		this.runListener = runListener;
+	}
+
+	/**
+	 * Finds and links duplicates under given root directories.
+	 *
+	 * @param roots
+	 *            root directories to search
+	 * @return deduplication statistics
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	public DeduplicationResult deduplicate(Collection<File> roots) throws IOException {
+		AttributeSnapshot snapshot = new AttributeSnapshot();
+		snapshot.setRunListener(runListener);
+		return deduplicate(roots, snapshot);
+	}
+
+	/**
+	 * Finds and links duplicates under given root directories. Directory
+	 * listings and file attributes are read via given snapshot.
+	 *
+	 * @param roots
+	 *            root directories to search
+	 * @param snapshot
+	 *            attribute snapshot of current run
+	 * @return deduplication statistics
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	public DeduplicationResult deduplicate(Collection<File> roots, AttributeSnapshot snapshot)
+			throws IOException {
+		DeduplicationResult result = new DeduplicationResult();
+		Map<SizeKey, List<FileAttributes>> sizeBuckets = new HashMap<>();
+		for (File root : roots) {
+			collectFiles(root, snapshot, sizeBuckets, result);
+		}
+		for (List<FileAttributes> sizeBucket : sizeBuckets.values()) {
+			if (sizeBucket.size() > 1) {
+				deduplicateBucket(sizeBucket, snapshot, result);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Buckets non-empty regular files of directory tree by device and size.
+	 *
+	 * @param directory
+	 *            directory to scan
+	 * @param snapshot
+	 *            attribute snapshot of current run
+	 * @param sizeBuckets
+	 *            buckets to fill
+	 * @param result
+	 *            deduplication statistics
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private static void collectFiles(File directory, AttributeSnapshot snapshot,
+			Map<SizeKey, List<FileAttributes>> sizeBuckets, DeduplicationResult result)
+			throws IOException {
+		try (DirectoryEntries files = snapshot.openFiles(directory)) {
+			for (File file : files) {
+				FileAttributes attributes = snapshot.getAttributes(file);
+				result.addScanned();
+				if (attributes.isRegularFile() && attributes.getSize() > 0
+						&& snapshot.acceptsFile(attributes)) {
+					SizeKey key = new SizeKey(attributes.getDevice(), attributes.getSize());
+					List<FileAttributes> sizeBucket = sizeBuckets.get(key);
+					if (sizeBucket == null) {
+						sizeBucket = new ArrayList<>();
+						sizeBuckets.put(key, sizeBucket);
+					}
+					sizeBucket.add(attributes);
+				}
+			}
+		} catch (DirectoryIteratorException exception) {
+			throw exception.getCause();
+		}
+		for (File subDirectory : snapshot.listDirectories(directory)) {
+			collectFiles(subDirectory, snapshot, sizeBuckets, result);
+		}
+	}
+
+	/**
+	 * Finds and links duplicates in one bucket of files with the same size.
+	 * Candidates of files bigger than head and tail blocks are prefiltered by
+	 * partial hash, unless content hashes of all of them are known from
+	 * fingerprint index.
+	 *
+	 * @param sizeBucket
+	 *            files with the same size on the same device
+	 * @param snapshot
+	 *            attribute snapshot of current run
+	 * @param result
+	 *            deduplication statistics
+	 */
+	private void deduplicateBucket(List<FileAttributes> sizeBucket, AttributeSnapshot snapshot,
+			DeduplicationResult result) {
+		Map<Object, List<FileAttributes>> inodes = groupByFileKey(sizeBucket);
+		if (inodes.size() > 1) {
+			long size = sizeBucket.get(0).getSize();
+			List<List<FileAttributes>> candidates = new ArrayList<>(inodes.values());
+			if (size <= 2 * BLOCK_SIZE || areHashesKnown(candidates)) {
+				linkDuplicates(candidates, size, snapshot, result);
+			} else {
+				Map<ByteBuffer, List<List<FileAttributes>>> partialGroups = new HashMap<>();
+				for (List<FileAttributes> links : candidates) {
+					File file = links.get(0).getFile();
+					try {
+						addToGroup(partialGroups, partialHash(file, size, result), links);
+					} catch (IOException exception) {
+						reportError(file, exception, result);
+					}
+				}
+				for (List<List<FileAttributes>> partialGroup : partialGroups.values()) {
+					if (partialGroup.size() > 1) {
+						linkDuplicates(partialGroup, size, snapshot, result);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Groups candidates by hash of whole content and links confirmed
+	 * duplicates. Candidate which can't be hashed is reported and left out.
+	 *
+	 * @param candidates
+	 *            candidate files, each represented by all its hard links
+	 * @param size
+	 *            size of candidate files
+	 * @param snapshot
+	 *            attribute snapshot of current run
+	 * @param result
+	 *            deduplication statistics
+	 */
+	private void linkDuplicates(List<List<FileAttributes>> candidates, long size,
+			AttributeSnapshot snapshot, DeduplicationResult result) {
+		Map<ByteBuffer, List<List<FileAttributes>>> contentGroups = new HashMap<>();
+		for (List<FileAttributes> links : candidates) {
+			FileAttributes attributes = links.get(0);
+			try {
+				addToGroup(contentGroups, contentHash(attributes, size, result), links);
+			} catch (IOException exception) {
+				reportError(attributes.getFile(), exception, result);
+			}
+		}
+		for (List<List<FileAttributes>> contentGroup : contentGroups.values()) {
+			if (contentGroup.size() > 1) {
+				linkGroup(contentGroup, size, snapshot, result);
+			}
+		}
+	}
+
+	/**
+	 * Reads hash of whole file content. Hash is taken from fingerprint index
+	 * if file didn't change since it was stored, otherwise it is computed and
+	 * stored into index. Partial hash of file not bigger than head and tail
+	 * block covers whole content.
+	 *
+	 * @param attributes
+	 *            attributes of file to hash read during scan
+	 * @param size
+	 *            size of the file
+	 * @param result
+	 *            deduplication statistics
+	 * @return hash of file content
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private byte[] contentHash(FileAttributes attributes, long size, DeduplicationResult result)
+			throws IOException {
+		File file = attributes.getFile();
+		byte[] hash = knownHash(attributes);
+		if (hash == null) {
+			hash = size <= 2 * BLOCK_SIZE ? partialHash(file, size, result) : fullHash(file,
+					size, result);
+			if (fingerprintIndex != null) {
+				fingerprintIndex.put(attributes, hash);
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * Checks if content hashes of all candidates are known from fingerprint
+	 * index.
+	 *
+	 * @param candidates
+	 *            candidate files, each represented by all its hard links
+	 * @return if all hashes are known
+	 */
+	private boolean areHashesKnown(List<List<FileAttributes>> candidates) {
+		boolean known = fingerprintIndex != null;
+		for (int i = 0; known && i < candidates.size(); i++) {
+			known = knownHash(candidates.get(i).get(0)) != null;
+		}
+		return known;
+	}
+
+	/**
+	 * @param attributes
+	 *            current attributes of the file
+	 * @return content hash stored in fingerprint index or <code>null</code> if
+	 *         it isn't known
+	 */
+	private byte[] knownHash(FileAttributes attributes) {
+		byte[] hash = null;
+		if (fingerprintIndex != null) {
+			Fingerprint fingerprint = fingerprintIndex.get(attributes);
+			hash = fingerprint == null ? null : fingerprint.getContentHash();
+		}
+		return hash;
+	}
+
+	/**
+	 * Replaces all files in group by hard links of the first one. Each file is
+	 * checked against attributes it was hashed with right before it is
+	 * replaced, so file modified in the meantime isn't lost. Duplicate which
+	 * changed or can't be replaced is reported and left intact.
+	 *
+	 * @param group
+	 *            files with identical content, each represented by all its
+	 *            hard links
+	 * @param size
+	 *            size of files
+	 * @param snapshot
+	 *            attribute snapshot of current run
+	 * @param result
+	 *            deduplication statistics
+	 */
+	private void linkGroup(List<List<FileAttributes>> group, long size,
+			AttributeSnapshot snapshot, DeduplicationResult result) {
+		FileAttributes original = group.get(0).get(0);
+		result.addDuplicateGroup();
+		for (List<FileAttributes> duplicateLinks : group.subList(1, group.size())) {
+			boolean deduplicated = false;
+			for (FileAttributes duplicate : duplicateLinks) {
+				deduplicated |= linkDuplicate(duplicate, original, snapshot, result);
+			}
+			if (deduplicated) {
+				result.addDeduplicated(size);
+				if (runListener != null) {
+					runListener.counted(RunCounter.BYTES_DEDUPLICATED, size);
+				}
+			}
+		}
+		snapshot.invalidate(original.getFile());
+	}
+
+	/**
+	 * Replaces duplicate by hard link of original, if none of them changed
+	 * since they were hashed.
+	 *
+	 * @param duplicate
+	 *            attributes of duplicate file read during scan
+	 * @param original
+	 *            attributes of original file read during scan
+	 * @param snapshot
+	 *            attribute snapshot of current run
+	 * @param result
+	 *            deduplication statistics
+	 * @return if duplicate was replaced
+	 */
+	private boolean linkDuplicate(FileAttributes duplicate, FileAttributes original,
+			AttributeSnapshot snapshot, DeduplicationResult result) {
+		boolean linked = false;
+		File duplicateFile = duplicate.getFile();
+		try {
+			if (isUnchanged(duplicate) && isUnchanged(original)) {
+				long startNanos = runListener == null ? 0 : System.nanoTime();
+				HardLinksHandler.replaceWithLink(duplicateFile, original.getFile());
+				linked = true;
+				result.addLink();
+				if (runListener != null) {
+					runListener.phaseCompleted(RunPhase.LINK, System.nanoTime() - startNanos);
+					runListener.counted(RunCounter.LINKS_CREATED, 1);
+				}
+			} else {
+				result.addChanged();
+				if (runListener != null) {
+					runListener.counted(RunCounter.CONTENT_MISMATCHES, 1);
+				}
+			}
+		} catch (IOException exception) {
+			reportError(duplicateFile, exception, result);
+		}
+		snapshot.invalidate(duplicateFile);
+		return linked;
+	}
+
+	/**
+	 * Checks that size, modification time and file key of the file are still
+	 * the same as when it was hashed.
+	 *
+	 * @param hashed
+	 *            attributes of the file read during scan
+	 * @return if file didn't change
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private static boolean isUnchanged(FileAttributes hashed) throws IOException {
+		FileAttributes current = FileAttributes.read(hashed.getFile());
+		Object hashedKey = hashed.getFileKey();
+		return current.getSize() == hashed.getSize()
+				&& current.getLastModified() == hashed.getLastModified()
+				&& (hashedKey == null ? current.getFileKey() == null : hashedKey.equals(current
+						.getFileKey()));
+	}
+
+	/**
+	 * Records I/O error of one file and reports it to run listener.
+	 *
+	 * @param file
+	 *            file which failed
+	 * @param exception
+	 *            I/O error
+	 * @param result
+	 *            deduplication statistics
+	 */
+	private void reportError(File file, IOException exception, DeduplicationResult result) {
+		result.addError();
+		if (runListener != null) {
+			runListener.errorOccurred(file, exception);
+		}
+	}
+
+	/**
+	 * Groups files by file key, so hard links of the same file are processed
+	 * only once.
+	 *
+	 * @param files
+	 *            files to group
+	 * @return attributes of hard links of each distinct file
+	 */
+	private static Map<Object, List<FileAttributes>> groupByFileKey(List<FileAttributes> files) {
+		Map<Object, List<FileAttributes>> inodes = new LinkedHashMap<>();
+		for (FileAttributes attributes : files) {
+			Object fileKey = attributes.getFileKey() == null ? attributes.getFile() : attributes
+					.getFileKey();
+			List<FileAttributes> links = inodes.get(fileKey);
+			if (links == null) {
+				links = new ArrayList<>();
+				inodes.put(fileKey, links);
+			}
+			links.add(attributes);
+		}
+		return inodes;
+	}
+
+	/**
+	 * Adds element into group of given hash.
+	 *
+	 * @param groups
+	 *            groups keyed by hash
+	 * @param hash
+	 *            hash of element
+	 * @param element
+	 *            element to add
+	 */
+	private static void addToGroup(Map<ByteBuffer, List<List<FileAttributes>>> groups,
+			byte[] hash, List<FileAttributes> element) {
+		ByteBuffer key = ByteBuffer.wrap(hash);
+		List<List<FileAttributes>> group = groups.get(key);
+		if (group == null) {
+			group = new ArrayList<>();
+			groups.put(key, group);
+		}
+		group.add(element);
+	}
+
+	/**
+	 * Computes hash of head and tail block of the file.
+	 *
+	 * @param file
+	 *            file to read
+	 * @param size
+	 *            size of the file
+	 * @param result
+	 *            deduplication statistics
+	 * @return hash value
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private static byte[] partialHash(File file, long size, DeduplicationResult result)
+			throws IOException {
+		MessageDigest digest = createDigest();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			readBlock(channel, 0, Math.min(BLOCK_SIZE, size), digest, result);
+			if (size > BLOCK_SIZE) {
+				long tailStart = Math.max(BLOCK_SIZE, size - BLOCK_SIZE);
+				readBlock(channel, tailStart, size - tailStart, digest, result);
+			}
+		}
+		return digest.digest();
+	}
+
+	/**
+	 * Computes hash of whole file content. File is read via memory mapping.
+	 *
+	 * @param file
+	 *            file to read
+	 * @param size
+	 *            size of the file
+	 * @param result
+	 *            deduplication statistics
+	 * @return hash value
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private static byte[] fullHash(File file, long size, DeduplicationResult result)
+			throws IOException {
+		MessageDigest digest = createDigest();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			for (long position = 0; position < size; position += MAPPING_SIZE) {
+				long length = Math.min(MAPPING_SIZE, size - position);
+				MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, position,
+						length);
+				digest.update(mapping);
+			}
+		}
+		result.addRead(size);
+		return digest.digest();
+	}
+
+	/**
+	 * Reads block of file into digest.
+	 *
+	 * @param channel
+	 *            channel of the file
+	 * @param position
+	 *            position of the block
+	 * @param length
+	 *            length of the block
+	 * @param digest
+	 *            digest to update
+	 * @param result
+	 *            deduplication statistics
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private static void readBlock(FileChannel channel, long position, long length,
+			MessageDigest digest, DeduplicationResult result) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate((int) length);
+		int readBytes = 0;
+		while (buffer.hasRemaining() && readBytes >= 0) {
+			readBytes = channel.read(buffer, position + buffer.position());
+		}
+		buffer.flip();
+		result.addRead(buffer.remaining());
+		digest.update(buffer);
+	}
+
+	/**
+	 * @return new message digest instance
+	 */
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGORITHM);
+		} catch (NoSuchAlgorithmException exception) {
+			throw new IllegalStateException(exception);
+		}
+	}
+
+	/**
+	 * Key of size bucket. Consists of device and file size, because hard
+	 * links can't cross devices.
+	 *
+	 * @author sitko
+	 */
+	private static final class SizeKey {
+		private final long device;
+		private final long size;
+
+		/**
+		 * Creates size bucket key.
+		 *
+		 * @param device
+		 *            device ID
+		 * @param size
+		 *            file size
+		 */
+		SizeKey(long device, long size) {
+			this.device = device;
+			this.size = size;
+		}
+
+		@Override
+		public int hashCode() {
+			//SUPPRESS CHECKSTYLE MagicNumber 1 Hash code multiplier
+			return 31 * (int) (device ^ (device >>> 32)) + (int) (size ^ (size >>> 32));
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			boolean result = false;
+			if (obj instanceof SizeKey) {
+				SizeKey other = (SizeKey) obj;
+				result = device == other.device && size == other.size;
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,176 @@
+package net.lkrnac.hlkit;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Include and exclude rules of directory entries. Exclude rules are applied
+ * by {@link AttributeSnapshot} while directories are being listed. Glob and
+ * regular expression rules are compiled once when they are added and matched
+ * against entry names.
+ * <p>
+ * Exclude rules apply to files and directories and are evaluated before
+ * entry is stat'ed, so excluded entry is neither stat'ed nor converted into
+ * {@link java.io.File} and excluded directory prunes its whole subtree before
+ * it is read. Include rules, size and age limits apply only to regular files
+ * and are evaluated after the stat call. When source and target directory are
+ * matched, these file rules are evaluated on source file only and excluded
+ * source file is ignored together with its matched target file. Target file
+ * is never excluded just because it was copied later or has other size.
+ * <p>
+ * Rules can be added at any time, but snapshot which already cached listing
+ * of a directory doesn't filter it again. Instance is thread safe.
+ *
+ * @author sitko
+ * @see AttributeSnapshot#setEntryFilter(EntryFilter)
+ */
+public class EntryFilter {
+	private static final String GLOB_SYNTAX = "glob:"; //$NON-NLS-1$
+	private static final String REGEX_SYNTAX = "regex:"; //$NON-NLS-1$
+
+	private final List<PathMatcher> excludes = new CopyOnWriteArrayList<>();
+	private final List<PathMatcher> includes = new CopyOnWriteArrayList<>();
+	private volatile long minSize;
+	private volatile long maxSize = Long.MAX_VALUE;
+	private volatile long minAge;
+	private volatile long maxAge = Long.MAX_VALUE;
+
+	/**
+	 * Excludes files and directories whose names match glob pattern, e.g.
+	 * <code>*.tmp</code> or <code>@eaDir</code>.
+	 *
+	 * @param glob
+	 *            glob pattern of entry name
+	 */
+	public void addExclude(String glob) {
+		excludes.add(compile(GLOB_SYNTAX, glob));
+	}
+
+	/**
+	 * Excludes files and directories whose names match regular expression.
+	 *
+	 * @param regex
+	 *            regular expression of entry name
+	 */
+	public void addExcludeRegex(String regex) {
+		excludes.add(compile(REGEX_SYNTAX, regex));
+	}
+
+	/**
+	 * Includes files whose names match glob pattern. When any include rule is
+	 * added, files not matching any of them are excluded. Directories are
+	 * not affected.
+	 *
+	 * @param glob
+	 *            glob pattern of file name
+	 */
+	public void addInclude(String glob) {
+		includes.add(compile(GLOB_SYNTAX, glob));
+	}
+
+	/**
+	 * Includes files whose names match regular expression. When any include
+	 * rule is added, files not matching any of them are excluded. Directories
+	 * are not affected.
+	 *
+	 * @param regex
+	 *            regular expression of file name
+	 */
+	public void addIncludeRegex(String regex) {
+		includes.add(compile(REGEX_SYNTAX, regex));
+	}
+
+	/**
+	 * Limits sizes of included files.
+	 *
+	 * @param minSize
+	 *            minimal file size in bytes
+	 * @param maxSize
+	 *            maximal file size in bytes
+	 */
+	public void setSizeLimits(long minSize, long maxSize) {
+		if (minSize > maxSize) {
+			throw new IllegalArgumentException("minimal size exceeds maximal"); //$NON-NLS-1$
+		}
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Limits age of included files. Age is time elapsed since last
+	 * modification of file, measured when file is listed.
+	 *
+	 * @param minAge
+	 *            minimal age in milliseconds
+	 * @param maxAge
+	 *            maximal age in milliseconds
+	 */
+	public void setAgeLimits(long minAge, long maxAge) {
+		if (minAge > maxAge) {
+			throw new IllegalArgumentException("minimal age exceeds maximal"); //$NON-NLS-1$
+		}
+		this.minAge = minAge;
+		this.maxAge = maxAge;
+	}
+
+	/**
+	 * Evaluates exclude rules. Entry isn't stat'ed.
+	 *
+	 * @param entry
+	 *            path of directory entry
+	 * @return <code>false</code> if entry is excluded by name
+	 */
+	boolean acceptsName(Path entry) {
+		return !matchesAny(excludes, entry.getFileName());
+	}
+
+	/**
+	 * Evaluates include rules, size and age limits of stat'ed regular file.
+	 *
+	 * @param attributes
+	 *            attributes of file which passed exclude rules
+	 * @return <code>true</code> if file is included
+	 */
+	boolean acceptsFile(FileAttributes attributes) {
+		long size = attributes.getSize();
+		long age = System.currentTimeMillis() - attributes.getLastModified();
+		boolean accepted = size >= minSize && size <= maxSize && age >= minAge && age <= maxAge;
+		if (accepted && !includes.isEmpty()) {
+			accepted = matchesAny(includes, attributes.getFile().toPath().getFileName());
+		}
+		return accepted;
+	}
+
+	/**
+	 * @param matchers
+	 *            compiled rules
+	 * @param name
+	 *            entry name
+	 * @return <code>true</code> if any of rules matches the name
+	 */
+	private static boolean matchesAny(List<PathMatcher> matchers, Path name) {
+		boolean matched = false;
+		Iterator<PathMatcher> iterator = matchers.iterator();
+		while (!matched && iterator.hasNext()) {
+			matched = iterator.next().matches(name);
+		}
+		return matched;
+	}
+
+	/**
+	 * Compiles pattern into matcher of entry names.
+	 *
+	 * @param syntax
+	 *            syntax prefix of pattern
+	 * @param pattern
+	 *            glob or regular expression
+	 * @return compiled matcher
+	 */
+	private static PathMatcher compile(String syntax, String pattern) {
+		return FileSystems.getDefault().getPathMatcher(syntax + pattern);
+	}
+}
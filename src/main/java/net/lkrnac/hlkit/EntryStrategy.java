@@ -0,0 +1,18 @@
+package net.lkrnac.hlkit;
+
+/**
+ * Strategy which was used for one target entry by {@link HardLinksHandler}.
+ *
+ * @author sitko
+ * @see HardLinksHandler#getEntryStrategies()
+ */
+public enum EntryStrategy {
+	/** Target file is hard link of source file. */
+	LINK,
+	/** Source file was copied into target directory. */
+	COPY,
+	/** Entry was skipped, because it couldn't be linked across devices. */
+	SKIP,
+	/** Copy of source file into target directory failed. */
+	FAILED
+}
@@ -0,0 +1,71 @@
+package net.lkrnac.hlkit;
+
+import java.io.File;
+
+/**
+ * Configuration of external-memory matching of directory handlers. When it is
+ * set, handlers don't index source files in memory. Both sides are written
+ * into sorted runs on disk instead and matched by merge-join.
+ *
+ * @author sitko
+ * @see AbstractDirectoryHandler#setExternalMatching(ExternalMatching)
+ */
+public final class ExternalMatching {
+	private final long memoryBudget;
+	private final boolean caseSensitive;
+	private final File tempDir;
+
+	/**
+	 * Creates configuration with runs in default temporary directory.
+	 *
+	 * @param memoryBudget
+	 *            approximate number of heap bytes used for buffering of
+	 *            entries
+	 * @param caseSensitive
+	 *            flag if file names are matched case sensitively
+	 */
+	public ExternalMatching(long memoryBudget, boolean caseSensitive) {
+		this(memoryBudget, caseSensitive, new File(System.getProperty("java.io.tmpdir"))); //$NON-NLS-1$
+	}
+
+	/**
+	 * Creates configuration.
+	 *
+	 * @param memoryBudget
+	 *            approximate number of heap bytes used for buffering of
+	 *            entries
+	 * @param caseSensitive
+	 *            flag if file names are matched case sensitively
+	 * @param tempDir
+	 *            directory for sorted runs
+	 */
+	public ExternalMatching(long memoryBudget, boolean caseSensitive, File tempDir) {
+		if (memoryBudget < 1) {
+			throw new IllegalArgumentException("memoryBudget has to be positive"); //$NON-NLS-1$
+		}
+		this.memoryBudget = memoryBudget;
+		this.caseSensitive = caseSensitive;
+		this.tempDir = tempDir;
+	}
+
+	/**
+	 * @return approximate number of heap bytes used for buffering of entries
+	 */
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * @return if file names are matched case sensitively
+	 */
+	public boolean isCaseSensitive() {
+		return caseSensitive;
+	}
+
+	/**
+	 * @return directory for sorted runs
+	 */
+	public File getTempDir() {
+		return tempDir;
+	}
+}
@@ -0,0 +1,273 @@
+package net.lkrnac.hlkit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Links one source directory into many target directories. Source directory
+ * is listed and its files are stat'ed only once, its scan is imported into
+ * snapshot of each target. Targets are then compared and linked in parallel,
+ * each by its own {@link HardLinksHandler}.
+ *
+ * @author sitko
+ */
+public class FanOutLinker {
+	private final int parallelism;
+	private final boolean createMissingLinks;
+	private LinkRunListener runListener;
+	private IoRateLimiter rateLimiter;
+	private EntryFilter entryFilter;
+	private ExternalMatching externalMatching;
+	private PipelinedMatching pipelinedMatching;
+	private MatchKeyStrategy matchKeyStrategy;
+
+	/**
+	 * Creates fan-out linker instance.
+	 *
+	 * @param parallelism
+	 *            number of threads linking target directories in parallel
+	 * @param createMissingLinks
+	 *            flag if source files missing in target directories should be
+	 *            hard linked into them
+	 */
+	public FanOutLinker(int parallelism, boolean createMissingLinks) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism has to be positive"); //$NON-NLS-1$
+		}
+		this.parallelism = parallelism;
+		this.createMissingLinks = createMissingLinks;
+	}
+
+	/**
+	 * Attaches listener of run instrumentation to all target directories
+	 * linked by this instance.
+	 *
+	 * @param runListener
+	 *            run listener, can be <code>null</code>
+	 */
+	public void setRunListener(LinkRunListener runListener) {
+		this.runListener = runListener;
+	}
+
+	/**
+	 * Attaches rate limiter of file system operations to all target
+	 * directories linked by this instance. Limits can be changed while
+	 * targets are being linked.
+	 *
+	 * @param rateLimiter
+	 *            rate limiter, can be <code>null</code>
+	 */
+	public void setRateLimiter(IoRateLimiter rateLimiter) {
+		this.rateLimiter = rateLimiter;
+	}
+
+	/**
+	 * Attaches filter of directory entries. Excluded files are neither linked
+	 * nor compared.
+	 *
+	 * @param entryFilter
+	 *            entry filter, can be <code>null</code>
+	 */
+	public void setEntryFilter(EntryFilter entryFilter) {
+		this.entryFilter = entryFilter;
+	}
+
+	/**
+	 * Switches matching of files in target directories into external-memory
+	 * mode.
+	 *
+	 * @param externalMatching
+	 *            configuration of external matching, <code>null</code>
+	 *            switches back to in-memory matching
+	 * @see AbstractDirectoryHandler#setExternalMatching(ExternalMatching)
+	 */
+	public void setExternalMatching(ExternalMatching externalMatching) {
+		this.externalMatching = externalMatching;
+	}
+
+	/**
+	 * Switches matching of files in target directories into pipelined mode.
+	 *
+	 * @param pipelinedMatching
+	 *            configuration of pipelined matching, <code>null</code>
+	 *            switches back to sequential matching
+	 * @see AbstractDirectoryHandler#setPipelinedMatching(PipelinedMatching)
+	 */
+	public void setPipelinedMatching(PipelinedMatching pipelinedMatching) {
+		this.pipelinedMatching = pipelinedMatching;
+	}
+
+	/**
+	 * Sets strategy computing keys by which files in target directories are
+	 * matched.
+	 *
+	 * @param matchKeyStrategy
+	 *            match key strategy, <code>null</code> switches back to
+	 *            default strategy
+	 * @see AbstractDirectoryHandler#setMatchKeyStrategy(MatchKeyStrategy)
+	 */
+	public void setMatchKeyStrategy(MatchKeyStrategy matchKeyStrategy) {
+		this.matchKeyStrategy = matchKeyStrategy;
+	}
+
+	/**
+	 * Links source directory into all target directories.
+	 *
+	 * @param sourceDir
+	 *            source directory
+	 * @param targetDirs
+	 *            target directories, missing ones are created if creation of
+	 *            missing links is enabled
+	 * @return comparison result and link outcome keyed by target directory
+	 */
+	public TreeMirrorResult link(File sourceDir, Collection<File> targetDirs) {
+		AttributeSnapshot sourceSnapshot = new AttributeSnapshot();
+		sourceSnapshot.setRunListener(runListener);
+		sourceSnapshot.setRateLimiter(rateLimiter);
+		sourceSnapshot.setEntryFilter(entryFilter);
+		return link(sourceDir, targetDirs, sourceSnapshot);
+	}
+
+	/**
+	 * Links source directory into all target directories. Source directory is
+	 * scanned via given snapshot, which therefore exposes source-side I/O of
+	 * the run. Names in source directory are filtered by entry filter of given
+	 * snapshot, file rules of this instance's filter apply to source files.
+	 *
+	 * @param sourceDir
+	 *            source directory
+	 * @param targetDirs
+	 *            target directories, missing ones are created if creation of
+	 *            missing links is enabled
+	 * @param sourceSnapshot
+	 *            snapshot used only for scan of source directory
+	 * @return comparison result and link outcome keyed by target directory
+	 */
+	public TreeMirrorResult link(File sourceDir, Collection<File> targetDirs,
+			AttributeSnapshot sourceSnapshot) {
+		TreeMirrorResult result = new TreeMirrorResult();
+		try {
+			sourceSnapshot.listFiles(sourceDir);
+			final List<TargetTask> tasks = new ArrayList<>();
+			for (File targetDir : targetDirs) {
+				tasks.add(new TargetTask(sourceDir, targetDir, sourceSnapshot, result));
+			}
+			ForkJoinPool pool = new ForkJoinPool(parallelism);
+			try {
+				pool.invoke(new RecursiveAction() {
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected void compute() {
+						invokeAll(tasks);
+					}
+				});
+			} finally {
+				pool.shutdown();
+			}
+		} catch (IOException ioException) {
+			for (File targetDir : targetDirs) {
+				addFailure(result, targetDir, ioException);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Records failure of target directory and reports it to run listener.
+	 *
+	 * @param result
+	 *            aggregated result
+	 * @param targetDir
+	 *            target directory which failed
+	 * @param ioException
+	 *            I/O error
+	 */
+	private void addFailure(TreeMirrorResult result, File targetDir, IOException ioException) {
+		result.addFailure(targetDir, ioException);
+		if (runListener != null) {
+			runListener.errorOccurred(targetDir, ioException);
+		}
+	}
+
+	/**
+	 * Applies matching configuration of this instance to handler.
+	 *
+	 * @param handler
+	 *            directory handler to configure
+	 */
+	private void configureMatching(AbstractDirectoryHandler handler) {
+		handler.setExternalMatching(externalMatching);
+		handler.setPipelinedMatching(pipelinedMatching);
+		handler.setMatchKeyStrategy(matchKeyStrategy);
+	}
+
+	/**
+	 * Compares and links source directory into one target directory.
+	 *
+	 * @author sitko
+	 */
+	private class TargetTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final File sourceDir;
+		private final File targetDir;
+		private final transient AttributeSnapshot sourceSnapshot;
+		private final transient TreeMirrorResult result;
+
+		/**
+		 * Creates task for one target directory.
+		 *
+		 * @param sourceDir
+		 *            source directory
+		 * @param targetDir
+		 *            target directory
+		 * @param sourceSnapshot
+		 *            snapshot with scanned source directory
+		 * @param result
+		 *            aggregated result
+		 */
+		TargetTask(File sourceDir, File targetDir, AttributeSnapshot sourceSnapshot,
+				TreeMirrorResult result) {
+			this.sourceDir = sourceDir;
+			this.targetDir = targetDir;
+			this.sourceSnapshot = sourceSnapshot;
+			this.result = result;
+		}
+
+		@Override
+		protected void compute() {
+			try {
+				if (createMissingLinks && !targetDir.isDirectory()) {
+					Files.createDirectories(targetDir.toPath());
+				}
+				AttributeSnapshot snapshot = new AttributeSnapshot();
+				snapshot.setRunListener(runListener);
+				snapshot.setRateLimiter(rateLimiter);
+				snapshot.setEntryFilter(entryFilter);
+				snapshot.importDirectory(sourceDir, sourceSnapshot);
+				HardLinksHandler hardLinksHandler = new HardLinksHandler(targetDir);
+				hardLinksHandler.setCreateMissingLinks(createMissingLinks);
+				hardLinksHandler.setRunListener(runListener);
+				hardLinksHandler.setRateLimiter(rateLimiter);
+				DirectoryComparator dirComparator = new DirectoryComparator();
+				configureMatching(dirComparator);
+				configureMatching(hardLinksHandler);
+				boolean linked = hardLinksHandler.buildHardLinks(sourceDir, dirComparator,
+						snapshot);
+				result.addDirectory(targetDir, hardLinksHandler.getComparisonResult(), linked);
+				if (hardLinksHandler.getFailure() != null) {
+					result.addFailure(targetDir, hardLinksHandler.getFailure());
+				}
+			} catch (IOException ioException) {
+				addFailure(result, targetDir, ioException);
+			}
+		}
+	}
+}
@@ -0,0 +1,188 @@
+package net.lkrnac.hlkit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of file attributes needed by directory handlers. All
+ * attributes are read by one file system call. Symbolic links are not
+ * followed.
+ * <p>
+ * Device, inode and link count are available only on file systems supporting
+ * <code>unix</code> attribute view. Otherwise they are set to
+ * {@link #UNKNOWN}.
+ *
+ * @author sitko
+ */
+public final class FileAttributes {
+	/** Value of numeric attribute which isn't supported by file system. */
+	public static final long UNKNOWN = -1;
+
+	private static final String UNIX_VIEW = "unix"; //$NON-NLS-1$
+	private static final String UNIX_ATTRIBUTES = UNIX_VIEW
+			+ ":size,lastModifiedTime,fileKey,dev,ino,nlink,isRegularFile,isDirectory," //$NON-NLS-1$
+			+ "isSymbolicLink"; //$NON-NLS-1$
+	private static final boolean UNIX_SUPPORTED = FileSystems.getDefault()
+			.supportedFileAttributeViews().contains(UNIX_VIEW);
+
+	private final File file;
+	private final long size;
+	private final long lastModified;
+	private final Object fileKey;
+	private final long device;
+	private final long inode;
+	private final long linkCount;
+	private final boolean regularFile;
+	private final boolean directory;
+	private final boolean symbolicLink;
+
+	/**
+	 * Creates attributes snapshot.
+	 *
+	 * @param file
+	 *            file to which attributes belong
+	 * @param size
+	 *            file size in bytes
+	 * @param lastModified
+	 *            last modification time in milliseconds
+	 * @param fileKey
+	 *            object uniquely identifying file on file system
+	 * @param device
+	 *            device ID
+	 * @param inode
+	 *            inode number
+	 * @param linkCount
+	 *            number of hard links of the file
+	 * @param regularFile
+	 *            flag if file is regular file
+	 * @param directory
+	 *            flag if file is directory
+	 * @param symbolicLink
+	 *            flag if file is symbolic link
+	 */
+	//SUPPRESS CHECKSTYLE ParameterNumber 1 Value object
+	FileAttributes(File file, long size, long lastModified, Object fileKey, long device,
+			long inode, long linkCount, boolean regularFile, boolean directory,
+			boolean symbolicLink) {
+		this.file = file;
+		this.size = size;
+		this.lastModified = lastModified;
+		this.fileKey = fileKey;
+		this.device = device;
+		this.inode = inode;
+		this.linkCount = linkCount;
+		this.regularFile = regularFile;
+		this.directory = directory;
+		this.symbolicLink = symbolicLink;
+	}
+
+	/**
+	 * Reads attributes of given file by single file system call.
+	 *
+	 * @param file
+	 *            file on disk
+	 * @return attributes snapshot
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	public static FileAttributes read(File file) throws IOException {
+		Path path = file.toPath();
+		FileAttributes result;
+		if (UNIX_SUPPORTED) {
+			Map<String, Object> attrs = Files.readAttributes(path, UNIX_ATTRIBUTES,
+					LinkOption.NOFOLLOW_LINKS);
+			result = new FileAttributes(file, (Long) attrs.get("size"), //$NON-NLS-1$
+					((FileTime) attrs.get("lastModifiedTime")).toMillis(), //$NON-NLS-1$
+					attrs.get("fileKey"), (Long) attrs.get("dev"), //$NON-NLS-1$ //$NON-NLS-2$
+					(Long) attrs.get("ino"), (Integer) attrs.get("nlink"), //$NON-NLS-1$ //$NON-NLS-2$
+					(Boolean) attrs.get("isRegularFile"), //$NON-NLS-1$
+					(Boolean) attrs.get("isDirectory"), //$NON-NLS-1$
+					(Boolean) attrs.get("isSymbolicLink")); //$NON-NLS-1$
+		} else {
+			BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class,
+					LinkOption.NOFOLLOW_LINKS);
+			result = new FileAttributes(file, attrs.size(), attrs.lastModifiedTime().toMillis(),
+					attrs.fileKey(), UNKNOWN, UNKNOWN, UNKNOWN, attrs.isRegularFile(),
+					attrs.isDirectory(), attrs.isSymbolicLink());
+		}
+		return result;
+	}
+
+	/**
+	 * @return file to which attributes belong
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return file size in bytes
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return last modification time in milliseconds
+	 */
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * @return object uniquely identifying file on file system, hard links of
+	 *         the same file share this key
+	 */
+	public Object getFileKey() {
+		return fileKey;
+	}
+
+	/**
+	 * @return device ID or {@link #UNKNOWN}
+	 */
+	public long getDevice() {
+		return device;
+	}
+
+	/**
+	 * @return inode number or {@link #UNKNOWN}
+	 */
+	public long getInode() {
+		return inode;
+	}
+
+	/**
+	 * @return number of hard links of the file or {@link #UNKNOWN}
+	 */
+	public long getLinkCount() {
+		return linkCount;
+	}
+
+	/**
+	 * @return if file is regular file
+	 */
+	public boolean isRegularFile() {
+		return regularFile;
+	}
+
+	/**
+	 * @return if file is directory
+	 */
+	public boolean isDirectory() {
+		return directory;
+	}
+
+	/**
+	 * @return if file is symbolic link
+	 */
+	public boolean isSymbolicLink() {
+		return symbolicLink;
+	}
+}
@@ -0,0 +1,179 @@
+package net.lkrnac.hlkit;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Matching engine for directory handlers. Indexes source files by match keys
+ * of {@link MatchKeyStrategy}, so each target file is matched by single hash
+ * lookup instead of scanning whole source directory. Key of each file is
+ * computed only once. Source files which weren't matched by any target file
+ * are tracked in insertion order.
+ *
+ * @author sitko
+ */
+class FileMatchIndex {
+	private final AttributeSnapshot snapshot;
+	private final MatchKeyStrategy keyStrategy;
+	private final Map<MatchKey, File> index;
+	private final Set<File> unmatchedFiles;
+
+	/**
+	 * Creates index over given source files. Key of each file is computed only
+	 * once. Streamed source files are indexed while they are being read.
+	 *
+	 * @param sourceFiles
+	 *            files in source directory
+	 * @param snapshot
+	 *            attribute snapshot to read file attributes from, if
+	 *            <code>null</code> attributes are read directly from files
+	 * @param keyStrategy
+	 *            strategy computing match keys
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	FileMatchIndex(Iterable<File> sourceFiles, AttributeSnapshot snapshot,
+			MatchKeyStrategy keyStrategy) throws IOException {
+		this(snapshot, keyStrategy, sourceFiles instanceof Collection ? ((Collection<File>)
+				sourceFiles).size() : 0);
+		for (File sourceFile : sourceFiles) {
+			add(sourceFile);
+		}
+	}
+
+	/**
+	 * Creates empty index, into which source files are added one by one.
+	 *
+	 * @param snapshot
+	 *            attribute snapshot to read file attributes from, if
+	 *            <code>null</code> attributes are read directly from files
+	 * @param keyStrategy
+	 *            strategy computing match keys
+	 * @param expectedSize
+	 *            expected number of source files, 0 if it isn't known
+	 */
+	FileMatchIndex(AttributeSnapshot snapshot, MatchKeyStrategy keyStrategy, int expectedSize) {
+		this.snapshot = snapshot;
+		this.keyStrategy = keyStrategy;
+		int capacity = capacityFor(expectedSize);
+		index = new HashMap<>(capacity);
+		unmatchedFiles = new LinkedHashSet<>(capacity);
+	}
+
+	/**
+	 * Adds source file into index. Key of the file is computed only once.
+	 *
+	 * @param sourceFile
+	 *            file in source directory
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	void add(File sourceFile) throws IOException {
+		add(sourceFile, keyOf(sourceFile));
+	}
+
+	/**
+	 * Adds source file with precomputed key into index.
+	 *
+	 * @param sourceFile
+	 *            file in source directory
+	 * @param key
+	 *            match key of the file
+	 */
+	void add(File sourceFile, MatchKey key) {
+		if (!index.containsKey(key)) {
+			index.put(key, sourceFile);
+		}
+		unmatchedFiles.add(sourceFile);
+	}
+
+	/**
+	 * Finds source file with the same match key as given target file. Found
+	 * source file is marked as matched.
+	 *
+	 * @param targetFile
+	 *            file in target directory
+	 * @return matching source file or <code>null</code> if there is no such
+	 *         file
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	File match(File targetFile) throws IOException {
+		return match(keyOf(targetFile));
+	}
+
+	/**
+	 * Finds source file with given precomputed match key of target file.
+	 * Found source file is marked as matched.
+	 *
+	 * @param targetKey
+	 *            match key of file in target directory
+	 * @return matching source file or <code>null</code> if there is no such
+	 *         file
+	 */
+	File match(MatchKey targetKey) {
+		File sourceFile = index.get(targetKey);
+		if (sourceFile != null) {
+			unmatchedFiles.remove(sourceFile);
+		}
+		return sourceFile;
+	}
+
+	/**
+	 * @return source files which weren't matched by any target file yet
+	 */
+	Collection<File> getUnmatchedFiles() {
+		return Collections.unmodifiableSet(unmatchedFiles);
+	}
+
+	/**
+	 * Computes match key of given file.
+	 *
+	 * @param file
+	 *            file to compute key of
+	 * @return match key
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private MatchKey keyOf(File file) throws IOException {
+		return keyOf(file, snapshot, keyStrategy);
+	}
+
+	/**
+	 * Computes match key of given file. Attributes are read from snapshot,
+	 * if there is any.
+	 *
+	 * @param file
+	 *            file to compute key of
+	 * @param snapshot
+	 *            attribute snapshot or <code>null</code>
+	 * @param keyStrategy
+	 *            strategy computing match keys
+	 * @return match key
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	static MatchKey keyOf(File file, AttributeSnapshot snapshot, MatchKeyStrategy keyStrategy)
+			throws IOException {
+		return keyStrategy.keyOf(file, snapshot == null ? null : snapshot.getAttributes(file));
+	}
+
+	/**
+	 * Computes initial capacity of hash based collection, so that it doesn't
+	 * need rehashing for given number of elements.
+	 *
+	 * @param size
+	 *            expected number of elements, 0 if it isn't known
+	 * @return initial capacity
+	 */
+	private static int capacityFor(int size) {
+		//SUPPRESS CHECKSTYLE MagicNumber 2 Default load factor and capacity of hash collections
+		return size == 0 ? 16 : size * 4 / 3 + 1;
+	}
+}
@@ -0,0 +1,29 @@
+package net.lkrnac.hlkit;
+
+import java.util.Arrays;
+
+/**
+ * Last known state of file stored in {@link FingerprintIndex}.
+ *
+ * @author sitko
+ */
+public class Fingerprint {
+	private final byte[] contentHash;
+
+	/**
+	 * Creates fingerprint.
+	 *
+	 * @param contentHash
+	 *            hash of file content
+	 */
+	public Fingerprint(byte[] contentHash) {
+		this.contentHash = Arrays.copyOf(contentHash, contentHash.length);
+	}
+
+	/**
+	 * @return hash of file content
+	 */
+	public byte[] getContentHash() {
+		return Arrays.copyOf(contentHash, contentHash.length);
+	}
+}
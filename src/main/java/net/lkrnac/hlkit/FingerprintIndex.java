@@ -0,0 +1,671 @@
+package net.lkrnac.hlkit;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent index of file fingerprints used to skip unchanged files in
+ * repeated runs. Entries are keyed by device and inode and hold size and
+ * modification time of the file, so entry is valid only while these don't
+ * change. Each entry stores hash of file content. Hard link state isn't
+ * stored, because it depends on source directory and can change without
+ * changing the target file.
+ * <p>
+ * Every update is appended to append-only segment files as fixed-size record
+ * protected by checksum. Entries are looked up in open addressing hash table
+ * stored in memory mapped file, so they aren't loaded onto the heap. Hash
+ * table is only derived data. When index wasn't closed cleanly, table is
+ * rebuilt by replaying segments and torn record at the end of segment is cut
+ * off. Compaction rewrites live entries into single new segment and deletes
+ * old ones.
+ * <p>
+ * Instance is thread safe, but only one instance can use the index directory
+ * at a time.
+ *
+ * @author sitko
+ */
+public class FingerprintIndex implements Closeable {
+	/** Length of content hash in bytes. */
+	public static final int HASH_SIZE = 32;
+
+	private static final int OFFSET_DEVICE = 0;
+	private static final int OFFSET_INODE = 8;
+	private static final int OFFSET_SIZE = 16;
+	private static final int OFFSET_MODIFIED = 24;
+	private static final int OFFSET_HASH = 32;
+	private static final int OFFSET_STATE = OFFSET_HASH + HASH_SIZE;
+	private static final int OFFSET_CRC = OFFSET_STATE + 4;
+	private static final int RECORD_SIZE = OFFSET_CRC + 4;
+
+	private static final int STATE_EMPTY = 0;
+	private static final int STATE_PRESENT = 1;
+	private static final int STATE_HAS_HASH = 0x100;
+
+	private static final long HEADER_MAGIC = 0x686C6B6974667031L;
+	private static final int HEADER_SIZE = 44;
+	private static final String HEADER_FILE = "fingerprints.hdr"; //$NON-NLS-1$
+	private static final String TABLE_FILE = "fingerprints.tbl"; //$NON-NLS-1$
+	private static final String SEGMENT_PREFIX = "segment-"; //$NON-NLS-1$
+	private static final String SEGMENT_SUFFIX = ".log"; //$NON-NLS-1$
+	private static final String TEMP_SUFFIX = ".tmp"; //$NON-NLS-1$
+
+	private static final long INITIAL_CAPACITY = 1 << 16;
+	private static final long SLOTS_PER_CHUNK = 1 << 20;
+	private static final int MAX_LOAD_PERCENT = 70;
+	private static final long MAX_SEGMENT_SIZE = 64L * 1024 * 1024;
+	private static final int COMPACTION_RATIO = 3;
+	private static final int IO_BUFFER_SIZE = 1 << 20;
+
+	private final File directory;
+	private final ByteBuffer writeBuffer = ByteBuffer.allocate(IO_BUFFER_SIZE);
+	private final byte[] record = new byte[RECORD_SIZE];
+	private final CRC32 crc = new CRC32();
+
+	private FileChannel tableChannel;
+	private MappedByteBuffer[] chunks;
+	private long capacity;
+	private long count;
+
+	private FileChannel segmentChannel;
+	private long segmentId;
+	private long segmentLength;
+	private long totalSegmentLength;
+
+	/**
+	 * Creates index instance. Use {@link #open(File)} to obtain opened index.
+	 *
+	 * @param directory
+	 *            directory of index files
+	 */
+	private FingerprintIndex(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Opens index stored in given directory. Directory is created if it doesn't
+	 * exist. If index wasn't closed cleanly, hash table is rebuilt from
+	 * segments.
+	 *
+	 * @param directory
+	 *            directory of index files
+	 * @return opened index
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	public static FingerprintIndex open(File directory) throws IOException {
+		Files.createDirectories(directory.toPath());
+		FingerprintIndex index = new FingerprintIndex(directory);
+		index.load();
+		return index;
+	}
+
+	/**
+	 * Reads fingerprint of given file. Fingerprint is returned only if file
+	 * didn't change since it was stored.
+	 *
+	 * @param attributes
+	 *            current attributes of the file
+	 * @return stored fingerprint or <code>null</code> if there is none or file
+	 *         changed
+	 */
+	public synchronized Fingerprint get(FileAttributes attributes) {
+		Fingerprint fingerprint = null;
+		if (isIndexable(attributes)) {
+			long slot = findSlot(attributes.getDevice(), attributes.getInode());
+			MappedByteBuffer chunk = chunkOf(slot);
+			int offset = offsetOf(slot);
+			int state = chunk.getInt(offset + OFFSET_STATE);
+			if ((state & STATE_HAS_HASH) != 0 && isUnchanged(chunk, offset, attributes)) {
+				byte[] contentHash = new byte[HASH_SIZE];
+				ByteBuffer slotBuffer = chunk.duplicate();
+				slotBuffer.position(offset + OFFSET_HASH);
+				slotBuffer.get(contentHash);
+				fingerprint = new Fingerprint(contentHash);
+			}
+		}
+		return fingerprint;
+	}
+
+	/**
+	 * Stores fingerprint of given file.
+	 *
+	 * @param attributes
+	 *            current attributes of the file
+	 * @param contentHash
+	 *            hash of file content
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	public synchronized void put(FileAttributes attributes, byte[] contentHash)
+			throws IOException {
+		if (isIndexable(attributes)) {
+			encode(attributes, contentHash);
+			storeInTable();
+			appendToSegment();
+		}
+	}
+
+	/**
+	 * Writes buffered updates into segment and forces them to disk.
+	 *
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	public synchronized void flush() throws IOException {
+		drainWriteBuffer();
+		segmentChannel.force(false);
+	}
+
+	/**
+	 * Rewrites live entries into single new segment and deletes older
+	 * segments.
+	 *
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	public synchronized void compact() throws IOException {
+		flush();
+		segmentChannel.close();
+		long compactedId = segmentId + 1;
+		File tempFile = new File(directory, segmentName(compactedId) + TEMP_SUFFIX);
+		long compactedLength = 0;
+		byte[] slotRecord = new byte[RECORD_SIZE];
+		try (FileChannel channel = FileChannel.open(tempFile.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE)) {
+			for (long slot = 0; slot < capacity; slot++) {
+				MappedByteBuffer chunk = chunkOf(slot);
+				int offset = offsetOf(slot);
+				if (chunk.getInt(offset + OFFSET_STATE) != STATE_EMPTY) {
+					chunk.position(offset);
+					chunk.get(slotRecord);
+					putIntoWriteBuffer(channel, slotRecord);
+					compactedLength += RECORD_SIZE;
+				}
+			}
+			drainWriteBuffer(channel);
+			channel.force(false);
+		}
+		Files.move(tempFile.toPath(), segmentFile(compactedId).toPath(),
+				StandardCopyOption.ATOMIC_MOVE);
+		for (Long oldSegmentId : listSegmentIds()) {
+			if (oldSegmentId < compactedId) {
+				Files.delete(segmentFile(oldSegmentId).toPath());
+			}
+		}
+		totalSegmentLength = compactedLength;
+		openSegment(compactedId);
+	}
+
+	/**
+	 * @return number of entries in index
+	 */
+	public synchronized long size() {
+		return count;
+	}
+
+	/**
+	 * Flushes all updates and marks index as cleanly closed.
+	 * <p>
+	 * <b> Javadoc from parent class:<br>
+	 * </b> {@inheritDoc}
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		flush();
+		for (MappedByteBuffer chunk : chunks) {
+			chunk.force();
+		}
+		writeHeader(true);
+		segmentChannel.close();
+		tableChannel.close();
+	}
+
+	/**
+	 * Loads hash table. Table is rebuilt from segments if index wasn't closed
+	 * cleanly.
+	 *
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private void load() throws IOException {
+		for (File file : directory.listFiles()) {
+			if (file.getName().endsWith(TEMP_SUFFIX)) {
+				Files.delete(file.toPath());
+			}
+		}
+		List<Long> segmentIds = listSegmentIds();
+		long lastSegmentId = segmentIds.isEmpty() ? 1 : segmentIds.get(segmentIds.size() - 1);
+		File tableFile = new File(directory, TABLE_FILE);
+		ByteBuffer header = readHeader();
+		boolean clean = header != null && header.getInt() == 1;
+		if (clean) {
+			capacity = header.getLong();
+			count = header.getLong();
+			clean = header.getLong() == lastSegmentId
+					&& header.getLong() == segmentFile(lastSegmentId).length()
+					&& tableFile.length() == capacity * RECORD_SIZE;
+		}
+		// index is dirty from now on, until it is closed
+		writeHeader(false);
+		if (clean) {
+			mapTable(tableFile, capacity);
+			for (Long id : segmentIds) {
+				totalSegmentLength += segmentFile(id).length();
+			}
+		} else {
+			Files.deleteIfExists(tableFile.toPath());
+			mapTable(tableFile, INITIAL_CAPACITY);
+			count = 0;
+			for (Long id : segmentIds) {
+				replaySegment(id);
+			}
+		}
+		openSegment(lastSegmentId);
+	}
+
+	/**
+	 * Replays records of segment into hash table. Segment is truncated at
+	 * first damaged record.
+	 *
+	 * @param id
+	 *            segment ID
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private void replaySegment(long id) throws IOException {
+		try (FileChannel channel = FileChannel.open(segmentFile(id).toPath(),
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer readBuffer = ByteBuffer.allocate(IO_BUFFER_SIZE);
+			long validLength = 0;
+			boolean damaged = false;
+			while (!damaged && channel.read(readBuffer) > 0) {
+				readBuffer.flip();
+				while (!damaged && readBuffer.remaining() >= RECORD_SIZE) {
+					readBuffer.get(record);
+					damaged = !isChecksumValid();
+					if (!damaged) {
+						storeInTable();
+						validLength += RECORD_SIZE;
+					}
+				}
+				readBuffer.compact();
+			}
+			if (validLength < channel.size()) {
+				channel.truncate(validLength);
+			}
+			totalSegmentLength += validLength;
+		}
+	}
+
+	/**
+	 * Opens segment for appending.
+	 *
+	 * @param id
+	 *            segment ID
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private void openSegment(long id) throws IOException {
+		segmentId = id;
+		segmentChannel = FileChannel.open(segmentFile(id).toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		segmentLength = segmentChannel.size();
+	}
+
+	/**
+	 * Appends encoded record to active segment. When segment is full, new
+	 * segment is started or segments are compacted.
+	 *
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private void appendToSegment() throws IOException {
+		putIntoWriteBuffer(segmentChannel, record);
+		segmentLength += RECORD_SIZE;
+		totalSegmentLength += RECORD_SIZE;
+		if (segmentLength >= MAX_SEGMENT_SIZE) {
+			if (totalSegmentLength > COMPACTION_RATIO * count * RECORD_SIZE) {
+				compact();
+			} else {
+				flush();
+				segmentChannel.close();
+				openSegment(segmentId + 1);
+			}
+		}
+	}
+
+	/**
+	 * Stores encoded record into hash table, table grows if needed.
+	 *
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private void storeInTable() throws IOException {
+		ByteBuffer recordBuffer = ByteBuffer.wrap(record);
+		long slot = findSlot(recordBuffer.getLong(OFFSET_DEVICE),
+				recordBuffer.getLong(OFFSET_INODE));
+		MappedByteBuffer chunk = chunkOf(slot);
+		int offset = offsetOf(slot);
+		if (chunk.getInt(offset + OFFSET_STATE) == STATE_EMPTY) {
+			count++;
+		}
+		chunk.position(offset);
+		chunk.put(record);
+		if (count * 100 > capacity * MAX_LOAD_PERCENT) {
+			grow();
+		}
+	}
+
+	/**
+	 * Doubles capacity of hash table and rehashes all entries.
+	 *
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private void grow() throws IOException {
+		MappedByteBuffer[] oldChunks = chunks;
+		long oldCapacity = capacity;
+		FileChannel oldChannel = tableChannel;
+		File tableFile = new File(directory, TABLE_FILE);
+		File tempFile = new File(directory, TABLE_FILE + TEMP_SUFFIX);
+		mapTable(tempFile, oldCapacity * 2);
+		byte[] slotRecord = new byte[RECORD_SIZE];
+		for (long slot = 0; slot < oldCapacity; slot++) {
+			MappedByteBuffer oldChunk = oldChunks[(int) (slot / SLOTS_PER_CHUNK)];
+			int offset = (int) (slot % SLOTS_PER_CHUNK) * RECORD_SIZE;
+			if (oldChunk.getInt(offset + OFFSET_STATE) != STATE_EMPTY) {
+				long newSlot = findSlot(oldChunk.getLong(offset + OFFSET_DEVICE),
+						oldChunk.getLong(offset + OFFSET_INODE));
+				oldChunk.position(offset);
+				oldChunk.get(slotRecord);
+				MappedByteBuffer newChunk = chunkOf(newSlot);
+				newChunk.position(offsetOf(newSlot));
+				newChunk.put(slotRecord);
+			}
+		}
+		oldChannel.close();
+		Files.move(tempFile.toPath(), tableFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Maps hash table file with given capacity.
+	 *
+	 * @param tableFile
+	 *            table file
+	 * @param tableCapacity
+	 *            number of slots, power of two
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private void mapTable(File tableFile, long tableCapacity) throws IOException {
+		tableChannel = FileChannel.open(tableFile.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		long slotsPerChunk = Math.min(tableCapacity, SLOTS_PER_CHUNK);
+		chunks = new MappedByteBuffer[(int) (tableCapacity / slotsPerChunk)];
+		for (int i = 0; i < chunks.length; i++) {
+			chunks[i] = tableChannel.map(FileChannel.MapMode.READ_WRITE, i * slotsPerChunk
+					* RECORD_SIZE, slotsPerChunk * RECORD_SIZE);
+		}
+		capacity = tableCapacity;
+	}
+
+	/**
+	 * Finds slot of given key by linear probing.
+	 *
+	 * @param device
+	 *            device ID
+	 * @param inode
+	 *            inode number
+	 * @return slot holding the key or first empty slot
+	 */
+	private long findSlot(long device, long inode) {
+		long slot = mix(device, inode) & (capacity - 1);
+		boolean found = false;
+		while (!found) {
+			MappedByteBuffer chunk = chunkOf(slot);
+			int offset = offsetOf(slot);
+			found = chunk.getInt(offset + OFFSET_STATE) == STATE_EMPTY
+					|| chunk.getLong(offset + OFFSET_INODE) == inode
+					&& chunk.getLong(offset + OFFSET_DEVICE) == device;
+			if (!found) {
+				slot = (slot + 1) & (capacity - 1);
+			}
+		}
+		return slot;
+	}
+
+	/**
+	 * Encodes fingerprint into record buffer.
+	 *
+	 * @param attributes
+	 *            attributes of the file
+	 * @param contentHash
+	 *            hash of file content
+	 */
+	private void encode(FileAttributes attributes, byte[] contentHash) {
+		ByteBuffer recordBuffer = ByteBuffer.wrap(record);
+		recordBuffer.putLong(attributes.getDevice());
+		recordBuffer.putLong(attributes.getInode());
+		recordBuffer.putLong(attributes.getSize());
+		recordBuffer.putLong(attributes.getLastModified());
+		recordBuffer.put(contentHash, 0, HASH_SIZE);
+		recordBuffer.putInt(STATE_PRESENT | STATE_HAS_HASH);
+		crc.reset();
+		crc.update(record, 0, OFFSET_CRC);
+		recordBuffer.putInt((int) crc.getValue());
+	}
+
+	/**
+	 * @return if checksum of record in record buffer is valid
+	 */
+	private boolean isChecksumValid() {
+		ByteBuffer recordBuffer = ByteBuffer.wrap(record);
+		crc.reset();
+		crc.update(record, 0, OFFSET_CRC);
+		return recordBuffer.getInt(OFFSET_CRC) == (int) crc.getValue()
+				&& recordBuffer.getInt(OFFSET_STATE) != STATE_EMPTY;
+	}
+
+	/**
+	 * Puts encoded record into write buffer, which is drained into given
+	 * channel when full.
+	 *
+	 * @param channel
+	 *            channel to drain write buffer into
+	 * @param encodedRecord
+	 *            record to write
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private void putIntoWriteBuffer(FileChannel channel, byte[] encodedRecord)
+			throws IOException {
+		if (writeBuffer.remaining() < RECORD_SIZE) {
+			drainWriteBuffer(channel);
+		}
+		writeBuffer.put(encodedRecord);
+	}
+
+	/**
+	 * Writes content of write buffer into active segment.
+	 *
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private void drainWriteBuffer() throws IOException {
+		drainWriteBuffer(segmentChannel);
+	}
+
+	/**
+	 * Writes content of write buffer into given channel.
+	 *
+	 * @param channel
+	 *            channel to write into
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private void drainWriteBuffer(FileChannel channel) throws IOException {
+		writeBuffer.flip();
+		while (writeBuffer.hasRemaining()) {
+			channel.write(writeBuffer);
+		}
+		writeBuffer.clear();
+	}
+
+	/**
+	 * Reads header of the index.
+	 *
+	 * @return header buffer positioned after magic number or
+	 *         <code>null</code> if header is missing or invalid
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private ByteBuffer readHeader() throws IOException {
+		File headerFile = new File(directory, HEADER_FILE);
+		ByteBuffer header = null;
+		if (headerFile.length() == HEADER_SIZE) {
+			header = ByteBuffer.wrap(Files.readAllBytes(headerFile.toPath()));
+			if (header.getLong() != HEADER_MAGIC) {
+				header = null;
+			}
+		}
+		return header;
+	}
+
+	/**
+	 * Writes header of the index and forces it to disk.
+	 *
+	 * @param clean
+	 *            flag if index is cleanly closed
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private void writeHeader(boolean clean) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putLong(HEADER_MAGIC);
+		header.putInt(clean ? 1 : 0);
+		header.putLong(capacity);
+		header.putLong(count);
+		header.putLong(segmentId);
+		header.putLong(segmentLength);
+		header.flip();
+		try (FileChannel channel = FileChannel.open(new File(directory, HEADER_FILE).toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (header.hasRemaining()) {
+				channel.write(header);
+			}
+			channel.force(true);
+		}
+	}
+
+	/**
+	 * @return sorted IDs of existing segments
+	 */
+	private List<Long> listSegmentIds() {
+		List<Long> ids = new ArrayList<>();
+		for (String name : directory.list()) {
+			if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+				ids.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length()
+						- SEGMENT_SUFFIX.length()), 16));
+			}
+		}
+		Collections.sort(ids);
+		return ids;
+	}
+
+	/**
+	 * @param id
+	 *            segment ID
+	 * @return file name of segment
+	 */
+	private static String segmentName(long id) {
+		return String.format("%s%016x%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX); //$NON-NLS-1$
+	}
+
+	/**
+	 * @param id
+	 *            segment ID
+	 * @return segment file
+	 */
+	private File segmentFile(long id) {
+		return new File(directory, segmentName(id));
+	}
+
+	/**
+	 * @param slot
+	 *            slot index
+	 * @return mapped chunk containing slot
+	 */
+	private MappedByteBuffer chunkOf(long slot) {
+		return chunks[(int) (slot / SLOTS_PER_CHUNK)];
+	}
+
+	/**
+	 * @param slot
+	 *            slot index
+	 * @return byte offset of slot within its chunk
+	 */
+	private static int offsetOf(long slot) {
+		return (int) (slot % SLOTS_PER_CHUNK) * RECORD_SIZE;
+	}
+
+	/**
+	 * Checks if entry in slot belongs to unchanged file.
+	 *
+	 * @param chunk
+	 *            chunk of the slot
+	 * @param offset
+	 *            offset of the slot
+	 * @param attributes
+	 *            current attributes of the file
+	 * @return if size and modification time of the file didn't change
+	 */
+	private static boolean isUnchanged(MappedByteBuffer chunk, int offset,
+			FileAttributes attributes) {
+		return chunk.getLong(offset + OFFSET_SIZE) == attributes.getSize()
+				&& chunk.getLong(offset + OFFSET_MODIFIED) == attributes.getLastModified();
+	}
+
+	/**
+	 * @param attributes
+	 *            attributes of the file
+	 * @return if file system provides device and inode needed for indexing
+	 */
+	private static boolean isIndexable(FileAttributes attributes) {
+		return attributes.getDevice() != FileAttributes.UNKNOWN
+				&& attributes.getInode() != FileAttributes.UNKNOWN;
+	}
+
+	/**
+	 * Mixes device and inode into well distributed hash.
+	 *
+	 * @param device
+	 *            device ID
+	 * @param inode
+	 *            inode number
+	 * @return hash value
+	 */
+	//SUPPRESS CHECKSTYLE MagicNumber 10 Constants of 64-bit hash finalizer
+	private static long mix(long device, long inode) {
+		long hash = inode * 0x9E3779B97F4A7C15L ^ device;
+		hash ^= hash >>> 33;
+		hash *= 0xFF51AFD7ED558CCDL;
+		hash ^= hash >>> 33;
+		hash *= 0xC4CEB9FE1A85EC53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
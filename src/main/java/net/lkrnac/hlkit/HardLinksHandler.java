@@ -2,12 +2,33 @@ package net.lkrnac.hlkit;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.FileSystems;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.attribute.BasicFileAttributes;
-import java.util.Arrays;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
 
 /**
  * Generates hard links of source files.
@@ -16,7 +37,39 @@ import java.util.Arrays;
  * 
  */
 public class HardLinksHandler extends AbstractDirectoryHandler {
+	private static final int DEFAULT_COPY_PARALLELISM = 2;
+	private static final int DEFAULT_COPY_IN_FLIGHT_BYTES = 64 * 1024 * 1024;
+	private static final int DEFAULT_REPLACEMENT_PARALLELISM = 4;
+	private static final String TEMP_LINK_PREFIX = ".hlkit-"; //$NON-NLS-1$
+	private static final String TEMP_LINK_SUFFIX = ".tmp"; //$NON-NLS-1$
+	private static final String TEMP_LINK_GLOB = TEMP_LINK_PREFIX + "*" //$NON-NLS-1$
+			+ TEMP_LINK_SUFFIX;
+	private static final long REPLACEMENT_KEEP_ALIVE_SECONDS = 1;
+
 	private File targetDir;
+	private AttributeSnapshot attributeSnapshot;
+	private boolean createMissingLinks;
+	private DirectoryComparisonResult comparisonResult;
+	private boolean linkingRequired;
+	private IOException failure;
+	private InodeIndex inodeIndex;
+	private LinkJournal journal;
+	private ReplacementMode replacementMode = ReplacementMode.ATOMIC;
+	private int replacementParallelism = DEFAULT_REPLACEMENT_PARALLELISM;
+	private Map<File, File> replacementBatch = new LinkedHashMap<>();
+	private ThreadPoolExecutor replacementExecutor;
+	private CrossDeviceStrategy crossDeviceStrategy = CrossDeviceStrategy.FAIL;
+	private int copyParallelism = DEFAULT_COPY_PARALLELISM;
+	private int copyInFlightBytes = DEFAULT_COPY_IN_FLIGHT_BYTES;
+	private Map<File, EntryStrategy> entryStrategies = new HashMap<>();
+	private boolean crossDevice;
+	private ParallelCopier copier;
+	private ConflictPolicy conflictPolicy = ConflictPolicy.SOURCE_WINS;
+	private ContentVerifier contentVerifier;
+	private List<File> contentMismatches = new ArrayList<>();
+	private File syncSourceDir;
+	private List<File> missingInSource;
+	private List<File> missingInTarget;
 
 	/**
 	 * Creates instance of hard links generator for source directory.
@@ -40,6 +93,180 @@ public class HardLinksHandler extends AbstractDirectoryHandler {
 		return targetDir;
 	}
 
+	/**
+	 * @return if source files missing in target directory are hard linked into
+	 *         it
+	 */
+	public boolean isCreateMissingLinks() {
+		return createMissingLinks;
+	}
+
+	/**
+	 * Sets if source files missing in target directory should be hard linked
+	 * into it. When enabled, empty target directory is also filled with hard
+	 * links.
+	 * 
+	 * @param createMissingLinks
+	 *            flag if missing hard links should be created
+	 */
+	public void setCreateMissingLinks(boolean createMissingLinks) {
+		this.createMissingLinks = createMissingLinks;
+	}
+
+	/**
+	 * Sets strategy for source directories on other file store than target
+	 * directory. File stores are compared before linking, so mismatch is
+	 * detected up front. Strategy other than {@link CrossDeviceStrategy#FAIL}
+	 * also records strategy used for each entry.
+	 * 
+	 * @param crossDeviceStrategy
+	 *            cross-device strategy
+	 * @see #getEntryStrategies()
+	 */
+	public void setCrossDeviceStrategy(CrossDeviceStrategy crossDeviceStrategy) {
+		this.crossDeviceStrategy = crossDeviceStrategy;
+	}
+
+	/**
+	 * Sets limits of copying for {@link CrossDeviceStrategy#COPY}.
+	 * 
+	 * @param parallelism
+	 *            number of files copied in parallel
+	 * @param inFlightBytes
+	 *            maximal number of bytes being copied at once
+	 */
+	public void setCopyLimits(int parallelism, int inFlightBytes) {
+		if (parallelism < 1 || inFlightBytes < 1) {
+			throw new IllegalArgumentException("limits have to be positive"); //$NON-NLS-1$
+		}
+		this.copyParallelism = parallelism;
+		this.copyInFlightBytes = inFlightBytes;
+	}
+
+	/**
+	 * Sets mode in which target files are replaced by hard links. Default mode
+	 * is {@link ReplacementMode#ATOMIC}.
+	 * 
+	 * @param replacementMode
+	 *            replacement mode
+	 */
+	public void setReplacementMode(ReplacementMode replacementMode) {
+		this.replacementMode = replacementMode;
+	}
+
+	/**
+	 * Sets number of workers replacing target files in
+	 * {@link ReplacementMode#ATOMIC_BATCHED} mode. Workers are shared by all
+	 * batches of this handler and stop when they are idle.
+	 * 
+	 * @param parallelism
+	 *            number of parallel workers
+	 */
+	public void setReplacementParallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism has to be positive"); //$NON-NLS-1$
+		}
+		this.replacementParallelism = parallelism;
+		if (replacementExecutor != null) {
+			replacementExecutor.shutdown();
+			replacementExecutor = null;
+		}
+	}
+
+	/**
+	 * Sets policy resolving differing files during
+	 * {@link #syncHardLinks(File, AttributeSnapshot)}.
+	 * 
+	 * @param conflictPolicy
+	 *            conflict policy
+	 */
+	public void setConflictPolicy(ConflictPolicy conflictPolicy) {
+		this.conflictPolicy = conflictPolicy;
+	}
+
+	/**
+	 * Sets verifier comparing content of matched files before target file is
+	 * replaced by hard link. Target file with different content is kept.
+	 * 
+	 * @param contentVerifier
+	 *            content verifier, <code>null</code> replaces files matched by
+	 *            name and size without verification
+	 */
+	public void setContentVerifier(ContentVerifier contentVerifier) {
+		this.contentVerifier = contentVerifier;
+	}
+
+	/**
+	 * @return target files which weren't replaced by last
+	 *         {@link #buildHardLinks(File, DirectoryComparator)} call, because
+	 *         their content differs from source files
+	 */
+	public List<File> getContentMismatches() {
+		return Collections.unmodifiableList(contentMismatches);
+	}
+
+	/**
+	 * @return strategies used for target entries by last
+	 *         {@link #buildHardLinks(File, DirectoryComparator)} call, keyed by
+	 *         target file; empty if cross-device strategy is
+	 *         {@link CrossDeviceStrategy#FAIL}
+	 */
+	public Map<File, EntryStrategy> getEntryStrategies() {
+		return Collections.unmodifiableMap(entryStrategies);
+	}
+
+	/**
+	 * Sets reverse inode index used by verification. Links of target files are
+	 * looked up in the index, so source directory doesn't have to be read.
+	 * Index has to cover source directory.
+	 * 
+	 * @param inodeIndex
+	 *            inode index, can be <code>null</code>
+	 */
+	public void setInodeIndex(InodeIndex inodeIndex) {
+		this.inodeIndex = inodeIndex;
+	}
+
+	/**
+	 * Sets journal into which replacements of target files are recorded, so
+	 * that replacement interrupted by crash can be repaired.
+	 * 
+	 * @param journal
+	 *            link journal, can be <code>null</code>
+	 * @see LinkJournal#repair()
+	 */
+	public void setJournal(LinkJournal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * @return result of directories comparison performed by last
+	 *         {@link #buildHardLinks(File, DirectoryComparator)} call or
+	 *         <code>null</code> if comparison failed
+	 */
+	public DirectoryComparisonResult getComparisonResult() {
+		return comparisonResult;
+	}
+
+	/**
+	 * @return <code>true</code> if comparison of last
+	 *         {@link #buildHardLinks(File, DirectoryComparator)} call decided
+	 *         that files have to be linked
+	 */
+	boolean isLinkingRequired() {
+		return linkingRequired;
+	}
+
+	/**
+	 * @return I/O error which stopped last
+	 *         {@link #buildHardLinks(File, DirectoryComparator)} or
+	 *         {@link #syncHardLinks(File)} call, <code>null</code> if there
+	 *         wasn't any
+	 */
+	public IOException getFailure() {
+		return failure;
+	}
+
 	/**
 	 * Verify if all files in target directory are hard links of files in source
 	 * directory.
@@ -51,38 +278,117 @@ public class HardLinksHandler extends AbstractDirectoryHandler {
 	 *             if I/O error occurs
 	 */
 	public final boolean verifyHardLinks(File sourceDir) throws IOException {
-		boolean result = false;
-		for (File targetFile : targetDir.listFiles()) {
-			boolean hasHardLink = false;
-			for (File sourceFile : sourceDir.listFiles()) {
-				if (getFileKey(targetFile).equals(getFileKey(sourceFile))) {
-					hasHardLink = true;
-					break;
+		return verifyHardLinks(sourceDir, createSnapshot());
+	}
+
+	/**
+	 * Verify if all files in target directory are hard links of files in source
+	 * directory. Directory listings and file attributes are read from given
+	 * snapshot.
+	 * 
+	 * @param sourceDir
+	 *            source directory to compare
+	 * @param snapshot
+	 *            attribute snapshot of current run
+	 * @return true - if all target files are hard links
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	public final boolean verifyHardLinks(File sourceDir, AttributeSnapshot snapshot)
+			throws IOException {
+		return verifyHardLinksReport(sourceDir, snapshot).areAllLinked();
+	}
+
+	/**
+	 * Verifies which files in target directory are hard links of files in
+	 * source directory. Device and inode numbers of source files are gathered
+	 * into off-heap {@link InodeTable} once, so each target file is verified by
+	 * single lookup. Target files with link count 1 can't be linked with
+	 * anything, so they are reported without lookup. Source directory is read
+	 * only if some target file needs lookup and there isn't inode index.
+	 * 
+	 * @param sourceDir
+	 *            source directory to compare
+	 * @param snapshot
+	 *            attribute snapshot of current run
+	 * @return detailed verification report
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	public final HardLinksReport verifyHardLinksReport(File sourceDir, AttributeSnapshot snapshot)
+			throws IOException {
+		long startNanos = startPhase();
+		HardLinksReport report = new HardLinksReport();
+		SourceKeys sourceKeys = null;
+		try (DirectoryEntries targetFiles = snapshot.openFiles(targetDir)) {
+			for (File targetFile : targetFiles) {
+				FileAttributes targetAttributes = snapshot.getAttributes(targetFile);
+				boolean hasHardLink = false;
+				if (targetAttributes.getLinkCount() != 1 && inodeIndex != null) {
+					hasHardLink = hasLinkIn(targetAttributes.getFileKey(), sourceDir);
+				} else if (targetAttributes.getLinkCount() != 1) {
+					if (sourceKeys == null) {
+						sourceKeys = readFileKeys(sourceDir, snapshot);
+					}
+					hasHardLink = sourceKeys.contains(targetAttributes);
+				}
+				if (hasHardLink) {
+					report.addLinked(targetFile);
+				} else {
+					report.addUnlinked(targetFile);
 				}
 			}
-			if (hasHardLink) {
-				result |= hasHardLink;
-			} else {
-				result = false;
-				break;
-			}
+		} catch (DirectoryIteratorException exception) {
+			throw exception.getCause();
 		}
-		return result;
+		endPhase(RunPhase.VERIFICATION, startNanos);
+		return report;
 	}
 
 	/**
-	 * Reads hard link key for file.
+	 * Checks in inode index if file has hard link in given directory.
 	 * 
-	 * @param file
-	 *            file on disk
-	 * @return hard link key value
+	 * @param fileKey
+	 *            file key of file
+	 * @param directory
+	 *            directory to check
+	 * @return <code>true</code> if some link of file is in directory
+	 */
+	private boolean hasLinkIn(Object fileKey, File directory) {
+		File absoluteDirectory = directory.getAbsoluteFile();
+		boolean found = false;
+		for (File link : inodeIndex.getLinks(fileKey)) {
+			found = found || absoluteDirectory.equals(link.getAbsoluteFile().getParentFile());
+		}
+		return found;
+	}
+
+	/**
+	 * Gathers file keys of all files in given directory. Directory is
+	 * streamed and its entries aren't put into snapshot, so only the off-heap
+	 * table grows with number of source files.
+	 * 
+	 * @param directory
+	 *            directory to read
+	 * @param snapshot
+	 *            attribute snapshot of current run
+	 * @return file keys of directory
 	 * @throws IOException
 	 *             if I/O error occurs
 	 */
-	private static Object getFileKey(File file) throws IOException {
-		Path filePath = FileSystems.getDefault().getPath(file.getAbsolutePath());
-		BasicFileAttributes attrs = Files.readAttributes(filePath, BasicFileAttributes.class);
-		return attrs.fileKey();
+	private static SourceKeys readFileKeys(File directory, AttributeSnapshot snapshot)
+			throws IOException {
+		SourceKeys fileKeys = new SourceKeys();
+		try (DirectoryEntries entries = snapshot.streamFiles(directory)) {
+			Iterator<File> files = entries.unfilteredIterator();
+			while (files.hasNext()) {
+				FileAttributes attributes = snapshot.readAttributes(files.next());
+				if (!attributes.isDirectory()) {
+					fileKeys.add(attributes);
+				}
+			}
+		}
+		return fileKeys;
 	}
 
 	/**
@@ -96,47 +402,741 @@ public class HardLinksHandler extends AbstractDirectoryHandler {
 	 * @return if hard link were created in target directory
 	 */
 	public final boolean buildHardLinks(File sourceDir, DirectoryComparator dirComparator) {
+		return buildHardLinks(sourceDir, dirComparator, createSnapshot());
+	}
+
+	/**
+	 * Builds hard links in {@link HardLinksHandler#getTargetDir()}. Original
+	 * files are read from given source directory. Directories are listed and
+	 * files are stat'ed only once for comparison and linking, via given
+	 * snapshot. Source directory on other file store is handled according to
+	 * cross-device strategy. Without journal, temporary links left behind in
+	 * target directory by interrupted run are deleted. I/O error is reported
+	 * to attached run listener.
+	 * 
+	 * @param sourceDir
+	 *            source directory from which to create hard links
+	 * @param dirComparator
+	 *            comparator of media directories
+	 * @param snapshot
+	 *            attribute snapshot of current run
+	 * @return if hard link were created in target directory
+	 */
+	public final boolean buildHardLinks(File sourceDir, DirectoryComparator dirComparator,
+			AttributeSnapshot snapshot) {
 		boolean hardLinksCreated = false;
 		try {
+			comparisonResult = null;
+			linkingRequired = false;
+			failure = null;
+			entryStrategies = new HashMap<>();
+			contentMismatches = new ArrayList<>();
+			sweepTempLinks(targetDir);
 			DirectoryComparisonResult result = dirComparator.compareDirectories(sourceDir,
-					this.getTargetDir());
-			if (result.areMirrors()) {
-				File[] sourceFiles = sourceDir.listFiles();
-				File[] targetFiles = targetDir.listFiles();
-				fileFacingLoop(Arrays.asList(targetFiles), Arrays.asList(sourceFiles));
-				hardLinksCreated = true;
+					this.getTargetDir(), snapshot);
+			comparisonResult = result;
+			try (DirectoryEntries targetFiles = snapshot.openFiles(targetDir)) {
+				if (result.areMirrors() || createMissingLinks && targetFiles.isEmpty()) {
+					linkingRequired = true;
+					try (DirectoryEntries sourceFiles = snapshot.openFiles(sourceDir)) {
+						attributeSnapshot = snapshot;
+						linkFiles(sourceDir, targetFiles, sourceFiles, snapshot);
+						hardLinksCreated = true;
+					}
+				}
 			}
 		} catch (IOException ioException) {
+			failure = ioException;
+			reportError(targetDir, ioException);
+			hardLinksCreated = false;
+		} catch (DirectoryIteratorException exception) {
+			failure = exception.getCause();
+			reportError(targetDir, failure);
 			hardLinksCreated = false;
+		} finally {
+			attributeSnapshot = null;
 		}
 		return hardLinksCreated;
 	}
 
+	/**
+	 * Synchronizes source and target directory by hard links in both
+	 * directions.
+	 * 
+	 * @param sourceDir
+	 *            source directory to synchronize with
+	 * @return if directories were synchronized
+	 */
+	public final boolean syncHardLinks(File sourceDir) {
+		return syncHardLinks(sourceDir, createSnapshot());
+	}
+
+	/**
+	 * Synchronizes source and target directory by hard links in both
+	 * directions, in single matching pass. Each directory is listed once and
+	 * each file is stat'ed once via given snapshot. Target files missing in
+	 * source directory are linked into it, source files missing in target
+	 * directory are linked into it. Files with the same name which aren't the
+	 * same hard link are resolved by conflict policy. Without journal,
+	 * temporary links left behind in both directories by interrupted run are
+	 * deleted. I/O error is reported to attached run listener.
+	 * 
+	 * @param sourceDir
+	 *            source directory to synchronize with
+	 * @param snapshot
+	 *            attribute snapshot of current run
+	 * @return if directories were synchronized
+	 */
+	public final boolean syncHardLinks(File sourceDir, AttributeSnapshot snapshot) {
+		boolean synced = false;
+		failure = null;
+		long startNanos = startPhase();
+		try (DirectoryEntries targetFiles = snapshot.openFiles(targetDir);
+				DirectoryEntries sourceFiles = snapshot.openFiles(sourceDir)) {
+			sweepTempLinks(targetDir);
+			sweepTempLinks(sourceDir);
+			attributeSnapshot = snapshot;
+			syncSourceDir = sourceDir;
+			missingInSource = new ArrayList<>();
+			missingInTarget = new ArrayList<>();
+			fileFacingLoop(targetFiles, sourceFiles, snapshot);
+			endPhase(RunPhase.COMPARISON, startNanos);
+			linkMissingFiles();
+			replaceBatch();
+			synced = true;
+		} catch (IOException ioException) {
+			failure = ioException;
+			reportError(targetDir, ioException);
+		} catch (DirectoryIteratorException exception) {
+			failure = exception.getCause();
+			reportError(targetDir, failure);
+		} finally {
+			attributeSnapshot = null;
+			syncSourceDir = null;
+			missingInSource = null;
+			missingInTarget = null;
+			replacementBatch.clear();
+		}
+		return synced;
+	}
+
+	/**
+	 * Links files collected as missing during synchronization into other
+	 * directory. File with the same name missing on both sides differs, so it
+	 * is resolved by conflict policy instead.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private void linkMissingFiles() throws IOException {
+		Map<String, File> sourcesByName = new HashMap<>();
+		for (File sourceFile : missingInTarget) {
+			sourcesByName.put(sourceFile.getName(), sourceFile);
+		}
+		for (File targetFile : missingInSource) {
+			File sourceFile = sourcesByName.remove(targetFile.getName());
+			if (sourceFile == null) {
+				createLink(new File(syncSourceDir, targetFile.getName()), targetFile);
+			} else {
+				resolveConflict(targetFile, sourceFile);
+			}
+		}
+		for (File sourceFile : sourcesByName.values()) {
+			createLink(new File(targetDir, sourceFile.getName()), sourceFile);
+		}
+	}
+
+	/**
+	 * Resolves files with the same name which aren't the same hard link.
+	 * 
+	 * @param targetFile
+	 *            file in target directory
+	 * @param sourceFile
+	 *            file in source directory
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private void resolveConflict(File targetFile, File sourceFile) throws IOException {
+		switch (conflictPolicy) {
+		case SOURCE_WINS:
+			linkOver(targetFile, sourceFile);
+			break;
+		case TARGET_WINS:
+			linkOver(sourceFile, targetFile);
+			break;
+		case NEWER_WINS:
+			if (getAttributes(targetFile).getLastModified() > getAttributes(sourceFile)
+					.getLastModified()) {
+				linkOver(sourceFile, targetFile);
+			} else {
+				linkOver(targetFile, sourceFile);
+			}
+			break;
+		default:
+			// differing files are skipped
+			break;
+		}
+	}
+
+	/**
+	 * Replaces file by hard link of other file and reports it. Replacement is
+	 * recorded into journal, if there is any. In batched mode, replacement is
+	 * only collected into batch of the directory.
+	 * 
+	 * @param replacedFile
+	 *            file to replace
+	 * @param linkedFile
+	 *            file to link
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private void linkOver(File replacedFile, File linkedFile) throws IOException {
+		if (replacementMode == ReplacementMode.ATOMIC_BATCHED) {
+			replacementBatch.put(replacedFile, linkedFile);
+		} else {
+			File tempLink = stageReplacement(replacedFile, linkedFile);
+			long startNanos = startPhase();
+			if (tempLink == null) {
+				Files.delete(replacedFile.toPath());
+				Files.createLink(replacedFile.toPath(), linkedFile.toPath());
+			} else {
+				moveIntoPlace(tempLink, replacedFile);
+			}
+			endPhase(RunPhase.LINK, startNanos);
+			completeReplacement(replacedFile, linkedFile);
+		}
+	}
+
+	/**
+	 * Prepares replacement of file. Replacement is throttled and recorded
+	 * into journal. In atomic modes, temporary hard link is created next to
+	 * replaced file.
+	 * 
+	 * @param replacedFile
+	 *            file to replace
+	 * @param linkedFile
+	 *            file to link
+	 * @return temporary hard link or <code>null</code> in non-atomic mode
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private File stageReplacement(File replacedFile, File linkedFile) throws IOException {
+		throttle(IoOperation.LINK, replacedFile, 1);
+		File tempLink = replacementMode == ReplacementMode.DELETE_AND_LINK ? null
+				: tempLinkFor(replacedFile);
+		if (journal != null) {
+			journal.intendReplacement(replacedFile, linkedFile, tempLink);
+		}
+		if (tempLink != null) {
+			Files.createLink(tempLink.toPath(), Paths.get(linkedFile.getAbsolutePath()));
+		}
+		return tempLink;
+	}
+
+	/**
+	 * Reports finished replacement of file and records it into journal.
+	 * 
+	 * @param replacedFile
+	 *            replaced file
+	 * @param linkedFile
+	 *            linked file
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private void completeReplacement(File replacedFile, File linkedFile) throws IOException {
+		count(RunCounter.LINKS_CREATED, 1);
+		if (journal != null) {
+			journal.completeReplacement(replacedFile);
+		}
+		if (attributeSnapshot != null) {
+			attributeSnapshot.invalidate(replacedFile);
+			attributeSnapshot.invalidate(linkedFile);
+		}
+	}
+
+	/**
+	 * Performs replacements collected in batched mode. Temporary hard links of
+	 * all replacements are created first by parallel workers. If any of them
+	 * fails, created temporary links are deleted and no file is replaced.
+	 * Temporary links are then moved over replaced files by parallel workers.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private void replaceBatch() throws IOException {
+		final Map<File, File> batch = replacementBatch;
+		replacementBatch = new LinkedHashMap<>();
+		if (!batch.isEmpty()) {
+			final Map<File, File> tempLinks = Collections
+					.synchronizedMap(new HashMap<File, File>());
+			List<Callable<Void>> stagingTasks = new ArrayList<>();
+			for (final Map.Entry<File, File> replacement : batch.entrySet()) {
+				stagingTasks.add(new Callable<Void>() {
+					@Override
+					public Void call() throws IOException {
+						tempLinks.put(replacement.getKey(), stageReplacement(replacement.getKey(),
+								replacement.getValue()));
+						return null;
+					}
+				});
+			}
+			try {
+				runReplacementTasks(stagingTasks);
+			} catch (IOException ioException) {
+				for (File tempLink : tempLinks.values()) {
+					Files.deleteIfExists(tempLink.toPath());
+				}
+				throw ioException;
+			}
+			List<Callable<Void>> moveTasks = new ArrayList<>();
+			for (final Map.Entry<File, File> replacement : batch.entrySet()) {
+				moveTasks.add(new Callable<Void>() {
+					@Override
+					public Void call() throws IOException {
+						long startNanos = startPhase();
+						moveIntoPlace(tempLinks.get(replacement.getKey()), replacement.getKey());
+						endPhase(RunPhase.LINK, startNanos);
+						completeReplacement(replacement.getKey(), replacement.getValue());
+						return null;
+					}
+				});
+			}
+			runReplacementTasks(moveTasks);
+		}
+	}
+
+	/**
+	 * Runs replacement tasks on parallel workers and waits until all of them
+	 * are finished. Pending tasks are cancelled if calling thread is
+	 * interrupted.
+	 * 
+	 * @param tasks
+	 *            replacement tasks
+	 * @throws IOException
+	 *             first I/O error of tasks or if calling thread is
+	 *             interrupted
+	 */
+	private void runReplacementTasks(List<Callable<Void>> tasks) throws IOException {
+		IOException failure = null;
+		try {
+			for (Future<Void> future : getReplacementExecutor().invokeAll(tasks)) {
+				try {
+					future.get();
+				} catch (ExecutionException exception) {
+					if (!(exception.getCause() instanceof IOException)) {
+						throw new IllegalStateException(exception.getCause());
+					}
+					if (failure == null) {
+						failure = (IOException) exception.getCause();
+					}
+				}
+			}
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			failure = new IOException(exception);
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Returns workers of batched replacements, which are created on first
+	 * batch and reused by following batches and runs. Idle workers stop after
+	 * keep alive time, so handler doesn't have to be closed.
+	 * 
+	 * @return replacement workers
+	 */
+	private ExecutorService getReplacementExecutor() {
+		if (replacementExecutor == null) {
+			final ThreadFactory threadFactory = Executors.defaultThreadFactory();
+			replacementExecutor = new ThreadPoolExecutor(replacementParallelism,
+					replacementParallelism, REPLACEMENT_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable runnable) {
+							Thread thread = threadFactory.newThread(runnable);
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			replacementExecutor.allowCoreThreadTimeOut(true);
+		}
+		return replacementExecutor;
+	}
+
+	/**
+	 * Creates new hard link of file and reports it.
+	 * 
+	 * @param link
+	 *            path of new hard link
+	 * @param linkedFile
+	 *            file to link
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private void createLink(File link, File linkedFile) throws IOException {
+		throttle(IoOperation.LINK, link, 1);
+		long startNanos = startPhase();
+		Files.createLink(link.toPath(), linkedFile.toPath());
+		endPhase(RunPhase.LINK, startNanos);
+		count(RunCounter.LINKS_CREATED, 1);
+		if (attributeSnapshot != null) {
+			attributeSnapshot.invalidate(linkedFile);
+		}
+	}
+
+	/**
+	 * Links files of eligible directories. Copies scheduled by cross-device
+	 * fallback are awaited and strategy of each copied entry is recorded by
+	 * outcome of its copy.
+	 * 
+	 * @param sourceDir
+	 *            source directory
+	 * @param targetFiles
+	 *            files in target directory
+	 * @param sourceFiles
+	 *            files in source directory
+	 * @param snapshot
+	 *            attribute snapshot of current run
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private void linkFiles(File sourceDir, Iterable<File> targetFiles, Iterable<File> sourceFiles,
+			AttributeSnapshot snapshot) throws IOException {
+		crossDevice = crossDeviceStrategy != CrossDeviceStrategy.FAIL && isCrossDevice(sourceDir);
+		if (crossDevice && crossDeviceStrategy == CrossDeviceStrategy.COPY) {
+			copier = new ParallelCopier(copyParallelism, copyInFlightBytes, getRateLimiter());
+		}
+		try {
+			fileFacingLoop(targetFiles, sourceFiles, snapshot);
+			replaceBatch();
+			if (copier != null) {
+				copier.awaitCompletion();
+			}
+		} finally {
+			if (copier != null) {
+				copier.close();
+				recordCopies(copier);
+				copier = null;
+			}
+			crossDevice = false;
+			replacementBatch.clear();
+		}
+	}
+
+	/**
+	 * Records strategies of finished copies. Copied entries are counted,
+	 * entries whose copy failed are recorded as failed.
+	 * 
+	 * @param finishedCopier
+	 *            closed copier
+	 */
+	private void recordCopies(ParallelCopier finishedCopier) {
+		Collection<File> copiedFiles = finishedCopier.getCopiedFiles();
+		for (File copiedFile : copiedFiles) {
+			recordStrategy(copiedFile, EntryStrategy.COPY);
+		}
+		count(RunCounter.FILES_COPIED, copiedFiles.size());
+		for (File failedFile : finishedCopier.getFailedFiles().keySet()) {
+			recordStrategy(failedFile, EntryStrategy.FAILED);
+		}
+	}
+
+	/**
+	 * Checks if source directory is on other file store than target
+	 * directory.
+	 * 
+	 * @param sourceDir
+	 *            source directory
+	 * @return <code>true</code> if hard links between directories can't be
+	 *         created
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	boolean isCrossDevice(File sourceDir) throws IOException {
+		return !Files.getFileStore(sourceDir.toPath()).equals(
+				Files.getFileStore(targetDir.toPath()));
+	}
+
+	/**
+	 * Records strategy used for target entry, if strategies are recorded.
+	 * 
+	 * @param targetFile
+	 *            target entry
+	 * @param strategy
+	 *            used strategy
+	 */
+	private void recordStrategy(File targetFile, EntryStrategy strategy) {
+		if (crossDeviceStrategy != CrossDeviceStrategy.FAIL) {
+			entryStrategies.put(targetFile, strategy);
+		}
+	}
+
 	/**
 	 * Verifies if files are hard links and if not deletes file in target
-	 * directory and creates hard link copy of source file.
+	 * directory and creates hard link copy of source file. Across devices,
+	 * target file is already matching copy of source file, so it is skipped.
+	 * During synchronization, files which aren't hard links are resolved by
+	 * conflict policy. If content verifier is set, target file with different
+	 * content than source file isn't replaced.
 	 * <p>
 	 * <b> Javadoc from parent class:<br>
 	 * </b> {@inheritDoc}
 	 */
 	@Override
 	protected final void performActionFace(File targetFile, File sourceFile) throws IOException {
-		if (!getFileKey(targetFile).equals(getFileKey(sourceFile))) {
-			targetFile.delete();
-			Files.createLink(Paths.get(targetFile.getAbsolutePath()),
-					Paths.get(sourceFile.getAbsolutePath()));
+		if (crossDevice) {
+			recordStrategy(targetFile, EntryStrategy.SKIP);
+		} else if (getFileKey(targetFile).equals(getFileKey(sourceFile))) {
+			recordStrategy(targetFile, EntryStrategy.LINK);
+			count(RunCounter.LINKS_PRESENT, 1);
+		} else if (syncSourceDir != null) {
+			resolveConflict(targetFile, sourceFile);
+		} else if (isContentEqual(targetFile, sourceFile)) {
+			linkOver(targetFile, sourceFile);
+			recordStrategy(targetFile, EntryStrategy.LINK);
+		} else {
+			contentMismatches.add(targetFile);
+			count(RunCounter.CONTENT_MISMATCHES, 1);
+		}
+	}
+
+	/**
+	 * Verifies content of files, if content verifier is set.
+	 * 
+	 * @param targetFile
+	 *            file in target directory
+	 * @param sourceFile
+	 *            file in source directory
+	 * @return <code>true</code> if files have the same content or there isn't
+	 *         any content verifier
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private boolean isContentEqual(File targetFile, File sourceFile) throws IOException {
+		boolean equal = true;
+		if (contentVerifier != null) {
+			long startNanos = startPhase();
+			equal = contentVerifier.contentEquals(targetFile, sourceFile, getRateLimiter());
+			endPhase(RunPhase.CONTENT_VERIFICATION, startNanos);
 		}
+		return equal;
 	}
 
 	/**
-	 * Creates hard link of target file in source directory.
+	 * Replaces target file by hard link of source file atomically. Hard link
+	 * is created under temporary sibling name and moved over target file, so
+	 * target file never disappears.
+	 * 
+	 * @param targetFile
+	 *            file to replace
+	 * @param sourceFile
+	 *            file to link
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	static void replaceWithLink(File targetFile, File sourceFile) throws IOException {
+		moveIntoPlace(createTempLink(targetFile, sourceFile), targetFile);
+	}
+
+	/**
+	 * Creates hard link of source file under unique temporary name in
+	 * directory of target file.
+	 * 
+	 * @param targetFile
+	 *            file to be replaced
+	 * @param sourceFile
+	 *            file to link
+	 * @return temporary hard link
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private static File createTempLink(File targetFile, File sourceFile) throws IOException {
+		File tempLink = tempLinkFor(targetFile);
+		Files.createLink(tempLink.toPath(), Paths.get(sourceFile.getAbsolutePath()));
+		return tempLink;
+	}
+
+	/**
+	 * Generates unique temporary name in directory of target file.
+	 * 
+	 * @param targetFile
+	 *            file to be replaced
+	 * @return temporary file name, which doesn't exist yet
+	 */
+	private static File tempLinkFor(File targetFile) {
+		return new File(targetFile.getAbsoluteFile().getParentFile(), TEMP_LINK_PREFIX
+				+ Long.toHexString(ThreadLocalRandom.current().nextLong()) + TEMP_LINK_SUFFIX);
+	}
+
+	/**
+	 * Checks if entry is temporary hard link of replacement. Such entries are
+	 * left behind only by interrupted runs and aren't listed.
+	 * 
+	 * @param entry
+	 *            directory entry
+	 * @return <code>true</code> if name of entry is temporary link name
+	 */
+	static boolean isTempLink(Path entry) {
+		String name = entry.getFileName().toString();
+		return name.startsWith(TEMP_LINK_PREFIX) && name.endsWith(TEMP_LINK_SUFFIX);
+	}
+
+	/**
+	 * Deletes temporary hard links left behind in directory by interrupted
+	 * replacements. Without journal there is nothing else which would clean
+	 * them up, with journal they are deleted by {@link LinkJournal#repair()}.
+	 * 
+	 * @param directory
+	 *            directory to sweep
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private void sweepTempLinks(File directory) throws IOException {
+		if (journal == null) {
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory.toPath(),
+					TEMP_LINK_GLOB)) {
+				for (Path tempLink : stream) {
+					Files.deleteIfExists(tempLink);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Atomically moves temporary hard link over target file. Temporary link
+	 * is deleted if move fails.
+	 * 
+	 * @param tempLink
+	 *            temporary hard link
+	 * @param targetFile
+	 *            file to replace
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private static void moveIntoPlace(File tempLink, File targetFile) throws IOException {
+		try {
+			Files.move(tempLink.toPath(), Paths.get(targetFile.getAbsolutePath()),
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException ioException) {
+			Files.deleteIfExists(tempLink.toPath());
+			throw ioException;
+		}
+	}
+
+	/**
+	 * Creates hard link of source file in target directory, if creation of
+	 * missing links is enabled. Across devices, source file is copied or
+	 * skipped according to cross-device strategy. During synchronization,
+	 * source file is collected and linked after matching pass.
+	 * <p>
+	 * <b> Javadoc from parent class:<br>
+	 * </b> {@inheritDoc}
+	 */
+	@Override
+	protected final void performActionMissingInTarget(File sourceFile) throws IOException {
+		if (syncSourceDir != null) {
+			missingInTarget.add(sourceFile);
+		} else if (createMissingLinks) {
+			File targetFile = new File(targetDir, sourceFile.getName());
+			if (copier != null) {
+				long size = getAttributes(sourceFile).getSize();
+				copier.submit(sourceFile, targetFile, size);
+			} else if (crossDevice) {
+				recordStrategy(targetFile, EntryStrategy.SKIP);
+			} else {
+				createLink(targetFile, sourceFile);
+				recordStrategy(targetFile, EntryStrategy.LINK);
+			}
+		}
+	}
+
+	/**
+	 * Reads hard link key for file. Key is read from attribute snapshot of
+	 * current run if there is any.
+	 * 
+	 * @param file
+	 *            file on disk
+	 * @return hard link key value
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private Object getFileKey(File file) throws IOException {
+		return getAttributes(file).getFileKey();
+	}
+
+	/**
+	 * Reads attributes of file from attribute snapshot of current run if
+	 * there is any.
+	 * 
+	 * @param file
+	 *            file on disk
+	 * @return attributes of file
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private FileAttributes getAttributes(File file) throws IOException {
+		return attributeSnapshot == null ? FileAttributes.read(file) : attributeSnapshot
+				.getAttributes(file);
+	}
+
+	/**
+	 * Collects target file for linking into source directory during
+	 * synchronization. Otherwise target file isn't touched.
 	 * <p>
 	 * <b> Javadoc from parent class:<br>
 	 * </b> {@inheritDoc}
 	 */
 	@Override
 	protected final void performActionMissingInSource(File targetFile) {
-		// TODO not implemented
-		throw new UnsupportedOperationException("not implemented"); //$NON-NLS-1$
+		if (syncSourceDir != null) {
+			missingInSource.add(targetFile);
+		}
+	}
+
+	/**
+	 * File keys of source files. Files with known device and inode are kept
+	 * in off-heap table, file keys of other files in hash set.
+	 * 
+	 * @author sitko
+	 */
+	private static final class SourceKeys {
+		private final InodeTable inodes = new InodeTable();
+		private final Set<Object> otherKeys = new HashSet<>();
+
+		/**
+		 * Adds file key of file.
+		 * 
+		 * @param attributes
+		 *            attributes of file
+		 */
+		void add(FileAttributes attributes) {
+			if (hasInode(attributes)) {
+				inodes.put(attributes.getDevice(), attributes.getInode(), null);
+			} else {
+				otherKeys.add(attributes.getFileKey());
+			}
+		}
+
+		/**
+		 * @param attributes
+		 *            attributes of file
+		 * @return <code>true</code> if file key of file was added
+		 */
+		boolean contains(FileAttributes attributes) {
+			return hasInode(attributes) ? inodes.contains(attributes.getDevice(),
+					attributes.getInode()) : otherKeys.contains(attributes.getFileKey());
+		}
+
+		/**
+		 * @param attributes
+		 *            attributes of file
+		 * @return <code>true</code> if device and inode of file are known
+		 */
+		private static boolean hasInode(FileAttributes attributes) {
+			return attributes.getDevice() != FileAttributes.UNKNOWN
+					&& attributes.getInode() != FileAttributes.UNKNOWN;
+		}
 	}
 }
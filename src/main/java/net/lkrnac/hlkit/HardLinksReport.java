@@ -0,0 +1,59 @@
+package net.lkrnac.hlkit;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Detailed result of hard links verification of target directory.
+ *
+ * @author sitko
+ */
+public class HardLinksReport {
+	private final List<File> unlinkedFiles = new ArrayList<>();
+	private int checkedCount;
+
+	/**
+	 * Records target file which is hard link of some source file.
+	 *
+	 * @param targetFile
+	 *            verified target file
+	 */
+	void addLinked(File targetFile) {
+		checkedCount++;
+	}
+
+	/**
+	 * Records target file which isn't hard link of any source file.
+	 *
+	 * @param targetFile
+	 *            verified target file
+	 */
+	void addUnlinked(File targetFile) {
+		checkedCount++;
+		unlinkedFiles.add(targetFile);
+	}
+
+	/**
+	 * @return <code>true</code> if target directory isn't empty and all its
+	 *         files are hard links of source files
+	 */
+	public boolean areAllLinked() {
+		return checkedCount > 0 && unlinkedFiles.isEmpty();
+	}
+
+	/**
+	 * @return number of verified target files
+	 */
+	public int getCheckedCount() {
+		return checkedCount;
+	}
+
+	/**
+	 * @return target files which aren't hard links of any source file
+	 */
+	public List<File> getUnlinkedFiles() {
+		return Collections.unmodifiableList(unlinkedFiles);
+	}
+}
@@ -0,0 +1,469 @@
+package net.lkrnac.hlkit;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps target tree mirrored by hard links while source tree changes. Source
+ * directories are registered with {@link WatchService}, bursts of events are
+ * coalesced and only affected files are linked into target tree. Burst is
+ * coalesced for limited time and number of changes, so continuous stream of
+ * events can't postpone linking forever. When events were lost, affected
+ * directory is rescanned. Target file which differs from its source in size
+ * isn't replaced, it is counted as content mismatch. Entries excluded by
+ * {@link EntryFilter} are neither watched nor linked. New and rescanned
+ * directories are matched by configured matching and match key strategy,
+ * single changed file is linked under its own name.
+ * <p>
+ * Watcher is started by {@link #run()}, which blocks until watcher is closed.
+ * Thread waits for events without polling while source tree is idle.
+ *
+ * @author sitko
+ */
+public class HardLinksWatcher implements Runnable, Closeable {
+	private static final long COALESCE_MILLIS = 100;
+	private static final long MAX_COALESCE_MILLIS = 1000;
+	private static final int MAX_BATCH_SIZE = 10000;
+
+	private final File sourceRoot;
+	private final File targetRoot;
+	private final WatchService watchService;
+	private final EntryFilter entryFilter;
+	private final Map<WatchKey, File> watchedDirectories = new ConcurrentHashMap<>();
+	private final AtomicLong appliedCount = new AtomicLong();
+	private final AtomicLong failureCount = new AtomicLong();
+	private final AtomicLong mismatchCount = new AtomicLong();
+	private volatile LinkRunListener runListener;
+	private volatile IoRateLimiter rateLimiter;
+	private volatile ExternalMatching externalMatching;
+	private volatile PipelinedMatching pipelinedMatching;
+	private volatile MatchKeyStrategy matchKeyStrategy;
+
+	/**
+	 * Creates watcher and registers all directories of source tree.
+	 *
+	 * @param sourceRoot
+	 *            root of watched source tree
+	 * @param targetRoot
+	 *            root of mirrored target tree
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	public HardLinksWatcher(File sourceRoot, File targetRoot) throws IOException {
+		this(sourceRoot, targetRoot, null);
+	}
+
+	/**
+	 * Creates watcher and registers directories of source tree, which aren't
+	 * excluded by given filter.
+	 *
+	 * @param sourceRoot
+	 *            root of watched source tree
+	 * @param targetRoot
+	 *            root of mirrored target tree
+	 * @param entryFilter
+	 *            filter of source entries, can be <code>null</code>
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	public HardLinksWatcher(File sourceRoot, File targetRoot, EntryFilter entryFilter)
+			throws IOException {
+		this.sourceRoot = sourceRoot;
+		this.targetRoot = targetRoot;
+		this.entryFilter = entryFilter;
+		this.watchService = sourceRoot.toPath().getFileSystem().newWatchService();
+		registerTree(sourceRoot);
+	}
+
+	/**
+	 * Attaches listener, to which applied changes and errors are reported.
+	 *
+	 * @param runListener
+	 *            run listener, can be <code>null</code>
+	 */
+	public void setRunListener(LinkRunListener runListener) {
+		this.runListener = runListener;
+	}
+
+	/**
+	 * Attaches rate limiter, which throttles linking and rescans of source
+	 * directories.
+	 *
+	 * @param rateLimiter
+	 *            rate limiter, can be <code>null</code>
+	 */
+	public void setRateLimiter(IoRateLimiter rateLimiter) {
+		this.rateLimiter = rateLimiter;
+	}
+
+	/**
+	 * Switches matching of files in mirrored and rescanned directories into
+	 * external-memory mode.
+	 *
+	 * @param externalMatching
+	 *            configuration of external matching, <code>null</code>
+	 *            switches back to in-memory matching
+	 * @see AbstractDirectoryHandler#setExternalMatching(ExternalMatching)
+	 */
+	public void setExternalMatching(ExternalMatching externalMatching) {
+		this.externalMatching = externalMatching;
+	}
+
+	/**
+	 * Switches matching of files in mirrored and rescanned directories into
+	 * pipelined mode.
+	 *
+	 * @param pipelinedMatching
+	 *            configuration of pipelined matching, <code>null</code>
+	 *            switches back to sequential matching
+	 * @see AbstractDirectoryHandler#setPipelinedMatching(PipelinedMatching)
+	 */
+	public void setPipelinedMatching(PipelinedMatching pipelinedMatching) {
+		this.pipelinedMatching = pipelinedMatching;
+	}
+
+	/**
+	 * Sets strategy computing keys by which files in mirrored and rescanned
+	 * directories are matched.
+	 *
+	 * @param matchKeyStrategy
+	 *            match key strategy, <code>null</code> switches back to
+	 *            default strategy
+	 * @see AbstractDirectoryHandler#setMatchKeyStrategy(MatchKeyStrategy)
+	 */
+	public void setMatchKeyStrategy(MatchKeyStrategy matchKeyStrategy) {
+		this.matchKeyStrategy = matchKeyStrategy;
+	}
+
+	/**
+	 * Processes events until watcher is closed. Failure of single change is
+	 * counted and reported, it doesn't stop the watcher.
+	 */
+	@Override
+	public void run() {
+		try {
+			while (true) {
+				Set<File> changedFiles = new LinkedHashSet<>();
+				Set<File> overflowedDirectories = new LinkedHashSet<>();
+				WatchKey key = watchService.take();
+				long deadline = System.nanoTime()
+						+ TimeUnit.MILLISECONDS.toNanos(MAX_COALESCE_MILLIS);
+				while (key != null) {
+					collectEvents(key, changedFiles, overflowedDirectories);
+					int batchSize = changedFiles.size() + overflowedDirectories.size();
+					boolean batchClosed = batchSize >= MAX_BATCH_SIZE
+							|| System.nanoTime() - deadline >= 0;
+					key = batchClosed ? null : watchService.poll(COALESCE_MILLIS,
+							TimeUnit.MILLISECONDS);
+				}
+				for (File directory : overflowedDirectories) {
+					rescanDirectory(directory);
+				}
+				for (File sourceFile : changedFiles) {
+					if (!overflowedDirectories.contains(sourceFile.getParentFile())) {
+						applyChangeSafely(sourceFile);
+					}
+				}
+			}
+		} catch (ClosedWatchServiceException exception) {
+			// watcher was closed
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Stops watching source tree.
+	 * <p>
+	 * <b> Javadoc from parent class:<br>
+	 * </b> {@inheritDoc}
+	 */
+	@Override
+	public void close() throws IOException {
+		watchService.close();
+	}
+
+	/**
+	 * @return number of source changes applied into target tree
+	 */
+	public long getAppliedCount() {
+		return appliedCount.get();
+	}
+
+	/**
+	 * @return number of source changes which failed to be applied
+	 */
+	public long getFailureCount() {
+		return failureCount.get();
+	}
+
+	/**
+	 * @return number of target files not replaced, because their size
+	 *         differs from source file
+	 */
+	public long getMismatchCount() {
+		return mismatchCount.get();
+	}
+
+	/**
+	 * Collects changed files from events of given watch key and resets the
+	 * key. Entries excluded by name are dropped.
+	 *
+	 * @param key
+	 *            signaled watch key
+	 * @param changedFiles
+	 *            set of changed source files to fill
+	 * @param overflowedDirectories
+	 *            set of source directories which lost events to fill
+	 */
+	private void collectEvents(WatchKey key, Set<File> changedFiles,
+			Set<File> overflowedDirectories) {
+		File directory = watchedDirectories.get(key);
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (directory != null) {
+				if (StandardWatchEventKinds.OVERFLOW.equals(event.kind())) {
+					overflowedDirectories.add(directory);
+				} else if (!StandardWatchEventKinds.ENTRY_DELETE.equals(event.kind())) {
+					File changedFile = new File(directory, event.context().toString());
+					if (acceptsName(changedFile)) {
+						changedFiles.add(changedFile);
+					} else {
+						countFilteredEntry();
+					}
+				}
+			}
+		}
+		if (!key.reset()) {
+			watchedDirectories.remove(key);
+		}
+	}
+
+	/**
+	 * Applies change of source file. Unexpected runtime error is reported as
+	 * failure of the change.
+	 *
+	 * @param sourceFile
+	 *            changed source file
+	 */
+	private void applyChangeSafely(File sourceFile) {
+		try {
+			applyChange(sourceFile);
+		} catch (RuntimeException exception) {
+			reportFailure(sourceFile, new IOException(exception));
+		}
+	}
+
+	/**
+	 * Links changed source file into target tree. New source directory is
+	 * registered and mirrored whole. Excluded files are ignored.
+	 *
+	 * @param sourceFile
+	 *            changed source file
+	 */
+	private void applyChange(File sourceFile) {
+		try {
+			FileAttributes sourceAttributes = FileAttributes.read(sourceFile);
+			if (sourceAttributes.isDirectory()) {
+				registerTree(sourceFile);
+				TreeMirror treeMirror = new TreeMirror(1, true);
+				treeMirror.setRunListener(runListener);
+				treeMirror.setRateLimiter(rateLimiter);
+				treeMirror.setEntryFilter(entryFilter);
+				treeMirror.setExternalMatching(externalMatching);
+				treeMirror.setPipelinedMatching(pipelinedMatching);
+				treeMirror.setMatchKeyStrategy(matchKeyStrategy);
+				TreeMirrorResult result = treeMirror.mirror(sourceFile, toTarget(sourceFile));
+				countResult(result.isSuccessful());
+			} else if (sourceAttributes.isRegularFile() && acceptsFile(sourceAttributes)) {
+				linkFile(sourceAttributes);
+			}
+		} catch (IOException exception) {
+			// file could be deleted in the meantime
+			reportFailure(sourceFile, exception);
+		}
+	}
+
+	/**
+	 * Creates hard link of source file in target tree, or replaces target file
+	 * of the same size by hard link. Target file of other size is reported as
+	 * content mismatch.
+	 *
+	 * @param sourceAttributes
+	 *            attributes of source file
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private void linkFile(FileAttributes sourceAttributes) throws IOException {
+		File sourceFile = sourceAttributes.getFile();
+		File targetFile = toTarget(sourceFile);
+		IoRateLimiter limiter = rateLimiter;
+		if (limiter != null) {
+			limiter.acquire(IoOperation.LINK, sourceFile.getParentFile(), 1);
+		}
+		if (targetFile.exists()) {
+			FileAttributes targetAttributes = FileAttributes.read(targetFile);
+			if (targetAttributes.getSize() != sourceAttributes.getSize()) {
+				mismatchCount.incrementAndGet();
+				LinkRunListener listener = runListener;
+				if (listener != null) {
+					listener.counted(RunCounter.CONTENT_MISMATCHES, 1);
+				}
+			} else if (!targetAttributes.getFileKey().equals(sourceAttributes.getFileKey())) {
+				HardLinksHandler.replaceWithLink(targetFile, sourceFile);
+				appliedCount.incrementAndGet();
+			}
+		} else {
+			Files.createDirectories(targetFile.getParentFile().toPath());
+			Files.createLink(targetFile.toPath(), sourceFile.toPath());
+			appliedCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Rescans source directory which lost events.
+	 *
+	 * @param sourceDir
+	 *            source directory to rescan
+	 */
+	private void rescanDirectory(File sourceDir) {
+		File targetDir = toTarget(sourceDir);
+		try {
+			Files.createDirectories(targetDir.toPath());
+			HardLinksHandler hardLinksHandler = new HardLinksHandler(targetDir);
+			hardLinksHandler.setCreateMissingLinks(true);
+			hardLinksHandler.setRunListener(runListener);
+			hardLinksHandler.setRateLimiter(rateLimiter);
+			hardLinksHandler.setEntryFilter(entryFilter);
+			configureMatching(hardLinksHandler);
+			DirectoryComparator directoryComparator = new DirectoryComparator();
+			configureMatching(directoryComparator);
+			countResult(hardLinksHandler.buildHardLinks(sourceDir, directoryComparator));
+		} catch (IOException exception) {
+			reportFailure(sourceDir, exception);
+		} catch (RuntimeException exception) {
+			reportFailure(sourceDir, new IOException(exception));
+		}
+	}
+
+	/**
+	 * Applies matching configuration of watcher to directory handler.
+	 *
+	 * @param handler
+	 *            handler of rescanned directory
+	 */
+	private void configureMatching(AbstractDirectoryHandler handler) {
+		handler.setExternalMatching(externalMatching);
+		handler.setPipelinedMatching(pipelinedMatching);
+		handler.setMatchKeyStrategy(matchKeyStrategy);
+	}
+
+	/**
+	 * Registers given directory and all its sub-directories, which aren't
+	 * excluded by entry filter.
+	 *
+	 * @param directory
+	 *            root of directory tree to register
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private void registerTree(File directory) throws IOException {
+		WatchKey key = directory.toPath().register(watchService,
+				StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+				StandardWatchEventKinds.ENTRY_DELETE);
+		watchedDirectories.put(key, directory);
+		AttributeSnapshot snapshot = new AttributeSnapshot();
+		snapshot.setRunListener(runListener);
+		snapshot.setEntryFilter(entryFilter);
+		for (File subDirectory : snapshot.listDirectories(directory)) {
+			registerTree(subDirectory);
+		}
+	}
+
+	/**
+	 * @param sourceFile
+	 *            changed source file
+	 * @return <code>true</code> if file isn't excluded by name
+	 */
+	private boolean acceptsName(File sourceFile) {
+		return entryFilter == null || entryFilter.acceptsName(sourceFile.toPath());
+	}
+
+	/**
+	 * @param sourceAttributes
+	 *            attributes of changed regular file
+	 * @return <code>true</code> if file is included by entry filter
+	 */
+	private boolean acceptsFile(FileAttributes sourceAttributes) {
+		boolean accepted = entryFilter == null || entryFilter.acceptsFile(sourceAttributes);
+		if (!accepted) {
+			countFilteredEntry();
+		}
+		return accepted;
+	}
+
+	/**
+	 * Counts source entry excluded by entry filter.
+	 */
+	private void countFilteredEntry() {
+		LinkRunListener listener = runListener;
+		if (listener != null) {
+			listener.counted(RunCounter.ENTRIES_FILTERED, 1);
+		}
+	}
+
+	/**
+	 * Maps source file to its counterpart in target tree.
+	 *
+	 * @param sourceFile
+	 *            file in source tree
+	 * @return file in target tree
+	 */
+	private File toTarget(File sourceFile) {
+		Path relativePath = sourceRoot.toPath().relativize(sourceFile.toPath());
+		return targetRoot.toPath().resolve(relativePath).toFile();
+	}
+
+	/**
+	 * Counts failed change and reports it to attached listener.
+	 *
+	 * @param file
+	 *            file or directory which failed
+	 * @param exception
+	 *            I/O error
+	 */
+	private void reportFailure(File file, IOException exception) {
+		failureCount.incrementAndGet();
+		LinkRunListener listener = runListener;
+		if (listener != null) {
+			listener.errorOccurred(file, exception);
+		}
+	}
+
+	/**
+	 * Counts result of directory mirroring.
+	 *
+	 * @param successful
+	 *            flag if mirroring was successful
+	 */
+	private void countResult(boolean successful) {
+		if (successful) {
+			appliedCount.incrementAndGet();
+		} else {
+			failureCount.incrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,345 @@
+package net.lkrnac.hlkit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Reverse index of regular files by file key (device and inode). Index is
+ * built by parallel walk of directory trees and maps each file key to all its
+ * paths found under walked roots. After the build, all links of a file and
+ * all files with more than one hard link are looked up in constant time.
+ * <p>
+ * Index reflects the trees at the time of its build, so it can be shared by
+ * verification and deduplication runs over unchanged trees. Instance is
+ * immutable after the build.
+ *
+ * @author sitko
+ * @see HardLinksHandler#setInodeIndex(InodeIndex)
+ */
+public final class InodeIndex {
+	private final Map<Object, Inode> inodes;
+	private final Set<Object> linkedKeys;
+
+	/**
+	 * Creates index from walked inodes.
+	 *
+	 * @param inodes
+	 *            inodes keyed by file key
+	 */
+	private InodeIndex(Map<Object, Inode> inodes) {
+		this.inodes = inodes;
+		Set<Object> keys = new HashSet<>();
+		for (Map.Entry<Object, Inode> entry : inodes.entrySet()) {
+			if (entry.getValue().linkCount > 1) {
+				keys.add(entry.getKey());
+			}
+		}
+		this.linkedKeys = Collections.unmodifiableSet(keys);
+	}
+
+	/**
+	 * Builds index of all regular files under given roots.
+	 *
+	 * @param roots
+	 *            root directories to walk
+	 * @param parallelism
+	 *            number of threads walking directories in parallel
+	 * @return built index
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	public static InodeIndex build(Collection<File> roots, int parallelism) throws IOException {
+		return build(roots, parallelism, new AttributeSnapshot());
+	}
+
+	/**
+	 * Builds index of all regular files under given roots. Directory listings
+	 * and file attributes are read via given snapshot, so they can be reused
+	 * by following runs.
+	 *
+	 * @param roots
+	 *            root directories to walk
+	 * @param parallelism
+	 *            number of threads walking directories in parallel
+	 * @param snapshot
+	 *            attribute snapshot of current run
+	 * @return built index
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	public static InodeIndex build(Collection<File> roots, int parallelism,
+			AttributeSnapshot snapshot) throws IOException {
+		Walk walk = new Walk(snapshot, null);
+		walk.run(roots, parallelism);
+		return new InodeIndex(walk.inodes);
+	}
+
+	/**
+	 * Finds all paths of given file under given roots. Walk stops as soon as
+	 * number of found paths reaches link count of the file.
+	 *
+	 * @param file
+	 *            file to search links of
+	 * @param roots
+	 *            root directories to walk
+	 * @param parallelism
+	 *            number of threads walking directories in parallel
+	 * @return found paths of the file, including the file itself if it is
+	 *         under roots
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	public static List<File> findLinks(File file, Collection<File> roots, int parallelism)
+			throws IOException {
+		AttributeSnapshot snapshot = new AttributeSnapshot();
+		Walk walk = new Walk(snapshot, snapshot.getAttributes(file));
+		walk.run(roots, parallelism);
+		Inode inode = walk.inodes.get(walk.searched.getFileKey());
+		return inode == null ? Collections.<File> emptyList() : inode.getPaths();
+	}
+
+	/**
+	 * @param fileKey
+	 *            file key of file
+	 * @return all paths of the file found by the build, empty list for unknown
+	 *         file key
+	 */
+	public List<File> getLinks(Object fileKey) {
+		Inode inode = inodes.get(fileKey);
+		return inode == null ? Collections.<File> emptyList() : inode.getPaths();
+	}
+
+	/**
+	 * Reads file key of given file and returns all its paths found by the
+	 * build.
+	 *
+	 * @param file
+	 *            file on disk
+	 * @return all paths of the file, empty list if file isn't in index
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	public List<File> getLinks(File file) throws IOException {
+		return getLinks(FileAttributes.read(file).getFileKey());
+	}
+
+	/**
+	 * @return file keys of all files with more than one hard link
+	 */
+	public Set<Object> getLinkedKeys() {
+		return linkedKeys;
+	}
+
+	/**
+	 * @param fileKey
+	 *            file key of file
+	 * @return <code>true</code> if all hard links of the file were found under
+	 *         walked roots
+	 */
+	public boolean isComplete(Object fileKey) {
+		Inode inode = inodes.get(fileKey);
+		return inode != null && inode.isComplete();
+	}
+
+	/**
+	 * @return number of indexed files
+	 */
+	public int size() {
+		return inodes.size();
+	}
+
+	/**
+	 * Paths of one inode.
+	 *
+	 * @author sitko
+	 */
+	private static final class Inode {
+		private final long linkCount;
+		private final List<File> paths = new ArrayList<>(1);
+
+		/**
+		 * Creates inode.
+		 *
+		 * @param linkCount
+		 *            number of hard links of inode
+		 */
+		Inode(long linkCount) {
+			this.linkCount = linkCount;
+		}
+
+		/**
+		 * Adds found path of inode.
+		 *
+		 * @param path
+		 *            found path
+		 * @return <code>true</code> if all links of inode are found now
+		 */
+		synchronized boolean addPath(File path) {
+			paths.add(path);
+			return paths.size() == linkCount;
+		}
+
+		/**
+		 * @return copy of found paths
+		 */
+		synchronized List<File> getPaths() {
+			return Collections.unmodifiableList(new ArrayList<>(paths));
+		}
+
+		/**
+		 * @return <code>true</code> if all links of inode were found
+		 */
+		synchronized boolean isComplete() {
+			return paths.size() == linkCount;
+		}
+	}
+
+	/**
+	 * Parallel walk of directory trees collecting inodes.
+	 *
+	 * @author sitko
+	 */
+	private static final class Walk {
+		private final AttributeSnapshot snapshot;
+		private final FileAttributes searched;
+		private final ConcurrentMap<Object, Inode> inodes = new ConcurrentHashMap<>();
+		private final AtomicBoolean finished = new AtomicBoolean();
+		private final AtomicReference<IOException> failure = new AtomicReference<>();
+
+		/**
+		 * Creates walk.
+		 *
+		 * @param snapshot
+		 *            attribute snapshot of current run
+		 * @param searched
+		 *            attributes of single searched file or <code>null</code>
+		 *            if all files are collected
+		 */
+		Walk(AttributeSnapshot snapshot, FileAttributes searched) {
+			this.snapshot = snapshot;
+			this.searched = searched;
+		}
+
+		/**
+		 * Walks all roots.
+		 *
+		 * @param roots
+		 *            root directories
+		 * @param parallelism
+		 *            number of threads walking directories in parallel
+		 * @throws IOException
+		 *             if I/O error occurs
+		 */
+		void run(Collection<File> roots, int parallelism) throws IOException {
+			final List<DirectoryTask> tasks = new ArrayList<>();
+			for (File root : roots) {
+				tasks.add(new DirectoryTask(this, root));
+			}
+			ForkJoinPool pool = new ForkJoinPool(parallelism);
+			try {
+				pool.invoke(new RecursiveAction() {
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected void compute() {
+						invokeAll(tasks);
+					}
+				});
+			} finally {
+				pool.shutdown();
+			}
+			if (failure.get() != null) {
+				throw failure.get();
+			}
+		}
+
+		/**
+		 * Records regular file into its inode.
+		 *
+		 * @param attributes
+		 *            attributes of file
+		 */
+		void addFile(FileAttributes attributes) {
+			Object fileKey = attributes.getFileKey();
+			if (attributes.isRegularFile() && fileKey != null
+					&& (searched == null || fileKey.equals(searched.getFileKey()))) {
+				Inode inode = inodes.get(fileKey);
+				if (inode == null) {
+					inode = new Inode(attributes.getLinkCount());
+					Inode previous = inodes.putIfAbsent(fileKey, inode);
+					if (previous != null) {
+						inode = previous;
+					}
+				}
+				if (inode.addPath(attributes.getFile()) && searched != null) {
+					finished.set(true);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Indexes files of one directory and forks tasks for its sub-directories.
+	 *
+	 * @author sitko
+	 */
+	private static final class DirectoryTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final transient Walk walk;
+		private final File directory;
+
+		/**
+		 * Creates task.
+		 *
+		 * @param walk
+		 *            walk to which task belongs
+		 * @param directory
+		 *            directory to index
+		 */
+		DirectoryTask(Walk walk, File directory) {
+			this.walk = walk;
+			this.directory = directory;
+		}
+
+		@Override
+		protected void compute() {
+			List<DirectoryTask> subTasks = new ArrayList<>();
+			if (!walk.finished.get()) {
+				try {
+					for (File subDirectory : walk.snapshot.listDirectories(directory)) {
+						DirectoryTask subTask = new DirectoryTask(walk, subDirectory);
+						subTask.fork();
+						subTasks.add(subTask);
+					}
+					try (DirectoryEntries files = walk.snapshot.openFiles(directory)) {
+						for (File file : files) {
+							walk.addFile(walk.snapshot.getAttributes(file));
+						}
+					}
+				} catch (IOException ioException) {
+					walk.failure.compareAndSet(null, ioException);
+				} catch (DirectoryIteratorException exception) {
+					walk.failure.compareAndSet(null, exception.getCause());
+				}
+			}
+			for (DirectoryTask subTask : subTasks) {
+				subTask.join();
+			}
+		}
+	}
+}
@@ -0,0 +1,350 @@
+package net.lkrnac.hlkit;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Off-heap open addressing hash table keyed by primitive device and inode
+ * numbers. Each key gets sequential int id, which points into arena of packed
+ * UTF-8 file names. Slots, name offsets and names are held in direct buffers,
+ * so table of hundreds of millions of entries doesn't put pressure on
+ * garbage collector.
+ * <p>
+ * Slot takes 16 bytes: inode number, index of device in small device
+ * dictionary and id. With linear probing kept under 80 % load, one entry
+ * costs about 27 bytes, entry with name 8 more bytes plus length prefixed name.
+ * Instance isn't thread safe.
+ *
+ * @author sitko
+ */
+final class InodeTable {
+	/** Id returned for key which isn't in table. */
+	static final int NOT_FOUND = -1;
+
+	private static final int SLOT_SIZE = 16;
+	private static final int OFFSET_INODE = 0;
+	private static final int OFFSET_DEVICE = 8;
+	private static final int OFFSET_ID = 12;
+	private static final int SLOTS_PER_CHUNK = 1 << 20;
+	private static final int INITIAL_CAPACITY = 1 << 10;
+	private static final int MAX_LOAD_PERCENT = 80;
+	private static final int IDS_PER_CHUNK = 1 << 16;
+	private static final int ARENA_CHUNK_SIZE = 1 << 20;
+	private static final int NAME_OFFSET_SIZE = 8;
+	private static final int NAME_LENGTH_SIZE = 2;
+	private static final int MAX_NAME_LENGTH = 0xFFFF;
+	private static final Charset UTF_8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+
+	private final Map<Long, Integer> deviceIndexes = new HashMap<>();
+	private ByteBuffer[] slots;
+	private long capacity;
+	private int count;
+	private ByteBuffer[] nameOffsets = new ByteBuffer[0];
+	private ByteBuffer[] arena = new ByteBuffer[0];
+	private long arenaLength;
+
+	/**
+	 * Creates empty table.
+	 */
+	InodeTable() {
+		this(0);
+	}
+
+	/**
+	 * Creates table sized for given number of entries, so it doesn't have to
+	 * grow while they are added.
+	 *
+	 * @param expectedCount
+	 *            expected number of entries
+	 */
+	InodeTable(long expectedCount) {
+		long tableCapacity = INITIAL_CAPACITY;
+		while (tableCapacity * MAX_LOAD_PERCENT / 100 < expectedCount) {
+			tableCapacity <<= 1;
+		}
+		allocateSlots(tableCapacity);
+	}
+
+	/**
+	 * Adds entry. Name of existing entry isn't changed.
+	 *
+	 * @param device
+	 *            device ID
+	 * @param inode
+	 *            inode number
+	 * @param name
+	 *            file name, can be <code>null</code> if it isn't needed
+	 * @return id of entry
+	 */
+	int put(long device, long inode, String name) {
+		int deviceIndex = deviceIndexOf(device, true);
+		long slot = findSlot(deviceIndex, inode);
+		ByteBuffer chunk = chunkOf(slot);
+		int offset = offsetOf(slot);
+		int id = chunk.getInt(offset + OFFSET_ID) - 1;
+		if (id == NOT_FOUND) {
+			id = count++;
+			chunk.putLong(offset + OFFSET_INODE, inode);
+			chunk.putInt(offset + OFFSET_DEVICE, deviceIndex);
+			chunk.putInt(offset + OFFSET_ID, id + 1);
+			if (name != null) {
+				putNameOffset(id, appendName(name));
+			}
+			if ((long) count * 100 > capacity * MAX_LOAD_PERCENT) {
+				grow();
+			}
+		}
+		return id;
+	}
+
+	/**
+	 * Finds id of entry.
+	 *
+	 * @param device
+	 *            device ID
+	 * @param inode
+	 *            inode number
+	 * @return id of entry or {@link #NOT_FOUND}
+	 */
+	int get(long device, long inode) {
+		int id = NOT_FOUND;
+		int deviceIndex = deviceIndexOf(device, false);
+		if (deviceIndex != NOT_FOUND) {
+			long slot = findSlot(deviceIndex, inode);
+			id = chunkOf(slot).getInt(offsetOf(slot) + OFFSET_ID) - 1;
+		}
+		return id;
+	}
+
+	/**
+	 * @param device
+	 *            device ID
+	 * @param inode
+	 *            inode number
+	 * @return <code>true</code> if table contains entry
+	 */
+	boolean contains(long device, long inode) {
+		return get(device, inode) != NOT_FOUND;
+	}
+
+	/**
+	 * Reads name of entry from arena.
+	 *
+	 * @param id
+	 *            id of entry
+	 * @return file name or <code>null</code> if entry was added without name
+	 */
+	String getName(int id) {
+		if (id < 0 || id >= count) {
+			throw new IndexOutOfBoundsException(Integer.toString(id));
+		}
+		int chunkIndex = id / IDS_PER_CHUNK;
+		long nameOffset = chunkIndex < nameOffsets.length ? nameOffsets[chunkIndex].getLong((id
+				% IDS_PER_CHUNK) * NAME_OFFSET_SIZE) - 1 : -1;
+		String name = null;
+		if (nameOffset >= 0) {
+			ByteBuffer chunk = arena[(int) (nameOffset / ARENA_CHUNK_SIZE)].duplicate();
+			chunk.position((int) (nameOffset % ARENA_CHUNK_SIZE));
+			byte[] bytes = new byte[chunk.getShort() & MAX_NAME_LENGTH];
+			chunk.get(bytes);
+			name = new String(bytes, UTF_8);
+		}
+		return name;
+	}
+
+	/**
+	 * @return number of entries
+	 */
+	int size() {
+		return count;
+	}
+
+	/**
+	 * @return number of off-heap bytes allocated by table
+	 */
+	long getFootprint() {
+		long nameOffsetsSize = (long) nameOffsets.length * IDS_PER_CHUNK * NAME_OFFSET_SIZE;
+		return capacity * SLOT_SIZE + nameOffsetsSize + (long) arena.length * ARENA_CHUNK_SIZE;
+	}
+
+	/**
+	 * Finds index of device in device dictionary.
+	 *
+	 * @param device
+	 *            device ID
+	 * @param add
+	 *            flag if unknown device should be added
+	 * @return index of device or {@link #NOT_FOUND}
+	 */
+	private int deviceIndexOf(long device, boolean add) {
+		Integer deviceIndex = deviceIndexes.get(device);
+		if (deviceIndex == null && add) {
+			deviceIndex = deviceIndexes.size();
+			deviceIndexes.put(device, deviceIndex);
+		}
+		return deviceIndex == null ? NOT_FOUND : deviceIndex;
+	}
+
+	/**
+	 * Finds slot of given key by linear probing.
+	 *
+	 * @param deviceIndex
+	 *            index of device
+	 * @param inode
+	 *            inode number
+	 * @return slot holding the key or first empty slot
+	 */
+	private long findSlot(int deviceIndex, long inode) {
+		long slot = mix(deviceIndex, inode) & (capacity - 1);
+		boolean found = false;
+		while (!found) {
+			ByteBuffer chunk = chunkOf(slot);
+			int offset = offsetOf(slot);
+			found = chunk.getInt(offset + OFFSET_ID) == 0
+					|| chunk.getLong(offset + OFFSET_INODE) == inode
+					&& chunk.getInt(offset + OFFSET_DEVICE) == deviceIndex;
+			if (!found) {
+				slot = (slot + 1) & (capacity - 1);
+			}
+		}
+		return slot;
+	}
+
+	/**
+	 * Doubles capacity of table and rehashes all entries.
+	 */
+	private void grow() {
+		ByteBuffer[] oldSlots = slots;
+		long oldCapacity = capacity;
+		allocateSlots(oldCapacity * 2);
+		for (long slot = 0; slot < oldCapacity; slot++) {
+			ByteBuffer oldChunk = oldSlots[(int) (slot / SLOTS_PER_CHUNK)];
+			int offset = offsetOf(slot);
+			int storedId = oldChunk.getInt(offset + OFFSET_ID);
+			if (storedId != 0) {
+				long inode = oldChunk.getLong(offset + OFFSET_INODE);
+				int deviceIndex = oldChunk.getInt(offset + OFFSET_DEVICE);
+				long newSlot = findSlot(deviceIndex, inode);
+				ByteBuffer newChunk = chunkOf(newSlot);
+				int newOffset = offsetOf(newSlot);
+				newChunk.putLong(newOffset + OFFSET_INODE, inode);
+				newChunk.putInt(newOffset + OFFSET_DEVICE, deviceIndex);
+				newChunk.putInt(newOffset + OFFSET_ID, storedId);
+			}
+		}
+	}
+
+	/**
+	 * Allocates zeroed slots.
+	 *
+	 * @param tableCapacity
+	 *            number of slots, power of two
+	 */
+	private void allocateSlots(long tableCapacity) {
+		long slotsPerChunk = Math.min(tableCapacity, SLOTS_PER_CHUNK);
+		slots = new ByteBuffer[(int) (tableCapacity / slotsPerChunk)];
+		for (int i = 0; i < slots.length; i++) {
+			slots[i] = ByteBuffer.allocateDirect((int) slotsPerChunk * SLOT_SIZE);
+		}
+		capacity = tableCapacity;
+	}
+
+	/**
+	 * Stores arena offset of name of entry. Offsets are kept incremented by
+	 * one, so zeroed offset means entry without name.
+	 *
+	 * @param id
+	 *            id of entry
+	 * @param nameOffset
+	 *            offset of name in arena
+	 */
+	private void putNameOffset(int id, long nameOffset) {
+		int chunkIndex = id / IDS_PER_CHUNK;
+		while (chunkIndex >= nameOffsets.length) {
+			nameOffsets = append(nameOffsets,
+					ByteBuffer.allocateDirect(IDS_PER_CHUNK * NAME_OFFSET_SIZE));
+		}
+		nameOffsets[chunkIndex].putLong((id % IDS_PER_CHUNK) * NAME_OFFSET_SIZE, nameOffset + 1);
+	}
+
+	/**
+	 * Appends name into arena. Name never crosses chunk boundary.
+	 *
+	 * @param name
+	 *            file name
+	 * @return offset of name in arena
+	 */
+	private long appendName(String name) {
+		byte[] bytes = name.getBytes(UTF_8);
+		if (bytes.length > MAX_NAME_LENGTH) {
+			throw new IllegalArgumentException("name too long: " + name); //$NON-NLS-1$
+		}
+		int recordLength = NAME_LENGTH_SIZE + bytes.length;
+		long arenaEnd = (long) arena.length * ARENA_CHUNK_SIZE;
+		if (arenaLength + recordLength > arenaEnd) {
+			arenaLength = arenaEnd;
+			arena = append(arena, ByteBuffer.allocateDirect(ARENA_CHUNK_SIZE));
+		}
+		long nameOffset = arenaLength;
+		ByteBuffer chunk = arena[arena.length - 1].duplicate();
+		chunk.position((int) (nameOffset % ARENA_CHUNK_SIZE));
+		chunk.putShort((short) bytes.length);
+		chunk.put(bytes);
+		arenaLength += recordLength;
+		return nameOffset;
+	}
+
+	/**
+	 * @param buffers
+	 *            array of buffers
+	 * @param buffer
+	 *            buffer to append
+	 * @return new array with appended buffer
+	 */
+	private static ByteBuffer[] append(ByteBuffer[] buffers, ByteBuffer buffer) {
+		ByteBuffer[] result = new ByteBuffer[buffers.length + 1];
+		System.arraycopy(buffers, 0, result, 0, buffers.length);
+		result[buffers.length] = buffer;
+		return result;
+	}
+
+	/**
+	 * @param slot
+	 *            slot index
+	 * @return chunk containing slot
+	 */
+	private ByteBuffer chunkOf(long slot) {
+		return slots[(int) (slot / SLOTS_PER_CHUNK)];
+	}
+
+	/**
+	 * @param slot
+	 *            slot index
+	 * @return byte offset of slot within its chunk
+	 */
+	private static int offsetOf(long slot) {
+		return (int) (slot % SLOTS_PER_CHUNK) * SLOT_SIZE;
+	}
+
+	/**
+	 * Mixes device index and inode into well distributed hash.
+	 *
+	 * @param deviceIndex
+	 *            index of device
+	 * @param inode
+	 *            inode number
+	 * @return hash value
+	 */
+	//SUPPRESS CHECKSTYLE MagicNumber 10 Constants of 64-bit hash finalizer
+	private static long mix(int deviceIndex, long inode) {
+		long hash = inode * 0x9E3779B97F4A7C15L ^ deviceIndex;
+		hash ^= hash >>> 33;
+		hash *= 0xFF51AFD7ED558CCDL;
+		hash ^= hash >>> 33;
+		hash *= 0xC4CEB9FE1A85EC53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
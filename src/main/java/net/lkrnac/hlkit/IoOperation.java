@@ -0,0 +1,17 @@
+package net.lkrnac.hlkit;
+
+/**
+ * File system operations limited by {@link IoRateLimiter}.
+ *
+ * @author sitko
+ */
+public enum IoOperation {
+	/** One file system call reading file attributes. */
+	STAT,
+	/** Listing of one directory. */
+	LISTING,
+	/** Creation or replacement of one hard link. */
+	LINK,
+	/** Bytes of file content read by verification or copying. */
+	BYTES_READ
+}
@@ -0,0 +1,175 @@
+package net.lkrnac.hlkit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Token bucket rate limits of file system operations. Each {@link FileStore}
+ * has its own bucket for each {@link IoOperation}, so run on one file store
+ * doesn't slow down other file stores. Default limits apply to every file
+ * store without its own limit.
+ * <p>
+ * Limits can be changed at any time, also while a run is in progress. Limiter
+ * is attached to {@link AttributeSnapshot} for stat calls and listings and to
+ * directory handlers for link operations and read bytes. Instance is thread
+ * safe.
+ *
+ * @author sitko
+ * @see AbstractDirectoryHandler#setRateLimiter(IoRateLimiter)
+ */
+public class IoRateLimiter {
+	private final Map<IoOperation, Double> defaultLimits = new EnumMap<>(IoOperation.class);
+	private final Map<FileStore, Map<IoOperation, Double>> storeLimits = new HashMap<>();
+	private final ConcurrentMap<FileStore, Map<IoOperation, TokenBucket>> buckets =
+			new ConcurrentHashMap<>();
+	private final ConcurrentMap<File, FileStore> directoryStores = new ConcurrentHashMap<>();
+
+	/**
+	 * Sets default limit of operation for all file stores without their own
+	 * limit of the operation.
+	 *
+	 * @param operation
+	 *            limited operation
+	 * @param perSecond
+	 *            number of operations or bytes per second, not positive value
+	 *            removes the limit
+	 */
+	public synchronized void setLimit(IoOperation operation, double perSecond) {
+		defaultLimits.put(operation, perSecond);
+		updateBuckets();
+	}
+
+	/**
+	 * Sets limit of operation for one file store.
+	 *
+	 * @param fileStore
+	 *            limited file store
+	 * @param operation
+	 *            limited operation
+	 * @param perSecond
+	 *            number of operations or bytes per second, not positive value
+	 *            removes the limit
+	 */
+	public synchronized void setLimit(FileStore fileStore, IoOperation operation,
+			double perSecond) {
+		Map<IoOperation, Double> limits = storeLimits.get(fileStore);
+		if (limits == null) {
+			limits = new EnumMap<>(IoOperation.class);
+			storeLimits.put(fileStore, limits);
+		}
+		limits.put(operation, perSecond);
+		updateBuckets();
+	}
+
+	/**
+	 * Removes own limits of file store, so default limits apply to it again.
+	 *
+	 * @param fileStore
+	 *            file store
+	 */
+	public synchronized void clearLimits(FileStore fileStore) {
+		storeLimits.remove(fileStore);
+		updateBuckets();
+	}
+
+	/**
+	 * @param fileStore
+	 *            file store
+	 * @param operation
+	 *            limited operation
+	 * @return effective limit of operation on file store, not positive value
+	 *         if operation isn't limited
+	 */
+	public synchronized double getLimit(FileStore fileStore, IoOperation operation) {
+		Double limit = null;
+		Map<IoOperation, Double> limits = storeLimits.get(fileStore);
+		if (limits != null) {
+			limit = limits.get(operation);
+		}
+		if (limit == null) {
+			limit = defaultLimits.get(operation);
+		}
+		return limit == null ? 0 : limit;
+	}
+
+	/**
+	 * Waits until operation on file store of given directory is allowed.
+	 * File store of each directory is resolved only once.
+	 *
+	 * @param operation
+	 *            limited operation
+	 * @param directory
+	 *            directory accessed by operation or containing accessed file
+	 * @param permits
+	 *            number of operations or bytes
+	 * @throws IOException
+	 *             if file store can't be resolved or calling thread is
+	 *             interrupted while waiting
+	 */
+	public void acquire(IoOperation operation, File directory, long permits) throws IOException {
+		FileStore fileStore = directoryStores.get(directory);
+		if (fileStore == null) {
+			fileStore = Files.getFileStore(directory.toPath());
+			directoryStores.putIfAbsent(directory, fileStore);
+		}
+		try {
+			getBuckets(fileStore).get(operation).acquire(permits);
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw (IOException) new InterruptedIOException("rate limit interrupted") //$NON-NLS-1$
+					.initCause(exception);
+		}
+	}
+
+	/**
+	 * @param file
+	 *            accessed file
+	 * @return directory containing the file, file itself if it has no parent
+	 */
+	static File directoryOf(File file) {
+		File directory = file.getAbsoluteFile().getParentFile();
+		return directory == null ? file : directory;
+	}
+
+	/**
+	 * @param fileStore
+	 *            file store
+	 * @return buckets of file store, created on first access
+	 */
+	private Map<IoOperation, TokenBucket> getBuckets(FileStore fileStore) {
+		Map<IoOperation, TokenBucket> storeBuckets = buckets.get(fileStore);
+		if (storeBuckets == null) {
+			synchronized (this) {
+				storeBuckets = buckets.get(fileStore);
+				if (storeBuckets == null) {
+					storeBuckets = new EnumMap<>(IoOperation.class);
+					for (IoOperation operation : IoOperation.values()) {
+						double limit = getLimit(fileStore, operation);
+						storeBuckets.put(operation, new TokenBucket(limit));
+					}
+					buckets.put(fileStore, storeBuckets);
+				}
+			}
+		}
+		return storeBuckets;
+	}
+
+	/**
+	 * Applies current limits to existing buckets.
+	 */
+	private void updateBuckets() {
+		for (Map.Entry<FileStore, Map<IoOperation, TokenBucket>> entry : buckets.entrySet()) {
+			for (Map.Entry<IoOperation, TokenBucket> bucket : entry.getValue().entrySet()) {
+				bucket.getValue().setRate(getLimit(entry.getKey(), bucket.getKey()));
+			}
+		}
+	}
+}
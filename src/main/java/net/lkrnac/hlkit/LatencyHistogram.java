@@ -0,0 +1,78 @@
+package net.lkrnac.hlkit;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of latencies with power of two buckets. Bucket
+ * <code>i</code> counts latencies in range <code>[2^i, 2^(i+1))</code>
+ * nanoseconds, so percentiles are accurate within factor of two.
+ *
+ * @author sitko
+ */
+class LatencyHistogram {
+	private static final int BUCKETS = Long.SIZE;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+
+	/**
+	 * Records one latency.
+	 *
+	 * @param nanos
+	 *            latency in nanoseconds
+	 */
+	void record(long nanos) {
+		long value = Math.max(nanos, 1);
+		buckets.incrementAndGet(BUCKETS - 1 - Long.numberOfLeadingZeros(value));
+		count.incrementAndGet();
+		totalNanos.addAndGet(value);
+	}
+
+	/**
+	 * @return number of recorded latencies
+	 */
+	long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return sum of recorded latencies in nanoseconds
+	 */
+	long getTotalNanos() {
+		return totalNanos.get();
+	}
+
+	/**
+	 * Estimates latency percentile as upper bound of bucket containing it.
+	 *
+	 * @param percentile
+	 *            percentile between 0 and 100
+	 * @return latency percentile in nanoseconds, 0 if nothing was recorded
+	 */
+	long getPercentileNanos(double percentile) {
+		//SUPPRESS CHECKSTYLE MagicNumber 1 Percent
+		long rank = (long) Math.ceil(count.get() * percentile / 100);
+		long result = 0;
+		long seen = 0;
+		for (int i = 0; i < BUCKETS && result == 0; i++) {
+			seen += buckets.get(i);
+			if (seen > 0 && seen >= rank) {
+				result = i == BUCKETS - 2 ? Long.MAX_VALUE : 2L << i;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Clears all recorded latencies.
+	 */
+	void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		totalNanos.set(0);
+	}
+}
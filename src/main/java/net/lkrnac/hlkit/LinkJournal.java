@@ -0,0 +1,491 @@
+package net.lkrnac.hlkit;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of long link runs, which allows interrupted run to be
+ * resumed. Journal records intended and completed replacements of target
+ * files and completed target directories. Each record is protected by
+ * checksum, torn record at the end of journal is cut off when journal is
+ * opened.
+ * <p>
+ * Intended replacement is forced to disk before target file is deleted, so
+ * replacement interrupted after deletion can be repaired. Threads waiting for
+ * durability share single <code>fsync</code> of all records appended so far.
+ * Other records are forced by periodic checkpoints, so interrupted run
+ * repeats at most directories completed since last checkpoint. Journal of
+ * finished run can be deleted.
+ * <p>
+ * Instance is thread safe, but only one instance can use the journal file at
+ * a time.
+ *
+ * @author sitko
+ * @see TreeMirror#setJournal(LinkJournal)
+ * @see HardLinksHandler#setJournal(LinkJournal)
+ */
+public class LinkJournal implements Closeable {
+	private static final byte TYPE_INTENT = 1;
+	private static final byte TYPE_REPLACED = 2;
+	private static final byte TYPE_DIRECTORY = 3;
+	private static final byte TYPE_CHECKPOINT = 4;
+	private static final byte TYPE_STAGED_INTENT = 5;
+	private static final int MAX_RECORD_SIZE = 1 << 18;
+	private static final int IO_BUFFER_SIZE = 1 << 16;
+	private static final String EMPTY_PATH = ""; //$NON-NLS-1$
+
+	private final int checkpointInterval;
+	private final FileChannel channel;
+	private final ByteBuffer writeBuffer = ByteBuffer.allocate(IO_BUFFER_SIZE);
+	private final CRC32 crc = new CRC32();
+	private final Map<File, File> pendingReplacements = new LinkedHashMap<>();
+	private final Map<File, File> pendingTempLinks = new HashMap<>();
+	private final Set<File> completedDirectories = new HashSet<>();
+	private final Object syncLock = new Object();
+	private long appendedSequence;
+	private long durableSequence;
+	private int directoriesSinceCheckpoint;
+
+	/**
+	 * Creates journal instance. Use {@link #open(File, int)} to obtain opened
+	 * journal.
+	 *
+	 * @param channel
+	 *            channel of journal file positioned at its end
+	 * @param checkpointInterval
+	 *            number of completed directories between checkpoints
+	 */
+	private LinkJournal(FileChannel channel, int checkpointInterval) {
+		this.channel = channel;
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	/**
+	 * Opens journal file, which is created if it doesn't exist. Intact records
+	 * of existing journal are replayed, torn record at its end is cut off.
+	 *
+	 * @param file
+	 *            journal file
+	 * @param checkpointInterval
+	 *            number of completed directories between checkpoints
+	 * @return opened journal
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	public static LinkJournal open(File file, int checkpointInterval) throws IOException {
+		if (checkpointInterval < 1) {
+			throw new IllegalArgumentException("interval has to be positive"); //$NON-NLS-1$
+		}
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		LinkJournal journal = new LinkJournal(channel, checkpointInterval);
+		try {
+			long validLength = journal.replay(file);
+			channel.truncate(validLength);
+			channel.position(validLength);
+		} catch (IOException ioException) {
+			channel.close();
+			throw ioException;
+		}
+		return journal;
+	}
+
+	/**
+	 * @param targetDir
+	 *            target directory
+	 * @return <code>true</code> if directory was completed by previous run
+	 */
+	public synchronized boolean isDirectoryCompleted(File targetDir) {
+		return completedDirectories.contains(targetDir.getAbsoluteFile());
+	}
+
+	/**
+	 * @return replacements which were intended but not completed, source
+	 *         files keyed by target files
+	 */
+	public synchronized Map<File, File> getPendingReplacements() {
+		return Collections.unmodifiableMap(new LinkedHashMap<>(pendingReplacements));
+	}
+
+	/**
+	 * Repairs replacements interrupted by previous run. Target file deleted
+	 * before its hard link was created is linked again. Replacement whose
+	 * target file wasn't deleted yet or is already linked is only marked as
+	 * completed. Replacement can't be repaired if both files are missing, it
+	 * stays pending then. Temporary hard link left behind by interrupted
+	 * replacement is deleted.
+	 *
+	 * @return number of repaired target files
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	public int repair() throws IOException {
+		int repaired = 0;
+		for (Map.Entry<File, File> replacement : getPendingReplacements().entrySet()) {
+			File targetFile = replacement.getKey();
+			File sourceFile = replacement.getValue();
+			File tempLink = getPendingTempLink(targetFile);
+			if (tempLink != null) {
+				Files.deleteIfExists(tempLink.toPath());
+			}
+			boolean completed = targetFile.exists();
+			if (!completed && sourceFile.exists()) {
+				Files.createLink(targetFile.toPath(), sourceFile.toPath());
+				repaired++;
+				completed = true;
+			}
+			if (completed) {
+				completeReplacement(targetFile);
+			}
+		}
+		checkpoint();
+		return repaired;
+	}
+
+	/**
+	 * Records that target file is going to be replaced by hard link of source
+	 * file. Returns after the record is forced to disk.
+	 *
+	 * @param targetFile
+	 *            target file to be replaced
+	 * @param sourceFile
+	 *            source file to be linked
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	public void intendReplacement(File targetFile, File sourceFile) throws IOException {
+		intendReplacement(targetFile, sourceFile, null);
+	}
+
+	/**
+	 * Records that target file is going to be replaced by hard link of source
+	 * file, staged under temporary name first. Temporary hard link is deleted
+	 * by {@link #repair()} if replacement is interrupted. Returns after the
+	 * record is forced to disk.
+	 *
+	 * @param targetFile
+	 *            target file to be replaced
+	 * @param sourceFile
+	 *            source file to be linked
+	 * @param tempLink
+	 *            temporary hard link to be moved over target file or
+	 *            <code>null</code> if there is none
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	public void intendReplacement(File targetFile, File sourceFile, File tempLink)
+			throws IOException {
+		File target = targetFile.getAbsoluteFile();
+		File source = sourceFile.getAbsoluteFile();
+		long sequence;
+		synchronized (this) {
+			pendingReplacements.put(target, source);
+			if (tempLink == null) {
+				sequence = append(TYPE_INTENT, target, source, null);
+			} else {
+				File temp = tempLink.getAbsoluteFile();
+				pendingTempLinks.put(target, temp);
+				sequence = append(TYPE_STAGED_INTENT, target, source, temp);
+			}
+		}
+		awaitDurable(sequence);
+	}
+
+	/**
+	 * Returns temporary hard link journaled with pending replacement.
+	 *
+	 * @param targetFile
+	 *            target file of pending replacement
+	 * @return temporary hard link or <code>null</code> if there is none
+	 */
+	synchronized File getPendingTempLink(File targetFile) {
+		return pendingTempLinks.get(targetFile.getAbsoluteFile());
+	}
+
+	/**
+	 * Records completed replacement of target file. Record isn't forced to
+	 * disk immediately.
+	 *
+	 * @param targetFile
+	 *            replaced target file
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	public synchronized void completeReplacement(File targetFile) throws IOException {
+		File target = targetFile.getAbsoluteFile();
+		pendingReplacements.remove(target);
+		pendingTempLinks.remove(target);
+		append(TYPE_REPLACED, target, null, null);
+	}
+
+	/**
+	 * Records completed target directory. Checkpoint is made after each
+	 * checkpoint interval of completed directories.
+	 *
+	 * @param targetDir
+	 *            completed target directory
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	public void completeDirectory(File targetDir) throws IOException {
+		boolean checkpointDue;
+		synchronized (this) {
+			File directory = targetDir.getAbsoluteFile();
+			completedDirectories.add(directory);
+			append(TYPE_DIRECTORY, directory, null, null);
+			directoriesSinceCheckpoint++;
+			checkpointDue = directoriesSinceCheckpoint >= checkpointInterval;
+		}
+		if (checkpointDue) {
+			checkpoint();
+		}
+	}
+
+	/**
+	 * Appends checkpoint record and forces all records to disk.
+	 *
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	public void checkpoint() throws IOException {
+		long sequence;
+		synchronized (this) {
+			directoriesSinceCheckpoint = 0;
+			sequence = append(TYPE_CHECKPOINT, null, null, null);
+		}
+		awaitDurable(sequence);
+	}
+
+	/**
+	 * Makes checkpoint and closes journal file.
+	 * <p>
+	 * <b> Javadoc from parent class:<br>
+	 * </b> {@inheritDoc}
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			checkpoint();
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Waits until record with given sequence number is forced to disk. If it
+	 * isn't yet, all records appended so far are forced by single call.
+	 *
+	 * @param sequence
+	 *            sequence number of record
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private void awaitDurable(long sequence) throws IOException {
+		synchronized (syncLock) {
+			if (durableSequence < sequence) {
+				long appended;
+				synchronized (this) {
+					drainWriteBuffer();
+					appended = appendedSequence;
+				}
+				channel.force(false);
+				durableSequence = appended;
+			}
+		}
+	}
+
+	/**
+	 * Encodes record into write buffer. Record which doesn't fit into empty
+	 * write buffer is written directly into journal file after buffered
+	 * records.
+	 *
+	 * @param type
+	 *            type of record
+	 * @param file
+	 *            first file of record or <code>null</code>
+	 * @param otherFile
+	 *            second file of record or <code>null</code>
+	 * @param tempLink
+	 *            temporary hard link of staged intent record or
+	 *            <code>null</code> for other records
+	 * @return sequence number of record
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private long append(byte type, File file, File otherFile, File tempLink)
+			throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(bytes);
+		output.writeByte(type);
+		output.writeUTF(file == null ? EMPTY_PATH : file.getPath());
+		output.writeUTF(otherFile == null ? EMPTY_PATH : otherFile.getPath());
+		if (tempLink != null) {
+			output.writeUTF(tempLink.getPath());
+		}
+		byte[] record = bytes.toByteArray();
+		crc.reset();
+		crc.update(record);
+		//SUPPRESS CHECKSTYLE MagicNumber 1 Length and checksum integers
+		int frameLength = record.length + 8;
+		if (writeBuffer.remaining() < frameLength) {
+			drainWriteBuffer();
+		}
+		if (frameLength > writeBuffer.capacity()) {
+			ByteBuffer frame = ByteBuffer.allocate(frameLength);
+			putFrame(frame, record);
+			frame.flip();
+			writeFully(frame);
+		} else {
+			putFrame(writeBuffer, record);
+		}
+		return ++appendedSequence;
+	}
+
+	/**
+	 * Puts record framed by its length and checksum into buffer.
+	 *
+	 * @param buffer
+	 *            buffer with enough remaining space
+	 * @param record
+	 *            encoded record
+	 */
+	private void putFrame(ByteBuffer buffer, byte[] record) {
+		buffer.putInt(record.length);
+		buffer.put(record);
+		buffer.putInt((int) crc.getValue());
+	}
+
+	/**
+	 * Writes content of write buffer into journal file.
+	 *
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private void drainWriteBuffer() throws IOException {
+		writeBuffer.flip();
+		writeFully(writeBuffer);
+		writeBuffer.clear();
+	}
+
+	/**
+	 * Writes all remaining bytes of buffer into journal file.
+	 *
+	 * @param buffer
+	 *            buffer to write
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private void writeFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Replays intact records of journal file.
+	 *
+	 * @param file
+	 *            journal file
+	 * @return length of intact part of journal
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private long replay(File file) throws IOException {
+		long validLength = 0;
+		try (InputStream stream = Files.newInputStream(file.toPath());
+				DataInputStream input = new DataInputStream(new BufferedInputStream(stream,
+						IO_BUFFER_SIZE))) {
+			byte[] record = readRecord(input);
+			while (record != null) {
+				applyRecord(record);
+				//SUPPRESS CHECKSTYLE MagicNumber 1 Length and checksum integers
+				validLength += record.length + 8;
+				record = readRecord(input);
+			}
+		}
+		return validLength;
+	}
+
+	/**
+	 * Reads next record of journal.
+	 *
+	 * @param input
+	 *            journal input
+	 * @return record without length and checksum or <code>null</code> at the
+	 *         end of journal or at torn record
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private byte[] readRecord(DataInputStream input) throws IOException {
+		byte[] record = null;
+		try {
+			int length = input.readInt();
+			if (length > 0 && length <= MAX_RECORD_SIZE) {
+				byte[] bytes = new byte[length];
+				input.readFully(bytes);
+				int checksum = input.readInt();
+				crc.reset();
+				crc.update(bytes);
+				if (checksum == (int) crc.getValue()) {
+					record = bytes;
+				}
+			}
+		} catch (EOFException exception) {
+			record = null;
+		}
+		return record;
+	}
+
+	/**
+	 * Applies replayed record to journal state.
+	 *
+	 * @param record
+	 *            intact record
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private void applyRecord(byte[] record) throws IOException {
+		DataInputStream input = new DataInputStream(new ByteArrayInputStream(record));
+		byte type = input.readByte();
+		File file = new File(input.readUTF());
+		File otherFile = new File(input.readUTF());
+		switch (type) {
+		case TYPE_INTENT:
+			pendingReplacements.put(file, otherFile);
+			break;
+		case TYPE_STAGED_INTENT:
+			pendingReplacements.put(file, otherFile);
+			pendingTempLinks.put(file, new File(input.readUTF()));
+			break;
+		case TYPE_REPLACED:
+			pendingReplacements.remove(file);
+			pendingTempLinks.remove(file);
+			break;
+		case TYPE_DIRECTORY:
+			completedDirectories.add(file);
+			break;
+		default:
+			// checkpoints don't carry state
+			break;
+		}
+	}
+}
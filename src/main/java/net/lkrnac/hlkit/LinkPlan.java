@@ -0,0 +1,301 @@
+package net.lkrnac.hlkit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.lkrnac.hlkit.PlanEntry.Action;
+
+/**
+ * Immutable plan of hard link run created by {@link LinkPlanner} and applied
+ * by {@link LinkPlanExecutor}. Holds every planned link, replacement, skip and
+ * missing entry together with comparison results of planned directories.
+ * <p>
+ * Plan has compact binary form. Directory paths are written once into
+ * directory table, entries reference them by index and numbers are written as
+ * variable length integers.
+ *
+ * @author sitko
+ */
+public final class LinkPlan {
+	private static final int MAGIC = 0x484c504e;
+	private static final int VERSION = 1;
+	private static final int VARINT_BITS = 7;
+	private static final int VARINT_MASK = 0x7f;
+	private static final int VARINT_MORE = 0x80;
+
+	private final List<PlanEntry> entries;
+	private final Map<File, DirectoryComparisonResult> comparisonResults;
+
+	/**
+	 * Creates plan.
+	 *
+	 * @param entries
+	 *            planned entries
+	 * @param comparisonResults
+	 *            comparison results of planned directories keyed by target
+	 *            directory
+	 */
+	LinkPlan(List<PlanEntry> entries, Map<File, DirectoryComparisonResult> comparisonResults) {
+		this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+		this.comparisonResults = Collections.unmodifiableMap(new LinkedHashMap<>(
+				comparisonResults));
+	}
+
+	/**
+	 * @return all planned entries
+	 */
+	public List<PlanEntry> getEntries() {
+		return entries;
+	}
+
+	/**
+	 * @return comparison results of planned directories keyed by target
+	 *         directory
+	 */
+	public Map<File, DirectoryComparisonResult> getComparisonResults() {
+		return comparisonResults;
+	}
+
+	/**
+	 * @param action
+	 *            planned action
+	 * @return number of entries with given action
+	 */
+	public int getCount(Action action) {
+		int count = 0;
+		for (PlanEntry entry : entries) {
+			if (entry.getAction() == action) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @param action
+	 *            planned action
+	 * @return total size of source files of entries with given action, for
+	 *         {@link Action#REPLACE} it is number of bytes reclaimed by the
+	 *         plan
+	 */
+	public long getBytes(Action action) {
+		long bytes = 0;
+		for (PlanEntry entry : entries) {
+			if (entry.getAction() == action) {
+				bytes += entry.getSize();
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Writes plan in binary form. Stream isn't closed.
+	 *
+	 * @param outputStream
+	 *            stream to write to
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	public void writeTo(OutputStream outputStream) throws IOException {
+		List<File> directories = new ArrayList<>();
+		Map<File, Integer> directoryIndexes = new HashMap<>();
+		for (File targetDir : comparisonResults.keySet()) {
+			indexOf(targetDir, directories, directoryIndexes);
+		}
+		for (PlanEntry entry : entries) {
+			indexOf(entry.getSourceFile().getParentFile(), directories, directoryIndexes);
+			indexOf(entry.getTargetFile().getParentFile(), directories, directoryIndexes);
+		}
+
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(outputStream));
+		output.writeInt(MAGIC);
+		output.writeInt(VERSION);
+		writeVarLong(output, directories.size());
+		for (File directory : directories) {
+			output.writeUTF(directory.getPath());
+		}
+		writeVarLong(output, comparisonResults.size());
+		for (Map.Entry<File, DirectoryComparisonResult> result : comparisonResults.entrySet()) {
+			writeVarLong(output, directoryIndexes.get(result.getKey()));
+			output.writeByte(result.getValue().ordinal());
+		}
+		writeVarLong(output, entries.size());
+		for (PlanEntry entry : entries) {
+			writeEntry(output, entry, directoryIndexes);
+		}
+		output.flush();
+	}
+
+	/**
+	 * Reads plan written by {@link #writeTo(OutputStream)}. Stream isn't
+	 * closed.
+	 *
+	 * @param inputStream
+	 *            stream to read from
+	 * @return read plan
+	 * @throws IOException
+	 *             if I/O error occurs or stream doesn't contain plan
+	 */
+	public static LinkPlan readFrom(InputStream inputStream) throws IOException {
+		DataInputStream input = new DataInputStream(new BufferedInputStream(inputStream));
+		if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+			throw new IOException("Stream doesn't contain link plan"); //$NON-NLS-1$
+		}
+		int directoryCount = (int) readVarLong(input);
+		List<File> directories = new ArrayList<>(directoryCount);
+		for (int i = 0; i < directoryCount; i++) {
+			directories.add(new File(input.readUTF()));
+		}
+		int resultCount = (int) readVarLong(input);
+		Map<File, DirectoryComparisonResult> comparisonResults = new LinkedHashMap<>();
+		for (int i = 0; i < resultCount; i++) {
+			File targetDir = directories.get((int) readVarLong(input));
+			comparisonResults.put(targetDir,
+					DirectoryComparisonResult.values()[input.readUnsignedByte()]);
+		}
+		int entryCount = (int) readVarLong(input);
+		List<PlanEntry> entries = new ArrayList<>(entryCount);
+		for (int i = 0; i < entryCount; i++) {
+			entries.add(readEntry(input, directories));
+		}
+		return new LinkPlan(entries, comparisonResults);
+	}
+
+	/**
+	 * Writes one plan entry.
+	 *
+	 * @param output
+	 *            output to write to
+	 * @param entry
+	 *            entry to write
+	 * @param directoryIndexes
+	 *            indexes of directories in directory table
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private static void writeEntry(DataOutput output, PlanEntry entry,
+			Map<File, Integer> directoryIndexes) throws IOException {
+		output.writeByte(entry.getAction().ordinal());
+		writeVarLong(output, directoryIndexes.get(entry.getSourceFile().getParentFile()));
+		output.writeUTF(entry.getSourceFile().getName());
+		writeVarLong(output, directoryIndexes.get(entry.getTargetFile().getParentFile()));
+		output.writeUTF(entry.getTargetFile().getName());
+		writeVarLong(output, entry.getSize());
+		writeVarLong(output, entry.getSourceInode());
+		writeVarLong(output, entry.getSourceModified());
+		if (entry.hasTarget()) {
+			writeVarLong(output, entry.getTargetInode());
+			writeVarLong(output, entry.getTargetModified());
+		}
+	}
+
+	/**
+	 * Reads one plan entry.
+	 *
+	 * @param input
+	 *            input to read from
+	 * @param directories
+	 *            directory table
+	 * @return read entry
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private static PlanEntry readEntry(DataInput input, List<File> directories)
+			throws IOException {
+		Action action = Action.values()[input.readUnsignedByte()];
+		File sourceFile = new File(directories.get((int) readVarLong(input)), input.readUTF());
+		File targetFile = new File(directories.get((int) readVarLong(input)), input.readUTF());
+		long size = readVarLong(input);
+		long sourceInode = readVarLong(input);
+		long sourceModified = readVarLong(input);
+		long targetInode = FileAttributes.UNKNOWN;
+		long targetModified = FileAttributes.UNKNOWN;
+		if (action == Action.REPLACE || action == Action.SKIP) {
+			targetInode = readVarLong(input);
+			targetModified = readVarLong(input);
+		}
+		return new PlanEntry(action, sourceFile, targetFile, size, sourceInode, sourceModified,
+				targetInode, targetModified);
+	}
+
+	/**
+	 * Finds index of directory in directory table, adds directory into table
+	 * if it isn't there yet.
+	 *
+	 * @param directory
+	 *            directory to find
+	 * @param directories
+	 *            directory table
+	 * @param directoryIndexes
+	 *            indexes of directories in directory table
+	 * @return index of directory
+	 */
+	private static int indexOf(File directory, List<File> directories,
+			Map<File, Integer> directoryIndexes) {
+		Integer index = directoryIndexes.get(directory);
+		if (index == null) {
+			index = directories.size();
+			directories.add(directory);
+			directoryIndexes.put(directory, index);
+		}
+		return index;
+	}
+
+	/**
+	 * Writes zig-zag encoded variable length integer, so small and
+	 * {@link FileAttributes#UNKNOWN} values take single byte.
+	 *
+	 * @param output
+	 *            output to write to
+	 * @param value
+	 *            value to write
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private static void writeVarLong(DataOutput output, long value) throws IOException {
+		//SUPPRESS CHECKSTYLE MagicNumber 1 Zig-zag encoding
+		long remaining = value << 1 ^ value >> 63;
+		while ((remaining & ~VARINT_MASK) != 0) {
+			output.writeByte((int) (remaining & VARINT_MASK) | VARINT_MORE);
+			remaining >>>= VARINT_BITS;
+		}
+		output.writeByte((int) remaining);
+	}
+
+	/**
+	 * Reads variable length integer written by
+	 * {@link #writeVarLong(DataOutput, long)}.
+	 *
+	 * @param input
+	 *            input to read from
+	 * @return read value
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private static long readVarLong(DataInput input) throws IOException {
+		long encoded = 0;
+		int shift = 0;
+		int next = input.readUnsignedByte();
+		while ((next & VARINT_MORE) != 0) {
+			encoded |= (long) (next & VARINT_MASK) << shift;
+			shift += VARINT_BITS;
+			next = input.readUnsignedByte();
+		}
+		encoded |= (long) next << shift;
+		return encoded >>> 1 ^ -(encoded & 1);
+	}
+}
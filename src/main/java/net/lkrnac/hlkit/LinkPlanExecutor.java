@@ -0,0 +1,193 @@
+package net.lkrnac.hlkit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import net.lkrnac.hlkit.PlanEntry.Action;
+
+/**
+ * Execution phase of hard link run. Applies {@link LinkPlan} in parallel
+ * batches. Precondition of each entry (inode, size and modification time of
+ * source and target file) is checked again just before the entry is applied,
+ * so plan created long before execution can't damage files changed in the
+ * meantime. Such entries are reported as stale.
+ *
+ * @author sitko
+ */
+public class LinkPlanExecutor {
+	private static final int BATCH_SIZE = 256;
+
+	private final int parallelism;
+	private LinkRunListener runListener;
+
+	/**
+	 * Creates plan executor.
+	 *
+	 * @param parallelism
+	 *            number of threads applying batches in parallel
+	 */
+	public LinkPlanExecutor(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism has to be positive"); //$NON-NLS-1$
+		}
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Attaches listener of run instrumentation.
+	 *
+	 * @param runListener
+	 *            run listener, can be <code>null</code>
+	 */
+	public void setRunListener(LinkRunListener runListener) {
+		this.runListener = runListener;
+	}
+
+	/**
+	 * Applies mutating entries of given plan.
+	 *
+	 * @param plan
+	 *            plan to apply
+	 * @return result of execution
+	 */
+	public LinkPlanResult execute(LinkPlan plan) {
+		List<PlanEntry> mutatingEntries = new ArrayList<>();
+		for (PlanEntry entry : plan.getEntries()) {
+			if (entry.getAction().isMutating()) {
+				mutatingEntries.add(entry);
+			}
+		}
+		LinkPlanResult result = new LinkPlanResult();
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.invoke(new BatchTask(mutatingEntries, result));
+		} finally {
+			pool.shutdown();
+		}
+		return result;
+	}
+
+	/**
+	 * Applies one entry if its precondition still holds.
+	 *
+	 * @param entry
+	 *            entry to apply
+	 * @param result
+	 *            result of execution
+	 */
+	private void apply(PlanEntry entry, LinkPlanResult result) {
+		File targetFile = entry.getTargetFile();
+		try {
+			if (isCurrent(entry)) {
+				long startNanos = runListener == null ? 0 : System.nanoTime();
+				if (entry.getAction() == Action.REPLACE) {
+					HardLinksHandler.replaceWithLink(targetFile, entry.getSourceFile());
+				} else {
+					Files.createDirectories(targetFile.getParentFile().toPath());
+					Files.createLink(targetFile.toPath(), entry.getSourceFile().toPath());
+				}
+				result.addApplied();
+				if (runListener != null) {
+					runListener.phaseCompleted(RunPhase.LINK, System.nanoTime() - startNanos);
+					runListener.counted(RunCounter.LINKS_CREATED, 1);
+				}
+			} else {
+				result.addStale(entry);
+			}
+		} catch (IOException ioException) {
+			result.addFailure(targetFile, ioException);
+			if (runListener != null) {
+				runListener.errorOccurred(targetFile, ioException);
+			}
+		}
+	}
+
+	/**
+	 * Checks if source and target file are in the same state as during
+	 * planning.
+	 *
+	 * @param entry
+	 *            planned entry
+	 * @return <code>true</code> if entry can be applied
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private static boolean isCurrent(PlanEntry entry) throws IOException {
+		FileAttributes source = readIfExists(entry.getSourceFile());
+		FileAttributes target = readIfExists(entry.getTargetFile());
+		boolean current = source != null && source.getInode() == entry.getSourceInode()
+				&& source.getSize() == entry.getSize()
+				&& source.getLastModified() == entry.getSourceModified();
+		if (entry.hasTarget()) {
+			current = current && target != null && target.getInode() == entry.getTargetInode()
+					&& target.getSize() == entry.getSize()
+					&& target.getLastModified() == entry.getTargetModified();
+		} else {
+			current = current && target == null;
+		}
+		return current;
+	}
+
+	/**
+	 * Reads attributes of file which may not exist.
+	 *
+	 * @param file
+	 *            file on disk
+	 * @return attributes or <code>null</code> if file doesn't exist
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private static FileAttributes readIfExists(File file) throws IOException {
+		FileAttributes attributes = null;
+		try {
+			attributes = FileAttributes.read(file);
+		} catch (NoSuchFileException exception) {
+			attributes = null;
+		}
+		return attributes;
+	}
+
+	/**
+	 * Task applying range of entries. Ranges bigger than one batch are split.
+	 *
+	 * @author sitko
+	 */
+	private final class BatchTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final transient List<PlanEntry> entries;
+		private final transient LinkPlanResult result;
+
+		/**
+		 * Creates task.
+		 *
+		 * @param entries
+		 *            entries to apply
+		 * @param result
+		 *            result of execution
+		 */
+		BatchTask(List<PlanEntry> entries, LinkPlanResult result) {
+			this.entries = entries;
+			this.result = result;
+		}
+
+		@Override
+		protected void compute() {
+			if (entries.size() <= BATCH_SIZE) {
+				for (PlanEntry entry : entries) {
+					apply(entry, result);
+				}
+			} else {
+				int middle = entries.size() / 2;
+				invokeAll(new BatchTask(entries.subList(0, middle), result), new BatchTask(
+						entries.subList(middle, entries.size()), result));
+			}
+		}
+	}
+}
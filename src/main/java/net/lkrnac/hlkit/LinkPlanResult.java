@@ -0,0 +1,84 @@
+package net.lkrnac.hlkit;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Result of {@link LinkPlan} execution. Instance is thread safe.
+ *
+ * @author sitko
+ */
+public class LinkPlanResult {
+	private final AtomicInteger appliedCount = new AtomicInteger();
+	private final List<PlanEntry> staleEntries = Collections
+			.synchronizedList(new ArrayList<PlanEntry>());
+	private final ConcurrentMap<File, IOException> failures = new ConcurrentHashMap<>();
+
+	/**
+	 * Records applied entry.
+	 */
+	void addApplied() {
+		appliedCount.incrementAndGet();
+	}
+
+	/**
+	 * Records entry which wasn't applied, because its files changed since
+	 * planning.
+	 *
+	 * @param entry
+	 *            stale entry
+	 */
+	void addStale(PlanEntry entry) {
+		staleEntries.add(entry);
+	}
+
+	/**
+	 * Records entry which failed.
+	 *
+	 * @param targetFile
+	 *            target file of failed entry
+	 * @param exception
+	 *            cause of failure
+	 */
+	void addFailure(File targetFile, IOException exception) {
+		failures.put(targetFile, exception);
+	}
+
+	/**
+	 * @return number of applied entries
+	 */
+	public int getAppliedCount() {
+		return appliedCount.get();
+	}
+
+	/**
+	 * @return entries skipped because source or target file changed since
+	 *         planning
+	 */
+	public List<PlanEntry> getStaleEntries() {
+		synchronized (staleEntries) {
+			return Collections.unmodifiableList(new ArrayList<>(staleEntries));
+		}
+	}
+
+	/**
+	 * @return failures keyed by target file
+	 */
+	public Map<File, IOException> getFailures() {
+		return Collections.unmodifiableMap(failures);
+	}
+
+	/**
+	 * @return <code>true</code> if all mutating entries were applied
+	 */
+	public boolean isSuccessful() {
+		return failures.isEmpty() && staleEntries.isEmpty();
+	}
+}
@@ -0,0 +1,184 @@
+package net.lkrnac.hlkit;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.lkrnac.hlkit.PlanEntry.Action;
+
+/**
+ * Planning phase of hard link run. Compares directories and decides what
+ * {@link HardLinksHandler#buildHardLinks(File, DirectoryComparator)} would do,
+ * but doesn't change anything on disk. Decisions of all added directories are
+ * collected into {@link LinkPlan}.
+ * <p>
+ * The same rules as in {@link HardLinksHandler} apply. Only directories which
+ * are mirrors are planned, or empty or missing target directories when
+ * creation of missing links is enabled.
+ *
+ * @author sitko
+ */
+public class LinkPlanner extends AbstractDirectoryHandler {
+	private final boolean createMissingLinks;
+	private final List<PlanEntry> entries = new ArrayList<>();
+	private final Map<File, DirectoryComparisonResult> comparisonResults = new LinkedHashMap<>();
+	private File targetDir;
+	private AttributeSnapshot attributeSnapshot;
+
+	/**
+	 * Creates planner.
+	 *
+	 * @param createMissingLinks
+	 *            flag if source files missing in target directories should be
+	 *            planned to be hard linked into them
+	 */
+	public LinkPlanner(boolean createMissingLinks) {
+		super();
+		this.createMissingLinks = createMissingLinks;
+	}
+
+	/**
+	 * Plans hard links of one directory pair.
+	 *
+	 * @param sourceDir
+	 *            source directory
+	 * @param targetDir
+	 *            target directory, doesn't need to exist
+	 * @return comparison result of directories
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	public DirectoryComparisonResult addDirectory(File sourceDir, File targetDir)
+			throws IOException {
+		return addDirectory(sourceDir, targetDir, createSnapshot());
+	}
+
+	/**
+	 * Plans hard links of one directory pair. Directory listings and file
+	 * attributes are read via given snapshot.
+	 *
+	 * @param sourceDir
+	 *            source directory
+	 * @param targetDir
+	 *            target directory, doesn't need to exist
+	 * @param snapshot
+	 *            attribute snapshot of current run
+	 * @return comparison result of directories
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	public DirectoryComparisonResult addDirectory(File sourceDir, File targetDir,
+			AttributeSnapshot snapshot) throws IOException {
+		DirectoryComparisonResult result = DirectoryComparisonResult.DIFFERENT_FILES;
+		boolean targetEmpty = true;
+		if (targetDir.isDirectory()) {
+			DirectoryComparator dirComparator = new DirectoryComparator();
+			dirComparator.setRunListener(getRunListener());
+			dirComparator.setRateLimiter(getRateLimiter());
+			dirComparator.setExternalMatching(getExternalMatching());
+			dirComparator.setPipelinedMatching(getPipelinedMatching());
+			dirComparator.setMatchKeyStrategy(getMatchKeyStrategy());
+			result = dirComparator.compareDirectories(sourceDir, targetDir, snapshot);
+			try (DirectoryEntries targetFiles = snapshot.openFiles(targetDir)) {
+				targetEmpty = targetFiles.isEmpty();
+			}
+		}
+		comparisonResults.put(targetDir, result);
+		if (result.areMirrors() || createMissingLinks && targetEmpty) {
+			this.targetDir = targetDir;
+			this.attributeSnapshot = snapshot;
+			try (DirectoryEntries sourceFiles = snapshot.openFiles(sourceDir)) {
+				if (targetEmpty) {
+					fileFacingLoop(Collections.<File> emptyList(), sourceFiles, snapshot);
+				} else {
+					try (DirectoryEntries targetFiles = snapshot.openFiles(targetDir)) {
+						fileFacingLoop(targetFiles, sourceFiles, snapshot);
+					}
+				}
+			} finally {
+				this.attributeSnapshot = null;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Plans hard links of whole source tree. Each source directory with files
+	 * is planned against directory with the same relative path in target
+	 * tree.
+	 *
+	 * @param sourceRoot
+	 *            root of source tree
+	 * @param targetRoot
+	 *            root of target tree, doesn't need to exist
+	 * @param snapshot
+	 *            attribute snapshot of current run
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	public void addTree(File sourceRoot, File targetRoot, AttributeSnapshot snapshot)
+			throws IOException {
+		if (!snapshot.listFiles(sourceRoot).isEmpty()) {
+			addDirectory(sourceRoot, targetRoot, snapshot);
+		}
+		for (File sourceSubDir : snapshot.listDirectories(sourceRoot)) {
+			addTree(sourceSubDir, new File(targetRoot, sourceSubDir.getName()), snapshot);
+		}
+	}
+
+	/**
+	 * @return immutable plan of all directories added so far
+	 */
+	public LinkPlan getPlan() {
+		return new LinkPlan(entries, comparisonResults);
+	}
+
+	/**
+	 * Plans replacement of target file by hard link, unless it already is hard
+	 * link of source file.
+	 * <p>
+	 * <b> Javadoc from parent class:<br>
+	 * </b> {@inheritDoc}
+	 */
+	@Override
+	protected final void performActionFace(File targetFile, File sourceFile) throws IOException {
+		FileAttributes source = attributeSnapshot.getAttributes(sourceFile);
+		FileAttributes target = attributeSnapshot.getAttributes(targetFile);
+		Action action = source.getFileKey().equals(target.getFileKey()) ? Action.SKIP
+				: Action.REPLACE;
+		entries.add(new PlanEntry(action, sourceFile, targetFile, source.getSize(),
+				source.getInode(), source.getLastModified(), target.getInode(), target
+						.getLastModified()));
+	}
+
+	/**
+	 * Target directories with files missing in source aren't planned.
+	 * <p>
+	 * <b> Javadoc from parent class:<br>
+	 * </b> {@inheritDoc}
+	 */
+	@Override
+	protected void performActionMissingInSource(File targetFile) {
+		// directories which aren't mirrors aren't planned
+	}
+
+	/**
+	 * Plans hard link of source file into target directory, if creation of
+	 * missing links is enabled.
+	 * <p>
+	 * <b> Javadoc from parent class:<br>
+	 * </b> {@inheritDoc}
+	 */
+	@Override
+	protected final void performActionMissingInTarget(File sourceFile) throws IOException {
+		FileAttributes source = attributeSnapshot.getAttributes(sourceFile);
+		Action action = createMissingLinks ? Action.LINK : Action.MISSING_IN_TARGET;
+		entries.add(new PlanEntry(action, sourceFile, new File(targetDir, sourceFile.getName()),
+				source.getSize(), source.getInode(), source.getLastModified(),
+				FileAttributes.UNKNOWN, FileAttributes.UNKNOWN));
+	}
+}
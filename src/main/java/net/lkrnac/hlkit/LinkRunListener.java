@@ -0,0 +1,45 @@
+package net.lkrnac.hlkit;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Listener of link run instrumentation. Handlers measure phases and count
+ * events only when listener is attached, so there is no overhead otherwise.
+ * Listener can be called from multiple threads concurrently.
+ *
+ * @author sitko
+ * @see LinkRunMetrics
+ */
+public interface LinkRunListener {
+	/**
+	 * Called when one run phase is completed.
+	 *
+	 * @param phase
+	 *            completed phase
+	 * @param nanos
+	 *            duration of phase in nanoseconds
+	 */
+	void phaseCompleted(RunPhase phase, long nanos);
+
+	/**
+	 * Called when run counter is increased.
+	 *
+	 * @param counter
+	 *            increased counter
+	 * @param amount
+	 *            increment
+	 */
+	void counted(RunCounter counter, long amount);
+
+	/**
+	 * Called when I/O error occurs, including errors which are reported to
+	 * caller only by result flag.
+	 *
+	 * @param file
+	 *            file or directory which failed
+	 * @param exception
+	 *            I/O error
+	 */
+	void errorOccurred(File file, IOException exception);
+}
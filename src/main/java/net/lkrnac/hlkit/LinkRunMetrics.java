@@ -0,0 +1,167 @@
+package net.lkrnac.hlkit;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Collecting implementation of {@link LinkRunListener}. Keeps counters and
+ * per-phase latency histograms of all runs it is attached to and exposes them
+ * as JMX MBean. Instance is thread safe.
+ *
+ * @author sitko
+ */
+public class LinkRunMetrics implements LinkRunListener, LinkRunMetricsMBean {
+	private static final String DOMAIN = "net.lkrnac.hlkit"; //$NON-NLS-1$
+
+	private final Map<RunCounter, AtomicLong> counters = new EnumMap<>(RunCounter.class);
+	private final Map<RunPhase, LatencyHistogram> histograms = new EnumMap<>(RunPhase.class);
+	private final AtomicLong errors = new AtomicLong();
+
+	/**
+	 * Creates metrics with all counters and histograms empty.
+	 */
+	public LinkRunMetrics() {
+		for (RunCounter counter : RunCounter.values()) {
+			counters.put(counter, new AtomicLong());
+		}
+		for (RunPhase phase : RunPhase.values()) {
+			histograms.put(phase, new LatencyHistogram());
+		}
+	}
+
+	/**
+	 * Registers metrics into platform MBean server.
+	 *
+	 * @param name
+	 *            name distinguishing this instance from other registered
+	 *            metrics
+	 * @return object name of registered MBean
+	 * @throws JMException
+	 *             if registration fails
+	 */
+	public ObjectName register(String name) throws JMException {
+		ObjectName objectName = new ObjectName(DOMAIN + ":type=" //$NON-NLS-1$
+				+ getClass().getSimpleName() + ",name=" + ObjectName.quote(name)); //$NON-NLS-1$
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		return objectName;
+	}
+
+	@Override
+	public void phaseCompleted(RunPhase phase, long nanos) {
+		histograms.get(phase).record(nanos);
+	}
+
+	@Override
+	public void counted(RunCounter counter, long amount) {
+		counters.get(counter).addAndGet(amount);
+	}
+
+	@Override
+	public void errorOccurred(File file, IOException exception) {
+		errors.incrementAndGet();
+	}
+
+	/**
+	 * @param counter
+	 *            run counter
+	 * @return current value of counter
+	 */
+	public long getCount(RunCounter counter) {
+		return counters.get(counter).get();
+	}
+
+	/**
+	 * @param phase
+	 *            run phase
+	 * @return number of completed phases
+	 */
+	public long getPhaseCount(RunPhase phase) {
+		return histograms.get(phase).getCount();
+	}
+
+	/**
+	 * @param phase
+	 *            run phase
+	 * @return total duration of completed phases in nanoseconds
+	 */
+	public long getPhaseTotalNanos(RunPhase phase) {
+		return histograms.get(phase).getTotalNanos();
+	}
+
+	/**
+	 * @param phase
+	 *            run phase
+	 * @param percentile
+	 *            percentile between 0 and 100
+	 * @return phase latency percentile in nanoseconds, accurate within factor
+	 *         of two
+	 */
+	public long getPhasePercentileNanos(RunPhase phase, double percentile) {
+		return histograms.get(phase).getPercentileNanos(percentile);
+	}
+
+	@Override
+	public long getEntriesScanned() {
+		return getCount(RunCounter.ENTRIES_SCANNED);
+	}
+
+	@Override
+	public long getStatCalls() {
+		return getPhaseCount(RunPhase.STAT);
+	}
+
+	@Override
+	public long getLinksCreated() {
+		return getCount(RunCounter.LINKS_CREATED);
+	}
+
+	@Override
+	public long getLinksPresent() {
+		return getCount(RunCounter.LINKS_PRESENT);
+	}
+
+	@Override
+	public long getBytesDeduplicated() {
+		return getCount(RunCounter.BYTES_DEDUPLICATED);
+	}
+
+	@Override
+	public long getErrors() {
+		return errors.get();
+	}
+
+	@Override
+	public long getPhaseCount(String phase) {
+		return getPhaseCount(RunPhase.valueOf(phase));
+	}
+
+	@Override
+	public long getPhaseTotalMillis(String phase) {
+		return TimeUnit.NANOSECONDS.toMillis(getPhaseTotalNanos(RunPhase.valueOf(phase)));
+	}
+
+	@Override
+	public long getPhasePercentileMicros(String phase, double percentile) {
+		return TimeUnit.NANOSECONDS.toMicros(getPhasePercentileNanos(RunPhase.valueOf(phase),
+				percentile));
+	}
+
+	@Override
+	public void reset() {
+		for (AtomicLong counter : counters.values()) {
+			counter.set(0);
+		}
+		for (LatencyHistogram histogram : histograms.values()) {
+			histogram.reset();
+		}
+		errors.set(0);
+	}
+}
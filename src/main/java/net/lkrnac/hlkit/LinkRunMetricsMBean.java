@@ -0,0 +1,67 @@
+package net.lkrnac.hlkit;
+
+/**
+ * JMX management interface of {@link LinkRunMetrics}. Phases are identified
+ * by names of {@link RunPhase} constants.
+ *
+ * @author sitko
+ */
+public interface LinkRunMetricsMBean {
+	/**
+	 * @return number of directory entries read by listing
+	 */
+	long getEntriesScanned();
+
+	/**
+	 * @return number of file system calls reading file attributes
+	 */
+	long getStatCalls();
+
+	/**
+	 * @return number of created hard links
+	 */
+	long getLinksCreated();
+
+	/**
+	 * @return number of target files which were already hard links
+	 */
+	long getLinksPresent();
+
+	/**
+	 * @return number of duplicate bytes replaced by hard links
+	 */
+	long getBytesDeduplicated();
+
+	/**
+	 * @return number of I/O errors
+	 */
+	long getErrors();
+
+	/**
+	 * @param phase
+	 *            name of run phase
+	 * @return number of completed phases
+	 */
+	long getPhaseCount(String phase);
+
+	/**
+	 * @param phase
+	 *            name of run phase
+	 * @return total duration of completed phases in milliseconds
+	 */
+	long getPhaseTotalMillis(String phase);
+
+	/**
+	 * @param phase
+	 *            name of run phase
+	 * @param percentile
+	 *            percentile between 0 and 100
+	 * @return phase latency percentile in microseconds
+	 */
+	long getPhasePercentileMicros(String phase, double percentile);
+
+	/**
+	 * Clears all counters and histograms.
+	 */
+	void reset();
+}
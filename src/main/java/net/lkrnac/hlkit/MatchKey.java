@@ -0,0 +1,138 @@
+package net.lkrnac.hlkit;
+
+/**
+ * Precomputed key of file used for matching of source and target files. Key
+ * consists of already normalized file name, file size, optional modification
+ * time and optional hash. Files match when their keys are equal. Keys are
+ * ordered by name, size, modification time and hash, so they can be also
+ * sorted and merge-joined. Hash code is computed once when key is created.
+ *
+ * @author sitko
+ * @see MatchKeyStrategy
+ */
+public final class MatchKey implements Comparable<MatchKey> {
+	private final String name;
+	private final long size;
+	private final long modifiedTime;
+	private final long hash;
+	private final int hashCode;
+
+	/**
+	 * Creates key of file name and size.
+	 *
+	 * @param name
+	 *            normalized file name
+	 * @param size
+	 *            file size
+	 */
+	public MatchKey(String name, long size) {
+		this(name, size, 0, 0);
+	}
+
+	/**
+	 * Creates key.
+	 *
+	 * @param name
+	 *            normalized file name
+	 * @param size
+	 *            file size
+	 * @param modifiedTime
+	 *            modification time in units of strategy, 0 if it isn't used
+	 * @param hash
+	 *            hash of file, 0 if it isn't used
+	 */
+	public MatchKey(String name, long size, long modifiedTime, long hash) {
+		this.name = name;
+		this.size = size;
+		this.modifiedTime = modifiedTime;
+		this.hash = hash;
+		//SUPPRESS CHECKSTYLE MagicNumber 4 Hash code multiplier
+		int result = name.hashCode();
+		result = 31 * result + (int) (size ^ (size >>> 32));
+		result = 31 * result + (int) (modifiedTime ^ (modifiedTime >>> 32));
+		this.hashCode = 31 * result + (int) (hash ^ (hash >>> 32));
+	}
+
+	/**
+	 * @return normalized file name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return file size
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return modification time in units of strategy, 0 if it isn't used
+	 */
+	public long getModifiedTime() {
+		return modifiedTime;
+	}
+
+	/**
+	 * @return hash of file, 0 if it isn't used
+	 */
+	public long getHash() {
+		return hash;
+	}
+
+	/**
+	 * Compares keys by name, size, modification time and hash.
+	 * <p>
+	 * <b> Javadoc from parent class:<br>
+	 * </b> {@inheritDoc}
+	 */
+	@Override
+	public int compareTo(MatchKey other) {
+		int result = name.compareTo(other.name);
+		if (result == 0) {
+			result = compareValues(other);
+		}
+		return result;
+	}
+
+	/**
+	 * Compares keys by size, modification time and hash, ignoring name.
+	 *
+	 * @param other
+	 *            key to compare with
+	 * @return comparison result according {@link Comparable} result contract
+	 */
+	int compareValues(MatchKey other) {
+		int result = Long.compare(size, other.size);
+		if (result == 0) {
+			result = Long.compare(modifiedTime, other.modifiedTime);
+		}
+		if (result == 0) {
+			result = Long.compare(hash, other.hash);
+		}
+		return result;
+	}
+
+	@Override
+	public int hashCode() {
+		return hashCode;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		boolean result = false;
+		if (obj instanceof MatchKey) {
+			MatchKey other = (MatchKey) obj;
+			result = hashCode == other.hashCode && size == other.size
+					&& modifiedTime == other.modifiedTime && hash == other.hash
+					&& name.equals(other.name);
+		}
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return name + ':' + size + ':' + modifiedTime + ':' + hash;
+	}
+}
@@ -0,0 +1,32 @@
+package net.lkrnac.hlkit;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Strategy computing match keys of files. Directory handlers compute key of
+ * each file only once and then match files by hashing or sorting their keys,
+ * so any normalization of file names belongs into the strategy and never
+ * into comparison. Implementation has to be thread safe, because keys can be
+ * computed by parallel stages of {@link PipelinedMatching}.
+ *
+ * @author sitko
+ * @see StandardMatchKeyStrategy
+ * @see AbstractDirectoryHandler#setMatchKeyStrategy(MatchKeyStrategy)
+ */
+public interface MatchKeyStrategy {
+	/**
+	 * Computes match key of file.
+	 *
+	 * @param file
+	 *            source or target file
+	 * @param attributes
+	 *            attributes of file read by attribute snapshot of current run,
+	 *            <code>null</code> if run has no snapshot and needed
+	 *            attributes have to be read from file itself
+	 * @return match key of file
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	MatchKey keyOf(File file, FileAttributes attributes) throws IOException;
+}
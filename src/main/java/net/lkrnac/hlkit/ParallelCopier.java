@@ -0,0 +1,243 @@
+package net.lkrnac.hlkit;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Copies files in parallel for cross-device fallback of
+ * {@link HardLinksHandler}. Content is transfered by
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+ * , so kernel can copy it without user space buffers. Number of bytes being
+ * copied at once is bounded, copy of bigger file takes whole bound. Copied
+ * bytes are throttled as read bytes of source file store chunk by chunk, so
+ * that copy of big file doesn't burst through the limit.
+ * <p>
+ * Outcome of each copy is kept, so that caller can tell copied target files
+ * from failed ones. Failed copy doesn't stop other copies.
+ *
+ * @author sitko
+ */
+class ParallelCopier implements Closeable {
+	private static final long TRANSFER_CHUNK = 1024L * 1024;
+
+	private final ExecutorService executor;
+	private final int maxInFlightBytes;
+	private final Semaphore inFlightBytes;
+	private final IoRateLimiter rateLimiter;
+	private final AtomicReference<IOException> failure = new AtomicReference<>();
+	private final Queue<File> copiedFiles = new ConcurrentLinkedQueue<>();
+	private final ConcurrentMap<File, IOException> failedFiles = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates copier.
+	 *
+	 * @param parallelism
+	 *            number of copying threads
+	 * @param maxInFlightBytes
+	 *            maximal number of bytes being copied at once
+	 * @param rateLimiter
+	 *            rate limiter of copied bytes, can be <code>null</code>
+	 */
+	ParallelCopier(int parallelism, int maxInFlightBytes, IoRateLimiter rateLimiter) {
+		this.executor = Executors.newFixedThreadPool(parallelism);
+		this.maxInFlightBytes = maxInFlightBytes;
+		this.inFlightBytes = new Semaphore(maxInFlightBytes);
+		this.rateLimiter = rateLimiter;
+	}
+
+	/**
+	 * Schedules copy of source file. Blocks while bound of in-flight bytes is
+	 * exhausted.
+	 *
+	 * @param sourceFile
+	 *            file to copy
+	 * @param targetFile
+	 *            new file to create
+	 * @param size
+	 *            size of source file
+	 * @throws IOException
+	 *             if calling thread was interrupted
+	 */
+	void submit(File sourceFile, File targetFile, long size) throws IOException {
+		int permits = (int) Math.max(1, Math.min(size, maxInFlightBytes));
+		try {
+			inFlightBytes.acquire(permits);
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new IOException(exception);
+		}
+		executor.execute(new CopyTask(sourceFile, targetFile, permits));
+	}
+
+	/**
+	 * Waits until all scheduled copies are finished.
+	 *
+	 * @throws IOException
+	 *             first failure of copy, if there was any, or if calling
+	 *             thread was interrupted
+	 */
+	void awaitCompletion() throws IOException {
+		try {
+			inFlightBytes.acquire(maxInFlightBytes);
+			inFlightBytes.release(maxInFlightBytes);
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new IOException(exception);
+		}
+		checkFailure();
+	}
+
+	/**
+	 * @throws IOException
+	 *             first failure of copy, if there was any
+	 */
+	private void checkFailure() throws IOException {
+		IOException ioException = failure.get();
+		if (ioException != null) {
+			throw ioException;
+		}
+	}
+
+	/**
+	 * @return target files which were completely copied
+	 */
+	Collection<File> getCopiedFiles() {
+		return Collections.unmodifiableCollection(copiedFiles);
+	}
+
+	/**
+	 * @return failures of copies keyed by target file
+	 */
+	Map<File, IOException> getFailedFiles() {
+		return Collections.unmodifiableMap(failedFiles);
+	}
+
+	/**
+	 * Stops copying threads and waits until they finish. Scheduled copies
+	 * which didn't start yet are dropped and recorded as failed, so that
+	 * outcome of each scheduled copy is known when this method returns.
+	 */
+	@Override
+	public void close() {
+		for (Runnable dropped : executor.shutdownNow()) {
+			CopyTask task = (CopyTask) dropped;
+			failed(task.targetFile, new IOException("copy cancelled")); //$NON-NLS-1$
+			inFlightBytes.release(task.permits);
+		}
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Records failed copy.
+	 *
+	 * @param targetFile
+	 *            target file of the copy
+	 * @param ioException
+	 *            failure of the copy
+	 */
+	private void failed(File targetFile, IOException ioException) {
+		failure.compareAndSet(null, ioException);
+		failedFiles.put(targetFile, ioException);
+	}
+
+	/**
+	 * Copies file. Each chunk waits for rate limiter before it is
+	 * transfered. Partially copied target file is deleted, existing target
+	 * file is never overwritten.
+	 *
+	 * @param sourceFile
+	 *            file to copy
+	 * @param targetFile
+	 *            new file to create
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private void copy(File sourceFile, File targetFile) throws IOException {
+		File sourceDir = IoRateLimiter.directoryOf(sourceFile);
+		try (FileChannel input = FileChannel.open(sourceFile.toPath(), StandardOpenOption.READ)) {
+			FileChannel output = FileChannel.open(targetFile.toPath(),
+					StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+			boolean copied = false;
+			try {
+				long size = input.size();
+				long position = 0;
+				while (position < size) {
+					long chunkEnd = Math.min(position + TRANSFER_CHUNK, size);
+					if (rateLimiter != null) {
+						rateLimiter.acquire(IoOperation.BYTES_READ, sourceDir, chunkEnd - position);
+					}
+					while (position < chunkEnd) {
+						position += input.transferTo(position, chunkEnd - position, output);
+					}
+				}
+				copied = true;
+			} finally {
+				output.close();
+				if (!copied) {
+					Files.deleteIfExists(targetFile.toPath());
+				}
+			}
+		}
+		Files.setLastModifiedTime(targetFile.toPath(),
+				Files.getLastModifiedTime(sourceFile.toPath()));
+	}
+
+	/**
+	 * Copy of one file, releases its in-flight bytes when done.
+	 *
+	 * @author sitko
+	 */
+	private final class CopyTask implements Runnable {
+		private final File sourceFile;
+		private final File targetFile;
+		private final int permits;
+
+		/**
+		 * Creates task.
+		 *
+		 * @param sourceFile
+		 *            file to copy
+		 * @param targetFile
+		 *            new file to create
+		 * @param permits
+		 *            in-flight bytes held by the copy
+		 */
+		CopyTask(File sourceFile, File targetFile, int permits) {
+			this.sourceFile = sourceFile;
+			this.targetFile = targetFile;
+			this.permits = permits;
+		}
+
+		@Override
+		public void run() {
+			try {
+				copy(sourceFile, targetFile);
+				copiedFiles.add(targetFile);
+			} catch (IOException ioException) {
+				failed(targetFile, ioException);
+			} finally {
+				inFlightBytes.release(permits);
+			}
+		}
+	}
+}
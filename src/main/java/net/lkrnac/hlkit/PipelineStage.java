@@ -0,0 +1,18 @@
+package net.lkrnac.hlkit;
+
+/**
+ * Stages of pipelined matching, each consuming its own bounded queue. Files
+ * are enumerated into queue of {@link #STAT} stage, stat'ed files are passed
+ * to {@link #MATCH} stage and matched pairs to {@link #ACTION} stage.
+ *
+ * @author sitko
+ * @see PipelinedMatching
+ */
+public enum PipelineStage {
+	/** Reading of file attributes by parallel threads. */
+	STAT,
+	/** Matching of target files against index of source files. */
+	MATCH,
+	/** Actions of directory handler on matched files. */
+	ACTION
+}
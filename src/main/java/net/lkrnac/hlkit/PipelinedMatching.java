@@ -0,0 +1,110 @@
+package net.lkrnac.hlkit;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Configuration of pipelined matching of directory handlers. When it is set,
+ * files are enumerated, stat'ed, matched and handled by separate stages
+ * connected by bounded queues, so many stat calls are in flight while
+ * directory is still being read and matched files are handled. Full queue
+ * blocks its producing stage.
+ * <p>
+ * Enumeration, matching and actions are sequential by nature of directory
+ * stream, source index and handler state. Number of stat threads is tunable.
+ * Pipelining pays off with bounded {@link AttributeSnapshot}, whose directory
+ * streams aren't stat'ed during listing.
+ * <p>
+ * Configuration also collects depths of stage queues of all runs using it, so
+ * bottleneck stage can be found. Entries left in queues by aborted run are
+ * discounted when the run stops. Instance is thread safe.
+ *
+ * @author sitko
+ * @see AbstractDirectoryHandler#setPipelinedMatching(PipelinedMatching)
+ */
+public final class PipelinedMatching {
+	private final int statThreads;
+	private final int queueCapacity;
+	private final Map<PipelineStage, AtomicInteger> depths = new EnumMap<>(PipelineStage.class);
+	private final Map<PipelineStage, AtomicInteger> maxDepths = new EnumMap<>(PipelineStage.class);
+
+	/**
+	 * Creates configuration.
+	 *
+	 * @param statThreads
+	 *            number of threads reading file attributes in parallel
+	 * @param queueCapacity
+	 *            capacity of queue in front of each stage
+	 */
+	public PipelinedMatching(int statThreads, int queueCapacity) {
+		if (statThreads < 1 || queueCapacity < 1) {
+			throw new IllegalArgumentException("limits have to be positive"); //$NON-NLS-1$
+		}
+		this.statThreads = statThreads;
+		this.queueCapacity = queueCapacity;
+		for (PipelineStage stage : PipelineStage.values()) {
+			depths.put(stage, new AtomicInteger());
+			maxDepths.put(stage, new AtomicInteger());
+		}
+	}
+
+	/**
+	 * @return number of threads reading file attributes in parallel
+	 */
+	public int getStatThreads() {
+		return statThreads;
+	}
+
+	/**
+	 * @return capacity of queue in front of each stage
+	 */
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	/**
+	 * @param stage
+	 *            pipeline stage
+	 * @return number of entries currently waiting for given stage
+	 */
+	public int getQueueDepth(PipelineStage stage) {
+		return depths.get(stage).get();
+	}
+
+	/**
+	 * @param stage
+	 *            pipeline stage
+	 * @return highest number of entries which waited for given stage
+	 */
+	public int getMaxQueueDepth(PipelineStage stage) {
+		return maxDepths.get(stage).get();
+	}
+
+	/**
+	 * Records entry added into queue of stage.
+	 *
+	 * @param stage
+	 *            pipeline stage
+	 * @param depth
+	 *            size of queue observed after the entry was added
+	 */
+	void entryQueued(PipelineStage stage, int depth) {
+		depths.get(stage).incrementAndGet();
+		AtomicInteger maxDepth = maxDepths.get(stage);
+		int max = maxDepth.get();
+		while (depth > max && !maxDepth.compareAndSet(max, depth)) {
+			max = maxDepth.get();
+		}
+	}
+
+	/**
+	 * Records entry taken from queue of stage.
+	 *
+	 * @param stage
+	 *            pipeline stage
+	 */
+	void entryTaken(PipelineStage stage) {
+		depths.get(stage).decrementAndGet();
+	}
+}
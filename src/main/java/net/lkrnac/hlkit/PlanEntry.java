@@ -0,0 +1,165 @@
+package net.lkrnac.hlkit;
+
+import java.io.File;
+
+/**
+ * One entry of {@link LinkPlan}. Besides planned action it holds state of
+ * source and target file observed during planning, which is precondition of
+ * the action.
+ *
+ * @author sitko
+ */
+public final class PlanEntry {
+	/**
+	 * Planned action.
+	 *
+	 * @author sitko
+	 */
+	public enum Action {
+		/** Source file is hard linked into target directory. */
+		LINK,
+		/** Target file is replaced by hard link of source file. */
+		REPLACE,
+		/** Target file is already hard link of source file. */
+		SKIP,
+		/** Source file is missing in target directory and won't be linked. */
+		MISSING_IN_TARGET;
+
+		/**
+		 * @return <code>true</code> if action changes target directory
+		 */
+		public boolean isMutating() {
+			return this == LINK || this == REPLACE;
+		}
+	}
+
+	private final Action action;
+	private final File sourceFile;
+	private final File targetFile;
+	private final long size;
+	private final long sourceInode;
+	private final long sourceModified;
+	private final long targetInode;
+	private final long targetModified;
+
+	/**
+	 * Creates plan entry.
+	 *
+	 * @param action
+	 *            planned action
+	 * @param sourceFile
+	 *            source file
+	 * @param targetFile
+	 *            target file
+	 * @param size
+	 *            size of source file
+	 * @param sourceInode
+	 *            planned inode of source file
+	 * @param sourceModified
+	 *            planned modification time of source file
+	 * @param targetInode
+	 *            planned inode of target file, {@link FileAttributes#UNKNOWN}
+	 *            if target file doesn't exist
+	 * @param targetModified
+	 *            planned modification time of target file,
+	 *            {@link FileAttributes#UNKNOWN} if target file doesn't exist
+	 */
+	//SUPPRESS CHECKSTYLE ParameterNumber 1 Value object
+	PlanEntry(Action action, File sourceFile, File targetFile, long size, long sourceInode,
+			long sourceModified, long targetInode, long targetModified) {
+		this.action = action;
+		this.sourceFile = sourceFile;
+		this.targetFile = targetFile;
+		this.size = size;
+		this.sourceInode = sourceInode;
+		this.sourceModified = sourceModified;
+		this.targetInode = targetInode;
+		this.targetModified = targetModified;
+	}
+
+	/**
+	 * @return planned action
+	 */
+	public Action getAction() {
+		return action;
+	}
+
+	/**
+	 * @return source file
+	 */
+	public File getSourceFile() {
+		return sourceFile;
+	}
+
+	/**
+	 * @return target file
+	 */
+	public File getTargetFile() {
+		return targetFile;
+	}
+
+	/**
+	 * @return size of source file in bytes
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return inode of source file observed during planning
+	 */
+	public long getSourceInode() {
+		return sourceInode;
+	}
+
+	/**
+	 * @return modification time of source file observed during planning
+	 */
+	public long getSourceModified() {
+		return sourceModified;
+	}
+
+	/**
+	 * @return inode of target file observed during planning or
+	 *         {@link FileAttributes#UNKNOWN} if it didn't exist
+	 */
+	public long getTargetInode() {
+		return targetInode;
+	}
+
+	/**
+	 * @return modification time of target file observed during planning or
+	 *         {@link FileAttributes#UNKNOWN} if it didn't exist
+	 */
+	public long getTargetModified() {
+		return targetModified;
+	}
+
+	/**
+	 * @return <code>true</code> if target file existed during planning
+	 */
+	public boolean hasTarget() {
+		return action == Action.REPLACE || action == Action.SKIP;
+	}
+
+	@Override
+	public int hashCode() {
+		//SUPPRESS CHECKSTYLE MagicNumber 1 Hash code multiplier
+		return 31 * targetFile.hashCode() + action.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		boolean result = false;
+		if (obj instanceof PlanEntry) {
+			PlanEntry other = (PlanEntry) obj;
+			result = action == other.action && sourceFile.equals(other.sourceFile)
+					&& targetFile.equals(other.targetFile) && size == other.size
+					&& sourceInode == other.sourceInode
+					&& sourceModified == other.sourceModified
+					&& targetInode == other.targetInode
+					&& targetModified == other.targetModified;
+		}
+		return result;
+	}
+}
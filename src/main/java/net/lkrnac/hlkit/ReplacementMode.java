@@ -0,0 +1,27 @@
+package net.lkrnac.hlkit;
+
+/**
+ * Mode in which {@link HardLinksHandler} replaces target files by hard links
+ * of source files.
+ *
+ * @author sitko
+ */
+public enum ReplacementMode {
+	/**
+	 * Target file is deleted and hard link is created on its place. Target
+	 * file is missing for a moment, so readers of target directory can fail.
+	 */
+	DELETE_AND_LINK,
+	/**
+	 * Hard link is created under temporary sibling name and atomically moved
+	 * over target file. Readers see either old or new file.
+	 */
+	ATOMIC,
+	/**
+	 * Replacements of whole directory are collected and performed after
+	 * matching. Temporary hard links of all replacements are created first,
+	 * then they are atomically moved over target files. Both steps run on
+	 * parallel workers.
+	 */
+	ATOMIC_BATCHED
+}
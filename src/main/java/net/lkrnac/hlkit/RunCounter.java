@@ -0,0 +1,23 @@
+package net.lkrnac.hlkit;
+
+/**
+ * Counters of link run reported to {@link LinkRunListener}.
+ *
+ * @author sitko
+ */
+public enum RunCounter {
+	/** Directory entries read by listing. */
+	ENTRIES_SCANNED,
+	/** Directory entries skipped by entry filter. */
+	ENTRIES_FILTERED,
+	/** Hard links created. */
+	LINKS_CREATED,
+	/** Target files which were already hard links of their source files. */
+	LINKS_PRESENT,
+	/** Bytes of duplicate content replaced by hard links. */
+	BYTES_DEDUPLICATED,
+	/** Files copied instead of linking across devices. */
+	FILES_COPIED,
+	/** Target files not replaced, because their content differs. */
+	CONTENT_MISMATCHES
+}
@@ -0,0 +1,23 @@
+package net.lkrnac.hlkit;
+
+/**
+ * Timed phases of link run reported to {@link LinkRunListener}. Phases can be
+ * nested, e.g. comparison includes listing and stat calls of compared
+ * directories.
+ *
+ * @author sitko
+ */
+public enum RunPhase {
+	/** Listing of one directory. */
+	LISTING,
+	/** One file system call reading file attributes. */
+	STAT,
+	/** Comparison of one directory pair. */
+	COMPARISON,
+	/** Verification of hard links in one target directory. */
+	VERIFICATION,
+	/** Creation or replacement of one hard link. */
+	LINK,
+	/** Comparison of content of one file pair before replacement. */
+	CONTENT_VERIFICATION
+}
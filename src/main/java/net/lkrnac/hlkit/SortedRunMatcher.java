@@ -0,0 +1,410 @@
+package net.lkrnac.hlkit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import net.lkrnac.hlkit.comparators.FileNamePathComparator;
+
+/**
+ * External-memory matching engine for directory handlers. Entries of each
+ * side are buffered up to half of memory budget, sorted by match keys and
+ * spilled into run files. Runs are merged and both sides are merge-joined,
+ * so heap usage doesn't depend on number of entries. When whole side fits
+ * into its budget, it isn't written to disk at all.
+ * <p>
+ * Runs contain path and precomputed match key, so keys aren't computed again
+ * during merge. File keys aren't persisted, because handlers have to decide
+ * about links by fresh file keys anyway. Case insensitive configuration
+ * compares names of match keys ignoring case.
+ *
+ * @author sitko
+ */
+class SortedRunMatcher {
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int RECORD_OVERHEAD = 144;
+	private static final String RUN_PREFIX = "hlkit-run"; //$NON-NLS-1$
+	private static final String RUN_SUFFIX = ".tmp"; //$NON-NLS-1$
+
+	private final ExternalMatching config;
+	private final Comparator<Record> order;
+
+	/**
+	 * Creates matcher.
+	 *
+	 * @param config
+	 *            configuration of external matching
+	 */
+	SortedRunMatcher(ExternalMatching config) {
+		this.config = config;
+		final FileNamePathComparator nameComparator = new FileNamePathComparator(
+				config.isCaseSensitive());
+		this.order = new Comparator<Record>() {
+			@Override
+			public int compare(Record record1, Record record2) {
+				int result = nameComparator.compareFileNames(record1.key.getName(),
+						record2.key.getName());
+				if (result == 0) {
+					result = record1.key.compareValues(record2.key);
+				}
+				return result;
+			}
+		};
+	}
+
+	/**
+	 * Matches target files against source files and calls actions of given
+	 * handler, the same way as in-memory matching of
+	 * {@link AbstractDirectoryHandler}.
+	 *
+	 * @param targetFiles
+	 *            files in target directory
+	 * @param sourceFiles
+	 *            files in source directory
+	 * @param snapshot
+	 *            attribute snapshot to read file sizes from, if
+	 *            <code>null</code> file sizes are read directly from files
+	 * @param handler
+	 *            handler whose actions are called
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	void match(Iterable<File> targetFiles, Iterable<File> sourceFiles, AttributeSnapshot snapshot,
+			AbstractDirectoryHandler handler) throws IOException {
+		List<File> runFiles = new ArrayList<>();
+		MatchKeyStrategy keyStrategy = handler.getMatchKeyStrategy();
+		try (RecordCursor targets = sort(targetFiles, snapshot, keyStrategy, runFiles);
+				RecordCursor sources = sort(sourceFiles, snapshot, keyStrategy, runFiles)) {
+			Record target = targets.next();
+			Record source = sources.next();
+			while (target != null || source != null) {
+				int comparison = compareHeads(target, source);
+				if (comparison == 0) {
+					handler.performActionMatched(new File(target.path), new File(source.path),
+							snapshot);
+					target = targets.next();
+					source = sources.next();
+				} else if (comparison < 0) {
+					handler.performActionMissingInSource(new File(target.path));
+					target = targets.next();
+				} else {
+					handler.performActionUnmatched(new File(source.path), snapshot);
+					source = sources.next();
+				}
+			}
+		} finally {
+			for (File runFile : runFiles) {
+				Files.deleteIfExists(runFile.toPath());
+			}
+		}
+	}
+
+	/**
+	 * Compares heads of both sides. Exhausted side is bigger than any record.
+	 *
+	 * @param target
+	 *            head of target side or <code>null</code>
+	 * @param source
+	 *            head of source side or <code>null</code>
+	 * @return comparison result according {@link Comparator} result contract
+	 */
+	private int compareHeads(Record target, Record source) {
+		int result;
+		if (target == null) {
+			result = 1;
+		} else if (source == null) {
+			result = -1;
+		} else {
+			result = order.compare(target, source);
+		}
+		return result;
+	}
+
+	/**
+	 * Sorts one side. Side which fits into half of memory budget is sorted in
+	 * memory, otherwise it is spilled into sorted runs which are merged.
+	 *
+	 * @param files
+	 *            files of one side
+	 * @param snapshot
+	 *            attribute snapshot to read file attributes from or
+	 *            <code>null</code>
+	 * @param keyStrategy
+	 *            strategy computing match keys
+	 * @param runFiles
+	 *            list of created run files to fill
+	 * @return cursor over sorted records
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private RecordCursor sort(Iterable<File> files, AttributeSnapshot snapshot,
+			MatchKeyStrategy keyStrategy, List<File> runFiles) throws IOException {
+		long sideBudget = Math.max(config.getMemoryBudget() / 2, 1);
+		List<Record> buffer = new ArrayList<>();
+		List<File> sideRuns = new ArrayList<>();
+		long used = 0;
+		for (File file : files) {
+			Record record = new Record(file.getPath(), FileMatchIndex.keyOf(file, snapshot,
+					keyStrategy));
+			buffer.add(record);
+			used += record.footprint();
+			if (used >= sideBudget) {
+				sideRuns.add(writeRun(buffer, runFiles));
+				buffer.clear();
+				used = 0;
+			}
+		}
+		RecordCursor cursor;
+		if (sideRuns.isEmpty()) {
+			Collections.sort(buffer, order);
+			cursor = new ListCursor(buffer);
+		} else {
+			if (!buffer.isEmpty()) {
+				sideRuns.add(writeRun(buffer, runFiles));
+			}
+			cursor = new MergeCursor(sideRuns, order);
+		}
+		return cursor;
+	}
+
+	/**
+	 * Sorts buffered records and writes them into new run file.
+	 *
+	 * @param buffer
+	 *            buffered records
+	 * @param runFiles
+	 *            list of created run files to fill
+	 * @return created run file
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private File writeRun(List<Record> buffer, List<File> runFiles) throws IOException {
+		Collections.sort(buffer, order);
+		File runFile = Files.createTempFile(config.getTempDir().toPath(), RUN_PREFIX, RUN_SUFFIX)
+				.toFile();
+		runFiles.add(runFile);
+		try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+				Files.newOutputStream(runFile.toPath()), BUFFER_SIZE))) {
+			for (Record record : buffer) {
+				output.writeUTF(record.path);
+				output.writeUTF(record.key.getName());
+				output.writeLong(record.key.getSize());
+				output.writeLong(record.key.getModifiedTime());
+				output.writeLong(record.key.getHash());
+			}
+		}
+		return runFile;
+	}
+
+	/**
+	 * Entry of one side.
+	 *
+	 * @author sitko
+	 */
+	private static final class Record {
+		private final String path;
+		private final MatchKey key;
+
+		/**
+		 * Creates record.
+		 *
+		 * @param path
+		 *            path of file
+		 * @param key
+		 *            match key of file
+		 */
+		Record(String path, MatchKey key) {
+			this.path = path;
+			this.key = key;
+		}
+
+		/**
+		 * @return estimated number of heap bytes occupied by record
+		 */
+		long footprint() {
+			return RECORD_OVERHEAD + 2L * (path.length() + key.getName().length());
+		}
+	}
+
+	/**
+	 * Sequential reader of sorted records.
+	 *
+	 * @author sitko
+	 */
+	private interface RecordCursor extends Closeable {
+		/**
+		 * @return next record or <code>null</code> if there isn't any
+		 * @throws IOException
+		 *             if I/O error occurs
+		 */
+		Record next() throws IOException;
+	}
+
+	/**
+	 * Cursor over records sorted in memory.
+	 *
+	 * @author sitko
+	 */
+	private static final class ListCursor implements RecordCursor {
+		private final Iterator<Record> iterator;
+
+		/**
+		 * Creates cursor.
+		 *
+		 * @param records
+		 *            sorted records
+		 */
+		ListCursor(List<Record> records) {
+			this.iterator = records.iterator();
+		}
+
+		@Override
+		public Record next() {
+			return iterator.hasNext() ? iterator.next() : null;
+		}
+
+		@Override
+		public void close() {
+			// nothing to close
+		}
+	}
+
+	/**
+	 * Cursor over one run file.
+	 *
+	 * @author sitko
+	 */
+	private static final class RunCursor implements RecordCursor {
+		private final DataInputStream input;
+		private Record head;
+
+		/**
+		 * Opens run file and reads its first record.
+		 *
+		 * @param runFile
+		 *            run file
+		 * @throws IOException
+		 *             if I/O error occurs
+		 */
+		RunCursor(File runFile) throws IOException {
+			input = new DataInputStream(new BufferedInputStream(Files.newInputStream(runFile
+					.toPath()), BUFFER_SIZE));
+			head = read();
+		}
+
+		@Override
+		public Record next() throws IOException {
+			Record current = head;
+			if (current != null) {
+				head = read();
+			}
+			return current;
+		}
+
+		/**
+		 * @return record which will be returned by next call of
+		 *         {@link #next()}
+		 */
+		Record peek() {
+			return head;
+		}
+
+		/**
+		 * Reads next record from run file.
+		 *
+		 * @return read record or <code>null</code> at the end of run
+		 * @throws IOException
+		 *             if I/O error occurs
+		 */
+		private Record read() throws IOException {
+			Record record = null;
+			try {
+				String path = input.readUTF();
+				String name = input.readUTF();
+				record = new Record(path, new MatchKey(name, input.readLong(), input.readLong(),
+						input.readLong()));
+			} catch (EOFException exception) {
+				record = null;
+			}
+			return record;
+		}
+
+		@Override
+		public void close() throws IOException {
+			input.close();
+		}
+	}
+
+	/**
+	 * Cursor merging multiple run files.
+	 *
+	 * @author sitko
+	 */
+	private static final class MergeCursor implements RecordCursor {
+		private final List<RunCursor> runs = new ArrayList<>();
+		private final PriorityQueue<RunCursor> queue;
+
+		/**
+		 * Opens all run files.
+		 *
+		 * @param runFiles
+		 *            sorted run files
+		 * @param order
+		 *            order of records
+		 * @throws IOException
+		 *             if I/O error occurs
+		 */
+		MergeCursor(List<File> runFiles, final Comparator<Record> order) throws IOException {
+			queue = new PriorityQueue<>(runFiles.size(), new Comparator<RunCursor>() {
+				@Override
+				public int compare(RunCursor run1, RunCursor run2) {
+					return order.compare(run1.peek(), run2.peek());
+				}
+			});
+			try {
+				for (File runFile : runFiles) {
+					RunCursor run = new RunCursor(runFile);
+					runs.add(run);
+					if (run.peek() != null) {
+						queue.add(run);
+					}
+				}
+			} catch (IOException ioException) {
+				close();
+				throw ioException;
+			}
+		}
+
+		@Override
+		public Record next() throws IOException {
+			RunCursor run = queue.poll();
+			Record record = null;
+			if (run != null) {
+				record = run.next();
+				if (run.peek() != null) {
+					queue.add(run);
+				}
+			}
+			return record;
+		}
+
+		@Override
+		public void close() throws IOException {
+			for (RunCursor run : runs) {
+				run.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,490 @@
+package net.lkrnac.hlkit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.DirectoryIteratorException;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Pipelined matching engine for directory handlers. Enumeration, stat calls,
+ * matching and handler actions run as stages connected by bounded queues.
+ * Source files flow through enumeration and stat stages into index first,
+ * target files follow once the index is complete. Actions run on calling
+ * thread, so handler state isn't accessed concurrently.
+ * <p>
+ * Streamed {@link DirectoryEntries} are enumerated without stat calls, stat
+ * stage reads attributes into snapshot, drops sub-directories and computes
+ * match keys, so that match stage only hashes precomputed keys.
+ *
+ * @author sitko
+ */
+class StagedPipeline {
+	private static final long POLL_MILLIS = 100;
+	private static final Entry END = new Entry(null, null);
+
+	private final PipelinedMatching config;
+	private final StageQueue statQueue;
+	private final StageQueue matchQueue;
+	private final StageQueue actionQueue;
+	private final CountDownLatch sourcesIndexed = new CountDownLatch(1);
+	private final AtomicReference<Exception> failure = new AtomicReference<>();
+
+	/**
+	 * Creates pipeline for one pass of matching.
+	 *
+	 * @param config
+	 *            configuration of pipelined matching
+	 */
+	StagedPipeline(PipelinedMatching config) {
+		this.config = config;
+		this.statQueue = new StageQueue(PipelineStage.STAT);
+		this.matchQueue = new StageQueue(PipelineStage.MATCH);
+		this.actionQueue = new StageQueue(PipelineStage.ACTION);
+	}
+
+	/**
+	 * Matches target files against source files and calls actions of given
+	 * handler, the same way as in-memory matching of
+	 * {@link AbstractDirectoryHandler}. Order of actions can differ from
+	 * order of target files.
+	 *
+	 * @param targetFiles
+	 *            files in target directory
+	 * @param sourceFiles
+	 *            files in source directory
+	 * @param snapshot
+	 *            attribute snapshot to read file attributes into, if
+	 *            <code>null</code> file sizes are read directly from files
+	 * @param handler
+	 *            handler whose actions are called
+	 * @throws IOException
+	 *             if I/O error occurs in any stage
+	 */
+	void match(Iterable<File> targetFiles, Iterable<File> sourceFiles, AttributeSnapshot snapshot,
+			AbstractDirectoryHandler handler) throws IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(config.getStatThreads() + 2);
+		try {
+			executor.execute(new EnumerationStage(targetFiles, sourceFiles));
+			MatchKeyStrategy keyStrategy = handler.getMatchKeyStrategy();
+			for (int i = 0; i < config.getStatThreads(); i++) {
+				executor.execute(new StatStage(snapshot, keyStrategy));
+			}
+			executor.execute(new MatchStage(snapshot, keyStrategy));
+			performActions(handler, snapshot);
+		} finally {
+			executor.shutdownNow();
+			awaitTermination(executor);
+			statQueue.discard();
+			matchQueue.discard();
+			actionQueue.discard();
+		}
+	}
+
+	/**
+	 * Action stage. Takes matched entries and calls actions of handler until
+	 * all entries are handled or some stage fails.
+	 *
+	 * @param handler
+	 *            handler whose actions are called
+	 * @param snapshot
+	 *            attribute snapshot or <code>null</code>
+	 * @throws IOException
+	 *             if I/O error occurs in any stage
+	 */
+	private void performActions(AbstractDirectoryHandler handler, AttributeSnapshot snapshot)
+			throws IOException {
+		boolean finished = false;
+		while (!finished) {
+			Entry entry;
+			try {
+				entry = actionQueue.poll();
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+				throw (IOException) new InterruptedIOException("pipeline interrupted") //$NON-NLS-1$
+						.initCause(exception);
+			}
+			checkFailure();
+			if (entry == END) {
+				finished = true;
+			} else if (entry != null) {
+				if (entry.sourceFile == null) {
+					handler.performActionMissingInSource(entry.targetFile);
+				} else if (entry.targetFile == null) {
+					handler.performActionUnmatched(entry.sourceFile, snapshot);
+				} else {
+					handler.performActionMatched(entry.targetFile, entry.sourceFile, snapshot);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Rethrows first failure of background stages.
+	 *
+	 * @throws IOException
+	 *             if some stage failed with I/O error
+	 */
+	private void checkFailure() throws IOException {
+		Exception exception = failure.get();
+		if (exception instanceof IOException) {
+			throw (IOException) exception;
+		} else if (exception != null) {
+			throw (RuntimeException) exception;
+		}
+	}
+
+	/**
+	 * Waits until interrupted stages stop, so that streamed directories aren't
+	 * read after they are closed by caller.
+	 *
+	 * @param executor
+	 *            executor of stages
+	 */
+	private static void awaitTermination(ExecutorService executor) {
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Entry flowing through pipeline. Enumerated and stat'ed entries have
+	 * only one of the files set, matched entries have <code>null</code> file
+	 * on side where file is missing. Only stat'ed entries carry match key.
+	 *
+	 * @author sitko
+	 */
+	private static final class Entry {
+		private final File targetFile;
+		private final File sourceFile;
+		private final MatchKey key;
+
+		/**
+		 * Creates entry without match key.
+		 *
+		 * @param targetFile
+		 *            file in target directory or <code>null</code>
+		 * @param sourceFile
+		 *            file in source directory or <code>null</code>
+		 */
+		Entry(File targetFile, File sourceFile) {
+			this(targetFile, sourceFile, null);
+		}
+
+		/**
+		 * Creates entry.
+		 *
+		 * @param targetFile
+		 *            file in target directory or <code>null</code>
+		 * @param sourceFile
+		 *            file in source directory or <code>null</code>
+		 * @param key
+		 *            match key of file or <code>null</code>
+		 */
+		Entry(File targetFile, File sourceFile, MatchKey key) {
+			this.targetFile = targetFile;
+			this.sourceFile = sourceFile;
+			this.key = key;
+		}
+
+		/**
+		 * @return file of enumerated or stat'ed entry
+		 */
+		File getFile() {
+			return targetFile == null ? sourceFile : targetFile;
+		}
+	}
+
+	/**
+	 * Bounded queue of one stage, recording its depth into configuration.
+	 *
+	 * @author sitko
+	 */
+	private final class StageQueue {
+		private final PipelineStage stage;
+		private final BlockingQueue<Entry> queue;
+
+		/**
+		 * Creates queue.
+		 *
+		 * @param stage
+		 *            stage consuming the queue
+		 */
+		StageQueue(PipelineStage stage) {
+			this.stage = stage;
+			this.queue = new ArrayBlockingQueue<>(config.getQueueCapacity());
+		}
+
+		/**
+		 * Adds entry, waits while queue is full.
+		 *
+		 * @param entry
+		 *            entry to add
+		 * @throws InterruptedException
+		 *             if pipeline is shut down
+		 */
+		void put(Entry entry) throws InterruptedException {
+			queue.put(entry);
+			config.entryQueued(stage, queue.size());
+		}
+
+		/**
+		 * Takes entry, waits while queue is empty.
+		 *
+		 * @return taken entry
+		 * @throws InterruptedException
+		 *             if pipeline is shut down
+		 */
+		Entry take() throws InterruptedException {
+			Entry entry = queue.take();
+			config.entryTaken(stage);
+			return entry;
+		}
+
+		/**
+		 * Takes entry, waits limited time while queue is empty.
+		 *
+		 * @return taken entry or <code>null</code> if queue stayed empty
+		 * @throws InterruptedException
+		 *             if calling thread is interrupted
+		 */
+		Entry poll() throws InterruptedException {
+			Entry entry = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+			if (entry != null) {
+				config.entryTaken(stage);
+			}
+			return entry;
+		}
+
+		/**
+		 * Removes entries left in queue by aborted pipeline, so that they
+		 * aren't counted as waiting after the pipeline stopped.
+		 */
+		void discard() {
+			while (queue.poll() != null) {
+				config.entryTaken(stage);
+			}
+		}
+	}
+
+	/**
+	 * Background stage. Records its failure, so that action stage can rethrow
+	 * it. Interrupted stage stops silently.
+	 *
+	 * @author sitko
+	 */
+	private abstract class Stage implements Runnable {
+		@Override
+		public final void run() {
+			try {
+				process();
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+			} catch (DirectoryIteratorException exception) {
+				failure.compareAndSet(null, exception.getCause());
+			} catch (IOException | RuntimeException exception) {
+				failure.compareAndSet(null, exception);
+			}
+		}
+
+		/**
+		 * Processes entries of the stage.
+		 *
+		 * @throws IOException
+		 *             if I/O error occurs
+		 * @throws InterruptedException
+		 *             if pipeline is shut down
+		 */
+		abstract void process() throws IOException, InterruptedException;
+	}
+
+	/**
+	 * Enumerates source files, waits until they are indexed and enumerates
+	 * target files.
+	 *
+	 * @author sitko
+	 */
+	private final class EnumerationStage extends Stage {
+		private final Iterable<File> targetFiles;
+		private final Iterable<File> sourceFiles;
+
+		/**
+		 * Creates enumeration stage.
+		 *
+		 * @param targetFiles
+		 *            files in target directory
+		 * @param sourceFiles
+		 *            files in source directory
+		 */
+		EnumerationStage(Iterable<File> targetFiles, Iterable<File> sourceFiles) {
+			this.targetFiles = targetFiles;
+			this.sourceFiles = sourceFiles;
+		}
+
+		@Override
+		void process() throws InterruptedException {
+			Iterator<File> files = iterate(sourceFiles);
+			while (files.hasNext()) {
+				statQueue.put(new Entry(null, files.next()));
+			}
+			putEnds();
+			sourcesIndexed.await();
+			files = iterate(targetFiles);
+			while (files.hasNext()) {
+				statQueue.put(new Entry(files.next(), null));
+			}
+			putEnds();
+		}
+
+		/**
+		 * Puts end marker for each stat thread.
+		 *
+		 * @throws InterruptedException
+		 *             if pipeline is shut down
+		 */
+		private void putEnds() throws InterruptedException {
+			for (int i = 0; i < config.getStatThreads(); i++) {
+				statQueue.put(END);
+			}
+		}
+
+		/**
+		 * @param files
+		 *            files to enumerate
+		 * @return iterator which doesn't stat streamed directory entries
+		 */
+		private Iterator<File> iterate(Iterable<File> files) {
+			return files instanceof DirectoryEntries ? ((DirectoryEntries) files)
+					.unfilteredIterator() : files.iterator();
+		}
+	}
+
+	/**
+	 * Reads attributes of enumerated files into snapshot, drops
+	 * sub-directories and filtered files and computes match keys. Passes
+	 * source files first, target files after source files are indexed.
+	 *
+	 * @author sitko
+	 */
+	private final class StatStage extends Stage {
+		private final AttributeSnapshot snapshot;
+		private final MatchKeyStrategy keyStrategy;
+
+		/**
+		 * Creates stat stage.
+		 *
+		 * @param snapshot
+		 *            attribute snapshot or <code>null</code>
+		 * @param keyStrategy
+		 *            strategy computing match keys
+		 */
+		StatStage(AttributeSnapshot snapshot, MatchKeyStrategy keyStrategy) {
+			this.snapshot = snapshot;
+			this.keyStrategy = keyStrategy;
+		}
+
+		@Override
+		void process() throws IOException, InterruptedException {
+			passFiles();
+			sourcesIndexed.await();
+			passFiles();
+		}
+
+		/**
+		 * Passes files of one side until end marker. Thread doesn't take
+		 * entries after its end marker, so all files of the side are passed
+		 * once each stat thread passed its end marker.
+		 *
+		 * @throws IOException
+		 *             if I/O error occurs
+		 * @throws InterruptedException
+		 *             if pipeline is shut down
+		 */
+		private void passFiles() throws IOException, InterruptedException {
+			Entry entry = statQueue.take();
+			while (entry != END) {
+				File file = entry.getFile();
+				FileAttributes attributes = snapshot == null ? null : snapshot.getAttributes(file);
+				if (attributes == null || !attributes.isDirectory()) {
+					matchQueue.put(new Entry(entry.targetFile, entry.sourceFile, keyStrategy.keyOf(
+							file, attributes)));
+				}
+				entry = statQueue.take();
+			}
+			matchQueue.put(END);
+		}
+	}
+
+	/**
+	 * Indexes source files, then matches target files and finally passes
+	 * unmatched source files to action stage.
+	 *
+	 * @author sitko
+	 */
+	private final class MatchStage extends Stage {
+		private final AttributeSnapshot snapshot;
+		private final MatchKeyStrategy keyStrategy;
+		private int ends;
+
+		/**
+		 * Creates match stage.
+		 *
+		 * @param snapshot
+		 *            attribute snapshot or <code>null</code>
+		 * @param keyStrategy
+		 *            strategy computing match keys
+		 */
+		MatchStage(AttributeSnapshot snapshot, MatchKeyStrategy keyStrategy) {
+			this.snapshot = snapshot;
+			this.keyStrategy = keyStrategy;
+		}
+
+		@Override
+		void process() throws IOException, InterruptedException {
+			FileMatchIndex matchIndex = new FileMatchIndex(snapshot, keyStrategy, 0);
+			Entry entry = takeUntilEnds();
+			while (entry != END) {
+				matchIndex.add(entry.sourceFile, entry.key);
+				entry = takeUntilEnds();
+			}
+			sourcesIndexed.countDown();
+			entry = takeUntilEnds();
+			while (entry != END) {
+				actionQueue.put(new Entry(entry.targetFile, matchIndex.match(entry.key)));
+				entry = takeUntilEnds();
+			}
+			for (File unmatchedFile : matchIndex.getUnmatchedFiles()) {
+				actionQueue.put(new Entry(null, unmatchedFile));
+			}
+			actionQueue.put(END);
+		}
+
+		/**
+		 * Takes stat'ed entry. End marker is returned only after each stat
+		 * thread passed one.
+		 *
+		 * @return next entry or end marker
+		 * @throws InterruptedException
+		 *             if pipeline is shut down
+		 */
+		private Entry takeUntilEnds() throws InterruptedException {
+			Entry entry = matchQueue.take();
+			while (entry == END && ++ends < config.getStatThreads()) {
+				entry = matchQueue.take();
+			}
+			if (entry == END) {
+				ends = 0;
+			}
+			return entry;
+		}
+	}
+}
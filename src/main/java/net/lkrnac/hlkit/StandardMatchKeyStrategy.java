@@ -0,0 +1,130 @@
+package net.lkrnac.hlkit;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.Normalizer;
+import java.util.Locale;
+
+/**
+ * Match key strategy of file name and size. File names can be folded to one
+ * case and normalized into Unicode NFC form, so that names coming from case
+ * insensitive shares or from file systems storing decomposed characters
+ * match. Modification time can be part of the key, truncated to given
+ * granularity of file system. Subclass can add hash of file by
+ * {@link #hashOf(File, FileAttributes)}.
+ * <p>
+ * Default instance matches exact file names and sizes.
+ *
+ * @author sitko
+ */
+public class StandardMatchKeyStrategy implements MatchKeyStrategy {
+	private final boolean caseSensitive;
+	private final boolean unicodeNormalized;
+	private final long modifiedTimeGranularity;
+
+	/**
+	 * Creates strategy matching exact file names and sizes.
+	 */
+	public StandardMatchKeyStrategy() {
+		this(true, false, 0);
+	}
+
+	/**
+	 * Creates strategy.
+	 *
+	 * @param caseSensitive
+	 *            flag if file names are matched case sensitively
+	 * @param unicodeNormalized
+	 *            flag if file names are normalized into Unicode NFC form
+	 * @param modifiedTimeGranularity
+	 *            granularity of modification time in milliseconds, 0 if
+	 *            modification time isn't part of key
+	 */
+	public StandardMatchKeyStrategy(boolean caseSensitive, boolean unicodeNormalized,
+			long modifiedTimeGranularity) {
+		if (modifiedTimeGranularity < 0) {
+			throw new IllegalArgumentException("granularity can't be negative"); //$NON-NLS-1$
+		}
+		this.caseSensitive = caseSensitive;
+		this.unicodeNormalized = unicodeNormalized;
+		this.modifiedTimeGranularity = modifiedTimeGranularity;
+	}
+
+	/**
+	 * @return flag if file names are matched case sensitively
+	 */
+	public boolean isCaseSensitive() {
+		return caseSensitive;
+	}
+
+	/**
+	 * @return flag if file names are normalized into Unicode NFC form
+	 */
+	public boolean isUnicodeNormalized() {
+		return unicodeNormalized;
+	}
+
+	/**
+	 * @return granularity of modification time in milliseconds, 0 if
+	 *         modification time isn't part of key
+	 */
+	public long getModifiedTimeGranularity() {
+		return modifiedTimeGranularity;
+	}
+
+	/**
+	 * Computes key of normalized file name, file size, modification time if
+	 * it is used and hash of file.
+	 * <p>
+	 * <b> Javadoc from parent class:<br>
+	 * </b> {@inheritDoc}
+	 */
+	@Override
+	public MatchKey keyOf(File file, FileAttributes attributes) throws IOException {
+		long size = attributes == null ? file.length() : attributes.getSize();
+		long modifiedTime = 0;
+		if (modifiedTimeGranularity > 0) {
+			long lastModified = attributes == null ? file.lastModified() : attributes
+					.getLastModified();
+			modifiedTime = lastModified / modifiedTimeGranularity;
+			if (lastModified % modifiedTimeGranularity < 0) {
+				modifiedTime--;
+			}
+		}
+		return new MatchKey(normalizeName(file.getName()), size, modifiedTime, hashOf(file,
+				attributes));
+	}
+
+	/**
+	 * Normalizes file name according to settings of strategy.
+	 *
+	 * @param name
+	 *            file name
+	 * @return normalized file name
+	 */
+	protected String normalizeName(String name) {
+		String result = name;
+		if (unicodeNormalized && !Normalizer.isNormalized(result, Normalizer.Form.NFC)) {
+			result = Normalizer.normalize(result, Normalizer.Form.NFC);
+		}
+		if (!caseSensitive) {
+			result = result.toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT);
+		}
+		return result;
+	}
+
+	/**
+	 * Computes hash part of key. Hash isn't used by default.
+	 *
+	 * @param file
+	 *            source or target file
+	 * @param attributes
+	 *            attributes of file or <code>null</code>
+	 * @return hash of file, 0 if hash isn't used
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	protected long hashOf(File file, FileAttributes attributes) throws IOException {
+		return 0;
+	}
+}
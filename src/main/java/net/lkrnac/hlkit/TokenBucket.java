@@ -0,0 +1,91 @@
+package net.lkrnac.hlkit;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiting rate of operations. Bucket holds at most one second
+ * worth of tokens, so idle period allows short burst. Request bigger than
+ * bucket capacity is granted on credit and following requests wait until the
+ * debt is refilled. Rate can be changed while threads are waiting, waiting
+ * threads then finish their current sleep with the old rate. Instance is
+ * thread safe.
+ *
+ * @author sitko
+ */
+final class TokenBucket {
+	private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	private double rate;
+	private double tokens;
+	private long lastRefillNanos = System.nanoTime();
+
+	/**
+	 * Creates full bucket.
+	 *
+	 * @param rate
+	 *            tokens per second, not positive value means unlimited rate
+	 */
+	TokenBucket(double rate) {
+		setRate(rate);
+		tokens = Math.max(rate, 0);
+	}
+
+	/**
+	 * Changes rate of bucket. Tokens over new capacity are dropped.
+	 *
+	 * @param newRate
+	 *            tokens per second, not positive value means unlimited rate
+	 */
+	synchronized void setRate(double newRate) {
+		refill(System.nanoTime());
+		rate = newRate;
+		if (rate > 0) {
+			tokens = Math.min(tokens, rate);
+		}
+	}
+
+	/**
+	 * @return tokens per second, not positive value means unlimited rate
+	 */
+	synchronized double getRate() {
+		return rate;
+	}
+
+	/**
+	 * Takes tokens from bucket, waits while bucket is in debt.
+	 *
+	 * @param permits
+	 *            number of tokens to take
+	 * @throws InterruptedException
+	 *             if calling thread is interrupted while waiting
+	 */
+	void acquire(long permits) throws InterruptedException {
+		long waitNanos = 0;
+		synchronized (this) {
+			if (rate > 0) {
+				refill(System.nanoTime());
+				tokens -= permits;
+				if (tokens < 0) {
+					waitNanos = (long) (-tokens / rate * NANOS_PER_SECOND);
+				}
+			}
+		}
+		if (waitNanos > 0) {
+			TimeUnit.NANOSECONDS.sleep(waitNanos);
+		}
+	}
+
+	/**
+	 * Adds tokens accumulated since last refill.
+	 *
+	 * @param nowNanos
+	 *            current time in nanoseconds
+	 */
+	private void refill(long nowNanos) {
+		if (rate > 0) {
+			tokens = Math.min(rate, tokens + (nowNanos - lastRefillNanos) * rate
+					/ NANOS_PER_SECOND);
+		}
+		lastRefillNanos = nowNanos;
+	}
+}
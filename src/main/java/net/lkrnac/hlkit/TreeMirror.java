@@ -0,0 +1,306 @@
+package net.lkrnac.hlkit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Mirrors whole directory trees by hard links. Source tree is decomposed per
+ * directory into fork/join tasks, each task creates missing target directory
+ * and compares and links its directory pair. Tasks run in parallel on pool of
+ * configurable size. Listings and attributes of directory pair are dropped
+ * from snapshot when its task is done, so memory usage of the run depends on
+ * directories being processed, not on size of the tree.
+ *
+ * @author sitko
+ */
+public class TreeMirror {
+	private final int parallelism;
+	private final boolean createMissingLinks;
+	private LinkRunListener runListener;
+	private IoRateLimiter rateLimiter;
+	private EntryFilter entryFilter;
+	private ExternalMatching externalMatching;
+	private PipelinedMatching pipelinedMatching;
+	private MatchKeyStrategy matchKeyStrategy;
+	private LinkJournal journal;
+
+	/**
+	 * Creates tree mirror instance.
+	 *
+	 * @param parallelism
+	 *            number of threads mirroring directories in parallel
+	 * @param createMissingLinks
+	 *            flag if source files missing in target directories should be
+	 *            hard linked into them
+	 */
+	public TreeMirror(int parallelism, boolean createMissingLinks) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism has to be positive"); //$NON-NLS-1$
+		}
+		this.parallelism = parallelism;
+		this.createMissingLinks = createMissingLinks;
+	}
+
+	/**
+	 * Attaches listener of run instrumentation to all directories mirrored by
+	 * this instance.
+	 *
+	 * @param runListener
+	 *            run listener, can be <code>null</code>
+	 */
+	public void setRunListener(LinkRunListener runListener) {
+		this.runListener = runListener;
+	}
+
+	/**
+	 * Attaches rate limiter of file system operations to all directories
+	 * mirrored by this instance. Limits can be changed while tree is being
+	 * mirrored.
+	 *
+	 * @param rateLimiter
+	 *            rate limiter, can be <code>null</code>
+	 */
+	public void setRateLimiter(IoRateLimiter rateLimiter) {
+		this.rateLimiter = rateLimiter;
+	}
+
+	/**
+	 * Attaches filter of directory entries. Excluded sub-directories aren't
+	 * mirrored, excluded files are neither linked nor compared.
+	 *
+	 * @param entryFilter
+	 *            entry filter, can be <code>null</code>
+	 */
+	public void setEntryFilter(EntryFilter entryFilter) {
+		this.entryFilter = entryFilter;
+	}
+
+	/**
+	 * Switches matching of files in mirrored directories into external-memory
+	 * mode.
+	 *
+	 * @param externalMatching
+	 *            configuration of external matching, <code>null</code>
+	 *            switches back to in-memory matching
+	 * @see AbstractDirectoryHandler#setExternalMatching(ExternalMatching)
+	 */
+	public void setExternalMatching(ExternalMatching externalMatching) {
+		this.externalMatching = externalMatching;
+	}
+
+	/**
+	 * Switches matching of files in mirrored directories into pipelined mode.
+	 *
+	 * @param pipelinedMatching
+	 *            configuration of pipelined matching, <code>null</code>
+	 *            switches back to sequential matching
+	 * @see AbstractDirectoryHandler#setPipelinedMatching(PipelinedMatching)
+	 */
+	public void setPipelinedMatching(PipelinedMatching pipelinedMatching) {
+		this.pipelinedMatching = pipelinedMatching;
+	}
+
+	/**
+	 * Sets strategy computing keys by which files in mirrored directories are
+	 * matched.
+	 *
+	 * @param matchKeyStrategy
+	 *            match key strategy, <code>null</code> switches back to
+	 *            default strategy
+	 * @see AbstractDirectoryHandler#setMatchKeyStrategy(MatchKeyStrategy)
+	 */
+	public void setMatchKeyStrategy(MatchKeyStrategy matchKeyStrategy) {
+		this.matchKeyStrategy = matchKeyStrategy;
+	}
+
+	/**
+	 * Sets journal of mirroring. Replacements interrupted by previous run are
+	 * repaired before mirroring starts, directories completed by previous run
+	 * are skipped and completed directories are recorded.
+	 *
+	 * @param journal
+	 *            link journal, can be <code>null</code>
+	 */
+	public void setJournal(LinkJournal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * Mirrors source tree into target tree.
+	 *
+	 * @param sourceRoot
+	 *            root of source tree
+	 * @param targetRoot
+	 *            root of target tree, is created if it doesn't exist
+	 * @return aggregated result of all mirrored directories
+	 */
+	public TreeMirrorResult mirror(File sourceRoot, File targetRoot) {
+		AttributeSnapshot snapshot = new AttributeSnapshot();
+		snapshot.setRunListener(runListener);
+		snapshot.setRateLimiter(rateLimiter);
+		snapshot.setEntryFilter(entryFilter);
+		return mirror(sourceRoot, targetRoot, snapshot);
+	}
+
+	/**
+	 * Mirrors source tree into target tree. Directory listings and file
+	 * attributes are read via given snapshot.
+	 *
+	 * @param sourceRoot
+	 *            root of source tree
+	 * @param targetRoot
+	 *            root of target tree, is created if it doesn't exist
+	 * @param snapshot
+	 *            attribute snapshot of current run
+	 * @return aggregated result of all mirrored directories
+	 */
+	public TreeMirrorResult mirror(File sourceRoot, File targetRoot, AttributeSnapshot snapshot) {
+		TreeMirrorResult result = new TreeMirrorResult();
+		if (journal != null) {
+			try {
+				journal.repair();
+			} catch (IOException ioException) {
+				result.addFailure(targetRoot, ioException);
+				if (runListener != null) {
+					runListener.errorOccurred(targetRoot, ioException);
+				}
+			}
+		}
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.invoke(new MirrorTask(sourceRoot, targetRoot, snapshot, result));
+		} finally {
+			pool.shutdown();
+		}
+		return result;
+	}
+
+	/**
+	 * Applies matching configuration of this instance to handler.
+	 *
+	 * @param handler
+	 *            directory handler to configure
+	 */
+	private void configureMatching(AbstractDirectoryHandler handler) {
+		handler.setExternalMatching(externalMatching);
+		handler.setPipelinedMatching(pipelinedMatching);
+		handler.setMatchKeyStrategy(matchKeyStrategy);
+	}
+
+	/**
+	 * Mirrors one directory pair and forks tasks for its sub-directories.
+	 *
+	 * @author sitko
+	 */
+	private class MirrorTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final File sourceDir;
+		private final File targetDir;
+		private final transient AttributeSnapshot snapshot;
+		private final transient TreeMirrorResult result;
+
+		/**
+		 * Creates task for directory pair.
+		 *
+		 * @param sourceDir
+		 *            source directory
+		 * @param targetDir
+		 *            target directory
+		 * @param snapshot
+		 *            attribute snapshot of current run
+		 * @param result
+		 *            aggregated result
+		 */
+		MirrorTask(File sourceDir, File targetDir, AttributeSnapshot snapshot,
+				TreeMirrorResult result) {
+			this.sourceDir = sourceDir;
+			this.targetDir = targetDir;
+			this.snapshot = snapshot;
+			this.result = result;
+		}
+
+		@Override
+		protected void compute() {
+			List<MirrorTask> subTasks = new ArrayList<>();
+			try {
+				if (!targetDir.isDirectory()) {
+					Files.createDirectories(targetDir.toPath());
+				}
+				for (File sourceSubDir : snapshot.listDirectories(sourceDir)) {
+					MirrorTask subTask = new MirrorTask(sourceSubDir, new File(targetDir,
+							sourceSubDir.getName()), snapshot, result);
+					subTask.fork();
+					subTasks.add(subTask);
+				}
+				boolean hasFiles;
+				try (DirectoryEntries sourceFiles = snapshot.openFiles(sourceDir)) {
+					hasFiles = !sourceFiles.isEmpty();
+				}
+				if (hasFiles && (journal == null || !journal.isDirectoryCompleted(targetDir))) {
+					mirrorDirectory();
+				}
+			} catch (IOException ioException) {
+				addFailure(ioException);
+			} catch (DirectoryIteratorException exception) {
+				addFailure(exception.getCause());
+			}
+			snapshot.evictDirectory(sourceDir);
+			snapshot.evictDirectory(targetDir);
+			for (MirrorTask subTask : subTasks) {
+				subTask.join();
+			}
+		}
+
+		/**
+		 * Compares and links files of this task's directory pair. Source
+		 * directories without files are only traversed. Directory is recorded
+		 * into journal as completed only when its files were linked or when
+		 * comparison found nothing to link. Directory whose linking failed is
+		 * recorded as failure and processed again by resumed run.
+		 *
+		 * @throws IOException
+		 *             if journal can't be written
+		 */
+		private void mirrorDirectory() throws IOException {
+			HardLinksHandler hardLinksHandler = new HardLinksHandler(targetDir);
+			hardLinksHandler.setCreateMissingLinks(createMissingLinks);
+			hardLinksHandler.setRunListener(runListener);
+			hardLinksHandler.setRateLimiter(rateLimiter);
+			hardLinksHandler.setJournal(journal);
+			DirectoryComparator dirComparator = new DirectoryComparator();
+			configureMatching(dirComparator);
+			configureMatching(hardLinksHandler);
+			boolean linked = hardLinksHandler.buildHardLinks(sourceDir, dirComparator, snapshot);
+			result.addDirectory(targetDir, hardLinksHandler.getComparisonResult(), linked);
+			if (hardLinksHandler.getFailure() != null) {
+				result.addFailure(targetDir, hardLinksHandler.getFailure());
+			}
+			boolean completed = linked || hardLinksHandler.getComparisonResult() != null
+					&& !hardLinksHandler.isLinkingRequired();
+			if (journal != null && completed) {
+				journal.completeDirectory(targetDir);
+			}
+		}
+
+		/**
+		 * Records failure of this task's directory and reports it to run
+		 * listener.
+		 *
+		 * @param ioException
+		 *            I/O error
+		 */
+		private void addFailure(IOException ioException) {
+			result.addFailure(targetDir, ioException);
+			if (runListener != null) {
+				runListener.errorOccurred(targetDir, ioException);
+			}
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package net.lkrnac.hlkit;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Aggregated result of recursive mirroring of directory trees or of fan-out
+ * linking by {@link FanOutLinker}. Holds results of each mirrored directory
+ * pair, keyed by target directory. Instance is thread safe.
+ *
+ * @author sitko
+ */
+public class TreeMirrorResult {
+	private final ConcurrentMap<File, DirectoryComparisonResult> comparisonResults =
+			new ConcurrentHashMap<>();
+	private final Set<File> linkedDirectories = Collections
+			.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+	private final ConcurrentMap<File, IOException> failures = new ConcurrentHashMap<>();
+	private final AtomicInteger directoryCount = new AtomicInteger();
+
+	/**
+	 * Records result of mirroring of one directory.
+	 *
+	 * @param targetDir
+	 *            mirrored target directory
+	 * @param comparisonResult
+	 *            result of directories comparison, can be <code>null</code>
+	 *            if comparison failed
+	 * @param linked
+	 *            flag if hard links were built in target directory
+	 */
+	void addDirectory(File targetDir, DirectoryComparisonResult comparisonResult, boolean linked) {
+		directoryCount.incrementAndGet();
+		if (comparisonResult != null) {
+			comparisonResults.put(targetDir, comparisonResult);
+		}
+		if (linked) {
+			linkedDirectories.add(targetDir);
+		}
+	}
+
+	/**
+	 * Records failure of directory mirroring.
+	 *
+	 * @param targetDir
+	 *            target directory which failed
+	 * @param exception
+	 *            cause of failure
+	 */
+	void addFailure(File targetDir, IOException exception) {
+		failures.put(targetDir, exception);
+	}
+
+	/**
+	 * @return comparison results keyed by target directory
+	 */
+	public Map<File, DirectoryComparisonResult> getComparisonResults() {
+		return Collections.unmodifiableMap(comparisonResults);
+	}
+
+	/**
+	 * @return target directories in which hard links were built
+	 */
+	public Set<File> getLinkedDirectories() {
+		return Collections.unmodifiableSet(linkedDirectories);
+	}
+
+	/**
+	 * @return I/O failures keyed by target directory
+	 */
+	public Map<File, IOException> getFailures() {
+		return Collections.unmodifiableMap(failures);
+	}
+
+	/**
+	 * @return number of mirrored directory pairs
+	 */
+	public int getDirectoryCount() {
+		return directoryCount.get();
+	}
+
+	/**
+	 * @return <code>true</code> if there was no failure and hard links were
+	 *         built in all mirrored directories
+	 */
+	public boolean isSuccessful() {
+		return failures.isEmpty() && linkedDirectories.size() == directoryCount.get();
+	}
+}
@@ -51,6 +51,20 @@ public class FileNamePathComparator implements Comparator<Path> {
 		String fileName1 = path1.getFileName().toString();
 		String fileName2 = path2.getFileName().toString();
 
+		return compareFileNames(fileName1, fileName2);
+	}
+
+	/**
+	 * Compares two file names with the same ordering as
+	 * {@link #compare(Path, Path)}.
+	 * 
+	 * @param fileName1
+	 *            file name 1 to compare
+	 * @param fileName2
+	 *            file name 2 to compare
+	 * @return comparison result according {@link Comparator} result contract
+	 */
+	public int compareFileNames(String fileName1, String fileName2) {
 		return caseSensitive ? fileName1.compareTo(fileName2) : fileName1
 				.compareToIgnoreCase(fileName2);
 	}
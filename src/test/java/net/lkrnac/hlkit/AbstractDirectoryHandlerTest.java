@@ -3,10 +3,13 @@ package net.lkrnac.hlkit;
 import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
 
 import org.apache.commons.lang3.math.NumberUtils;
+import org.mockito.ArgumentMatcher;
 import org.mockito.Mockito;
+import org.testng.Assert;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
@@ -25,7 +28,7 @@ public class AbstractDirectoryHandlerTest {
 	 * .
 	 * <p>
 	 * Generates arrays of files to perform file mirrors facing and also
-	 * expected matches
+	 * expected matches and missing files
 	 * 
 	 * @return data for testing
 	 */
@@ -35,29 +38,30 @@ public class AbstractDirectoryHandlerTest {
 		//SUPPRESS CHECKSTYLE MagicNumber 30 Ignore literals for test cases generation
 		return new Object[][] {
 				new Object[] { idx++, generateFiles(0, 3, 1), generateFiles(0, 3, 1),
-						new Integer[] { 0, 1, 2, 3 }, new Integer[] {} },
+						new Integer[] { 0, 1, 2, 3 }, new Integer[] {}, new Integer[] {} },
 				new Object[] { idx++, generateFiles(1, 3, 1), generateFiles(0, 3, 1),
-						new Integer[] { 1, 2, 3 }, new Integer[] {} },
+						new Integer[] { 1, 2, 3 }, new Integer[] {}, new Integer[] { 0 } },
 				new Object[] { idx++, generateFiles(0, 3, 1), generateFiles(0, 4, 1),
-						new Integer[] { 0, 1, 2, 3 }, new Integer[] {} },
+						new Integer[] { 0, 1, 2, 3 }, new Integer[] {}, new Integer[] { 4 } },
 				new Object[] { idx++, generateFiles(0, 4, 1), generateFiles(0, 3, 1),
-						new Integer[] { 0, 1, 2, 3 }, new Integer[] { 4 } },
+						new Integer[] { 0, 1, 2, 3 }, new Integer[] { 4 }, new Integer[] {} },
 				new Object[] { idx++, generateFiles(0, 3, 1), generateFiles(1, 3, 1),
-						new Integer[] { 1, 2, 3 }, new Integer[] { 0 } },
+						new Integer[] { 1, 2, 3 }, new Integer[] { 0 }, new Integer[] {} },
 				new Object[] { idx++, generateFiles(0, 4, 1), generateFiles(1, 3, 1),
-						new Integer[] { 1, 2, 3 }, new Integer[] { 0, 4 } },
+						new Integer[] { 1, 2, 3 }, new Integer[] { 0, 4 }, new Integer[] {} },
 				new Object[] { idx++, generateFiles(1, 3, 1), generateFiles(0, 4, 1),
-						new Integer[] { 1, 2, 3 }, new Integer[] {} },
+						new Integer[] { 1, 2, 3 }, new Integer[] {}, new Integer[] { 0, 4 } },
 				new Object[] { idx++, generateFiles(0, 3, 1), generateFiles(1, 4, 1),
-						new Integer[] { 1, 2, 3 }, new Integer[] { 0 } },
+						new Integer[] { 1, 2, 3 }, new Integer[] { 0 }, new Integer[] { 4 } },
 				new Object[] { idx++, generateFiles(1, 4, 1), generateFiles(0, 3, 1),
-						new Integer[] { 1, 2, 3 }, new Integer[] { 4 } },
+						new Integer[] { 1, 2, 3 }, new Integer[] { 4 }, new Integer[] { 0 } },
 				new Object[] { idx++, generateFiles(0, 2, 1), generateFiles(3, 4, 1),
-						new Integer[] {}, new Integer[] { 0, 2 } },
+						new Integer[] {}, new Integer[] { 0, 2 }, new Integer[] { 3, 4 } },
 				new Object[] { idx++, generateFiles(3, 4, 1), generateFiles(0, 2, 1),
-						new Integer[] {}, new Integer[] { 3, 4 } },
+						new Integer[] {}, new Integer[] { 3, 4 }, new Integer[] { 0, 1, 2 } },
 				new Object[] { idx++, generateFiles(0, 3, 1), generateFiles(0, 3, 2),
-						new Integer[] {}, new Integer[] { 0, 1, 2, 3 } }, };
+						new Integer[] {}, new Integer[] { 0, 1, 2, 3 },
+						new Integer[] { 0, 1, 2, 3 } }, };
 	}
 
 	/**
@@ -75,6 +79,8 @@ public class AbstractDirectoryHandlerTest {
 	 *            expected matches of the files
 	 * @param expectedSourceMissings
 	 *            expected missing files in source directory
+	 * @param expectedTargetMissings
+	 *            expected missing files in target directory
 	 * @throws IOException
 	 *             if I/O error occurs
 	 */
@@ -82,7 +88,7 @@ public class AbstractDirectoryHandlerTest {
 	@Test(dataProvider = "testFileFacingLoop")
 	public void testFileFacingLoop(int testCaseId, Map<Integer, File> targetFilesMap,
 			Map<Integer, File> sourceFilesMap, Integer[] expectedMatches,
-			Integer[] expectedSourceMissings) throws IOException {
+			Integer[] expectedSourceMissings, Integer[] expectedTargetMissings) throws IOException {
 		AbstractDirectoryHandler dirHandler = new TestingAbstractDirectoryHandler();
 		AbstractDirectoryHandler dirHandlerSpy = Mockito.spy(dirHandler);
 
@@ -98,6 +104,220 @@ public class AbstractDirectoryHandlerTest {
 			Mockito.verify(dirHandlerSpy, Mockito.times(1)).performActionMissingInSource(
 					targetFilesMap.get(expectedSourceMissing));
 		}
+
+		for (Integer expectedTargetMissing : expectedTargetMissings) {
+			Mockito.verify(dirHandlerSpy, Mockito.times(1)).performActionMissingInTarget(
+					sourceFilesMap.get(expectedTargetMissing));
+		}
+	}
+
+	/**
+	 * Tests
+	 * {@link AbstractDirectoryHandler#fileFacingLoop(Iterable, Iterable, AttributeSnapshot)}
+	 * with external matching. Memory budget is so small, that each file is
+	 * written into its own sorted run. Matching has to give the same actions
+	 * as in-memory matching.
+	 * 
+	 * @param testCaseId
+	 *            test case id - is not used in test
+	 * @param targetFilesMap
+	 *            map representing files in target directory
+	 * @param sourceFilesMap
+	 *            map representing files in source directory
+	 * @param expectedMatches
+	 *            expected matches of the files
+	 * @param expectedSourceMissings
+	 *            expected missing files in source directory
+	 * @param expectedTargetMissings
+	 *            expected missing files in target directory
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@SuppressWarnings("PMD.JUnitTestsShouldIncludeAssert")
+	@Test(dataProvider = "testFileFacingLoop")
+	public void testFileFacingLoopExternal(int testCaseId, Map<Integer, File> targetFilesMap,
+			Map<Integer, File> sourceFilesMap, Integer[] expectedMatches,
+			Integer[] expectedSourceMissings, Integer[] expectedTargetMissings) throws IOException {
+		AbstractDirectoryHandler dirHandler = new TestingAbstractDirectoryHandler();
+		dirHandler.setExternalMatching(new ExternalMatching(1, true));
+		AbstractDirectoryHandler dirHandlerSpy = Mockito.spy(dirHandler);
+
+		// call testing method
+		dirHandlerSpy.fileFacingLoop(targetFilesMap.values(), sourceFilesMap.values(), null);
+
+		for (Integer expectedMatch : expectedMatches) {
+			Mockito.verify(dirHandlerSpy, Mockito.times(1)).performActionFace(
+					samePath(targetFilesMap.get(expectedMatch)),
+					samePath(sourceFilesMap.get(expectedMatch)));
+		}
+
+		for (Integer expectedSourceMissing : expectedSourceMissings) {
+			Mockito.verify(dirHandlerSpy, Mockito.times(1)).performActionMissingInSource(
+					samePath(targetFilesMap.get(expectedSourceMissing)));
+		}
+
+		for (Integer expectedTargetMissing : expectedTargetMissings) {
+			Mockito.verify(dirHandlerSpy, Mockito.times(1)).performActionMissingInTarget(
+					samePath(sourceFilesMap.get(expectedTargetMissing)));
+		}
+	}
+
+	/**
+	 * Tests
+	 * {@link AbstractDirectoryHandler#fileFacingLoop(Iterable, Iterable, AttributeSnapshot)}
+	 * with pipelined matching.
+	 * 
+	 * @param testCaseId
+	 *            test case ID for easier debugging
+	 * @param targetFilesMap
+	 *            target files
+	 * @param sourceFilesMap
+	 *            source files
+	 * @param expectedMatches
+	 *            indexes of expected matches
+	 * @param expectedSourceMissings
+	 *            indexes of expected source missing files
+	 * @param expectedTargetMissings
+	 *            indexes of expected target missing files
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Test(dataProvider = "testFileFacingLoop")
+	public void testFileFacingLoopPipelined(int testCaseId, Map<Integer, File> targetFilesMap,
+			Map<Integer, File> sourceFilesMap, Integer[] expectedMatches,
+			Integer[] expectedSourceMissings, Integer[] expectedTargetMissings) throws IOException {
+		AbstractDirectoryHandler dirHandler = new TestingAbstractDirectoryHandler();
+		PipelinedMatching pipelinedMatching = new PipelinedMatching(3, 2);
+		dirHandler.setPipelinedMatching(pipelinedMatching);
+		AbstractDirectoryHandler dirHandlerSpy = Mockito.spy(dirHandler);
+
+		// call testing method
+		dirHandlerSpy.fileFacingLoop(targetFilesMap.values(), sourceFilesMap.values(), null);
+
+		for (Integer expectedMatch : expectedMatches) {
+			Mockito.verify(dirHandlerSpy, Mockito.times(1)).performActionFace(
+					targetFilesMap.get(expectedMatch), sourceFilesMap.get(expectedMatch));
+		}
+
+		for (Integer expectedSourceMissing : expectedSourceMissings) {
+			Mockito.verify(dirHandlerSpy, Mockito.times(1)).performActionMissingInSource(
+					targetFilesMap.get(expectedSourceMissing));
+		}
+
+		for (Integer expectedTargetMissing : expectedTargetMissings) {
+			Mockito.verify(dirHandlerSpy, Mockito.times(1)).performActionMissingInTarget(
+					sourceFilesMap.get(expectedTargetMissing));
+		}
+		for (PipelineStage stage : PipelineStage.values()) {
+			Assert.assertEquals(pipelinedMatching.getQueueDepth(stage), 0);
+			Assert.assertTrue(pipelinedMatching.getMaxQueueDepth(stage) <= 2);
+		}
+	}
+
+	/**
+	 * Tests that
+	 * {@link AbstractDirectoryHandler#fileFacingLoop(Iterable, Iterable, AttributeSnapshot)}
+	 * with pipelined matching aborted by failing action doesn't leave entries
+	 * of full queues counted as waiting.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Test
+	public void testFileFacingLoopPipelinedAborted() throws IOException {
+		//SUPPRESS CHECKSTYLE MagicNumber 1 Enough files to fill queues
+		Map<Integer, File> filesMap = generateFiles(0, 100, 1);
+		AbstractDirectoryHandler dirHandler = new TestingAbstractDirectoryHandler();
+		PipelinedMatching pipelinedMatching = new PipelinedMatching(1, 2);
+		dirHandler.setPipelinedMatching(pipelinedMatching);
+		AbstractDirectoryHandler dirHandlerSpy = Mockito.spy(dirHandler);
+		IllegalStateException failure = new IllegalStateException("action failed"); //$NON-NLS-1$
+		Mockito.doThrow(failure).when(dirHandlerSpy).performActionFace(Mockito.any(File.class),
+				Mockito.any(File.class));
+
+		try {
+			// call testing method
+			dirHandlerSpy.fileFacingLoop(filesMap.values(), filesMap.values(), null);
+			Assert.fail("action failure expected"); //$NON-NLS-1$
+		} catch (IllegalStateException exception) {
+			for (PipelineStage stage : PipelineStage.values()) {
+				Assert.assertEquals(pipelinedMatching.getQueueDepth(stage), 0, stage.name());
+			}
+		}
+	}
+
+	/**
+	 * Prepares testing data for test
+	 * {@link AbstractDirectoryHandlerTest#testFileFacingLoopMatchKeyStrategy}.
+	 * 
+	 * @return parameters for test
+	 */
+	@DataProvider
+	public Object[][] testFileFacingLoopMatchKeyStrategy() {
+		return new Object[][] { new Object[] { null, null },
+				new Object[] { new ExternalMatching(1, true), null },
+				new Object[] { null, new PipelinedMatching(2, 1) }, };
+	}
+
+	/**
+	 * Tests
+	 * {@link AbstractDirectoryHandler#fileFacingLoop(Iterable, Iterable, AttributeSnapshot)}
+	 * with case insensitive match key strategy in each matching mode. Names
+	 * differing in case have to match.
+	 * 
+	 * @param externalMatching
+	 *            external matching or <code>null</code>
+	 * @param pipelinedMatching
+	 *            pipelined matching or <code>null</code>
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@SuppressWarnings("PMD.JUnitTestsShouldIncludeAssert")
+	@Test(dataProvider = "testFileFacingLoopMatchKeyStrategy")
+	public void testFileFacingLoopMatchKeyStrategy(ExternalMatching externalMatching,
+			PipelinedMatching pipelinedMatching) throws IOException {
+		Map<Integer, File> targetFilesMap = generateFiles(0, 1, 1);
+		Map<Integer, File> sourceFilesMap = new HashMap<Integer, File>();
+		for (Map.Entry<Integer, File> targetFile : targetFilesMap.entrySet()) {
+			File sourceFile = Mockito.spy(new File(targetFile.getValue().getName()
+					.toUpperCase(Locale.ROOT)));
+			Mockito.doReturn(1L).when(sourceFile).length();
+			sourceFilesMap.put(targetFile.getKey(), sourceFile);
+		}
+		AbstractDirectoryHandler dirHandler = new TestingAbstractDirectoryHandler();
+		dirHandler.setExternalMatching(externalMatching);
+		dirHandler.setPipelinedMatching(pipelinedMatching);
+		dirHandler.setMatchKeyStrategy(new StandardMatchKeyStrategy(false, false, 0));
+		AbstractDirectoryHandler dirHandlerSpy = Mockito.spy(dirHandler);
+
+		// call testing method
+		dirHandlerSpy.fileFacingLoop(targetFilesMap.values(), sourceFilesMap.values(), null);
+
+		for (Integer index : targetFilesMap.keySet()) {
+			Mockito.verify(dirHandlerSpy, Mockito.times(1)).performActionFace(
+					samePath(targetFilesMap.get(index)), samePath(sourceFilesMap.get(index)));
+		}
+		Mockito.verify(dirHandlerSpy, Mockito.never()).performActionMissingInSource(
+				Mockito.any(File.class));
+		Mockito.verify(dirHandlerSpy, Mockito.never()).performActionMissingInTarget(
+				Mockito.any(File.class));
+	}
+
+	/**
+	 * Creates argument matcher of file with the same path. External matching
+	 * reads files back from sorted runs, so they aren't the same instances.
+	 * 
+	 * @param file
+	 *            expected file
+	 * @return <code>null</code>, matcher is registered into Mockito
+	 */
+	private static File samePath(final File file) {
+		return Mockito.argThat(new ArgumentMatcher<File>() {
+			@Override
+			public boolean matches(Object argument) {
+				return argument instanceof File && file.getPath().equals(((File) argument).getPath());
+			}
+		});
 	}
 
 	/**
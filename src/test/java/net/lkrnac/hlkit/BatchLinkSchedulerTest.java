@@ -0,0 +1,246 @@
+package net.lkrnac.hlkit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for {@link BatchLinkScheduler}.
+ * 
+ * @author sitko
+ * 
+ */
+public class BatchLinkSchedulerTest {
+	private static final int PAIR_COUNT = 20;
+	private static final String[] SOURCE_FILES = { "test1.mp3", "test2.mp3" };
+	private static final String SIDECAR_FILE = "test1.mp3.tmp";
+
+	private File tempDir;
+
+	/**
+	 * Creates temporary directory for test.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@BeforeMethod
+	public void setUp() throws IOException {
+		tempDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+	}
+
+	/**
+	 * Deletes temporary directory after test.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs during deletion
+	 */
+	@AfterMethod
+	public void tidyUp() throws IOException {
+		FileUtils.deleteDirectory(tempDir);
+	}
+
+	/**
+	 * Tests {@link BatchLinkScheduler#run(Iterable, BatchLinkListener)}. Half
+	 * of target directories don't exist, last pair has missing source
+	 * directory.
+	 * 
+	 * @throws Exception
+	 *             if error occurs
+	 */
+	@Test
+	public void testRun() throws Exception {
+		List<DirectoryPair> pairs = new ArrayList<>();
+		for (int i = 0; i < PAIR_COUNT; i++) {
+			File sourceDir = new File(tempDir, "source" + i);
+			File targetDir = new File(tempDir, "target" + i);
+			for (String sourceFile : SOURCE_FILES) {
+				FileUtils.writeStringToFile(new File(sourceDir, sourceFile), sourceFile + i);
+			}
+			if (i % 2 == 0) {
+				FileUtils.copyDirectory(sourceDir, targetDir);
+			}
+			pairs.add(new DirectoryPair(sourceDir, targetDir));
+		}
+		DirectoryPair failingPair = new DirectoryPair(new File(tempDir, "missing"), new File(
+				tempDir, "target"));
+		pairs.add(failingPair);
+		final Map<DirectoryPair, Boolean> results = new ConcurrentHashMap<>();
+		BatchLinkScheduler scheduler = new BatchLinkScheduler(4, 2, true);
+
+		// call testing method
+		BatchProgress progress = scheduler.run(pairs, new BatchLinkListener() {
+			@Override
+			public void pairCompleted(DirectoryPair pair,
+					DirectoryComparisonResult comparisonResult, boolean linked) {
+				results.put(pair, linked);
+			}
+
+			@Override
+			public void pairFailed(DirectoryPair pair, IOException exception) {
+				Assert.fail(pair.toString(), exception);
+			}
+		});
+
+		Assert.assertEquals(progress.getSubmittedCount(), PAIR_COUNT + 1);
+		Assert.assertEquals(progress.getCompletedCount(), PAIR_COUNT + 1);
+		Assert.assertEquals(progress.getLinkedCount(), PAIR_COUNT);
+		Assert.assertEquals(progress.getFailedCount(), 1);
+		Assert.assertEquals(progress.getPendingCount(), 0);
+		Assert.assertSame(scheduler.getProgress(), progress);
+		Assert.assertEquals(results.size(), PAIR_COUNT + 1);
+		Assert.assertFalse(results.get(failingPair));
+		for (DirectoryPair pair : pairs.subList(0, PAIR_COUNT)) {
+			Assert.assertTrue(results.get(pair), pair.toString());
+			for (String sourceFile : SOURCE_FILES) {
+				Object sourceKey = FileAttributes.read(new File(pair.getSourceDir(), sourceFile))
+						.getFileKey();
+				Object targetKey = FileAttributes.read(new File(pair.getTargetDir(), sourceFile))
+						.getFileKey();
+				Assert.assertEquals(targetKey, sourceKey, pair.toString());
+			}
+		}
+	}
+
+	/**
+	 * Tests that {@link BatchLinkScheduler#run(Iterable, BatchLinkListener)}
+	 * keeps linking pairs of fast file store while long run of pairs of
+	 * blocked file store waits in its lane.
+	 * 
+	 * @throws Exception
+	 *             if error occurs
+	 */
+	@Test
+	public void testRunBlockedFileStore() throws Exception {
+		final File sourceDir = new File(tempDir, "source");
+		final File slowDir = new File(tempDir, "slow");
+		File fastDir = new File(tempDir, "fast");
+		Files.createDirectories(sourceDir.toPath());
+		Files.createDirectories(slowDir.toPath());
+		Files.createDirectories(fastDir.toPath());
+		final List<DirectoryPair> pairs = new ArrayList<>();
+		//SUPPRESS CHECKSTYLE MagicNumber 1 More pairs than read ahead window
+		for (int i = 0; i < 10 * PAIR_COUNT; i++) {
+			pairs.add(new DirectoryPair(sourceDir, new File(slowDir, "target" + i)));
+		}
+		for (int i = 0; i < PAIR_COUNT; i++) {
+			pairs.add(new DirectoryPair(sourceDir, new File(fastDir, "target" + i)));
+		}
+		final BatchLinkScheduler scheduler = new BatchLinkScheduler(2, 1, true) {
+			@Override
+			Object getLaneKey(File targetDir) {
+				return targetDir.getParentFile();
+			}
+		};
+		final CountDownLatch slowReleased = new CountDownLatch(1);
+		final CountDownLatch fastCompleted = new CountDownLatch(PAIR_COUNT);
+		final BatchLinkListener listener = new BatchLinkListener() {
+			@Override
+			public void pairCompleted(DirectoryPair pair,
+					DirectoryComparisonResult comparisonResult, boolean linked) {
+				if (slowDir.equals(pair.getTargetDir().getParentFile())) {
+					awaitQuietly(slowReleased);
+				} else {
+					fastCompleted.countDown();
+				}
+			}
+
+			@Override
+			public void pairFailed(DirectoryPair pair, IOException exception) {
+				Assert.fail(pair.toString(), exception);
+			}
+		};
+		final AtomicReference<BatchProgress> progress = new AtomicReference<>();
+		Thread runner = new Thread() {
+			@Override
+			public void run() {
+				try {
+					progress.set(scheduler.run(pairs, listener));
+				} catch (InterruptedException exception) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+
+		// call testing method
+		runner.start();
+
+		//SUPPRESS CHECKSTYLE MagicNumber 1 Timeout of fast pairs
+		boolean fastLinked = fastCompleted.await(10, TimeUnit.SECONDS);
+		slowReleased.countDown();
+		runner.join();
+		Assert.assertTrue(fastLinked);
+		Assert.assertEquals(progress.get().getCompletedCount(), pairs.size());
+		Assert.assertEquals(progress.get().getFailedCount(), 0);
+	}
+
+	/**
+	 * Tests that {@link BatchLinkScheduler#run(Iterable, BatchLinkListener)}
+	 * with entry filter doesn't link excluded sidecar file.
+	 * 
+	 * @throws Exception
+	 *             if error occurs
+	 */
+	@Test
+	public void testRunEntryFilter() throws Exception {
+		File sourceDir = new File(tempDir, "source");
+		File targetDir = new File(tempDir, "target");
+		for (String sourceFile : SOURCE_FILES) {
+			FileUtils.writeStringToFile(new File(sourceDir, sourceFile), sourceFile);
+		}
+		FileUtils.writeStringToFile(new File(sourceDir, SIDECAR_FILE), SIDECAR_FILE);
+		EntryFilter filter = new EntryFilter();
+		filter.addExclude("*.tmp"); //$NON-NLS-1$
+		BatchLinkScheduler scheduler = new BatchLinkScheduler(1, 1, true);
+		scheduler.setEntryFilter(filter);
+		final Map<DirectoryPair, Boolean> results = new ConcurrentHashMap<>();
+
+		// call testing method
+		BatchProgress progress = scheduler.run(
+				Arrays.asList(new DirectoryPair(sourceDir, targetDir)), new BatchLinkListener() {
+					@Override
+					public void pairCompleted(DirectoryPair pair,
+							DirectoryComparisonResult comparisonResult, boolean linked) {
+						results.put(pair, linked);
+					}
+
+					@Override
+					public void pairFailed(DirectoryPair pair, IOException exception) {
+						Assert.fail(pair.toString(), exception);
+					}
+				});
+
+		Assert.assertEquals(progress.getLinkedCount(), 1);
+		for (String sourceFile : SOURCE_FILES) {
+			Assert.assertTrue(new File(targetDir, sourceFile).exists(), sourceFile);
+		}
+		Assert.assertFalse(new File(targetDir, SIDECAR_FILE).exists());
+	}
+
+	/**
+	 * Waits for latch, interruption ends waiting.
+	 * 
+	 * @param latch
+	 *            latch to wait for
+	 */
+	private static void awaitQuietly(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
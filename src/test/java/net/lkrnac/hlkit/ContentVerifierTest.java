@@ -0,0 +1,124 @@
+package net.lkrnac.hlkit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for {@link ContentVerifier}.
+ * 
+ * @author sitko
+ * 
+ */
+public class ContentVerifierTest {
+	private static final int CHUNK_SIZE = 4;
+
+	private File tempDir;
+
+	/**
+	 * Creates temporary directory for test.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@BeforeMethod
+	public void setUp() throws IOException {
+		tempDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+	}
+
+	/**
+	 * Deletes temporary directory after test.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs during deletion
+	 */
+	@AfterMethod
+	public void tidyUp() throws IOException {
+		FileUtils.deleteDirectory(tempDir);
+	}
+
+	/**
+	 * Builds testing data for test
+	 * {@link #testContentEquals(String, String, boolean)}.
+	 * 
+	 * @return data for testing
+	 */
+	@DataProvider
+	public Object[][] testContentEquals() {
+		return new Object[][] { new Object[] { "", "", true },
+				new Object[] { "abc", "abc", true },
+				new Object[] { "abcdefghijklmnopq", "abcdefghijklmnopq", true },
+				new Object[] { "abcdefghijklmnopq", "abcdefghijklmnopx", false },
+				new Object[] { "xbcdefghijklmnopq", "abcdefghijklmnopq", false },
+				new Object[] { "abcdefghijklmnopq", "abcdefghijklmnop", false }, };
+	}
+
+	/**
+	 * Tests {@link ContentVerifier#contentEquals(File, File)}.
+	 * 
+	 * @param content1
+	 *            content of first file
+	 * @param content2
+	 *            content of second file
+	 * @param expectedResult
+	 *            expected result of comparison
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Test(dataProvider = "testContentEquals")
+	public void testContentEquals(String content1, String content2, boolean expectedResult)
+			throws IOException {
+		File file1 = new File(tempDir, "file1");
+		File file2 = new File(tempDir, "file2");
+		FileUtils.writeStringToFile(file1, content1);
+		FileUtils.writeStringToFile(file2, content2);
+
+		try (ContentVerifier verifier = new ContentVerifier(2, CHUNK_SIZE)) {
+			// call testing method
+			boolean actualResult = verifier.contentEquals(file1, file2);
+
+			Assert.assertEquals(actualResult, expectedResult);
+		}
+	}
+	/**
+	 * Tests that
+	 * {@link ContentVerifier#contentEquals(File, File, IoRateLimiter)} charges
+	 * read bytes only for compared chunks, so files differing in first chunk
+	 * don't consume throttle budget of whole files.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Test
+	public void testContentEqualsThrottlesComparedChunks() throws IOException {
+		File file1 = new File(tempDir, "file1");
+		File file2 = new File(tempDir, "file2");
+		FileUtils.writeStringToFile(file1, "xbcdefghijklmnopq");
+		FileUtils.writeStringToFile(file2, "abcdefghijklmnopq");
+		final AtomicLong readBytes = new AtomicLong();
+		IoRateLimiter rateLimiter = new IoRateLimiter() {
+			@Override
+			public void acquire(IoOperation operation, File directory, long permits) {
+				if (operation == IoOperation.BYTES_READ) {
+					readBytes.addAndGet(permits);
+				}
+			}
+		};
+
+		try (ContentVerifier verifier = new ContentVerifier(1, CHUNK_SIZE)) {
+			// call testing method
+			boolean actualResult = verifier.contentEquals(file1, file2, rateLimiter);
+
+			Assert.assertFalse(actualResult);
+			Assert.assertEquals(readBytes.get(), 2 * CHUNK_SIZE);
+		}
+	}
+}
@@ -0,0 +1,176 @@
+package net.lkrnac.hlkit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for {@link DuplicatesLinker}.
+ * 
+ * @author sitko
+ * 
+ */
+public class DuplicatesLinkerTest {
+	private File tempDir;
+
+	/**
+	 * Creates temporary directory for test.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@BeforeMethod
+	public void setUp() throws IOException {
+		tempDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+	}
+
+	/**
+	 * Deletes temporary directory after test.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs during deletion
+	 */
+	@AfterMethod
+	public void tidyUp() throws IOException {
+		FileUtils.deleteDirectory(tempDir);
+	}
+
+	/**
+	 * Data provider for test {@link DuplicatesLinkerTest#testDeduplicate(int)}.
+	 * 
+	 * @return sizes of testing file content
+	 */
+	@DataProvider
+	public Object[][] testDeduplicate() {
+		//SUPPRESS CHECKSTYLE MagicNumber 5 Small file and file bigger than head and tail blocks
+		return new Object[][] { new Object[] { 10 }, new Object[] { 100000 }, };
+	}
+
+	/**
+	 * Tests {@link DuplicatesLinker#deduplicate(java.util.Collection)}.
+	 * Duplicate in other root is linked, file differing only in last byte and
+	 * already linked file are left untouched and file with unique size is
+	 * never read.
+	 * 
+	 * @param contentSize
+	 *            size of testing files
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Test(dataProvider = "testDeduplicate")
+	public void testDeduplicate(int contentSize) throws IOException {
+		String content = StringUtils.repeat('x', contentSize);
+		File root1 = new File(tempDir, "root1");
+		File root2 = new File(tempDir, "root2");
+		File original = new File(root1, "original");
+		File duplicate = new File(root2, "sub/duplicate");
+		File different = new File(root2, "different");
+		File unique = new File(root2, "unique");
+		File link = new File(root2, "link");
+		FileUtils.writeStringToFile(original, content);
+		FileUtils.writeStringToFile(duplicate, content);
+		FileUtils.writeStringToFile(different, content.substring(1) + "y");
+		FileUtils.writeStringToFile(unique, content + "unique");
+		Files.createLink(link.toPath(), original.toPath());
+
+		// call testing method
+		DeduplicationResult result = new DuplicatesLinker().deduplicate(Arrays.asList(root1,
+				root2));
+
+		//SUPPRESS CHECKSTYLE MagicNumber 1 Number of testing files
+		Assert.assertEquals(result.getScannedCount(), 5);
+		Assert.assertEquals(result.getLinksCreated(), 1);
+		Assert.assertEquals(result.getBytesDeduplicated(), contentSize);
+		Assert.assertTrue(result.getBytesRead() <= 3L * contentSize);
+		Object originalKey = FileAttributes.read(original).getFileKey();
+		Assert.assertEquals(FileAttributes.read(duplicate).getFileKey(), originalKey);
+		Assert.assertEquals(FileAttributes.read(link).getFileKey(), originalKey);
+		Assert.assertNotEquals(FileAttributes.read(different).getFileKey(), originalKey);
+		Assert.assertEquals(FileUtils.readFileToString(different), content.substring(1) + "y");
+	}
+
+	/**
+	 * Tests that second run of
+	 * {@link DuplicatesLinker#deduplicate(java.util.Collection)} with
+	 * fingerprint index doesn't read content of unchanged files. Files differ
+	 * in the middle, so their whole content has to be hashed in first run.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Test
+	public void testDeduplicateWithIndex() throws IOException {
+		//SUPPRESS CHECKSTYLE MagicNumber 1 Half of file bigger than head and tail blocks
+		String content = StringUtils.repeat('x', 50000);
+		File root = new File(tempDir, "root");
+		FileUtils.writeStringToFile(new File(root, "file1"), content + "1" + content);
+		FileUtils.writeStringToFile(new File(root, "file2"), content + "2" + content);
+		DuplicatesLinker linker = new DuplicatesLinker();
+
+		try (FingerprintIndex index = FingerprintIndex.open(new File(tempDir, "index"))) {
+			linker.setFingerprintIndex(index);
+			DeduplicationResult firstResult = linker.deduplicate(Arrays.asList(root));
+			DeduplicationResult secondResult = linker.deduplicate(Arrays.asList(root));
+
+			Assert.assertTrue(firstResult.getBytesRead() > 0);
+			Assert.assertEquals(secondResult.getBytesRead(), 0);
+			Assert.assertEquals(secondResult.getLinksCreated(), 0);
+		}
+	}
+
+	/**
+	 * Tests that
+	 * {@link DuplicatesLinker#deduplicate(java.util.Collection, AttributeSnapshot)}
+	 * reports file which vanished after scan and leaves intact file which
+	 * changed since it was scanned, while other duplicate is still linked.
+	 * 
+	 * @param contentSize
+	 *            size of testing files
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Test(dataProvider = "testDeduplicate")
+	public void testDeduplicateChangedFiles(int contentSize) throws IOException {
+		String content = StringUtils.repeat('x', contentSize);
+		File root1 = new File(tempDir, "root1");
+		File root2 = new File(tempDir, "root2");
+		File original = new File(root1, "original");
+		File duplicate = new File(root2, "duplicate");
+		File changed = new File(root2, "changed");
+		File vanished = new File(root2, "vanished");
+		for (File file : Arrays.asList(original, duplicate, changed, vanished)) {
+			FileUtils.writeStringToFile(file, content);
+		}
+		AttributeSnapshot snapshot = new AttributeSnapshot();
+		for (File file : snapshot.listFiles(root2)) {
+			snapshot.getAttributes(file);
+		}
+		Files.delete(vanished.toPath());
+		//SUPPRESS CHECKSTYLE MagicNumber 1 Shift of modification time
+		Assert.assertTrue(changed.setLastModified(changed.lastModified() - 10000));
+		LinkRunMetrics metrics = new LinkRunMetrics();
+		DuplicatesLinker linker = new DuplicatesLinker();
+		linker.setRunListener(metrics);
+
+		// call testing method
+		DeduplicationResult result = linker.deduplicate(Arrays.asList(root1, root2), snapshot);
+
+		Assert.assertEquals(result.getLinksCreated(), 1);
+		Assert.assertEquals(result.getErrorCount(), 1);
+		Assert.assertEquals(result.getChangedCount(), 1);
+		Assert.assertEquals(metrics.getErrors(), 1);
+		Assert.assertEquals(metrics.getCount(RunCounter.CONTENT_MISMATCHES), 1);
+		Object originalKey = FileAttributes.read(original).getFileKey();
+		Assert.assertEquals(FileAttributes.read(duplicate).getFileKey(), originalKey);
+		Assert.assertNotEquals(FileAttributes.read(changed).getFileKey(), originalKey);
+	}
+}
@@ -0,0 +1,201 @@
+package net.lkrnac.hlkit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for {@link EntryFilter} applied by {@link AttributeSnapshot}.
+ * 
+ * @author sitko
+ * 
+ */
+public class EntryFilterTest {
+	private static final String CONTENT = "content"; //$NON-NLS-1$
+	private static final String SONG = "song.mp3"; //$NON-NLS-1$
+	private static final String OLD_SONG = "old.mp3"; //$NON-NLS-1$
+	private static final String EMPTY_SONG = "empty.mp3"; //$NON-NLS-1$
+	private static final String NOTES = "notes.txt"; //$NON-NLS-1$
+	private static final String PART = "song.mp3.tmp"; //$NON-NLS-1$
+	private static final String THUMBNAILS = "@eaDir"; //$NON-NLS-1$
+	private static final String ALBUM = "album"; //$NON-NLS-1$
+
+	private File tempDir;
+
+	/**
+	 * Creates directory with files, sidecar files and sub-directories.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@BeforeMethod
+	public void setUp() throws IOException {
+		tempDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+		FileUtils.writeStringToFile(new File(tempDir, SONG), CONTENT);
+		FileUtils.writeStringToFile(new File(tempDir, OLD_SONG), CONTENT);
+		new File(tempDir, OLD_SONG).setLastModified(System.currentTimeMillis()
+				- TimeUnit.DAYS.toMillis(2));
+		FileUtils.writeStringToFile(new File(tempDir, EMPTY_SONG), ""); //$NON-NLS-1$
+		FileUtils.writeStringToFile(new File(tempDir, NOTES), CONTENT);
+		FileUtils.writeStringToFile(new File(tempDir, PART), CONTENT);
+		FileUtils.writeStringToFile(new File(new File(tempDir, THUMBNAILS), SONG), CONTENT);
+		FileUtils.writeStringToFile(new File(new File(tempDir, ALBUM), SONG), CONTENT);
+	}
+
+	/**
+	 * Deletes temporary directory after test.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs during deletion
+	 */
+	@AfterMethod
+	public void tidyUp() throws IOException {
+		FileUtils.deleteDirectory(tempDir);
+	}
+
+	/**
+	 * Prepares testing data for test
+	 * {@link EntryFilterTest#testListFiltered(int, long)}.
+	 * 
+	 * @return parameters for test
+	 */
+	@DataProvider
+	public Object[][] testListFiltered() {
+		//SUPPRESS CHECKSTYLE MagicNumber 2 Bounded snapshot lists directory twice
+		return new Object[][] { new Object[] { Integer.MAX_VALUE, 2L },
+				new Object[] { 1, 4L }, };
+	}
+
+	/**
+	 * Verifies that listing applies only exclude rules. Include rules, size
+	 * and age limits are left to matching of source files. Cached and
+	 * streamed listings have to give the same files.
+	 * 
+	 * @param attributesCapacity
+	 *            capacity of tested snapshot
+	 * @param expectedFilteredCount
+	 *            expected number of filtered entries over all listings
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Test(dataProvider = "testListFiltered")
+	public void testListFiltered(int attributesCapacity, long expectedFilteredCount)
+			throws IOException {
+		EntryFilter filter = new EntryFilter();
+		filter.addExclude("*.tmp"); //$NON-NLS-1$
+		filter.addExcludeRegex("@.*"); //$NON-NLS-1$
+		filter.addInclude("*.mp3"); //$NON-NLS-1$
+		filter.setSizeLimits(1, Long.MAX_VALUE);
+		filter.setAgeLimits(0, TimeUnit.DAYS.toMillis(1));
+		AttributeSnapshot snapshot = new AttributeSnapshot(attributesCapacity);
+		snapshot.setEntryFilter(filter);
+		LinkRunMetrics metrics = new LinkRunMetrics();
+		snapshot.setRunListener(metrics);
+
+		List<File> files = new ArrayList<>();
+		try (DirectoryEntries entries = snapshot.openFiles(tempDir)) {
+			for (File file : entries) {
+				files.add(file);
+			}
+		}
+		List<File> directories = snapshot.listDirectories(tempDir);
+		Collections.sort(files);
+
+		Assert.assertEquals(files, Arrays.asList(new File(tempDir, EMPTY_SONG), new File(
+				tempDir, NOTES), new File(tempDir, OLD_SONG), new File(tempDir, SONG)));
+		Assert.assertTrue(snapshot.acceptsSourceFile(new File(tempDir, SONG)));
+		Assert.assertFalse(snapshot.acceptsSourceFile(new File(tempDir, OLD_SONG)));
+		Assert.assertFalse(snapshot.acceptsSourceFile(new File(tempDir, EMPTY_SONG)));
+		Assert.assertFalse(snapshot.acceptsSourceFile(new File(tempDir, NOTES)));
+		Assert.assertEquals(directories, Arrays.asList(new File(tempDir, ALBUM)));
+		Assert.assertEquals(metrics.getCount(RunCounter.ENTRIES_FILTERED),
+				expectedFilteredCount + 3);
+	}
+
+	/**
+	 * Prepares testing data for test
+	 * {@link EntryFilterTest#testCompareFilteredPair(ExternalMatching, PipelinedMatching)}.
+	 * 
+	 * @return parameters for test
+	 */
+	@DataProvider
+	public Object[][] testCompareFilteredPair() {
+		return new Object[][] { new Object[] { null, null },
+				new Object[] { new ExternalMatching(1, true), null },
+				new Object[] { null, new PipelinedMatching(2, 1) }, };
+	}
+
+	/**
+	 * Verifies that age limit is evaluated on source files only. Fresh copies
+	 * in target directory are matched with old source files and source file
+	 * excluded by age is ignored together with its copy.
+	 * 
+	 * @param externalMatching
+	 *            external matching or <code>null</code>
+	 * @param pipelinedMatching
+	 *            pipelined matching or <code>null</code>
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Test(dataProvider = "testCompareFilteredPair")
+	public void testCompareFilteredPair(ExternalMatching externalMatching,
+			PipelinedMatching pipelinedMatching) throws IOException {
+		File targetDir = new File(tempDir, "target"); //$NON-NLS-1$
+		FileUtils.writeStringToFile(new File(targetDir, SONG), CONTENT);
+		FileUtils.writeStringToFile(new File(targetDir, OLD_SONG), CONTENT);
+		EntryFilter filter = new EntryFilter();
+		filter.addInclude("*.mp3"); //$NON-NLS-1$
+		filter.setSizeLimits(1, Long.MAX_VALUE);
+		filter.setAgeLimits(TimeUnit.DAYS.toMillis(1), Long.MAX_VALUE);
+		AttributeSnapshot snapshot = new AttributeSnapshot();
+		snapshot.setEntryFilter(filter);
+		DirectoryComparator comparator = new DirectoryComparator();
+		comparator.setExternalMatching(externalMatching);
+		comparator.setPipelinedMatching(pipelinedMatching);
+
+		// call testing method
+		DirectoryComparisonResult result = comparator.compareDirectories(tempDir, targetDir,
+				snapshot);
+
+		Assert.assertEquals(result, DirectoryComparisonResult.EQUAL);
+	}
+
+	/**
+	 * Verifies that entries excluded by name are never stat'ed and that
+	 * excluded directory is never listed.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Test
+	public void testExcludedNotStated() throws IOException {
+		EntryFilter filter = new EntryFilter();
+		filter.addExclude("*.tmp"); //$NON-NLS-1$
+		filter.addExclude(THUMBNAILS);
+		AttributeSnapshot snapshot = new AttributeSnapshot();
+		snapshot.setEntryFilter(filter);
+
+		List<File> files = new ArrayList<>(snapshot.listFiles(tempDir));
+		Collections.sort(files);
+
+		Assert.assertEquals(files, Arrays.asList(new File(tempDir, EMPTY_SONG), new File(
+				tempDir, NOTES), new File(tempDir, OLD_SONG), new File(tempDir, SONG)));
+		Assert.assertEquals(snapshot.listDirectories(tempDir),
+				Arrays.asList(new File(tempDir, ALBUM)));
+		//SUPPRESS CHECKSTYLE MagicNumber 1 Four files and one directory
+		Assert.assertEquals(snapshot.getStatCount(), 5);
+		Assert.assertEquals(snapshot.getListingCount(), 1);
+	}
+}
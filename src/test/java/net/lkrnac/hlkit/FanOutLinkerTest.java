@@ -0,0 +1,147 @@
+package net.lkrnac.hlkit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for {@link FanOutLinker}.
+ * 
+ * @author sitko
+ * 
+ */
+public class FanOutLinkerTest {
+	private static final String[] SOURCE_FILES = { "test1.mp3", "test2.mp3", "test3.mp3" };
+	private static final String SIDECAR_FILE = "test1.mp3.tmp";
+
+	private File tempDir;
+
+	/**
+	 * Creates temporary directory for test.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@BeforeMethod
+	public void setUp() throws IOException {
+		tempDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+	}
+
+	/**
+	 * Deletes temporary directory after test.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs during deletion
+	 */
+	@AfterMethod
+	public void tidyUp() throws IOException {
+		FileUtils.deleteDirectory(tempDir);
+	}
+
+	/**
+	 * Tests
+	 * {@link FanOutLinker#link(File, java.util.Collection, AttributeSnapshot)}.
+	 * First target is copy of source, second one misses one file and third
+	 * one doesn't exist. Source directory has to be scanned only once.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Test
+	public void testLink() throws IOException {
+		File sourceDir = new File(tempDir, "source");
+		for (String sourceFile : SOURCE_FILES) {
+			FileUtils.writeStringToFile(new File(sourceDir, sourceFile), sourceFile);
+		}
+		File copyDir = new File(tempDir, "copy");
+		FileUtils.copyDirectory(sourceDir, copyDir);
+		File partialDir = new File(tempDir, "partial");
+		FileUtils.copyDirectory(sourceDir, partialDir);
+		new File(partialDir, SOURCE_FILES[0]).delete();
+		File missingDir = new File(tempDir, "missing");
+		List<File> targetDirs = Arrays.asList(copyDir, partialDir, missingDir);
+		AttributeSnapshot sourceSnapshot = new AttributeSnapshot();
+
+		// call testing method
+		TreeMirrorResult result = new FanOutLinker(2, true).link(sourceDir, targetDirs,
+				sourceSnapshot);
+
+		Assert.assertTrue(result.isSuccessful());
+		Assert.assertEquals(result.getDirectoryCount(), targetDirs.size());
+		Assert.assertEquals(result.getComparisonResults().get(copyDir),
+				DirectoryComparisonResult.EQUAL);
+		Assert.assertEquals(result.getComparisonResults().get(partialDir),
+				DirectoryComparisonResult.MISSING_MEDIA_FILES_IN_TARGET);
+		Assert.assertEquals(sourceSnapshot.getListingCount(), 1);
+		Assert.assertEquals(sourceSnapshot.getStatCount(), SOURCE_FILES.length);
+		for (File targetDir : targetDirs) {
+			for (String sourceFile : SOURCE_FILES) {
+				Object sourceKey = FileAttributes.read(new File(sourceDir, sourceFile))
+						.getFileKey();
+				Object targetKey = FileAttributes.read(new File(targetDir, sourceFile))
+						.getFileKey();
+				Assert.assertEquals(targetKey, sourceKey, targetDir + "/" + sourceFile);
+			}
+		}
+	}
+
+	/**
+	 * Tests {@link FanOutLinker#link(File, java.util.Collection)} with missing
+	 * source directory. Failure has to be recorded for each target.
+	 */
+	@Test
+	public void testLinkMissingSource() {
+		List<File> targetDirs = Arrays.asList(new File(tempDir, "target1"), new File(tempDir,
+				"target2"));
+
+		// call testing method
+		TreeMirrorResult result = new FanOutLinker(1, true).link(new File(tempDir, "source"),
+				targetDirs);
+
+		Assert.assertFalse(result.isSuccessful());
+		Assert.assertEquals(result.getFailures().keySet(), new HashSet<>(targetDirs));
+	}
+
+	/**
+	 * Tests that {@link FanOutLinker#link(File, java.util.Collection)} with
+	 * entry filter doesn't link excluded sidecar file into target
+	 * directories.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Test
+	public void testLinkEntryFilter() throws IOException {
+		File sourceDir = new File(tempDir, "source");
+		for (String sourceFile : SOURCE_FILES) {
+			FileUtils.writeStringToFile(new File(sourceDir, sourceFile), sourceFile);
+		}
+		FileUtils.writeStringToFile(new File(sourceDir, SIDECAR_FILE), SIDECAR_FILE);
+		List<File> targetDirs = Arrays.asList(new File(tempDir, "target1"), new File(tempDir,
+				"target2"));
+		EntryFilter filter = new EntryFilter();
+		filter.addExclude("*.tmp"); //$NON-NLS-1$
+		FanOutLinker linker = new FanOutLinker(2, true);
+		linker.setEntryFilter(filter);
+
+		// call testing method
+		TreeMirrorResult result = linker.link(sourceDir, targetDirs);
+
+		Assert.assertTrue(result.isSuccessful());
+		for (File targetDir : targetDirs) {
+			for (String sourceFile : SOURCE_FILES) {
+				Assert.assertTrue(new File(targetDir, sourceFile).exists(), sourceFile);
+			}
+			Assert.assertFalse(new File(targetDir, SIDECAR_FILE).exists());
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package net.lkrnac.hlkit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for {@link FingerprintIndex}.
+ * 
+ * @author sitko
+ * 
+ */
+public class FingerprintIndexTest {
+	//SUPPRESS CHECKSTYLE MagicNumber 3 Testing values
+	private static final int ENTRIES_COUNT = 100000;
+	private static final long DEVICE = 42;
+	private static final long MODIFIED = 1000;
+
+	private File tempDir;
+
+	/**
+	 * Creates temporary directory for test.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@BeforeMethod
+	public void setUp() throws IOException {
+		tempDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+	}
+
+	/**
+	 * Deletes temporary directory after test.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs during deletion
+	 */
+	@AfterMethod
+	public void tidyUp() throws IOException {
+		FileUtils.deleteDirectory(tempDir);
+	}
+
+	/**
+	 * Tests that stored fingerprints survive clean reopening and table growth
+	 * and that changed file doesn't match its fingerprint.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Test
+	public void testPutAndGet() throws IOException {
+		try (FingerprintIndex index = FingerprintIndex.open(tempDir)) {
+			fill(index);
+			Assert.assertNull(index.get(attributes(1, 2, MODIFIED)));
+			Assert.assertNull(index.get(attributes(1, 1, MODIFIED + 1)));
+		}
+		try (FingerprintIndex index = FingerprintIndex.open(tempDir)) {
+			verify(index);
+		}
+	}
+
+	/**
+	 * Tests that index not closed cleanly is rebuilt from segments and that
+	 * torn record at the end of segment is ignored.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@SuppressWarnings("resource")
+	@Test
+	public void testRecovery() throws IOException {
+		FingerprintIndex crashedIndex = FingerprintIndex.open(tempDir);
+		fill(crashedIndex);
+		crashedIndex.flush();
+		for (File file : tempDir.listFiles()) {
+			if (file.getName().endsWith(".log")) {
+				try (RandomAccessFile segment = new RandomAccessFile(file, "rw")) {
+					segment.seek(segment.length());
+					segment.write(new byte[] { 1, 2, 3 });
+				}
+			}
+		}
+
+		try (FingerprintIndex index = FingerprintIndex.open(tempDir)) {
+			verify(index);
+		}
+	}
+
+	/**
+	 * Tests that compaction keeps only latest fingerprint of each file.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Test
+	public void testCompact() throws IOException {
+		try (FingerprintIndex index = FingerprintIndex.open(tempDir)) {
+			fill(index);
+			fill(index);
+			index.compact();
+		}
+		try (FingerprintIndex index = FingerprintIndex.open(tempDir)) {
+			verify(index);
+		}
+	}
+
+	/**
+	 * Fills index with testing fingerprints.
+	 * 
+	 * @param index
+	 *            index to fill
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	private static void fill(FingerprintIndex index) throws IOException {
+		for (int i = 1; i <= ENTRIES_COUNT; i++) {
+			index.put(attributes(i, i, MODIFIED), hash(i));
+		}
+	}
+
+	/**
+	 * Verifies that index contains testing fingerprints.
+	 * 
+	 * @param index
+	 *            index to verify
+	 */
+	private static void verify(FingerprintIndex index) {
+		Assert.assertEquals(index.size(), ENTRIES_COUNT);
+		for (int i = 1; i <= ENTRIES_COUNT; i++) {
+			Fingerprint fingerprint = index.get(attributes(i, i, MODIFIED));
+			Assert.assertNotNull(fingerprint, "Missing fingerprint " + i);
+			Assert.assertEquals(fingerprint.getContentHash(), hash(i));
+		}
+	}
+
+	/**
+	 * Creates testing file attributes.
+	 * 
+	 * @param inode
+	 *            inode number
+	 * @param size
+	 *            file size
+	 * @param modified
+	 *            modification time
+	 * @return file attributes
+	 */
+	private static FileAttributes attributes(long inode, long size, long modified) {
+		return new FileAttributes(new File("file" + inode), size, modified, null, DEVICE, inode,
+				1, true, false, false);
+	}
+
+	/**
+	 * Creates testing content hash.
+	 * 
+	 * @param seed
+	 *            value from which hash is derived
+	 * @return content hash
+	 */
+	private static byte[] hash(int seed) {
+		byte[] hash = new byte[FingerprintIndex.HASH_SIZE];
+		for (int i = 0; i < hash.length; i++) {
+			hash[i] = (byte) (seed + i);
+		}
+		return hash;
+	}
+}
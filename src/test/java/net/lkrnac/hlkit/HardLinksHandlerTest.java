@@ -5,10 +5,17 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.lkrnac.patere.Patere;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.mockito.Mockito;
 import org.testng.Assert;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.DataProvider;
@@ -24,6 +31,8 @@ public class HardLinksHandlerTest {
 	private static final String TEST_DIRECTORY = "test - album";
 	private static final String DIR_NAME_SOURCE_DIRECTORY = "=[full]";
 	private static final String DIR_NAME_TEMP = "temp";
+	private static final String METHOD_BUILD_HARD_LINKS = "testBuildHardLinks";
+	private static final String METHOD_VERIFY_HARD_LINKS = "testVerifyHardLinks";
 
 	private String resourcesPath;
 
@@ -94,6 +103,60 @@ public class HardLinksHandlerTest {
 		Assert.assertEquals(result, expectedStatus);
 	}
 
+	/**
+	 * Prepares testing data for test
+	 * {@link HardLinksHandlerTest#testVerifyHardLinksReport(ECopyIntoTempType, int)}
+	 * .
+	 * 
+	 * @return parameters for test
+	 */
+	@DataProvider
+	public Object[][] testVerifyHardLinksReport() {
+		//SUPPRESS CHECKSTYLE MagicNumber 3 Numbers of testing files
+		return new Object[][] { new Object[] { ECopyIntoTempType.COPY_ALL_HARD_LINKS, 0 },
+				new Object[] { ECopyIntoTempType.COPY_SOME_HARD_LINKS, 2 },
+				new Object[] { ECopyIntoTempType.COPY_NORMAL, 3 }, };
+	}
+
+	/**
+	 * Tests
+	 * {@link HardLinksHandler#verifyHardLinksReport(File, AttributeSnapshot)}.
+	 * Source files must not be retained in snapshot.
+	 * <p>
+	 * This test expects specific testing directory and file structure on the
+	 * hard disk
+	 * 
+	 * @param copyType
+	 *            type of the copying of testing data
+	 * @param expectedUnlinkedCount
+	 *            expected number of target files which aren't hard links
+	 * @throws IOException
+	 *             if some I/O error occurs
+	 */
+	@Test(dataProvider = "testVerifyHardLinksReport")
+	public void testVerifyHardLinksReport(ECopyIntoTempType copyType, int expectedUnlinkedCount)
+			throws IOException {
+		resourcesPath = new Patere().getResourcesPathForClass(getClass().getName())
+				+ METHOD_VERIFY_HARD_LINKS;
+		File targetDir = getTestingDir(TEST_DIRECTORY, false, false);
+		HardLinksHandler testingObj = new HardLinksHandler(targetDir);
+		File sourceDir = getTestingDir(TEST_DIRECTORY, true, true);
+
+		copyDirForTesting(sourceDir, targetDir, copyType);
+
+		AttributeSnapshot snapshot = new AttributeSnapshot();
+
+		// call testing method
+		HardLinksReport report = testingObj.verifyHardLinksReport(sourceDir, snapshot);
+
+		Assert.assertEquals(report.getCheckedCount(), sourceDir.list().length);
+		Assert.assertEquals(report.getUnlinkedFiles().size(), expectedUnlinkedCount);
+		Assert.assertEquals(report.areAllLinked(), expectedUnlinkedCount == 0);
+		long statCount = snapshot.getStatCount();
+		snapshot.getAttributes(sourceDir.listFiles()[0]);
+		Assert.assertEquals(snapshot.getStatCount(), statCount + 1);
+	}
+
 	/**
 	 * Verifies if directory exists and returns file object for it. If needed
 	 * copy of directory is created
@@ -212,4 +275,432 @@ public class HardLinksHandlerTest {
 				"Hard links verification failed: ");
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Tests that {@link HardLinksHandler#buildHardLinks(File, DirectoryComparator, AttributeSnapshot)}
+	 * lists each directory once and stat's each file once.
+	 * <p>
+	 * This test expects specific testing directory and file structure on the
+	 * hard disk
+	 * 
+	 * @param testingDirectoryName
+	 *            directory name for testing
+	 * @param expectedResult
+	 *            expected result of testing method
+	 * @throws IOException
+	 *             if I/O error occurs during test
+	 */
+	@Test(dataProvider = "testBuildHardLinks")
+	public void testBuildHardLinksStatCount(String testingDirectoryName, boolean expectedResult)
+			throws IOException {
+		resourcesPath = new Patere().getResourcesPathForClass(getClass().getName())
+				+ METHOD_BUILD_HARD_LINKS;
+		File targetDir = getTestingDir(testingDirectoryName, false, true);
+		HardLinksHandler testingObj = new HardLinksHandler(targetDir);
+		File sourceDir = getTestingDir(testingDirectoryName, true, true);
+		int filesCount = sourceDir.list().length + targetDir.list().length;
+		AttributeSnapshot snapshot = new AttributeSnapshot();
+
+		// call testing method
+		boolean actualResult = testingObj.buildHardLinks(sourceDir, new DirectoryComparator(),
+				snapshot);
+
+		Assert.assertEquals(actualResult, expectedResult);
+		Assert.assertEquals(snapshot.getListingCount(), 2);
+		Assert.assertEquals(snapshot.getStatCount(), filesCount);
+	}
+
+	/**
+	 * Tests
+	 * {@link HardLinksHandler#buildHardLinks(File, DirectoryComparator, AttributeSnapshot)}
+	 * with bounded snapshot, which streams directories instead of caching
+	 * their listings.
+	 * 
+	 * @param testingDirectoryName
+	 *            name of the testing directory
+	 * @param expectedResult
+	 *            expected result of the build
+	 * @throws IOException
+	 *             if I/O error occurs during test
+	 */
+	@Test(dataProvider = "testBuildHardLinks")
+	public void testBuildHardLinksBounded(String testingDirectoryName, boolean expectedResult)
+			throws IOException {
+		resourcesPath = new Patere().getResourcesPathForClass(getClass().getName())
+				+ METHOD_BUILD_HARD_LINKS;
+		File targetDir = getTestingDir(testingDirectoryName, false, true);
+		HardLinksHandler testingObj = new HardLinksHandler(targetDir);
+		File sourceDir = getTestingDir(testingDirectoryName, true, true);
+
+		// call testing method
+		boolean actualResult = testingObj.buildHardLinks(sourceDir, new DirectoryComparator(),
+				new AttributeSnapshot(2));
+
+		Assert.assertEquals(actualResult, expectedResult);
+		if (expectedResult) {
+			Assert.assertTrue(testingObj.verifyHardLinks(sourceDir));
+		}
+	}
+
+	/**
+	 * Tests
+	 * {@link HardLinksHandler#buildHardLinks(File, DirectoryComparator, AttributeSnapshot)}
+	 * with pipelined matching over streamed directories.
+	 * 
+	 * @param testingDirectoryName
+	 *            name of the testing directory
+	 * @param expectedResult
+	 *            expected result of the build
+	 * @throws IOException
+	 *             if I/O error occurs during test
+	 */
+	@Test(dataProvider = "testBuildHardLinks")
+	public void testBuildHardLinksPipelined(String testingDirectoryName, boolean expectedResult)
+			throws IOException {
+		resourcesPath = new Patere().getResourcesPathForClass(getClass().getName())
+				+ METHOD_BUILD_HARD_LINKS;
+		File targetDir = getTestingDir(testingDirectoryName, false, true);
+		HardLinksHandler testingObj = new HardLinksHandler(targetDir);
+		File sourceDir = getTestingDir(testingDirectoryName, true, true);
+		PipelinedMatching pipelinedMatching = new PipelinedMatching(4, 1);
+		testingObj.setPipelinedMatching(pipelinedMatching);
+		DirectoryComparator dirComparator = new DirectoryComparator();
+		dirComparator.setPipelinedMatching(pipelinedMatching);
+
+		// call testing method
+		boolean actualResult = testingObj.buildHardLinks(sourceDir, dirComparator,
+				new AttributeSnapshot(2));
+
+		Assert.assertEquals(actualResult, expectedResult);
+		if (expectedResult) {
+			Assert.assertTrue(testingObj.verifyHardLinks(sourceDir));
+		}
+		Assert.assertEquals(pipelinedMatching.getMaxQueueDepth(PipelineStage.STAT), 1);
+	}
+
+	/**
+	 * Prepares testing data for test
+	 * {@link HardLinksHandlerTest#testBuildHardLinksReplacementMode(ReplacementMode)}.
+	 * 
+	 * @return parameters for test
+	 */
+	@DataProvider
+	public Object[][] testBuildHardLinksReplacementMode() {
+		return new Object[][] { new Object[] { ReplacementMode.DELETE_AND_LINK },
+				new Object[] { ReplacementMode.ATOMIC },
+				new Object[] { ReplacementMode.ATOMIC_BATCHED }, };
+	}
+
+	/**
+	 * Tests
+	 * {@link HardLinksHandler#buildHardLinks(File, DirectoryComparator, AttributeSnapshot)}
+	 * with each replacement mode. No temporary link can be left in target
+	 * directory.
+	 * 
+	 * @param replacementMode
+	 *            tested replacement mode
+	 * @throws IOException
+	 *             if I/O error occurs during test
+	 */
+	@Test(dataProvider = "testBuildHardLinksReplacementMode")
+	public void testBuildHardLinksReplacementMode(ReplacementMode replacementMode)
+			throws IOException {
+		resourcesPath = new Patere().getResourcesPathForClass(getClass().getName())
+				+ METHOD_BUILD_HARD_LINKS;
+		File targetDir = getTestingDir("test - album - success2", false, true);
+		File sourceDir = getTestingDir("test - album - success2", true, true);
+		String[] targetNames = targetDir.list();
+		Arrays.sort(targetNames);
+		HardLinksHandler testingObj = new HardLinksHandler(targetDir);
+		testingObj.setReplacementMode(replacementMode);
+		testingObj.setReplacementParallelism(2);
+		LinkRunMetrics metrics = new LinkRunMetrics();
+		testingObj.setRunListener(metrics);
+
+		// call testing method
+		boolean actualResult = testingObj.buildHardLinks(sourceDir, new DirectoryComparator(),
+				new AttributeSnapshot());
+
+		Assert.assertTrue(actualResult);
+		Assert.assertTrue(testingObj.verifyHardLinks(sourceDir));
+		String[] actualNames = targetDir.list();
+		Arrays.sort(actualNames);
+		Assert.assertEquals(actualNames, targetNames);
+		Assert.assertTrue(metrics.getLinksCreated() > 0);
+	}
+
+	/**
+	 * Prepares testing data for test
+	 * {@link HardLinksHandlerTest#testBuildHardLinksCrossDevice(CrossDeviceStrategy, EntryStrategy)}
+	 * .
+	 * 
+	 * @return parameters for test
+	 */
+	@DataProvider
+	public Object[][] testBuildHardLinksCrossDevice() {
+		return new Object[][] { new Object[] { CrossDeviceStrategy.SKIP, EntryStrategy.SKIP },
+				new Object[] { CrossDeviceStrategy.COPY, EntryStrategy.COPY }, };
+	}
+
+	/**
+	 * Tests
+	 * {@link HardLinksHandler#buildHardLinks(File, DirectoryComparator, AttributeSnapshot)}
+	 * into empty target directory on other file store.
+	 * 
+	 * @param crossDeviceStrategy
+	 *            tested cross-device strategy
+	 * @param expectedStrategy
+	 *            strategy expected for each entry
+	 * @throws IOException
+	 *             if I/O error occurs during test
+	 */
+	@Test(dataProvider = "testBuildHardLinksCrossDevice")
+	public void testBuildHardLinksCrossDevice(CrossDeviceStrategy crossDeviceStrategy,
+			EntryStrategy expectedStrategy) throws IOException {
+		resourcesPath = new Patere().getResourcesPathForClass(getClass().getName())
+				+ METHOD_BUILD_HARD_LINKS;
+		File sourceDir = getTestingDir("test - album - success1", true, true);
+		File targetDir = new File(resourcesPath + File.separator + DIR_NAME_TEMP, TEST_DIRECTORY);
+		targetDir.mkdirs();
+		HardLinksHandler testingObj = Mockito.spy(new HardLinksHandler(targetDir));
+		Mockito.doReturn(true).when(testingObj).isCrossDevice(sourceDir);
+		testingObj.setCreateMissingLinks(true);
+		testingObj.setCrossDeviceStrategy(crossDeviceStrategy);
+		testingObj.setCopyLimits(2, 1);
+
+		// call testing method
+		boolean actualResult = testingObj.buildHardLinks(sourceDir, new DirectoryComparator(),
+				new AttributeSnapshot());
+
+		Assert.assertTrue(actualResult);
+		Assert.assertEquals(testingObj.getEntryStrategies().size(), sourceDir.list().length);
+		for (File sourceFile : sourceDir.listFiles()) {
+			File targetFile = new File(targetDir, sourceFile.getName());
+			Assert.assertEquals(testingObj.getEntryStrategies().get(targetFile), expectedStrategy);
+			Assert.assertEquals(targetFile.exists(), expectedStrategy == EntryStrategy.COPY);
+			if (targetFile.exists()) {
+				Assert.assertTrue(FileUtils.contentEquals(sourceFile, targetFile));
+				Assert.assertNotEquals(FileAttributes.read(targetFile).getFileKey(),
+						FileAttributes.read(sourceFile).getFileKey());
+			}
+		}
+	}
+
+	/**
+	 * Tests that
+	 * {@link HardLinksHandler#buildHardLinks(File, DirectoryComparator, AttributeSnapshot)}
+	 * on other file store records failed copy as failed, while other entries
+	 * are still copied and counted.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs during test
+	 */
+	@Test
+	public void testBuildHardLinksCrossDeviceCopyFailure() throws IOException {
+		resourcesPath = new Patere().getResourcesPathForClass(getClass().getName())
+				+ METHOD_BUILD_HARD_LINKS;
+		File sourceDir = getTestingDir("test - album - success1", true, true);
+		File targetDir = new File(resourcesPath + File.separator + DIR_NAME_TEMP, TEST_DIRECTORY);
+		targetDir.mkdirs();
+		HardLinksHandler testingObj = Mockito.spy(new HardLinksHandler(targetDir));
+		Mockito.doReturn(true).when(testingObj).isCrossDevice(sourceDir);
+		testingObj.setCreateMissingLinks(true);
+		testingObj.setCrossDeviceStrategy(CrossDeviceStrategy.COPY);
+		testingObj.setCopyLimits(1, 1);
+		final AtomicInteger reads = new AtomicInteger();
+		testingObj.setRateLimiter(new IoRateLimiter() {
+			@Override
+			public void acquire(IoOperation operation, File directory, long permits)
+					throws IOException {
+				if (operation == IoOperation.BYTES_READ && reads.incrementAndGet() == 1) {
+					throw new IOException("copy failed"); //$NON-NLS-1$
+				}
+			}
+		});
+		LinkRunMetrics metrics = new LinkRunMetrics();
+		testingObj.setRunListener(metrics);
+
+		// call testing method
+		boolean actualResult = testingObj.buildHardLinks(sourceDir, new DirectoryComparator(),
+				new AttributeSnapshot());
+
+		Assert.assertFalse(actualResult);
+		int fileCount = sourceDir.list().length;
+		Assert.assertEquals(testingObj.getEntryStrategies().size(), fileCount);
+		int failedCount = 0;
+		for (File sourceFile : sourceDir.listFiles()) {
+			File targetFile = new File(targetDir, sourceFile.getName());
+			EntryStrategy strategy = testingObj.getEntryStrategies().get(targetFile);
+			if (strategy == EntryStrategy.FAILED) {
+				failedCount++;
+			} else {
+				Assert.assertEquals(strategy, EntryStrategy.COPY);
+			}
+			Assert.assertEquals(targetFile.exists(), strategy == EntryStrategy.COPY);
+		}
+		Assert.assertEquals(failedCount, 1);
+		Assert.assertEquals(metrics.getCount(RunCounter.FILES_COPIED), fileCount - 1);
+		Assert.assertNotNull(testingObj.getFailure());
+	}
+
+	/**
+	 * Prepares testing data for test
+	 * {@link HardLinksHandlerTest#testSyncHardLinks(ConflictPolicy, boolean)}.
+	 * 
+	 * @return parameters for test
+	 */
+	@DataProvider
+	public Object[][] testSyncHardLinks() {
+		return new Object[][] { new Object[] { ConflictPolicy.SOURCE_WINS, true },
+				new Object[] { ConflictPolicy.TARGET_WINS, false }, };
+	}
+
+	/**
+	 * Tests {@link HardLinksHandler#syncHardLinks(File, AttributeSnapshot)}.
+	 * Target directory contains one hard link, one differing file and one
+	 * file missing in source directory. Directories have to be synchronized
+	 * with one listing and one stat per file.
+	 * 
+	 * @param conflictPolicy
+	 *            tested conflict policy
+	 * @param sourceWins
+	 *            flag if source version of differing file is expected
+	 * @throws IOException
+	 *             if I/O error occurs during test
+	 */
+	@Test(dataProvider = "testSyncHardLinks")
+	public void testSyncHardLinks(ConflictPolicy conflictPolicy, boolean sourceWins)
+			throws IOException {
+		resourcesPath = new Patere().getResourcesPathForClass(getClass().getName())
+				+ METHOD_BUILD_HARD_LINKS;
+		File sourceDir = getTestingDir("test - album - success1", true, true);
+		File targetDir = new File(resourcesPath + File.separator + DIR_NAME_TEMP, TEST_DIRECTORY);
+		targetDir.mkdirs();
+		Files.createLink(new File(targetDir, "test1.mp3").toPath(),
+				new File(sourceDir, "test1.mp3").toPath());
+		FileUtils.writeStringToFile(new File(targetDir, "test2.mp3"), "target version");
+		FileUtils.writeStringToFile(new File(targetDir, "test4.mp3"), "target only");
+		String sourceContent = FileUtils.readFileToString(new File(sourceDir, "test2.mp3"));
+		HardLinksHandler testingObj = new HardLinksHandler(targetDir);
+		testingObj.setConflictPolicy(conflictPolicy);
+		AttributeSnapshot snapshot = new AttributeSnapshot();
+
+		// call testing method
+		boolean actualResult = testingObj.syncHardLinks(sourceDir, snapshot);
+
+		Assert.assertTrue(actualResult);
+		Assert.assertEquals(snapshot.getListingCount(), 2);
+		//SUPPRESS CHECKSTYLE MagicNumber 1 Three files on each side
+		Assert.assertEquals(snapshot.getStatCount(), 6);
+		for (String fileName : new String[] { "test1.mp3", "test2.mp3", "test3.mp3",
+				"test4.mp3" }) {
+			Assert.assertEquals(FileAttributes.read(new File(targetDir, fileName)).getFileKey(),
+					FileAttributes.read(new File(sourceDir, fileName)).getFileKey(), fileName);
+		}
+		Assert.assertEquals(FileUtils.readFileToString(new File(sourceDir, "test2.mp3")),
+				sourceWins ? sourceContent : "target version");
+	}
+
+	/**
+	 * Tests
+	 * {@link HardLinksHandler#buildHardLinks(File, DirectoryComparator, AttributeSnapshot)}
+	 * with content verification. Target file of the same size, but different
+	 * content has to be kept.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs during test
+	 */
+	@Test
+	public void testBuildHardLinksContentVerified() throws IOException {
+		resourcesPath = new Patere().getResourcesPathForClass(getClass().getName())
+				+ METHOD_BUILD_HARD_LINKS;
+		File targetDir = getTestingDir("test - album - success1", false, true);
+		File sourceDir = getTestingDir("test - album - success1", true, true);
+		File changedFile = new File(targetDir, "test2.mp3");
+		String changedContent = StringUtils.reverse(FileUtils.readFileToString(changedFile));
+		FileUtils.writeStringToFile(changedFile, changedContent);
+		HardLinksHandler testingObj = new HardLinksHandler(targetDir);
+
+		try (ContentVerifier verifier = new ContentVerifier(2)) {
+			testingObj.setContentVerifier(verifier);
+
+			// call testing method
+			boolean actualResult = testingObj.buildHardLinks(sourceDir,
+					new DirectoryComparator(), new AttributeSnapshot());
+
+			Assert.assertTrue(actualResult);
+		}
+		Assert.assertEquals(testingObj.getContentMismatches(), Arrays.asList(changedFile));
+		Assert.assertEquals(FileUtils.readFileToString(changedFile), changedContent);
+		Assert.assertEquals(testingObj.verifyHardLinksReport(sourceDir, new AttributeSnapshot())
+				.getUnlinkedFiles(), Arrays.asList(changedFile));
+	}
+
+	/**
+	 * Tests that
+	 * {@link HardLinksHandler#buildHardLinks(File, DirectoryComparator, AttributeSnapshot)}
+	 * without journal deletes temporary link left behind by interrupted run.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs during test
+	 */
+	@Test
+	public void testBuildHardLinksSweepsTempLinks() throws IOException {
+		resourcesPath = new Patere().getResourcesPathForClass(getClass().getName())
+				+ METHOD_BUILD_HARD_LINKS;
+		File targetDir = getTestingDir("test - album - success1", false, true);
+		File sourceDir = getTestingDir("test - album - success1", true, true);
+		File orphanLink = new File(targetDir, ".hlkit-0123456789abcdef.tmp");
+		Files.createLink(orphanLink.toPath(), new File(sourceDir, "test1.mp3").toPath());
+		HardLinksHandler testingObj = new HardLinksHandler(targetDir);
+
+		// call testing method
+		boolean actualResult = testingObj.buildHardLinks(sourceDir, new DirectoryComparator(),
+				new AttributeSnapshot());
+
+		Assert.assertTrue(actualResult);
+		Assert.assertFalse(orphanLink.exists());
+		Assert.assertTrue(testingObj.verifyHardLinks(sourceDir));
+	}
+
+	/**
+	 * Tests that {@link ReplacementMode#ATOMIC_BATCHED} replacements of
+	 * consecutive runs of one handler share the same workers.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs during test
+	 */
+	@Test
+	public void testBuildHardLinksBatchedReusesWorkers() throws IOException {
+		resourcesPath = new Patere().getResourcesPathForClass(getClass().getName())
+				+ METHOD_BUILD_HARD_LINKS;
+		File targetDir = getTestingDir("test - album - success2", false, true);
+		File sourceDir = getTestingDir("test - album - success2", true, true);
+		final Set<Thread> workers = Collections.synchronizedSet(new HashSet<Thread>());
+		HardLinksHandler testingObj = new HardLinksHandler(targetDir);
+		testingObj.setReplacementMode(ReplacementMode.ATOMIC_BATCHED);
+		testingObj.setReplacementParallelism(1);
+		testingObj.setRateLimiter(new IoRateLimiter() {
+			@Override
+			public void acquire(IoOperation operation, File directory, long permits) {
+				if (operation == IoOperation.LINK) {
+					workers.add(Thread.currentThread());
+				}
+			}
+		});
+		boolean firstResult = testingObj.buildHardLinks(sourceDir, new DirectoryComparator(),
+				new AttributeSnapshot());
+		for (File targetFile : targetDir.listFiles()) {
+			Files.delete(targetFile.toPath());
+			FileUtils.copyFile(new File(sourceDir, targetFile.getName()), targetFile);
+		}
+
+		// call testing method
+		boolean secondResult = testingObj.buildHardLinks(sourceDir, new DirectoryComparator(),
+				new AttributeSnapshot());
+
+		Assert.assertTrue(firstResult);
+		Assert.assertTrue(secondResult);
+		Assert.assertTrue(testingObj.verifyHardLinks(sourceDir));
+		Assert.assertEquals(workers.size(), 1);
+	}
+}
@@ -0,0 +1,210 @@
+package net.lkrnac.hlkit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for {@link HardLinksWatcher}.
+ *
+ * @author sitko
+ *
+ */
+public class HardLinksWatcherTest {
+	private static final String[] SOURCE_FILES = { "test1.mp3", "a/test2.mp3",
+			"a/b/test3.mp3" };
+	private static final long TIMEOUT_MILLIS = 10000;
+	private static final long POLL_MILLIS = 20;
+
+	private File tempDir;
+
+	/**
+	 * Creates temporary directory for test.
+	 *
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@BeforeMethod
+	public void setUp() throws IOException {
+		tempDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+	}
+
+	/**
+	 * Deletes temporary directory after test.
+	 *
+	 * @throws IOException
+	 *             if I/O error occurs during deletion
+	 */
+	@AfterMethod
+	public void tidyUp() throws IOException {
+		FileUtils.deleteDirectory(tempDir);
+	}
+
+	/**
+	 * Tests {@link HardLinksWatcher#run()}. Files created in existing and new
+	 * source directories have to be linked into target tree.
+	 *
+	 * @throws Exception
+	 *             if error occurs
+	 */
+	@Test
+	public void testRun() throws Exception {
+		File sourceRoot = new File(tempDir, "source");
+		File targetRoot = new File(tempDir, "target");
+		FileUtils.forceMkdir(new File(sourceRoot, "a"));
+
+		Thread watcherThread;
+		try (HardLinksWatcher watcher = new HardLinksWatcher(sourceRoot, targetRoot)) {
+			watcherThread = new Thread(watcher);
+			watcherThread.start();
+			for (String sourceFile : SOURCE_FILES) {
+				FileUtils.writeStringToFile(new File(sourceRoot, sourceFile), sourceFile);
+			}
+			for (String sourceFile : SOURCE_FILES) {
+				waitForLink(new File(sourceRoot, sourceFile), new File(targetRoot, sourceFile));
+			}
+			Assert.assertEquals(watcher.getFailureCount(), 0);
+		}
+		watcherThread.join(TIMEOUT_MILLIS);
+		Assert.assertFalse(watcherThread.isAlive());
+	}
+
+	/**
+	 * Tests {@link HardLinksWatcher#run()} with entry filter. Excluded files
+	 * and directories must not be linked into target tree.
+	 *
+	 * @throws Exception
+	 *             if error occurs
+	 */
+	@Test
+	public void testRunEntryFilter() throws Exception {
+		File sourceRoot = new File(tempDir, "source");
+		File targetRoot = new File(tempDir, "target");
+		FileUtils.forceMkdir(sourceRoot);
+		EntryFilter entryFilter = new EntryFilter();
+		entryFilter.addExclude("*.part");
+		entryFilter.addExclude("skipped");
+		LinkRunMetrics metrics = new LinkRunMetrics();
+
+		Thread watcherThread;
+		try (HardLinksWatcher watcher = new HardLinksWatcher(sourceRoot, targetRoot,
+				entryFilter)) {
+			watcher.setRunListener(metrics);
+			watcherThread = new Thread(watcher);
+			watcherThread.start();
+			FileUtils.writeStringToFile(new File(sourceRoot, "test1.part"), "test1");
+			FileUtils.writeStringToFile(new File(sourceRoot, "skipped/test2.mp3"), "test2");
+			File sourceFile = new File(sourceRoot, SOURCE_FILES[0]);
+			FileUtils.writeStringToFile(sourceFile, SOURCE_FILES[0]);
+			waitForLink(sourceFile, new File(targetRoot, SOURCE_FILES[0]));
+			Assert.assertEquals(watcher.getFailureCount(), 0);
+		}
+		watcherThread.join(TIMEOUT_MILLIS);
+		Assert.assertFalse(new File(targetRoot, "test1.part").exists());
+		Assert.assertFalse(new File(targetRoot, "skipped").exists());
+		Assert.assertTrue(metrics.getCount(RunCounter.ENTRIES_FILTERED) >= 2);
+	}
+
+	/**
+	 * Tests {@link HardLinksWatcher#run()} with target file of other size than
+	 * its source. Target file has to be kept and reported as mismatch.
+	 *
+	 * @throws Exception
+	 *             if error occurs
+	 */
+	@Test
+	public void testRunSizeMismatch() throws Exception {
+		File sourceRoot = new File(tempDir, "source");
+		File targetRoot = new File(tempDir, "target");
+		FileUtils.forceMkdir(sourceRoot);
+		File targetFile = new File(targetRoot, SOURCE_FILES[0]);
+		FileUtils.writeStringToFile(targetFile, "other content");
+		LinkRunMetrics metrics = new LinkRunMetrics();
+
+		Thread watcherThread;
+		try (HardLinksWatcher watcher = new HardLinksWatcher(sourceRoot, targetRoot)) {
+			watcher.setRunListener(metrics);
+			watcherThread = new Thread(watcher);
+			watcherThread.start();
+			FileUtils.writeStringToFile(new File(sourceRoot, SOURCE_FILES[0]), SOURCE_FILES[0]);
+			long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+			while (watcher.getMismatchCount() == 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(POLL_MILLIS);
+			}
+			Assert.assertTrue(watcher.getMismatchCount() > 0);
+			Assert.assertEquals(watcher.getFailureCount(), 0);
+		}
+		watcherThread.join(TIMEOUT_MILLIS);
+		Assert.assertFalse(watcherThread.isAlive());
+		Assert.assertTrue(metrics.getCount(RunCounter.CONTENT_MISMATCHES) > 0);
+		Assert.assertEquals(FileUtils.readFileToString(targetFile), "other content");
+	}
+
+	/**
+	 * Tests {@link HardLinksWatcher#run()} of watcher created by
+	 * {@link DirectoryIoFacade#watchHardLinks(File)} with case insensitive
+	 * match key strategy. New source directory has to be mirrored into target
+	 * directory with names differing in case.
+	 *
+	 * @throws Exception
+	 *             if error occurs
+	 */
+	@Test
+	public void testRunMatchKeyStrategy() throws Exception {
+		File sourceRoot = new File(tempDir, "source");
+		File targetRoot = new File(tempDir, "target");
+		FileUtils.forceMkdir(sourceRoot);
+		File targetFile = new File(targetRoot, "a/TEST1.MP3");
+		FileUtils.writeStringToFile(targetFile, SOURCE_FILES[0]);
+		File stagedDir = new File(tempDir, "staged");
+		FileUtils.writeStringToFile(new File(stagedDir, SOURCE_FILES[0]), SOURCE_FILES[0]);
+		File sourceDir = new File(sourceRoot, "a");
+		DirectoryIoFacade facade = new DirectoryIoFacade(targetRoot);
+		facade.setMatchKeyStrategy(new StandardMatchKeyStrategy(false, false, 0));
+
+		Thread watcherThread;
+		try (HardLinksWatcher watcher = facade.watchHardLinks(sourceRoot)) {
+			watcherThread = new Thread(watcher);
+			watcherThread.start();
+			Files.move(stagedDir.toPath(), sourceDir.toPath());
+			Object sourceKey = FileAttributes.read(new File(sourceDir, SOURCE_FILES[0]))
+					.getFileKey();
+			long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+			while (!FileAttributes.read(targetFile).getFileKey().equals(sourceKey)
+					&& System.currentTimeMillis() < deadline) {
+				Thread.sleep(POLL_MILLIS);
+			}
+			Assert.assertEquals(FileAttributes.read(targetFile).getFileKey(), sourceKey);
+			Assert.assertEquals(watcher.getFailureCount(), 0);
+		}
+		watcherThread.join(TIMEOUT_MILLIS);
+		Assert.assertFalse(watcherThread.isAlive());
+		Assert.assertEquals(new File(targetRoot, "a").list(), new String[] { "TEST1.MP3" });
+	}
+
+	/**
+	 * Waits until target file is hard link of source file.
+	 *
+	 * @param sourceFile
+	 *            source file
+	 * @param targetFile
+	 *            expected hard link of source file
+	 * @throws Exception
+	 *             if error occurs
+	 */
+	private static void waitForLink(File sourceFile, File targetFile) throws Exception {
+		Object sourceKey = FileAttributes.read(sourceFile).getFileKey();
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (!targetFile.exists() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(POLL_MILLIS);
+		}
+		Assert.assertTrue(targetFile.exists(), targetFile.toString());
+		Assert.assertEquals(FileAttributes.read(targetFile).getFileKey(), sourceKey);
+	}
+}
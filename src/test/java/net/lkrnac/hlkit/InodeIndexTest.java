@@ -0,0 +1,117 @@
+package net.lkrnac.hlkit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for {@link InodeIndex}.
+ * 
+ * @author sitko
+ * 
+ */
+public class InodeIndexTest {
+	private File tempDir;
+	private File original;
+	private List<File> links;
+	private File single;
+
+	/**
+	 * Creates temporary directory tree with one file linked into three
+	 * directories and one file without links.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@BeforeMethod
+	public void setUp() throws IOException {
+		tempDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+		original = new File(tempDir, "a/test1.mp3");
+		FileUtils.writeStringToFile(original, "test1");
+		File link1 = new File(tempDir, "b/test1.mp3");
+		File link2 = new File(tempDir, "b/c/copy.mp3");
+		FileUtils.forceMkdir(link2.getParentFile());
+		Files.createLink(link1.toPath(), original.toPath());
+		Files.createLink(link2.toPath(), original.toPath());
+		links = Arrays.asList(original, link1, link2);
+		single = new File(tempDir, "b/c/test2.mp3");
+		FileUtils.writeStringToFile(single, "test2");
+	}
+
+	/**
+	 * Deletes temporary directory after test.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs during deletion
+	 */
+	@AfterMethod
+	public void tidyUp() throws IOException {
+		FileUtils.deleteDirectory(tempDir);
+	}
+
+	/**
+	 * Tests {@link InodeIndex#build(java.util.Collection, int)}.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Test
+	public void testBuild() throws IOException {
+		// call testing method
+		InodeIndex index = InodeIndex.build(Collections.singletonList(tempDir), 2);
+
+		Object originalKey = FileAttributes.read(original).getFileKey();
+		Assert.assertEquals(index.size(), 2);
+		Assert.assertEquals(new HashSet<>(index.getLinks(original)), new HashSet<>(links));
+		Assert.assertEquals(index.getLinks(single), Arrays.asList(single));
+		Assert.assertEquals(index.getLinkedKeys(), Collections.singleton(originalKey));
+		Assert.assertTrue(index.isComplete(originalKey));
+	}
+
+	/**
+	 * Tests {@link InodeIndex#findLinks(File, java.util.Collection, int)}.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Test
+	public void testFindLinks() throws IOException {
+		// call testing method
+		List<File> actualLinks = InodeIndex.findLinks(original, Collections.singletonList(tempDir),
+				2);
+
+		Assert.assertEquals(new HashSet<>(actualLinks), new HashSet<>(links));
+	}
+
+	/**
+	 * Tests {@link HardLinksHandler#verifyHardLinksReport(File, AttributeSnapshot)}
+	 * with inode index. Source directory mustn't be read.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Test
+	public void testVerifyHardLinksReport() throws IOException {
+		InodeIndex index = InodeIndex.build(Collections.singletonList(tempDir), 1);
+		File sourceDir = original.getParentFile();
+		HardLinksHandler handler = new HardLinksHandler(new File(tempDir, "b"));
+		handler.setInodeIndex(index);
+		AttributeSnapshot snapshot = new AttributeSnapshot();
+
+		// call testing method
+		HardLinksReport report = handler.verifyHardLinksReport(sourceDir, snapshot);
+
+		Assert.assertTrue(report.areAllLinked());
+		Assert.assertEquals(snapshot.getListingCount(), 1);
+	}
+}
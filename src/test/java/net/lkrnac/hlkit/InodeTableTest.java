@@ -0,0 +1,81 @@
+package net.lkrnac.hlkit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for {@link InodeTable}.
+ * 
+ * @author sitko
+ * 
+ */
+public class InodeTableTest {
+	/**
+	 * Verifies ids and names of added entries.
+	 */
+	@Test
+	public void testPutGet() {
+		InodeTable table = new InodeTable();
+		int id1 = table.put(1, 100, "test1.mp3"); //$NON-NLS-1$
+		int id2 = table.put(1, 101, null);
+		int id3 = table.put(2, 100, "\u017elt\u00fd k\u00f4\u0148.mp3"); //$NON-NLS-1$
+
+		Assert.assertEquals(table.size(), 3);
+		Assert.assertEquals(table.put(1, 100, "other.mp3"), id1); //$NON-NLS-1$
+		Assert.assertEquals(table.get(1, 100), id1);
+		Assert.assertEquals(table.get(1, 101), id2);
+		Assert.assertEquals(table.get(2, 100), id3);
+		Assert.assertEquals(table.get(2, 101), InodeTable.NOT_FOUND);
+		Assert.assertEquals(table.get(3, 100), InodeTable.NOT_FOUND);
+		Assert.assertTrue(table.contains(1, 101));
+		Assert.assertEquals(table.getName(id1), "test1.mp3"); //$NON-NLS-1$
+		Assert.assertNull(table.getName(id2));
+		Assert.assertEquals(table.getName(id3), "\u017elt\u00fd k\u00f4\u0148.mp3"); //$NON-NLS-1$
+	}
+
+	/**
+	 * Verifies that entries survive growth of table and that names span
+	 * several arena chunks.
+	 */
+	@Test
+	public void testGrowth() {
+		int count = 200000; //SUPPRESS CHECKSTYLE MagicNumber 2 Test data
+		InodeTable table = new InodeTable();
+		for (int i = 0; i < count; i++) {
+			String name = "file" + i + ".mp3"; //$NON-NLS-1$ //$NON-NLS-2$
+			Assert.assertEquals(table.put(i % 3, i * 7L, name), i);
+		}
+
+		Assert.assertEquals(table.size(), count);
+		for (int i = 0; i < count; i++) {
+			int id = table.get(i % 3, i * 7L);
+			Assert.assertEquals(id, i);
+			Assert.assertEquals(table.getName(id), "file" + i + ".mp3"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		Assert.assertEquals(table.get(0, 1), InodeTable.NOT_FOUND);
+		Assert.assertTrue(table.getFootprint() < count * 64L);
+	}
+
+	/**
+	 * Verifies that pre-sized table doesn't grow.
+	 */
+	@Test
+	public void testExpectedCount() {
+		InodeTable table = new InodeTable(5000);
+		long footprint = table.getFootprint();
+		for (int i = 0; i < 5000; i++) {
+			table.put(1, i, null);
+		}
+
+		Assert.assertEquals(table.getFootprint(), footprint);
+		Assert.assertEquals(table.size(), 5000);
+	}
+
+	/**
+	 * Verifies that id of unknown entry is rejected.
+	 */
+	@Test(expectedExceptions = IndexOutOfBoundsException.class)
+	public void testGetNameUnknown() {
+		new InodeTable().getName(0);
+	}
+}
@@ -0,0 +1,127 @@
+package net.lkrnac.hlkit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for {@link IoRateLimiter}.
+ * 
+ * @author sitko
+ * 
+ */
+public class IoRateLimiterTest {
+	private File tempDir;
+	private FileStore fileStore;
+
+	/**
+	 * Creates temporary directory.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@BeforeMethod
+	public void setUp() throws IOException {
+		tempDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+		fileStore = Files.getFileStore(tempDir.toPath());
+	}
+
+	/**
+	 * Deletes temporary directory after test.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs during deletion
+	 */
+	@AfterMethod
+	public void tidyUp() throws IOException {
+		FileUtils.deleteDirectory(tempDir);
+	}
+
+	/**
+	 * Verifies that operations over burst wait for refilled tokens and that
+	 * other operations aren't limited.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Test
+	public void testAcquire() throws IOException {
+		IoRateLimiter limiter = new IoRateLimiter();
+		limiter.setLimit(IoOperation.STAT, 200);
+
+		long startNanos = System.nanoTime();
+		for (int i = 0; i < 300; i++) {
+			limiter.acquire(IoOperation.STAT, tempDir, 1);
+		}
+		long limitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+		startNanos = System.nanoTime();
+		limiter.acquire(IoOperation.BYTES_READ, tempDir, Long.MAX_VALUE);
+		long unlimitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+		//SUPPRESS CHECKSTYLE MagicNumber 2 Expected durations
+		Assert.assertTrue(limitedMillis >= 400, "limited run took " + limitedMillis);
+		Assert.assertTrue(unlimitedMillis < 100, "unlimited run took " + unlimitedMillis);
+	}
+
+	/**
+	 * Verifies that limit changed during run applies immediately.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Test
+	public void testRuntimeChange() throws IOException {
+		IoRateLimiter limiter = new IoRateLimiter();
+		limiter.setLimit(IoOperation.LINK, 1);
+		limiter.acquire(IoOperation.LINK, tempDir, 1);
+
+		limiter.setLimit(fileStore, IoOperation.LINK, 0);
+		long startNanos = System.nanoTime();
+		for (int i = 0; i < 1000; i++) {
+			limiter.acquire(IoOperation.LINK, tempDir, 1);
+		}
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+		Assert.assertTrue(millis < 500, "unlimited run took " + millis);
+		Assert.assertEquals(limiter.getLimit(fileStore, IoOperation.LINK), 0.0);
+		limiter.clearLimits(fileStore);
+		Assert.assertEquals(limiter.getLimit(fileStore, IoOperation.LINK), 1.0);
+	}
+
+	/**
+	 * Verifies that links created by {@link HardLinksHandler} are throttled.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Test
+	public void testBuildHardLinksThrottled() throws IOException {
+		File sourceDir = new File(tempDir, "source");
+		File targetDir = new File(tempDir, "target");
+		FileUtils.forceMkdir(targetDir);
+		for (int i = 0; i < 10; i++) {
+			FileUtils.writeStringToFile(new File(sourceDir, "test" + i + ".mp3"), "test" + i);
+		}
+		IoRateLimiter limiter = new IoRateLimiter();
+		limiter.setLimit(IoOperation.LINK, 5);
+		HardLinksHandler handler = new HardLinksHandler(targetDir);
+		handler.setCreateMissingLinks(true);
+		handler.setRateLimiter(limiter);
+
+		long startNanos = System.nanoTime();
+		boolean linked = handler.buildHardLinks(sourceDir, new DirectoryComparator());
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+		Assert.assertTrue(linked);
+		Assert.assertEquals(targetDir.list().length, 10);
+		Assert.assertTrue(millis >= 800, "throttled run took " + millis);
+	}
+}
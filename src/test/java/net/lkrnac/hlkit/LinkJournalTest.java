@@ -0,0 +1,220 @@
+package net.lkrnac.hlkit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for {@link LinkJournal}.
+ * 
+ * @author sitko
+ * 
+ */
+public class LinkJournalTest {
+	private File tempDir;
+	private File journalFile;
+	private File sourceFile;
+	private File targetFile;
+
+	/**
+	 * Creates temporary directory with source file.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@BeforeMethod
+	public void setUp() throws IOException {
+		tempDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+		journalFile = new File(tempDir, "journal");
+		sourceFile = new File(tempDir, "source/test1.mp3");
+		targetFile = new File(tempDir, "target/test1.mp3");
+		FileUtils.writeStringToFile(sourceFile, "test1");
+		FileUtils.forceMkdir(targetFile.getParentFile());
+	}
+
+	/**
+	 * Deletes temporary directory after test.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs during deletion
+	 */
+	@AfterMethod
+	public void tidyUp() throws IOException {
+		FileUtils.deleteDirectory(tempDir);
+	}
+
+	/**
+	 * Verifies that journal is replayed after reopening and that torn record
+	 * at its end is cut off.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Test
+	public void testReplay() throws IOException {
+		File otherTarget = new File(tempDir, "target/test2.mp3");
+		try (LinkJournal journal = LinkJournal.open(journalFile, 10)) {
+			journal.intendReplacement(targetFile, sourceFile);
+			journal.intendReplacement(otherTarget, sourceFile);
+			journal.completeReplacement(otherTarget);
+			journal.completeDirectory(targetFile.getParentFile());
+		}
+		long length = journalFile.length();
+		Files.write(journalFile.toPath(), new byte[] { 0, 0, 0, 9, 1, 2 },
+				StandardOpenOption.APPEND);
+
+		// call testing method
+		try (LinkJournal journal = LinkJournal.open(journalFile, 10)) {
+			Assert.assertEquals(journal.getPendingReplacements(),
+					Collections.singletonMap(targetFile, sourceFile));
+			Assert.assertTrue(journal.isDirectoryCompleted(targetFile.getParentFile()));
+			Assert.assertFalse(journal.isDirectoryCompleted(sourceFile.getParentFile()));
+			Assert.assertEquals(journalFile.length(), length);
+		}
+	}
+
+	/**
+	 * Verifies that record bigger than write buffer of journal is written and
+	 * replayed. Record is surrounded by small records.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Test
+	public void testReplayLongRecord() throws IOException {
+		//SUPPRESS CHECKSTYLE MagicNumber 1 Path longer than half of write buffer
+		String longName = StringUtils.repeat('x', 30000);
+		File longTarget = new File(new File(tempDir, longName), longName);
+		File longSource = new File(new File(tempDir, longName), "source"); //$NON-NLS-1$
+		try (LinkJournal journal = LinkJournal.open(journalFile, 10)) {
+			journal.completeDirectory(sourceFile.getParentFile());
+			journal.intendReplacement(longTarget, longSource);
+			journal.intendReplacement(targetFile, sourceFile);
+		}
+
+		// call testing method
+		try (LinkJournal journal = LinkJournal.open(journalFile, 10)) {
+			Map<File, File> expected = new LinkedHashMap<>();
+			expected.put(longTarget, longSource);
+			expected.put(targetFile, sourceFile);
+			Assert.assertEquals(journal.getPendingReplacements(), expected);
+			Assert.assertTrue(journal.isDirectoryCompleted(sourceFile.getParentFile()));
+		}
+	}
+
+	/**
+	 * Verifies that replacement interrupted after deletion of target file is
+	 * repaired.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Test
+	public void testRepair() throws IOException {
+		File copiedFile = new File(tempDir, "target/test2.mp3");
+		FileUtils.copyFile(sourceFile, copiedFile);
+		try (LinkJournal journal = LinkJournal.open(journalFile, 10)) {
+			journal.intendReplacement(targetFile, sourceFile);
+			journal.intendReplacement(copiedFile, sourceFile);
+		}
+
+		// call testing method
+		int repaired;
+		try (LinkJournal journal = LinkJournal.open(journalFile, 10)) {
+			repaired = journal.repair();
+			Assert.assertTrue(journal.getPendingReplacements().isEmpty());
+		}
+
+		Assert.assertEquals(repaired, 1);
+		Assert.assertEquals(FileAttributes.read(targetFile).getFileKey(),
+				FileAttributes.read(sourceFile).getFileKey());
+		try (LinkJournal journal = LinkJournal.open(journalFile, 10)) {
+			Assert.assertTrue(journal.getPendingReplacements().isEmpty());
+		}
+	}
+
+	/**
+	 * Verifies that temporary hard link of interrupted replacement is deleted
+	 * by repair.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Test
+	public void testRepairDeletesTempLink() throws IOException {
+		FileUtils.copyFile(sourceFile, targetFile);
+		File tempLink = new File(tempDir, "target/.hlkit-1f.tmp");
+		Files.createLink(tempLink.toPath(), sourceFile.toPath());
+		try (LinkJournal journal = LinkJournal.open(journalFile, 10)) {
+			journal.intendReplacement(targetFile, sourceFile, tempLink);
+		}
+
+		// call testing method
+		int repaired;
+		try (LinkJournal journal = LinkJournal.open(journalFile, 10)) {
+			Assert.assertEquals(journal.getPendingTempLink(targetFile),
+					tempLink.getAbsoluteFile());
+			repaired = journal.repair();
+			Assert.assertTrue(journal.getPendingReplacements().isEmpty());
+			Assert.assertNull(journal.getPendingTempLink(targetFile));
+		}
+
+		Assert.assertEquals(repaired, 0);
+		Assert.assertFalse(tempLink.exists());
+		Assert.assertTrue(targetFile.exists());
+	}
+
+	/**
+	 * Verifies that orphaned temporary hard link in target directory doesn't
+	 * prevent directories from being recognized as mirrors.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Test
+	public void testBuildHardLinksOrphanTempLink() throws IOException {
+		FileUtils.copyFile(sourceFile, targetFile);
+		File tempLink = new File(tempDir, "target/.hlkit-2e.tmp");
+		Files.createLink(tempLink.toPath(), sourceFile.toPath());
+		HardLinksHandler handler = new HardLinksHandler(targetFile.getParentFile());
+
+		// call testing method
+		Assert.assertTrue(handler.buildHardLinks(sourceFile.getParentFile(),
+				new DirectoryComparator()));
+
+		Assert.assertTrue(handler.verifyHardLinks(sourceFile.getParentFile()));
+	}
+
+	/**
+	 * Verifies that {@link HardLinksHandler} records completed replacements.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Test
+	public void testBuildHardLinksJournaled() throws IOException {
+		FileUtils.copyFile(sourceFile, targetFile);
+		HardLinksHandler handler = new HardLinksHandler(targetFile.getParentFile());
+		try (LinkJournal journal = LinkJournal.open(journalFile, 10)) {
+			handler.setJournal(journal);
+
+			// call testing method
+			Assert.assertTrue(handler.buildHardLinks(sourceFile.getParentFile(),
+					new DirectoryComparator()));
+
+			Assert.assertTrue(journal.getPendingReplacements().isEmpty());
+		}
+		Assert.assertTrue(journalFile.length() > 0);
+	}
+}
@@ -0,0 +1,94 @@
+package net.lkrnac.hlkit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for {@link LinkPlanExecutor}.
+ *
+ * @author sitko
+ *
+ */
+public class LinkPlanExecutorTest {
+	private static final String CHANGED_FILE = "test2.mp3";
+
+	private File tempDir;
+
+	/**
+	 * Creates temporary directory for test.
+	 *
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@BeforeMethod
+	public void setUp() throws IOException {
+		tempDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+	}
+
+	/**
+	 * Deletes temporary directory after test.
+	 *
+	 * @throws IOException
+	 *             if I/O error occurs during deletion
+	 */
+	@AfterMethod
+	public void tidyUp() throws IOException {
+		FileUtils.deleteDirectory(tempDir);
+	}
+
+	/**
+	 * Tests {@link LinkPlanExecutor#execute(LinkPlan)} of up to date plan.
+	 *
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Test
+	public void testExecute() throws IOException {
+		File sourceDir = new File(tempDir, "source");
+		File targetDir = new File(tempDir, "target");
+		LinkPlanTest.createDirectories(sourceDir, targetDir);
+		LinkPlanner planner = new LinkPlanner(true);
+		planner.addDirectory(sourceDir, targetDir);
+
+		// call testing method
+		LinkPlanResult result = new LinkPlanExecutor(2).execute(planner.getPlan());
+
+		Assert.assertTrue(result.isSuccessful());
+		Assert.assertEquals(result.getAppliedCount(), 2);
+		Assert.assertTrue(new HardLinksHandler(targetDir).verifyHardLinks(sourceDir));
+	}
+
+	/**
+	 * Tests {@link LinkPlanExecutor#execute(LinkPlan)} of plan whose target
+	 * file changed after planning.
+	 *
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Test
+	public void testExecuteStale() throws IOException {
+		File sourceDir = new File(tempDir, "source");
+		File targetDir = new File(tempDir, "target");
+		LinkPlanTest.createDirectories(sourceDir, targetDir);
+		LinkPlanner planner = new LinkPlanner(true);
+		planner.addDirectory(sourceDir, targetDir);
+		File changedFile = new File(targetDir, CHANGED_FILE);
+		FileUtils.writeStringToFile(changedFile, "changed content");
+
+		// call testing method
+		LinkPlanResult result = new LinkPlanExecutor(1).execute(planner.getPlan());
+
+		Assert.assertFalse(result.isSuccessful());
+		Assert.assertEquals(result.getAppliedCount(), 1);
+		Assert.assertEquals(result.getStaleEntries().size(), 1);
+		Assert.assertEquals(result.getStaleEntries().get(0).getTargetFile(), changedFile);
+		Assert.assertEquals(FileUtils.readFileToString(changedFile), "changed content");
+	}
+}
@@ -0,0 +1,119 @@
+package net.lkrnac.hlkit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import net.lkrnac.hlkit.PlanEntry.Action;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for {@link LinkPlan} created by {@link LinkPlanner}.
+ *
+ * @author sitko
+ *
+ */
+public class LinkPlanTest {
+	private static final String[] SOURCE_FILES = { "test1.mp3", "test2.mp3", "test3.mp3" };
+	private static final String LINKED_FILE = "test1.mp3";
+	private static final String MISSING_FILE = "test3.mp3";
+
+	private File tempDir;
+
+	/**
+	 * Creates temporary directory for test.
+	 *
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@BeforeMethod
+	public void setUp() throws IOException {
+		tempDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+	}
+
+	/**
+	 * Deletes temporary directory after test.
+	 *
+	 * @throws IOException
+	 *             if I/O error occurs during deletion
+	 */
+	@AfterMethod
+	public void tidyUp() throws IOException {
+		FileUtils.deleteDirectory(tempDir);
+	}
+
+	/**
+	 * Tests plan of directory with one linked, one copied and one missing
+	 * file and its binary round trip.
+	 *
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Test
+	public void testWriteAndRead() throws IOException {
+		File sourceDir = new File(tempDir, "source");
+		File targetDir = new File(tempDir, "target");
+		createDirectories(sourceDir, targetDir);
+		LinkPlanner planner = new LinkPlanner(true);
+		planner.addDirectory(sourceDir, targetDir);
+		LinkPlan plan = planner.getPlan();
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+		// call testing methods
+		plan.writeTo(outputStream);
+		LinkPlan readPlan = LinkPlan.readFrom(new ByteArrayInputStream(outputStream
+				.toByteArray()));
+
+		Assert.assertEquals(plan.getCount(Action.SKIP), 1);
+		Assert.assertEquals(plan.getCount(Action.REPLACE), 1);
+		Assert.assertEquals(plan.getCount(Action.LINK), 1);
+		Assert.assertEquals(plan.getBytes(Action.LINK), new File(sourceDir, MISSING_FILE)
+				.length());
+		Assert.assertEquals(readPlan.getEntries(), plan.getEntries());
+		Assert.assertEquals(readPlan.getComparisonResults(), plan.getComparisonResults());
+		Assert.assertEquals(readPlan.getComparisonResults().get(targetDir),
+				DirectoryComparisonResult.MISSING_MEDIA_FILES_IN_TARGET);
+		Assert.assertEquals(new File(targetDir, MISSING_FILE).exists(), false);
+	}
+
+	/**
+	 * Tests {@link LinkPlan#readFrom(java.io.InputStream)} with stream which
+	 * doesn't contain plan.
+	 *
+	 * @throws IOException
+	 *             expected
+	 */
+	@Test(expectedExceptions = IOException.class)
+	public void testReadInvalid() throws IOException {
+		LinkPlan.readFrom(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 }));
+	}
+
+	/**
+	 * Creates source directory and target directory with one hard link and
+	 * one copy of source files.
+	 *
+	 * @param sourceDir
+	 *            source directory
+	 * @param targetDir
+	 *            target directory
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	static void createDirectories(File sourceDir, File targetDir) throws IOException {
+		for (String sourceFile : SOURCE_FILES) {
+			FileUtils.writeStringToFile(new File(sourceDir, sourceFile), sourceFile);
+		}
+		FileUtils.copyDirectory(sourceDir, targetDir);
+		new File(targetDir, MISSING_FILE).delete();
+		File linkedFile = new File(targetDir, LINKED_FILE);
+		linkedFile.delete();
+		Files.createLink(linkedFile.toPath(), new File(sourceDir, LINKED_FILE).toPath());
+	}
+}
@@ -0,0 +1,167 @@
+package net.lkrnac.hlkit;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for {@link LinkRunMetrics}.
+ *
+ * @author sitko
+ *
+ */
+public class LinkRunMetricsTest {
+	private static final String[] FILE_NAMES = { "test1.mp3", "test2.mp3", "test3.mp3" };
+	private static final String LINKED_FILE = "test1.mp3";
+
+	private File tempDir;
+
+	/**
+	 * Creates temporary directory for test.
+	 *
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@BeforeMethod
+	public void setUp() throws IOException {
+		tempDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+	}
+
+	/**
+	 * Deletes temporary directory after test.
+	 *
+	 * @throws IOException
+	 *             if I/O error occurs during deletion
+	 */
+	@AfterMethod
+	public void tidyUp() throws IOException {
+		FileUtils.deleteDirectory(tempDir);
+	}
+
+	/**
+	 * Tests metrics collected by {@link DirectoryIoFacade#buildHardLinks(File)}
+	 * . One target file is already linked, others are copies.
+	 *
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Test
+	public void testBuildHardLinks() throws IOException {
+		File sourceDir = new File(tempDir, "source");
+		File targetDir = new File(tempDir, "target");
+		for (String fileName : FILE_NAMES) {
+			FileUtils.writeStringToFile(new File(sourceDir, fileName), fileName);
+		}
+		FileUtils.copyDirectory(sourceDir, targetDir);
+		File linkedFile = new File(targetDir, LINKED_FILE);
+		linkedFile.delete();
+		Files.createLink(linkedFile.toPath(), new File(sourceDir, LINKED_FILE).toPath());
+		LinkRunMetrics metrics = new LinkRunMetrics();
+		DirectoryIoFacade facade = new DirectoryIoFacade(targetDir);
+		facade.setRunListener(metrics);
+
+		// call testing method
+		facade.buildHardLinks(sourceDir);
+
+		Assert.assertEquals(metrics.getEntriesScanned(), 2 * FILE_NAMES.length);
+		Assert.assertEquals(metrics.getStatCalls(), 2 * FILE_NAMES.length);
+		Assert.assertEquals(metrics.getLinksCreated(), FILE_NAMES.length - 1);
+		Assert.assertEquals(metrics.getLinksPresent(), 1);
+		Assert.assertEquals(metrics.getErrors(), 0);
+		Assert.assertEquals(metrics.getPhaseCount(RunPhase.LISTING), 2);
+		Assert.assertEquals(metrics.getPhaseCount(RunPhase.COMPARISON), 1);
+		Assert.assertEquals(metrics.getPhaseCount(RunPhase.LINK), FILE_NAMES.length - 1);
+		Assert.assertTrue(facade.verifyHardLinks(sourceDir));
+		Assert.assertEquals(metrics.getPhaseCount(RunPhase.VERIFICATION), 1);
+	}
+
+	/**
+	 * Tests that error swallowed by
+	 * {@link DirectoryIoFacade#buildHardLinks(File)} is reported.
+	 */
+	@Test
+	public void testBuildHardLinksError() {
+		File sourceDir = new File(tempDir, "source");
+		LinkRunMetrics metrics = new LinkRunMetrics();
+		DirectoryIoFacade facade = new DirectoryIoFacade(new File(tempDir, "target"));
+		facade.setRunListener(metrics);
+
+		// call testing method
+		facade.buildHardLinks(sourceDir);
+
+		Assert.assertEquals(metrics.getErrors(), 1);
+	}
+
+	/**
+	 * Tests {@link LinkRunMetrics#register(String)}.
+	 *
+	 * @throws JMException
+	 *             if JMX error occurs
+	 */
+	@Test
+	public void testRegister() throws JMException {
+		LinkRunMetrics metrics = new LinkRunMetrics();
+		metrics.counted(RunCounter.LINKS_CREATED, 2);
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+		// call testing method
+		ObjectName objectName = metrics.register(getClass().getSimpleName());
+
+		try {
+			Assert.assertEquals(server.getAttribute(objectName, "LinksCreated"), 2L);
+		} finally {
+			server.unregisterMBean(objectName);
+		}
+	}
+
+	/**
+	 * Builds testing data for test {@link #testPercentile(long[], double, long)}
+	 * .
+	 *
+	 * @return data for testing
+	 */
+	@DataProvider
+	public Object[][] testPercentile() {
+		//SUPPRESS CHECKSTYLE MagicNumber 8 Testing latencies
+		return new Object[][] { new Object[] { new long[] {}, 50.0, 0L },
+				new Object[] { new long[] { 1 }, 50.0, 2L },
+				new Object[] { new long[] { 100, 100, 100, 5000 }, 50.0, 128L },
+				new Object[] { new long[] { 100, 100, 100, 5000 }, 99.0, 8192L },
+				new Object[] { new long[] { 1000, 1000, 1000, 1000 }, 100.0, 1024L }, };
+	}
+
+	/**
+	 * Tests {@link LinkRunMetrics#getPhasePercentileNanos(RunPhase, double)}.
+	 *
+	 * @param latencies
+	 *            recorded latencies in nanoseconds
+	 * @param percentile
+	 *            requested percentile
+	 * @param expectedNanos
+	 *            expected upper bound of percentile bucket
+	 */
+	@Test(dataProvider = "testPercentile")
+	public void testPercentile(long[] latencies, double percentile, long expectedNanos) {
+		LinkRunMetrics metrics = new LinkRunMetrics();
+		for (long latency : latencies) {
+			metrics.phaseCompleted(RunPhase.STAT, latency);
+		}
+
+		// call testing method
+		long actualNanos = metrics.getPhasePercentileNanos(RunPhase.STAT, percentile);
+
+		Assert.assertEquals(actualNanos, expectedNanos);
+	}
+}
@@ -0,0 +1,94 @@
+package net.lkrnac.hlkit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for {@link ParallelCopier}.
+ * 
+ * @author sitko
+ * 
+ */
+public class ParallelCopierTest {
+	private File tempDir;
+
+	/**
+	 * Creates temporary directory for test.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@BeforeMethod
+	public void setUp() throws IOException {
+		tempDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+	}
+
+	/**
+	 * Deletes temporary directory after test.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs during deletion
+	 */
+	@AfterMethod
+	public void tidyUp() throws IOException {
+		FileUtils.deleteDirectory(tempDir);
+	}
+
+	/**
+	 * Tests that {@link ParallelCopier#submit(File, File, long)} copies file
+	 * with its modification time and throttles copied bytes as read bytes
+	 * chunk by chunk.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Test
+	public void testSubmit() throws IOException {
+		//SUPPRESS CHECKSTYLE MagicNumber 1 Two and half of transfer chunk
+		String content = StringUtils.repeat('x', 5 * 512 * 1024);
+		File sourceFile = new File(tempDir, "source");
+		File targetFile = new File(tempDir, "target");
+		FileUtils.writeStringToFile(sourceFile, content);
+		final AtomicLong readBytes = new AtomicLong();
+		final AtomicInteger acquires = new AtomicInteger();
+		IoRateLimiter rateLimiter = new IoRateLimiter() {
+			@Override
+			public void acquire(IoOperation operation, File directory, long permits) {
+				if (operation == IoOperation.BYTES_READ) {
+					readBytes.addAndGet(permits);
+					acquires.incrementAndGet();
+				}
+			}
+		};
+
+		// call testing method
+		//SUPPRESS CHECKSTYLE MagicNumber 1 Bound of in-flight bytes
+		ParallelCopier copier = new ParallelCopier(2, 1024, rateLimiter);
+		try {
+			copier.submit(sourceFile, targetFile, sourceFile.length());
+			copier.awaitCompletion();
+		} finally {
+			copier.close();
+		}
+
+		Assert.assertEquals(new ArrayList<>(copier.getCopiedFiles()), Arrays.asList(targetFile));
+		Assert.assertTrue(copier.getFailedFiles().isEmpty());
+		Assert.assertEquals(FileUtils.readFileToString(targetFile), content);
+		Assert.assertEquals(targetFile.lastModified(), sourceFile.lastModified());
+		Assert.assertEquals(readBytes.get(), content.length());
+		//SUPPRESS CHECKSTYLE MagicNumber 1 Number of transfer chunks
+		Assert.assertEquals(acquires.get(), 3);
+	}
+}
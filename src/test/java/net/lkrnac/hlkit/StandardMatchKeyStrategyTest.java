@@ -0,0 +1,117 @@
+package net.lkrnac.hlkit;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for {@link StandardMatchKeyStrategy}.
+ * 
+ * @author sitko
+ * 
+ */
+public class StandardMatchKeyStrategyTest {
+	private static final String NAME_NFC = "caf\u00e9.mp3"; //$NON-NLS-1$
+	private static final String NAME_NFD = "cafe\u0301.mp3"; //$NON-NLS-1$
+	private static final String NAME_UPPER = "CAF\u00c9.MP3"; //$NON-NLS-1$
+
+	/**
+	 * Prepares testing data for test
+	 * {@link StandardMatchKeyStrategyTest#testKeyOf}.
+	 * 
+	 * @return parameters for test
+	 */
+	@DataProvider
+	public Object[][] testKeyOf() {
+		StandardMatchKeyStrategy exact = new StandardMatchKeyStrategy();
+		StandardMatchKeyStrategy folded = new StandardMatchKeyStrategy(false, true, 0);
+		//SUPPRESS CHECKSTYLE MagicNumber 20 Modification times of test cases
+		StandardMatchKeyStrategy timed = new StandardMatchKeyStrategy(true, false, 2000);
+		// @formatter:off
+		return new Object[][] {
+				new Object[] { exact, NAME_NFC, 0L, NAME_NFC, 5000L, true },
+				new Object[] { exact, NAME_NFC, 0L, NAME_UPPER, 0L, false },
+				new Object[] { exact, NAME_NFC, 0L, NAME_NFD, 0L, false },
+				new Object[] { folded, NAME_NFC, 0L, NAME_UPPER, 0L, true },
+				new Object[] { folded, NAME_NFD, 0L, NAME_UPPER, 0L, true },
+				new Object[] { folded, NAME_NFC, 0L, "cafe.mp3", 0L, false }, //$NON-NLS-1$
+				new Object[] { timed, NAME_NFC, 10000L, NAME_NFC, 11999L, true },
+				new Object[] { timed, NAME_NFC, 11999L, NAME_NFC, 12000L, false },
+				new Object[] { timed, NAME_NFC, -1L, NAME_NFC, 0L, false },
+		};
+		// @formatter:on
+	}
+
+	/**
+	 * Tests {@link StandardMatchKeyStrategy#keyOf(File, FileAttributes)} of
+	 * two files with the same size. Equal keys have to have equal hash codes
+	 * and zero comparison result.
+	 * 
+	 * @param strategy
+	 *            tested strategy
+	 * @param name1
+	 *            name of first file
+	 * @param lastModified1
+	 *            modification time of first file
+	 * @param name2
+	 *            name of second file
+	 * @param lastModified2
+	 *            modification time of second file
+	 * @param expectedEqual
+	 *            flag if keys are expected to be equal
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Test(dataProvider = "testKeyOf")
+	public void testKeyOf(StandardMatchKeyStrategy strategy, String name1, long lastModified1,
+			String name2, long lastModified2, boolean expectedEqual) throws IOException {
+		MatchKey key1 = strategy.keyOf(mockFile(name1, lastModified1), null);
+		MatchKey key2 = strategy.keyOf(mockFile(name2, lastModified2), null);
+
+		Assert.assertEquals(key1.equals(key2), expectedEqual);
+		Assert.assertEquals(key1.compareTo(key2) == 0, expectedEqual);
+		if (expectedEqual) {
+			Assert.assertEquals(key1.hashCode(), key2.hashCode());
+		}
+	}
+
+	/**
+	 * Verifies that keys of different sizes differ and are ordered by size.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Test
+	public void testKeyOfSize() throws IOException {
+		File smallFile = mockFile(NAME_NFC, 0);
+		File bigFile = mockFile(NAME_NFC, 0);
+		Mockito.doReturn(2L).when(bigFile).length();
+		StandardMatchKeyStrategy strategy = new StandardMatchKeyStrategy(false, true, 0);
+
+		MatchKey smallKey = strategy.keyOf(smallFile, null);
+		MatchKey bigKey = strategy.keyOf(bigFile, null);
+
+		Assert.assertNotEquals(smallKey, bigKey);
+		Assert.assertTrue(smallKey.compareTo(bigKey) < 0);
+	}
+
+	/**
+	 * Creates file with size 1 and given modification time.
+	 * 
+	 * @param name
+	 *            file name
+	 * @param lastModified
+	 *            modification time
+	 * @return spied file
+	 */
+	private static File mockFile(String name, long lastModified) {
+		File file = Mockito.spy(new File(name));
+		Mockito.doReturn(1L).when(file).length();
+		Mockito.doReturn(lastModified).when(file).lastModified();
+		return file;
+	}
+}
@@ -0,0 +1,280 @@
+package net.lkrnac.hlkit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for {@link TreeMirror}.
+ * 
+ * @author sitko
+ * 
+ */
+public class TreeMirrorTest {
+	private static final String[] SOURCE_FILES = { "a/test1.mp3", "a/test2.mp3",
+			"a/b/test3.mp3", "c/test4.mp3" };
+	private static final String TARGET_COPY = "a/test1.mp3";
+
+	private File tempDir;
+
+	/**
+	 * Creates temporary directory for test.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@BeforeMethod
+	public void setUp() throws IOException {
+		tempDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+	}
+
+	/**
+	 * Deletes temporary directory after test.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs during deletion
+	 */
+	@AfterMethod
+	public void tidyUp() throws IOException {
+		FileUtils.deleteDirectory(tempDir);
+	}
+
+	/**
+	 * Tests {@link TreeMirror#mirror(File, File)}. Target tree contains only
+	 * copy of one source file, rest of the tree has to be created.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Test
+	public void testMirror() throws IOException {
+		File sourceRoot = new File(tempDir, "source");
+		File targetRoot = new File(tempDir, "target");
+		for (String sourceFile : SOURCE_FILES) {
+			FileUtils.writeStringToFile(new File(sourceRoot, sourceFile), sourceFile);
+		}
+		FileUtils.copyFile(new File(sourceRoot, TARGET_COPY), new File(targetRoot, TARGET_COPY));
+
+		// call testing method
+		TreeMirrorResult result = new TreeMirror(2, true).mirror(sourceRoot, targetRoot);
+
+		Assert.assertTrue(result.isSuccessful());
+		//SUPPRESS CHECKSTYLE MagicNumber 1 Number of directories with files
+		Assert.assertEquals(result.getDirectoryCount(), 3);
+		for (String sourceFile : SOURCE_FILES) {
+			Object sourceKey = FileAttributes.read(new File(sourceRoot, sourceFile)).getFileKey();
+			Object targetKey = FileAttributes.read(new File(targetRoot, sourceFile)).getFileKey();
+			Assert.assertEquals(targetKey, sourceKey, sourceFile);
+		}
+	}
+
+	/**
+	 * Tests that {@link TreeMirror#mirror(File, File)} with journal skips
+	 * directories completed by previous run.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Test
+	public void testMirrorResumed() throws IOException {
+		File sourceRoot = new File(tempDir, "source");
+		File targetRoot = new File(tempDir, "target");
+		File journalFile = new File(tempDir, "journal");
+		for (String sourceFile : SOURCE_FILES) {
+			FileUtils.writeStringToFile(new File(sourceRoot, sourceFile), sourceFile);
+		}
+		TreeMirror treeMirror = new TreeMirror(2, true);
+		try (LinkJournal journal = LinkJournal.open(journalFile, 1)) {
+			treeMirror.setJournal(journal);
+			Assert.assertTrue(treeMirror.mirror(sourceRoot, targetRoot).isSuccessful());
+		}
+		File removedLink = new File(targetRoot, SOURCE_FILES[0]);
+		Files.delete(removedLink.toPath());
+		FileUtils.writeStringToFile(new File(sourceRoot, "d/test5.mp3"), "test5");
+
+		// call testing method
+		TreeMirrorResult result;
+		try (LinkJournal journal = LinkJournal.open(journalFile, 1)) {
+			treeMirror.setJournal(journal);
+			result = treeMirror.mirror(sourceRoot, targetRoot);
+		}
+
+		Assert.assertTrue(result.isSuccessful());
+		Assert.assertEquals(result.getDirectoryCount(), 1);
+		Assert.assertFalse(removedLink.exists());
+		Assert.assertTrue(new File(targetRoot, "d/test5.mp3").exists());
+	}
+
+	/**
+	 * Tests that directory whose linking failed with I/O error isn't recorded
+	 * as completed by {@link TreeMirror#mirror(File, File)} with journal, so
+	 * resumed run processes it again.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Test
+	public void testMirrorResumedAfterLinkFailure() throws IOException {
+		File sourceRoot = new File(tempDir, "source");
+		File targetRoot = new File(tempDir, "target");
+		File journalFile = new File(tempDir, "journal");
+		for (String sourceFile : SOURCE_FILES) {
+			FileUtils.writeStringToFile(new File(sourceRoot, sourceFile), sourceFile);
+		}
+		TreeMirror treeMirror = new TreeMirror(1, true);
+		treeMirror.setRateLimiter(new IoRateLimiter() {
+			private final AtomicInteger links = new AtomicInteger();
+
+			@Override
+			public void acquire(IoOperation operation, File directory, long permits)
+					throws IOException {
+				if (operation == IoOperation.LINK && links.incrementAndGet() == 2) {
+					throw new IOException("link failed"); //$NON-NLS-1$
+				}
+			}
+		});
+		try (LinkJournal journal = LinkJournal.open(journalFile, 1)) {
+			treeMirror.setJournal(journal);
+			Assert.assertFalse(treeMirror.mirror(sourceRoot, targetRoot).isSuccessful());
+		}
+		treeMirror.setRateLimiter(null);
+
+		// call testing method
+		TreeMirrorResult result;
+		try (LinkJournal journal = LinkJournal.open(journalFile, 1)) {
+			treeMirror.setJournal(journal);
+			result = treeMirror.mirror(sourceRoot, targetRoot);
+		}
+
+		Assert.assertTrue(result.isSuccessful());
+		Assert.assertEquals(result.getDirectoryCount(), 1);
+		for (String sourceFile : SOURCE_FILES) {
+			Object sourceKey = FileAttributes.read(new File(sourceRoot, sourceFile)).getFileKey();
+			Object targetKey = FileAttributes.read(new File(targetRoot, sourceFile)).getFileKey();
+			Assert.assertEquals(targetKey, sourceKey, sourceFile);
+		}
+	}
+
+	/**
+	 * @return matching modes for
+	 *         {@link #testMirrorMatchKeyStrategy(ExternalMatching, PipelinedMatching)}
+	 */
+	@DataProvider
+	public Object[][] testMirrorMatchKeyStrategy() {
+		return new Object[][] { new Object[] { null, null },
+				new Object[] { new ExternalMatching(1, true), null },
+				new Object[] { null, new PipelinedMatching(2, 1) }, };
+	}
+
+	/**
+	 * Tests that {@link TreeMirror#mirror(File, File)} matches files by
+	 * configured match key strategy in each matching mode. Copy of source file
+	 * with upper case name in target has to be replaced by hard link instead
+	 * of creating second hard link with source name.
+	 * 
+	 * @param externalMatching
+	 *            external matching or <code>null</code>
+	 * @param pipelinedMatching
+	 *            pipelined matching or <code>null</code>
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Test(dataProvider = "testMirrorMatchKeyStrategy")
+	public void testMirrorMatchKeyStrategy(ExternalMatching externalMatching,
+			PipelinedMatching pipelinedMatching) throws IOException {
+		File sourceRoot = new File(tempDir, "source");
+		File targetRoot = new File(tempDir, "target");
+		for (String sourceFile : SOURCE_FILES) {
+			FileUtils.writeStringToFile(new File(sourceRoot, sourceFile), sourceFile);
+		}
+		File sourceCopy = new File(sourceRoot, TARGET_COPY);
+		File targetDir = new File(targetRoot, TARGET_COPY).getParentFile();
+		File targetCopy = new File(targetDir, sourceCopy.getName().toUpperCase(Locale.ROOT));
+		FileUtils.copyFile(sourceCopy, targetCopy);
+		TreeMirror treeMirror = new TreeMirror(2, true);
+		treeMirror.setExternalMatching(externalMatching);
+		treeMirror.setPipelinedMatching(pipelinedMatching);
+		treeMirror.setMatchKeyStrategy(new StandardMatchKeyStrategy(false, false, 0));
+
+		// call testing method
+		TreeMirrorResult result = treeMirror.mirror(sourceRoot, targetRoot);
+
+		Assert.assertTrue(result.isSuccessful());
+		Object sourceKey = FileAttributes.read(sourceCopy).getFileKey();
+		Assert.assertEquals(FileAttributes.read(targetCopy).getFileKey(), sourceKey);
+		Assert.assertFalse(new File(targetDir, sourceCopy.getName()).exists());
+	}
+
+	/**
+	 * Tests that {@link TreeMirror#mirror(File, File, AttributeSnapshot)}
+	 * drops listings of mirrored directories from snapshot, so that they are
+	 * listed again by next access.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Test
+	public void testMirrorEvictsDirectories() throws IOException {
+		File sourceRoot = new File(tempDir, "source");
+		File targetRoot = new File(tempDir, "target");
+		for (String sourceFile : SOURCE_FILES) {
+			FileUtils.writeStringToFile(new File(sourceRoot, sourceFile), sourceFile);
+		}
+		AttributeSnapshot snapshot = new AttributeSnapshot();
+
+		// call testing method
+		TreeMirrorResult result = new TreeMirror(2, true).mirror(sourceRoot, targetRoot,
+				snapshot);
+
+		Assert.assertTrue(result.isSuccessful());
+		long listingCount = snapshot.getListingCount();
+		snapshot.listFiles(new File(sourceRoot, "a"));
+		snapshot.listFiles(new File(targetRoot, "a"));
+		Assert.assertEquals(snapshot.getListingCount(), listingCount + 2);
+	}
+
+	/**
+	 * Tests that {@link TreeMirror#mirror(File, File)} records directory
+	 * whose linking failed with I/O error as failure, even without run
+	 * listener.
+	 * 
+	 * @throws IOException
+	 *             if I/O error occurs
+	 */
+	@Test
+	public void testMirrorLinkFailure() throws IOException {
+		File sourceRoot = new File(tempDir, "source");
+		File targetRoot = new File(tempDir, "target");
+		FileUtils.writeStringToFile(new File(sourceRoot, TARGET_COPY), TARGET_COPY);
+		final IOException linkFailure = new IOException("link failed"); //$NON-NLS-1$
+		TreeMirror treeMirror = new TreeMirror(1, true);
+		treeMirror.setRateLimiter(new IoRateLimiter() {
+			@Override
+			public void acquire(IoOperation operation, File directory, long permits)
+					throws IOException {
+				if (operation == IoOperation.LINK) {
+					throw linkFailure;
+				}
+			}
+		});
+
+		// call testing method
+		TreeMirrorResult result = treeMirror.mirror(sourceRoot, targetRoot);
+
+		Assert.assertFalse(result.isSuccessful());
+		File targetDir = new File(targetRoot, TARGET_COPY).getParentFile();
+		Assert.assertEquals(result.getFailures().keySet(), Collections.singleton(targetDir));
+		Assert.assertSame(result.getFailures().get(targetDir), linkFailure);
+	}
+}
+